@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.benchmarks;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.*;
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.w3c.dom.*;
+
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
+
+import com.hubick.xml_transformable_document.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Content and transformations shared by the benchmarks.
+ */
+@NonNullByDefault
+final class BenchmarkSupport {
+  /**
+   * The maximum number of parameters declared by the {@linkplain #newIdentityTemplates() identity stylesheet}.
+   */
+  static final int MAXIMUM_PARAMETERS = 16;
+  /**
+   * The source of the identity stylesheet, declaring {@link #MAXIMUM_PARAMETERS} (unused) parameters.
+   */
+  private static final String IDENTITY_STYLESHEET;
+  static {
+    final StringBuilder stylesheet = new StringBuilder("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">");
+    stylesheet.append("<xsl:output method=\"xml\" encoding=\"UTF-8\" />");
+    for (int i = 0; i < MAXIMUM_PARAMETERS; i++) {
+      stylesheet.append("<xsl:param name=\"p").append(i).append("\" />");
+    }
+    stylesheet.append("<xsl:template match=\"@*|node()\"><xsl:copy><xsl:apply-templates select=\"@*|node()\" /></xsl:copy></xsl:template>");
+    stylesheet.append("</xsl:stylesheet>");
+    IDENTITY_STYLESHEET = stylesheet.toString();
+  }
+
+  /**
+   * Not instantiable.
+   */
+  private BenchmarkSupport() {
+    return;
+  }
+
+  /**
+   * Compile a new identity stylesheet, which copies it's input to it's output.
+   * 
+   * @return The new {@link Templates}.
+   * @throws TransformerConfigurationException If there was a problem compiling the stylesheet.
+   */
+  static Templates newIdentityTemplates() throws TransformerConfigurationException {
+    return TransformerFactory.newInstance().newTemplates(new StreamSource(new StringReader(IDENTITY_STYLESHEET), "identity.xsl"));
+  }
+
+  /**
+   * Create a pipeline of distinct {@linkplain #newIdentityTemplates() identity stylesheets}.
+   * 
+   * @param stages The number of stages.
+   * @return The new {@link TransformationPipeline}.
+   * @throws TransformerConfigurationException If there was a problem compiling a stylesheet.
+   */
+  static TransformationPipeline newPipeline(final int stages) throws TransformerConfigurationException {
+    final ArrayList<Templates> templates = new ArrayList<Templates>(stages);
+    for (int i = 0; i < stages; i++) {
+      templates.add(newIdentityTemplates());
+    }
+    return new TransformationPipeline(templates);
+  }
+
+  /**
+   * Create a map of transformation parameters.
+   * 
+   * @param count The number of parameters, which must not exceed {@link #MAXIMUM_PARAMETERS}.
+   * @return The new parameters, or <code>null</code> if the <code>count</code> is zero.
+   */
+  static @Nullable Map<String,Object> newParameters(final int count) {
+    if (count == 0) return null;
+    final LinkedHashMap<String,Object> parameters = new LinkedHashMap<String,Object>();
+    for (int i = 0; i < count; i++) {
+      parameters.put("p" + i, "value" + i);
+    }
+    return parameters;
+  }
+
+  /**
+   * Populate the supplied (empty) document with the benchmark content.
+   * 
+   * @param document The {@link Document} to populate.
+   * @param elements The number of item elements to create.
+   */
+  static void populate(final Document document, final int elements) {
+    final Element root = document.createElementNS(XMLConstants.NULL_NS_URI, "items");
+    document.appendChild(root);
+    for (int i = 0; i < elements; i++) {
+      final Element item = document.createElementNS(XMLConstants.NULL_NS_URI, "item");
+      item.setAttributeNS(XMLConstants.NULL_NS_URI, "id", String.valueOf(i));
+      item.appendChild(document.createTextNode("Item number " + i + " & some <escaped> text."));
+      root.appendChild(item);
+    }
+    return;
+  }
+
+  /**
+   * Write the benchmark content to the supplied <code>contentHandler</code>.
+   * 
+   * @param contentHandler The {@link ContentHandler} to write to.
+   * @param elements The number of item elements to write.
+   * @throws SAXException If the <code>contentHandler</code> threw an exception.
+   */
+  static void write(final ContentHandler contentHandler, final int elements) throws SAXException {
+    final AttributesImpl attributes = new AttributesImpl();
+    contentHandler.startDocument();
+    contentHandler.startElement(XMLConstants.NULL_NS_URI, "items", "items", attributes);
+    for (int i = 0; i < elements; i++) {
+      attributes.clear();
+      attributes.addAttribute(XMLConstants.NULL_NS_URI, "id", "id", "CDATA", String.valueOf(i));
+      contentHandler.startElement(XMLConstants.NULL_NS_URI, "item", "item", attributes);
+      final char[] text = ("Item number " + i + " & some <escaped> text.").toCharArray();
+      contentHandler.characters(text, 0, text.length);
+      contentHandler.endElement(XMLConstants.NULL_NS_URI, "item", "item");
+    }
+    attributes.clear();
+    contentHandler.endElement(XMLConstants.NULL_NS_URI, "items", "items");
+    contentHandler.endDocument();
+    return;
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.benchmarks;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import javax.xml.transform.stream.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.hubick.xml_transformable_document.*;
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Benchmarks concurrent transforms of a single frozen {@link TransformableDocument} by an increasing number of threads,
+ * exposing any contention on the shared factories and (optionally) a shared {@link TransformerHandlerPool}.
+ */
+@NonNullByDefault
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentionBenchmark {
+  /**
+   * The number of item elements in the document.
+   */
+  @Param({ "10", "1000" })
+  public int elements;
+  /**
+   * The number of stages in the transformation pipeline.
+   */
+  @Param({ "1", "3" })
+  public int stages;
+  /**
+   * Share a {@link TransformerHandlerPool} between the threads?
+   */
+  @Param({ "false", "true" })
+  public boolean pooled;
+  /**
+   * The document being transformed.
+   */
+  private @Nullable TransformableDocument document = null;
+
+  /**
+   * Create and freeze the document.
+   * 
+   * @throws Exception If there was a problem creating the document.
+   */
+  @Setup
+  public void setup() throws Exception {
+    final TransformableDocument document = new TransformableDocument((org.w3c.dom.Document d) -> BenchmarkSupport.populate(d, elements));
+    document.setTransformationPipeline(BenchmarkSupport.newPipeline(stages));
+    if (pooled) document.setTransformerHandlerPool(new TransformerHandlerPool(Math.max(TransformerHandlerPool.DEFAULT_MAXIMUM_IDLE, Runtime.getRuntime().availableProcessors())));
+    document.freeze();
+    document.getDocument();
+    this.document = document;
+    return;
+  }
+
+  /**
+   * Transform the document to a stream which discards it's output.
+   * 
+   * @throws Exception If there was a problem transforming the document.
+   */
+  private void transform() throws Exception {
+    final TransformableDocument document = this.document;
+    if (document == null) throw new IllegalStateException();
+    document.transform(new StreamResult(OutputStream.nullOutputStream()));
+    return;
+  }
+
+  /**
+   * Transform the document from a single thread.
+   * 
+   * @throws Exception If there was a problem transforming the document.
+   */
+  @Benchmark
+  @Threads(1)
+  public void transform1() throws Exception {
+    transform();
+    return;
+  }
+
+  /**
+   * Transform the document from four threads.
+   * 
+   * @throws Exception If there was a problem transforming the document.
+   */
+  @Benchmark
+  @Threads(4)
+  public void transform4() throws Exception {
+    transform();
+    return;
+  }
+
+  /**
+   * Transform the document from one thread per available processor.
+   * 
+   * @throws Exception If there was a problem transforming the document.
+   */
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void transformMax() throws Exception {
+    transform();
+    return;
+  }
+
+}
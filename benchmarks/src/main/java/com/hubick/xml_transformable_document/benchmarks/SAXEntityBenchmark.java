@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.benchmarks;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import javax.xml.transform.sax.*;
+import javax.xml.transform.stream.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.xml.sax.*;
+
+import com.hubick.xml_transformable_document.sax.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Benchmarks {@linkplain SAXEntity#transform(javax.xml.transform.Result) transforming} a {@link SAXEntity} across
+ * content sizes, numbers of pipeline stages and incremental mode. Each thread transforms it's own entity, since a
+ * <code>SAXEntity</code> synchronizes it's transforms.
+ */
+@NonNullByDefault
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SAXEntityBenchmark {
+  /**
+   * The number of item elements written.
+   */
+  @Param({ "10", "1000", "50000" })
+  public int elements;
+  /**
+   * The number of stages in the transformation pipeline.
+   */
+  @Param({ "0", "1", "3" })
+  public int stages;
+  /**
+   * Use incremental transformations?
+   */
+  @Param({ "false", "true" })
+  public boolean incremental;
+  /**
+   * The entity being transformed.
+   */
+  private @Nullable SAXEntity entity = null;
+
+  /**
+   * Create the entity.
+   * 
+   * @throws Exception If there was a problem creating the entity.
+   */
+  @Setup
+  public void setup() throws Exception {
+    final int elements = this.elements;
+    final SAXEntity entity = new SAXEntity() {
+
+      @Override
+      protected void writeSAXEntity(final TransformerHandler transformerHandler) throws SAXException {
+        BenchmarkSupport.write(transformerHandler, elements);
+        return;
+      }
+
+    };
+    entity.setTransformationPipeline(BenchmarkSupport.newPipeline(stages));
+    entity.setIncremental(incremental);
+    entity.freeze();
+    this.entity = entity;
+    return;
+  }
+
+  /**
+   * Transform the entity to a stream which discards it's output.
+   * 
+   * @throws Exception If there was a problem transforming the entity.
+   */
+  @Benchmark
+  public void transform() throws Exception {
+    final SAXEntity entity = this.entity;
+    if (entity == null) throw new IllegalStateException();
+    entity.transform(new StreamResult(OutputStream.nullOutputStream()));
+    return;
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.benchmarks;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import javax.xml.transform.stream.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Benchmarks {@linkplain TransformableDocument#transform(javax.xml.transform.Result) transforming} a frozen
+ * {@link TransformableDocument} across document sizes, numbers of pipeline stages, incremental mode and parameter
+ * counts.
+ */
+@NonNullByDefault
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransformableDocumentBenchmark {
+  /**
+   * The number of item elements in the document.
+   */
+  @Param({ "10", "1000", "50000" })
+  public int elements;
+  /**
+   * The number of stages in the transformation pipeline.
+   */
+  @Param({ "0", "1", "3" })
+  public int stages;
+  /**
+   * Use incremental transformations?
+   */
+  @Param({ "false", "true" })
+  public boolean incremental;
+  /**
+   * The number of transformation parameters.
+   */
+  @Param({ "0", "8" })
+  public int parameters;
+  /**
+   * The document being transformed.
+   */
+  private @Nullable TransformableDocument document = null;
+
+  /**
+   * Create and freeze the document.
+   * 
+   * @throws Exception If there was a problem creating the document.
+   */
+  @Setup
+  public void setup() throws Exception {
+    final TransformableDocument document = new TransformableDocument((org.w3c.dom.Document d) -> BenchmarkSupport.populate(d, elements));
+    document.setTransformationPipeline(BenchmarkSupport.newPipeline(stages));
+    document.setTransformationParameters(BenchmarkSupport.newParameters(parameters));
+    document.setIncremental(incremental);
+    document.freeze();
+    document.getDocument();
+    this.document = document;
+    return;
+  }
+
+  /**
+   * Transform the document to a stream which discards it's output.
+   * 
+   * @throws Exception If there was a problem transforming the document.
+   */
+  @Benchmark
+  public void transform() throws Exception {
+    final TransformableDocument document = this.document;
+    if (document == null) throw new IllegalStateException();
+    document.transform(new StreamResult(OutputStream.nullOutputStream()));
+    return;
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.benchmarks;
+
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.concurrent.*;
+
+import javax.activation.*;
+
+import javax.ws.rs.core.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.hubick.xml_transformable_document.*;
+import com.hubick.xml_transformable_document.dom.*;
+import com.hubick.xml_transformable_document.ws.rs.provider.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Benchmarks writing a frozen {@link TransformableDocument} through the {@link TransformableEntityWriter}, as JAX-RS
+ * would, to an in-memory stream, either streamed directly or buffered to report it's length.
+ */
+@NonNullByDefault
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformableEntityWriterBenchmark {
+  /**
+   * The number of item elements in the document.
+   */
+  @Param({ "10", "1000", "50000" })
+  public int elements;
+  /**
+   * The {@linkplain TransformableEntityWriter#getMaximumBufferSize() maximum buffer size} of the writer.
+   */
+  @Param({ "0", "65536" })
+  public int maximumBufferSize;
+  /**
+   * The document being written.
+   */
+  private @Nullable TransformableDocument document = null;
+  /**
+   * The writer.
+   */
+  private @Nullable TransformableEntityWriter writer = null;
+  /**
+   * The in-memory stream the document is written to.
+   */
+  private final ByteArrayOutputStream entityStream = new ByteArrayOutputStream();
+
+  /**
+   * Create and freeze the document, and create the writer.
+   * 
+   * @throws Exception If there was a problem creating the document.
+   */
+  @Setup
+  public void setup() throws Exception {
+    final TransformableDocument document = new TransformableDocument((org.w3c.dom.Document d) -> BenchmarkSupport.populate(d, elements));
+    document.setMediaType(new MimeType("application/xml"));
+    document.setTransformationPipeline(BenchmarkSupport.newPipeline(1));
+    document.freeze();
+    document.getDocument();
+    this.document = document;
+    writer = new TransformableEntityWriter(maximumBufferSize);
+    return;
+  }
+
+  /**
+   * Write the document.
+   * 
+   * @return The number of bytes written.
+   * @throws Exception If there was a problem writing the document.
+   */
+  @Benchmark
+  public int writeTo() throws Exception {
+    final TransformableDocument document = this.document;
+    final TransformableEntityWriter writer = this.writer;
+    if ((document == null) || (writer == null)) throw new IllegalStateException();
+    entityStream.reset();
+    writer.writeTo(document, TransformableEntity.class, TransformableEntity.class, new Annotation[0], MediaType.APPLICATION_XML_TYPE, new MultivaluedHashMap<String,Object>(), entityStream);
+    return entityStream.size();
+  }
+
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * {@linkplain TransformableEntity#transform(Result) Transforms} a batch of entities in parallel, using a
+ * {@link ForkJoinPool}.
+ * 
+ * <p>
+ * The batch is recursively split across the workers of the pool, each of which transforms it's share of the entities
+ * sequentially. The {@link TransformerFactory} instances used by each transform are per-thread, so each worker reuses
+ * it's own, and entities sharing a {@link TransformerHandlerPool} (ideally with a
+ * {@linkplain TransformerHandlerPool#getMaximumIdle() maximum idle} count of at least the pool
+ * {@linkplain ForkJoinPool#getParallelism() parallelism}) and/or {@link ChannelResult.BufferPool} will also reuse
+ * handler chains and output buffers between items. A failure to transform one entity is recorded and reported once the
+ * batch is complete, without affecting the others. An entity appearing more than once in a batch must either be
+ * {@linkplain TransformableEntity#freeze() frozen} or it's transforms will be serialized.
+ * </p>
+ * 
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+@NonNullByDefault
+public class BatchTransformer {
+  /**
+   * The pool performing the transforms.
+   */
+  protected final ForkJoinPool forkJoinPool;
+
+  /**
+   * Construct a new <code>BatchTransformer</code> using the {@linkplain ForkJoinPool#commonPool() common pool}.
+   */
+  public BatchTransformer() {
+    this(ForkJoinPool.commonPool());
+    return;
+  }
+
+  /**
+   * Construct a new <code>BatchTransformer</code>.
+   * 
+   * @param forkJoinPool The {@link ForkJoinPool} to perform the transforms in.
+   */
+  public BatchTransformer(final ForkJoinPool forkJoinPool) {
+    this.forkJoinPool = forkJoinPool;
+    return;
+  }
+
+  /**
+   * Transform each entity to it's paired {@link Result}, in parallel, blocking until all have completed. The results
+   * are not closed.
+   * 
+   * @param items The entities, each paired with the {@link Result} it should be output to.
+   * @return The items which failed, in batch order, which will be empty if all succeeded.
+   */
+  public List<Failure<TransformableEntity>> transform(final Collection<? extends Map.Entry<? extends TransformableEntity,? extends Result>> items) {
+    final ArrayList<TransformableEntity> entities = new ArrayList<TransformableEntity>(items.size());
+    final ArrayList<Result> results = new ArrayList<Result>(items.size());
+    for (Map.Entry<? extends TransformableEntity,? extends Result> item : items) {
+      entities.add(item.getKey());
+      results.add(item.getValue());
+    }
+    return transform(entities, null, results);
+  }
+
+  /**
+   * Transform each entity to a {@link Result} created for it by the supplied <code>resultFactory</code>, in parallel,
+   * blocking until all have completed. Each result is {@linkplain ResultFactory#open(TransformableEntity) opened}
+   * immediately before the entity is transformed, and {@linkplain ResultFactory#close(TransformableEntity, Result)
+   * closed} immediately afterwards (whether or not the transform succeeded), so only one result per worker is open at
+   * any time.
+   * 
+   * @param <E> The type of the entities.
+   * @param entities The entities to transform.
+   * @param resultFactory The {@link ResultFactory} used to create the result for each entity.
+   * @return The entities which failed, in batch order, which will be empty if all succeeded.
+   */
+  public <E extends TransformableEntity> List<Failure<E>> transform(final Collection<? extends E> entities, final ResultFactory<? super E> resultFactory) {
+    return transform(new ArrayList<E>(entities), resultFactory, null);
+  }
+
+  /**
+   * @param <E> The type of the entities.
+   * @param entities The entities to transform.
+   * @param resultFactory The {@link ResultFactory} used to create and close the result for each entity, or
+   * <code>null</code> if the <code>results</code> are supplied.
+   * @param results The result for each entity, which won't be closed, or <code>null</code> if the
+   * <code>resultFactory</code> is supplied.
+   * @return The entities which failed, in batch order.
+   * @see #transform(Collection, ResultFactory)
+   */
+  private <E extends TransformableEntity> List<Failure<E>> transform(final List<E> entities, final @Nullable ResultFactory<? super E> resultFactory, final @Nullable List<Result> results) {
+    if (entities.isEmpty()) return Collections.emptyList();
+    final ConcurrentLinkedQueue<Failure<E>> failures = new ConcurrentLinkedQueue<Failure<E>>();
+    final int threshold = Math.max(1, entities.size() / (forkJoinPool.getParallelism() * 8));
+    forkJoinPool.invoke(new TransformTask<E>(entities, resultFactory, results, failures, 0, entities.size(), threshold));
+    final ArrayList<Failure<E>> sortedFailures = new ArrayList<Failure<E>>(failures);
+    sortedFailures.sort((f1, f2) -> Integer.compare(f1.index, f2.index));
+    return sortedFailures;
+  }
+
+  /**
+   * Creates (and closes) the {@link Result} each entity in a batch is output to.
+   * 
+   * @param <E> The type of the entities.
+   * @see BatchTransformer#transform(Collection, ResultFactory)
+   */
+  @FunctionalInterface
+  public static interface ResultFactory<E extends TransformableEntity> {
+
+    /**
+     * Create the {@link Result} the given <code>entity</code> should be output to.
+     * 
+     * @param entity The entity about to be transformed.
+     * @return The {@link Result} to output the entity to.
+     * @throws IOException If there was a problem creating the result.
+     */
+    public Result open(E entity) throws IOException;
+
+    /**
+     * Close the {@link Result} the given <code>entity</code> was output to. This default implementation closes the
+     * {@linkplain StreamResult#getOutputStream() output stream} or {@linkplain StreamResult#getWriter() writer} of a
+     * {@link StreamResult}.
+     * 
+     * @param entity The entity which was transformed.
+     * @param result The {@link Result} which was {@linkplain #open(TransformableEntity) opened} for the entity.
+     * @throws IOException If there was a problem closing the result.
+     */
+    public default void close(final E entity, final Result result) throws IOException {
+      if (!(result instanceof StreamResult)) return;
+      final OutputStream outputStream = ((StreamResult)result).getOutputStream();
+      if (outputStream != null) outputStream.close();
+      final Writer writer = ((StreamResult)result).getWriter();
+      if (writer != null) writer.close();
+      return;
+    }
+
+  }
+
+  /**
+   * An entity in a batch which couldn't be transformed.
+   * 
+   * @param <E> The type of the entity.
+   */
+  public static final class Failure<E extends TransformableEntity> {
+    /**
+     * @see #getIndex()
+     */
+    final int index;
+    /**
+     * @see #getEntity()
+     */
+    private final E entity;
+    /**
+     * @see #getException()
+     */
+    private final Exception exception;
+
+    /**
+     * Construct a new <code>Failure</code>.
+     * 
+     * @param index The {@linkplain #getIndex() index}.
+     * @param entity The {@linkplain #getEntity() entity}.
+     * @param exception The {@linkplain #getException() exception}.
+     */
+    Failure(final int index, final E entity, final Exception exception) {
+      this.index = index;
+      this.entity = entity;
+      this.exception = exception;
+      return;
+    }
+
+    /**
+     * Get the position of the entity within the batch.
+     * 
+     * @return The index of the entity.
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Get the entity which couldn't be transformed.
+     * 
+     * @return The entity.
+     */
+    public E getEntity() {
+      return entity;
+    }
+
+    /**
+     * Get the reason the entity couldn't be transformed.
+     * 
+     * @return The {@link TransformerException}, {@link IOException} or {@link RuntimeException} which was thrown.
+     */
+    public Exception getException() {
+      return exception;
+    }
+
+    @Override
+    public String toString() {
+      return "[" + index + "] " + exception;
+    }
+
+  }
+
+  /**
+   * Transforms a range of the entities in a batch, splitting it across workers while it's larger than the threshold.
+   * 
+   * @param <E> The type of the entities.
+   */
+  private static final class TransformTask<E extends TransformableEntity> extends RecursiveAction {
+    /**
+     * Required for serialization.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The entities in the batch.
+     */
+    private final List<E> entities;
+    /**
+     * The factory for each result, or <code>null</code> if the {@link #results} are supplied.
+     */
+    private final @Nullable ResultFactory<? super E> resultFactory;
+    /**
+     * The supplied results for each entity, or <code>null</code> if the {@link #resultFactory} is used.
+     */
+    private final @Nullable List<Result> results;
+    /**
+     * The failures in the batch.
+     */
+    private final ConcurrentLinkedQueue<Failure<E>> failures;
+    /**
+     * The start of the range (inclusive).
+     */
+    private final int start;
+    /**
+     * The end of the range (exclusive).
+     */
+    private final int end;
+    /**
+     * The maximum size of a range transformed without further splitting.
+     */
+    private final int threshold;
+
+    /**
+     * Construct a new <code>TransformTask</code>.
+     * 
+     * @param entities The entities in the batch.
+     * @param resultFactory The factory for each result, or <code>null</code> if the <code>results</code> are supplied.
+     * @param results The supplied results for each entity, or <code>null</code> if the <code>resultFactory</code> is
+     * used.
+     * @param failures The failures in the batch.
+     * @param start The start of the range (inclusive).
+     * @param end The end of the range (exclusive).
+     * @param threshold The maximum size of a range transformed without further splitting.
+     */
+    TransformTask(final List<E> entities, final @Nullable ResultFactory<? super E> resultFactory, final @Nullable List<Result> results, final ConcurrentLinkedQueue<Failure<E>> failures, final int start, final int end, final int threshold) {
+      this.entities = entities;
+      this.resultFactory = resultFactory;
+      this.results = results;
+      this.failures = failures;
+      this.start = start;
+      this.end = end;
+      this.threshold = threshold;
+      return;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start > threshold) {
+        final int middle = (start + end) >>> 1;
+        invokeAll(new TransformTask<E>(entities, resultFactory, results, failures, start, middle, threshold), new TransformTask<E>(entities, resultFactory, results, failures, middle, end, threshold));
+        return;
+      }
+      for (int i = start; i < end; i++) {
+        final E entity = entities.get(i);
+        try {
+          final List<Result> results = this.results;
+          if (results != null) {
+            entity.transform(results.get(i));
+            continue;
+          }
+          final ResultFactory<? super E> resultFactory = Objects.requireNonNull(this.resultFactory);
+          final Result result = resultFactory.open(entity);
+          try {
+            entity.transform(result);
+          } finally {
+            resultFactory.close(entity, result);
+          }
+        } catch (TransformerException | IOException | RuntimeException e) {
+          failures.add(new Failure<E>(i, entity, e));
+        }
+      }
+      return;
+    }
+
+  }
+
+}
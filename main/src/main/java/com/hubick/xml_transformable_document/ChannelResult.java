@@ -0,0 +1,346 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * A {@link StreamResult} which writes serialized output to a {@link WritableByteChannel} (such as a
+ * {@link FileChannel} or {@link SocketChannel}), via a pooled direct {@link ByteBuffer}.
+ * 
+ * <p>
+ * The serializer's output is encoded directly into a direct buffer {@linkplain BufferPool#acquire() acquired} from the
+ * configured {@link BufferPool}, which is drained to the channel each time it fills, and on {@link #flush()}. Writing
+ * a heap buffer to a channel causes the JDK to first copy it into a temporary direct buffer of it's own, so this avoids
+ * both that copy and any intermediate {@link OutputStream} buffering. The buffer is returned to the pool each time the
+ * output is {@linkplain #flush() flushed} (which {@link TransformableEntity#transform(Result)} does on completion), or
+ * {@linkplain #release() released} (which it does on failure, discarding any output not yet written), so a buffer is
+ * only held for the duration of a transform. The channel must be in blocking mode, and is never closed by this class.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread-safe, but the {@link BufferPool} is.
+ * </p>
+ */
+@NonNullByDefault
+public class ChannelResult extends StreamResult {
+  /**
+   * @see #getChannel()
+   */
+  protected final WritableByteChannel channel;
+  /**
+   * @see #getBufferPool()
+   */
+  protected final BufferPool bufferPool;
+  /**
+   * The stream the serializer writes to.
+   */
+  private final ChannelOutputStream channelOutputStream = new ChannelOutputStream();
+  /**
+   * @see #getBytesWritten()
+   */
+  private long bytesWritten = 0;
+
+  /**
+   * Construct a new <code>ChannelResult</code> using the {@linkplain BufferPool#getDefault() default} buffer pool.
+   * 
+   * @param channel The {@link WritableByteChannel} output should be written to.
+   */
+  public ChannelResult(final WritableByteChannel channel) {
+    this(channel, BufferPool.getDefault());
+    return;
+  }
+
+  /**
+   * Construct a new <code>ChannelResult</code>.
+   * 
+   * @param channel The {@link WritableByteChannel} output should be written to.
+   * @param bufferPool The {@link BufferPool} to acquire direct buffers from.
+   */
+  public ChannelResult(final WritableByteChannel channel, final BufferPool bufferPool) {
+    super();
+    this.channel = channel;
+    this.bufferPool = bufferPool;
+    setOutputStream(channelOutputStream);
+    return;
+  }
+
+  /**
+   * Get the {@link WritableByteChannel} output is written to.
+   * 
+   * @return The {@link WritableByteChannel}.
+   */
+  public WritableByteChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Get the {@link BufferPool} direct buffers are acquired from.
+   * 
+   * @return The {@link BufferPool}.
+   */
+  public BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Drain any buffered output to the {@linkplain #getChannel() channel}, and return the buffer to the
+   * {@linkplain #getBufferPool() pool}.
+   * 
+   * @throws IOException If there was an I/O problem writing to the channel.
+   */
+  public void flush() throws IOException {
+    channelOutputStream.flush();
+    return;
+  }
+
+  /**
+   * Discard any buffered output, and return the buffer to the {@linkplain #getBufferPool() pool}. This must be called
+   * if output is abandoned without being {@linkplain #flush() flushed}, and does nothing if no buffer is held. Further
+   * output will acquire a new buffer.
+   */
+  public void release() {
+    channelOutputStream.release();
+    return;
+  }
+
+  /**
+   * Get the number of bytes which have been written to the {@linkplain #getChannel() channel}, not including any output
+   * still held in a buffer awaiting a {@linkplain #flush() flush}.
+   * 
+   * @return The number of bytes written.
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * The {@link OutputStream} encoding output into a pooled direct buffer.
+   */
+  private final class ChannelOutputStream extends OutputStream {
+    /**
+     * The currently acquired buffer, or <code>null</code> if none is held.
+     */
+    private @Nullable ByteBuffer buffer = null;
+
+    /**
+     * Get the currently acquired buffer, acquiring one if required, and draining it to the channel if it's full.
+     * 
+     * @return The {@link ByteBuffer}, with space remaining.
+     * @throws IOException If there was an I/O problem writing to the channel.
+     */
+    private ByteBuffer buffer() throws IOException {
+      ByteBuffer buffer = this.buffer;
+      if (buffer == null) {
+        buffer = bufferPool.acquire();
+        this.buffer = buffer;
+      } else if (!buffer.hasRemaining()) {
+        drain(buffer);
+      }
+      return buffer;
+    }
+
+    /**
+     * Write the contents of the <code>buffer</code> to the channel, and clear it.
+     * 
+     * @param buffer The buffer to drain.
+     * @throws IOException If there was an I/O problem writing to the channel.
+     */
+    private void drain(final ByteBuffer buffer) throws IOException {
+      buffer.flip();
+      bytesWritten += buffer.remaining();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+      return;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      buffer().put((byte)b);
+      return;
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+      if ((off < 0) || (len < 0) || (len > b.length - off)) throw new IndexOutOfBoundsException();
+      while (len > 0) {
+        final ByteBuffer buffer = buffer();
+        final int count = Math.min(len, buffer.remaining());
+        buffer.put(b, off, count);
+        off += count;
+        len -= count;
+      }
+      return;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      final ByteBuffer buffer = this.buffer;
+      if (buffer == null) return;
+      this.buffer = null;
+      try {
+        drain(buffer);
+      } finally {
+        bufferPool.release(buffer);
+      }
+      return;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      return;
+    }
+
+    /**
+     * Discard the contents of the currently acquired buffer (if any), and return it to the pool.
+     */
+    private void release() {
+      final ByteBuffer buffer = this.buffer;
+      if (buffer == null) return;
+      this.buffer = null;
+      bufferPool.release(buffer);
+      return;
+    }
+
+  }
+
+  /**
+   * A bounded pool of direct {@link ByteBuffer}'s of a fixed size, which can be shared by any number of
+   * {@link ChannelResult}'s.
+   * 
+   * <p>
+   * This class is thread-safe.
+   * </p>
+   */
+  public static class BufferPool {
+    /**
+     * The {@linkplain #getBufferSize() buffer size} used by the {@linkplain #getDefault() default} pool.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * The {@linkplain #getMaximumPooled() maximum pooled} count used by the {@linkplain #getDefault() default} pool.
+     */
+    public static final int DEFAULT_MAXIMUM_POOLED = 16;
+    /**
+     * @see #getDefault()
+     */
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAXIMUM_POOLED);
+    /**
+     * @see #getBufferSize()
+     */
+    protected final int bufferSize;
+    /**
+     * @see #getMaximumPooled()
+     */
+    protected final int maximumPooled;
+    /**
+     * The buffers available for reuse.
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    /**
+     * The number of buffers in {@link #buffers} (or reservations for them).
+     */
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    /**
+     * Construct a new <code>BufferPool</code>.
+     * 
+     * @param bufferSize The {@linkplain #getBufferSize() buffer size}.
+     * @param maximumPooled The {@linkplain #getMaximumPooled() maximum pooled} count.
+     * @throws IllegalArgumentException If <code>bufferSize</code> isn't positive, or <code>maximumPooled</code> is
+     * negative.
+     */
+    public BufferPool(final int bufferSize, final int maximumPooled) throws IllegalArgumentException {
+      if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be positive");
+      if (maximumPooled < 0) throw new IllegalArgumentException("maximumPooled must not be negative");
+      this.bufferSize = bufferSize;
+      this.maximumPooled = maximumPooled;
+      return;
+    }
+
+    /**
+     * Get the shared default pool, of {@link #DEFAULT_MAXIMUM_POOLED} buffers of {@link #DEFAULT_BUFFER_SIZE} bytes.
+     * 
+     * @return The default {@link BufferPool}.
+     */
+    public static BufferPool getDefault() {
+      return DEFAULT;
+    }
+
+    /**
+     * Get the capacity of each buffer.
+     * 
+     * @return The buffer size, in bytes.
+     */
+    public int getBufferSize() {
+      return bufferSize;
+    }
+
+    /**
+     * Get the maximum number of idle buffers which will be retained for reuse.
+     * 
+     * @return The maximum pooled count.
+     */
+    public int getMaximumPooled() {
+      return maximumPooled;
+    }
+
+    /**
+     * Get the number of idle buffers currently retained by this pool.
+     * 
+     * @return The pooled count.
+     */
+    public int getPooledCount() {
+      return buffers.size();
+    }
+
+    /**
+     * Acquire a cleared buffer from this pool, allocating a new one if none are idle.
+     * 
+     * @return A direct {@link ByteBuffer}.
+     */
+    public ByteBuffer acquire() {
+      final ByteBuffer buffer = buffers.poll();
+      if (buffer == null) return ByteBuffer.allocateDirect(bufferSize);
+      pooledCount.decrementAndGet();
+      return buffer;
+    }
+
+    /**
+     * Return a buffer to this pool, if it isn't full.
+     * 
+     * @param buffer A {@link ByteBuffer} previously {@linkplain #acquire() acquired} from this pool, which must not be
+     * used after it's released.
+     */
+    public void release(final ByteBuffer buffer) {
+      buffer.clear();
+      if (pooledCount.incrementAndGet() > maximumPooled) {
+        pooledCount.decrementAndGet();
+        return;
+      }
+      buffers.offer(buffer);
+      return;
+    }
+
+  }
+
+}
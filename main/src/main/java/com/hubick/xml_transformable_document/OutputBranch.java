@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.util.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.sax.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * One of several outputs produced from a single traversal of an entity by
+ * {@link TransformableEntity#transform(List)}, consisting of it's own (optional) transformations, parameters and
+ * output properties, along with the {@link Result} it's output is sent to.
+ * 
+ * <p>
+ * The branch receives the output of the entity's own {@linkplain TransformableEntity#setTransformations(Iterable)
+ * configured transformations} (which are therefore only performed once, however many branches there are), and
+ * performs it's transformations on that. The output properties are applied to the last transformation of the branch,
+ * overriding any specified by it's stylesheet, or to an identity transform if the branch has no transformations.
+ * </p>
+ */
+@NonNullByDefault
+public class OutputBranch {
+  /**
+   * @see #getResult()
+   */
+  protected final Result result;
+  /**
+   * @see #getTransformations()
+   */
+  protected final @Nullable Iterable<? extends @Nullable Templates> transformations;
+  /**
+   * @see #getTransformationParameters()
+   */
+  protected final @Nullable Map<?,?> transformationParameters;
+  /**
+   * @see #getOutputProperties()
+   */
+  protected final @Nullable Properties outputProperties;
+
+  /**
+   * Construct a new <code>OutputBranch</code>.
+   * 
+   * @param result The {@linkplain #getResult() result}.
+   * @param transformations The {@linkplain #getTransformations() transformations}, or <code>null</code>.
+   * @param transformationParameters The {@linkplain #getTransformationParameters() transformation parameters}, or
+   * <code>null</code>.
+   * @param outputProperties The {@linkplain #getOutputProperties() output properties}, or <code>null</code>.
+   */
+  public OutputBranch(final Result result, final @Nullable Iterable<? extends @Nullable Templates> transformations, final @Nullable Map<?,?> transformationParameters, final @Nullable Properties outputProperties) {
+    this.result = result;
+    this.transformations = transformations;
+    this.transformationParameters = transformationParameters;
+    this.outputProperties = (outputProperties != null) ? (Properties)outputProperties.clone() : null;
+    return;
+  }
+
+  /**
+   * Construct a new <code>OutputBranch</code> without any transformations.
+   * 
+   * @param result The {@linkplain #getResult() result}.
+   * @param outputProperties The {@linkplain #getOutputProperties() output properties}, or <code>null</code>.
+   */
+  public OutputBranch(final Result result, final @Nullable Properties outputProperties) {
+    this(result, null, null, outputProperties);
+    return;
+  }
+
+  /**
+   * Get the {@link Result} the output of this branch is sent to.
+   * 
+   * @return The {@link Result}.
+   */
+  public Result getResult() {
+    return result;
+  }
+
+  /**
+   * Get the transformations performed by this branch, any <code>null</code> values within which are ignored. If this
+   * is a {@link TransformationPipeline}, it's {@linkplain TransformationPipeline#getParameters() default parameters}
+   * are also supplied.
+   * 
+   * @return The {@link Templates}, or <code>null</code> if there are none.
+   */
+  public @Nullable Iterable<? extends @Nullable Templates> getTransformations() {
+    return transformations;
+  }
+
+  /**
+   * Get the parameters {@linkplain Transformer#setParameter(String, Object) supplied} to the
+   * {@linkplain #getTransformations() transformations} of this branch.
+   * 
+   * @return A Map of parameters, or <code>null</code> if there are none.
+   */
+  public @Nullable Map<?,?> getTransformationParameters() {
+    return transformationParameters;
+  }
+
+  /**
+   * Get the {@linkplain Transformer#setOutputProperty(String, String) output properties} applied to the final output
+   * of this branch.
+   * 
+   * @return A copy of the output properties, or <code>null</code> if there are none.
+   */
+  public @Nullable Properties getOutputProperties() {
+    return (outputProperties != null) ? (Properties)outputProperties.clone() : null;
+  }
+
+  /**
+   * Construct the chain of {@link TransformerHandler}'s for this branch.
+   * 
+   * @param incremental Use incremental transformations if available?
+   * @param result The {@link Result} the chain should output to, being this branch's {@linkplain #getResult() result},
+   * or a wrapper around it.
+   * @return A {@link SAXResult} wrapping the head of the chain.
+   * @throws TransformerConfigurationException If there was a problem constructing a handler.
+   */
+  SAXResult createTransformerHandlers(final boolean incremental, final Result result) throws TransformerConfigurationException {
+    final ArrayList<@Nullable Templates> templates = new ArrayList<@Nullable Templates>();
+    if (transformations != null) {
+      for (Templates template : transformations) {
+        if (template != null) templates.add(template);
+      }
+    }
+    if (templates.isEmpty()) templates.add(null); // An identity transform.
+
+    final TransformerHandler[] transformerHandlers = new TransformerHandler[templates.size()];
+    for (int i = 0; i < transformerHandlers.length; i++) {
+      transformerHandlers[i] = TransformableEntity.newTransformerHandler(templates.get(i), incremental, TransformableEntity.ERROR_LISTENER);
+      final Transformer transformer = transformerHandlers[i].getTransformer();
+      if (transformations instanceof TransformationPipeline) TransformableEntity.setParameters(transformer, ((TransformationPipeline)transformations).getParameters());
+      TransformableEntity.setParameters(transformer, transformationParameters);
+    }
+
+    final Properties outputProperties = this.outputProperties;
+    if (outputProperties != null) {
+      final Transformer transformer = transformerHandlers[transformerHandlers.length - 1].getTransformer();
+      for (String name : outputProperties.stringPropertyNames()) {
+        transformer.setOutputProperty(name, outputProperties.getProperty(name));
+      }
+    }
+
+    for (int i = 0; i < transformerHandlers.length; i++) {
+      transformerHandlers[i].setResult((i < transformerHandlers.length - 1) ? TransformableEntity.newSAXResult(transformerHandlers[i + 1]) : result);
+    }
+    return TransformableEntity.newSAXResult(transformerHandlers[0]);
+  }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import javax.xml.transform.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * A cache of serialized entity output, bounded by the total number of bytes stored, which can be
+ * {@linkplain TransformableEntity#setOutputCache(OutputCache) configured} on any number of entities in order to avoid
+ * repeating identical {@linkplain TransformableEntity#transform(Result) transforms}.
+ * 
+ * <p>
+ * Output is keyed by the entity, it's {@linkplain TransformableEntity#getContentVersion() content version}, the
+ * identity of it's {@linkplain TransformableEntity#setTransformations(Iterable) transformations}, it's
+ * {@linkplain TransformableEntity#setTransformationParameters(Map) parameters} (compared using
+ * {@link Object#equals(Object)}), it's output settings, and the name of any encoded
+ * {@linkplain TransformableEntity#getCachedOutput(String, OutputCache.Encoder) variant} of the output. The least
+ * recently used entries are evicted once the total size exceeds the {@linkplain #getMaximumBytes() maximum}.
+ * </p>
+ * 
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+@NonNullByDefault
+public class OutputCache {
+  /**
+   * @see #getMaximumBytes()
+   */
+  protected final long maximumBytes;
+  /**
+   * The cached output, in access order. Access to this map should be synchronized for thread safety.
+   */
+  private final LinkedHashMap<Key,byte[]> entries = new LinkedHashMap<Key,byte[]>(16, 0.75f, true);
+  /**
+   * The total number of bytes in the {@link #entries}, guarded by it's lock.
+   */
+  private long size = 0;
+  /**
+   * @see #getHitCount()
+   */
+  private final AtomicLong hitCount = new AtomicLong();
+  /**
+   * @see #getMissCount()
+   */
+  private final AtomicLong missCount = new AtomicLong();
+  /**
+   * @see #getEvictionCount()
+   */
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  /**
+   * Construct a new <code>OutputCache</code>.
+   * 
+   * @param maximumBytes The {@linkplain #getMaximumBytes() maximum} number of bytes to store.
+   * @throws IllegalArgumentException If <code>maximumBytes</code> is negative.
+   */
+  public OutputCache(final long maximumBytes) throws IllegalArgumentException {
+    if (maximumBytes < 0) throw new IllegalArgumentException("maximumBytes must not be negative");
+    this.maximumBytes = maximumBytes;
+    return;
+  }
+
+  /**
+   * Get the maximum total number of bytes of output this cache will store before evicting the least recently used.
+   * Output larger than this is never cached.
+   * 
+   * @return The maximum number of bytes.
+   */
+  public long getMaximumBytes() {
+    return maximumBytes;
+  }
+
+  /**
+   * Get the total number of bytes of output currently stored.
+   * 
+   * @return The current size of this cache, in bytes.
+   */
+  public long getSize() {
+    synchronized (entries) {
+      return size;
+    }
+  }
+
+  /**
+   * Get the number of entries currently stored.
+   * 
+   * @return The number of entries.
+   */
+  public int getEntryCount() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Get the number of requests for output which were found in this cache.
+   * 
+   * @return The hit count.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Get the number of requests for output which were not found in this cache.
+   * 
+   * @return The miss count.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Get the number of entries which have been evicted to stay within the {@linkplain #getMaximumBytes() maximum} size.
+   * 
+   * @return The eviction count.
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * Remove all cached output.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      size = 0;
+    }
+    return;
+  }
+
+  /**
+   * Get the cached output for the given <code>key</code>.
+   * 
+   * @param key The {@link Key} identifying the output.
+   * @return The cached output, which must not be modified, or <code>null</code> if not found.
+   */
+  @Nullable
+  byte[] get(final Key key) {
+    final byte[] output;
+    synchronized (entries) {
+      output = entries.get(key);
+    }
+    ((output != null) ? hitCount : missCount).incrementAndGet();
+    return output;
+  }
+
+  /**
+   * Store the output for the given <code>key</code>, evicting the least recently used entries as required.
+   * 
+   * @param key The {@link Key} identifying the output.
+   * @param output The output to store, which must not be subsequently modified.
+   */
+  void put(final Key key, final byte[] output) {
+    if (output.length > maximumBytes) return;
+    synchronized (entries) {
+      final byte[] previous = entries.put(key, output);
+      if (previous != null) size -= previous.length;
+      size += output.length;
+      final Iterator<byte[]> it = entries.values().iterator();
+      while ((size > maximumBytes) && (it.hasNext())) {
+        size -= it.next().length;
+        it.remove();
+        evictionCount.incrementAndGet();
+      }
+    }
+    return;
+  }
+
+  /**
+   * Encodes the output of an entity into a variant form, such as a compressed one.
+   * 
+   * @see TransformableEntity#getCachedOutput(String, Encoder)
+   */
+  @FunctionalInterface
+  public static interface Encoder {
+
+    /**
+     * Encode the supplied <code>output</code>.
+     * 
+     * @param output The output to encode, which must not be modified.
+     * @return The encoded output.
+     * @throws IOException If there was a problem encoding the output.
+     */
+    public byte[] encode(byte[] output) throws IOException;
+
+  }
+
+  /**
+   * The key identifying a particular output of an entity.
+   */
+  static final class Key {
+    /**
+     * The unique identifier of the entity.
+     */
+    private final long entityID;
+    /**
+     * The {@linkplain TransformableEntity#getContentVersion() content version} of the entity.
+     */
+    private final long contentVersion;
+    /**
+     * The transformations, compared by identity.
+     */
+    private final Templates[] transformations;
+    /**
+     * The transformation parameters.
+     */
+    private final Map<String,Object> parameters;
+    /**
+     * The output settings.
+     */
+    private final List<@Nullable Object> outputSettings;
+    /**
+     * The name of the encoded variant of the output, or <code>null</code> for the output itself.
+     */
+    private final @Nullable String variant;
+    /**
+     * The cached hash code.
+     */
+    private final int hashCode;
+
+    /**
+     * Construct a new <code>Key</code>.
+     * 
+     * @param entityID The identifier of the entity.
+     * @param contentVersion The content version of the entity.
+     * @param transformations The (non-<code>null</code>) transformations.
+     * @param parameters The transformation parameters.
+     * @param outputSettings The output settings.
+     * @param variant The name of the encoded variant of the output, or <code>null</code> for the output itself.
+     */
+    Key(final long entityID, final long contentVersion, final Templates[] transformations, final Map<String,Object> parameters, final List<@Nullable Object> outputSettings, final @Nullable String variant) {
+      this.entityID = entityID;
+      this.contentVersion = contentVersion;
+      this.transformations = transformations;
+      this.parameters = parameters;
+      this.outputSettings = outputSettings;
+      this.variant = variant;
+      int hashCode = Long.hashCode(entityID);
+      hashCode = 31 * hashCode + Long.hashCode(contentVersion);
+      for (Templates t : transformations) {
+        hashCode = 31 * hashCode + System.identityHashCode(t);
+      }
+      hashCode = 31 * hashCode + parameters.hashCode();
+      hashCode = 31 * hashCode + outputSettings.hashCode();
+      hashCode = 31 * hashCode + Objects.hashCode(variant);
+      this.hashCode = hashCode;
+      return;
+    }
+
+    /**
+     * Create a key identifying the given encoded <code>variant</code> of the output identified by this key.
+     * 
+     * @param variant The name of the encoded variant of the output.
+     * @return The new {@link Key}.
+     */
+    Key withVariant(final String variant) {
+      return new Key(entityID, contentVersion, transformations, parameters, outputSettings, variant);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(final @Nullable Object other) {
+      if (this == other) return true;
+      if (!(other instanceof Key)) return false;
+      final Key otherKey = (Key)other;
+      if ((entityID != otherKey.entityID) || (contentVersion != otherKey.contentVersion) || (transformations.length != otherKey.transformations.length)) return false;
+      for (int i = 0; i < transformations.length; i++) {
+        if (transformations[i] != otherKey.transformations[i]) return false;
+      }
+      return (parameters.equals(otherKey.parameters)) && (outputSettings.equals(otherKey.outputSettings)) && (Objects.equals(variant, otherKey.variant));
+    }
+
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.net.*;
+
+import javax.xml.transform.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Reads and writes stylesheets precompiled at build time, allowing {@link Templates} to be loaded at runtime without
+ * parsing or compiling any XSLT.
+ * 
+ * <p>
+ * The JDK's XSLTC {@link TransformerFactory} compiles a stylesheet into translet bytecode, which it's {@link Templates}
+ * implementation holds, and can serialize. A precompiled file (conventionally named after the stylesheet with a
+ * {@link #FILE_EXTENSION} appended, as produced by the <code>xml-transformable-document-maven-plugin</code>) consists
+ * of a short header, recording the {@linkplain #getSystemID(InputStream) system ID} of the stylesheet and the Java
+ * specification version it was compiled with, followed by the serialized {@link Templates}. Since translets use the
+ * internal runtime of the JDK which compiled them, a file will only be {@linkplain #read(InputStream) read} by the
+ * same Java specification version, and an {@link InvalidClassException} is thrown otherwise, in which case the caller
+ * should fall back to compiling the stylesheet.
+ * </p>
+ * 
+ * <p>
+ * Deserialization is restricted by an {@link ObjectInputFilter} to the handful of classes making up XSLTC
+ * {@link Templates}, but those classes can define arbitrary bytecode, so precompiled files must only ever be loaded
+ * from a trusted location, such as the application's own class path, and never from user input.
+ * </p>
+ */
+@NonNullByDefault
+public final class PrecompiledTemplates {
+  /**
+   * The extension appended to the name of a stylesheet to name it's precompiled file.
+   */
+  public static final String FILE_EXTENSION = ".templates";
+  /**
+   * The value identifying a precompiled file.
+   */
+  private static final int MAGIC = 0x58544454; // "XTDT"
+  /**
+   * The version of the file format.
+   */
+  private static final int FORMAT_VERSION = 1;
+  /**
+   * The classes which may be deserialized as part of XSLTC {@link Templates}.
+   */
+  private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter("maxdepth=8;maxrefs=4096;maxarray=16777216;com.sun.org.apache.xalan.internal.xsltc.trax.TemplatesImpl;java.util.Properties;java.util.Hashtable;java.util.Map$Entry;java.lang.String;!*");
+
+  /**
+   * Not instantiable.
+   */
+  private PrecompiledTemplates() {
+    return;
+  }
+
+  /**
+   * Write the given <code>templates</code> in precompiled form.
+   * 
+   * @param templates The {@link Templates} to write, which must have been created by the JDK's (XSLTC)
+   * {@linkplain TransformerFactory#newDefaultInstance() default} {@link TransformerFactory}.
+   * @param systemID The system ID of the stylesheet the <code>templates</code> were compiled from, or
+   * <code>null</code>.
+   * @param outputStream The {@link OutputStream} to write to, which will not be closed.
+   * @throws NotSerializableException If the <code>templates</code> weren't created by XSLTC.
+   * @throws IOException If there was an I/O problem writing the <code>templates</code>.
+   */
+  public static void write(final Templates templates, final @Nullable String systemID, final OutputStream outputStream) throws NotSerializableException, IOException {
+    if (!(templates instanceof Serializable)) throw new NotSerializableException(templates.getClass().getName());
+    final DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+    dataOutputStream.writeInt(MAGIC);
+    dataOutputStream.writeInt(FORMAT_VERSION);
+    dataOutputStream.writeUTF(System.getProperty("java.specification.version"));
+    dataOutputStream.writeUTF((systemID != null) ? systemID : "");
+    final ObjectOutputStream objectOutputStream = new ObjectOutputStream(dataOutputStream);
+    objectOutputStream.writeObject(templates);
+    objectOutputStream.flush();
+    return;
+  }
+
+  /**
+   * Read the header of a precompiled file from the given <code>inputStream</code>.
+   * 
+   * @param dataInputStream The {@link DataInputStream} to read from.
+   * @return The system ID of the stylesheet, or <code>null</code> if it wasn't recorded.
+   * @throws InvalidClassException If the file was written by a different Java specification version.
+   * @throws IOException If the stream doesn't contain a precompiled file, or there was an I/O problem reading it.
+   */
+  private static @Nullable String readHeader(final DataInputStream dataInputStream) throws InvalidClassException, IOException {
+    if (dataInputStream.readInt() != MAGIC) throw new IOException("Not a precompiled stylesheet");
+    final int formatVersion = dataInputStream.readInt();
+    if (formatVersion != FORMAT_VERSION) throw new IOException("Unsupported precompiled stylesheet format version " + formatVersion);
+    final String javaVersion = dataInputStream.readUTF();
+    final String systemID = dataInputStream.readUTF();
+    if (!javaVersion.equals(System.getProperty("java.specification.version"))) throw new InvalidClassException(Templates.class.getName(), "Stylesheet '" + systemID + "' was precompiled by Java " + javaVersion + ", not " + System.getProperty("java.specification.version"));
+    return (!systemID.isEmpty()) ? systemID : null;
+  }
+
+  /**
+   * Read the system ID recorded in a precompiled file, without reading the {@link Templates}.
+   * 
+   * @param inputStream The {@link InputStream} to read from, which will not be closed.
+   * @return The system ID of the stylesheet, or <code>null</code> if it wasn't recorded.
+   * @throws InvalidClassException If the file was written by a different Java specification version.
+   * @throws IOException If the stream doesn't contain a precompiled file, or there was an I/O problem reading it.
+   */
+  public static @Nullable String getSystemID(final InputStream inputStream) throws InvalidClassException, IOException {
+    return readHeader(new DataInputStream(inputStream));
+  }
+
+  /**
+   * Read precompiled {@link Templates} from the given <code>inputStream</code>.
+   * 
+   * @param inputStream The {@link InputStream} to read from, which will not be closed, and must be trusted.
+   * @return The {@link Templates}.
+   * @throws InvalidClassException If the file was written by a different Java specification version, or contains
+   * anything other than XSLTC {@link Templates}.
+   * @throws IOException If the stream doesn't contain a precompiled file, or there was an I/O problem reading it.
+   */
+  public static Templates read(final InputStream inputStream) throws InvalidClassException, IOException {
+    final DataInputStream dataInputStream = new DataInputStream(inputStream);
+    readHeader(dataInputStream);
+    final ObjectInputStream objectInputStream = new ObjectInputStream(dataInputStream);
+    objectInputStream.setObjectInputFilter(FILTER);
+    final Object templates;
+    try {
+      templates = objectInputStream.readObject();
+    } catch (ClassNotFoundException cnfe) {
+      throw new InvalidClassException(cnfe.getMessage());
+    }
+    if (!(templates instanceof Templates)) throw new InvalidClassException(templates.getClass().getName(), "Not " + Templates.class.getName());
+    return (Templates)templates;
+  }
+
+  /**
+   * Load precompiled {@link Templates} from the given (trusted) <code>url</code>.
+   * 
+   * @param url The {@link URL} of the precompiled file.
+   * @return The {@link Templates}.
+   * @throws InvalidClassException If the file was written by a different Java specification version, or contains
+   * anything other than XSLTC {@link Templates}.
+   * @throws IOException If the <code>url</code> doesn't contain a precompiled file, or there was an I/O problem reading
+   * it.
+   * @see #read(InputStream)
+   */
+  public static Templates load(final URL url) throws InvalidClassException, IOException {
+    try (InputStream inputStream = new BufferedInputStream(url.openStream())) {
+      return read(inputStream);
+    }
+  }
+
+  /**
+   * Load the precompiled {@link Templates} for the stylesheet with the given resource <code>name</code>, relative to
+   * the supplied <code>resourceClass</code>, as produced by the <code>xml-transformable-document-maven-plugin</code>.
+   * If the <code>resourceClass</code> is in a named module, the package containing the resource must be
+   * {@linkplain Module#isOpen(String, Module) open} to this module.
+   * 
+   * @param resourceClass The {@link Class} used to {@linkplain Class#getResource(String) locate} the resource.
+   * @param name The resource name of the stylesheet (ie, <code>"page.xsl"</code>), to which the
+   * {@link #FILE_EXTENSION} will be appended.
+   * @return The {@link Templates}.
+   * @throws FileNotFoundException If the precompiled resource wasn't found.
+   * @throws InvalidClassException If the file was written by a different Java specification version, or contains
+   * anything other than XSLTC {@link Templates}.
+   * @throws IOException If there was an I/O problem reading the precompiled resource.
+   * @see #load(URL)
+   */
+  public static Templates load(final Class<?> resourceClass, final String name) throws FileNotFoundException, InvalidClassException, IOException {
+    final URL url = resourceClass.getResource(name + FILE_EXTENSION);
+    if (url == null) throw new FileNotFoundException(name + FILE_EXTENSION);
+    return load(url);
+  }
+
+}
@@ -0,0 +1,688 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.util.*;
+
+import javax.xml.transform.sax.*;
+
+import org.xml.sax.*;
+import org.xml.sax.ext.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * An immutable recording of a stream of SAX {@link ContentHandler} and {@link LexicalHandler} events, which can be
+ * {@linkplain #replay(ContentHandler, LexicalHandler) replayed} any number of times, by any number of threads
+ * concurrently.
+ * 
+ * <p>
+ * Events are stored compactly, as a single array of integer opcodes and operands referencing a table of distinct
+ * strings (so each element, attribute and namespace name is only stored once, and is {@linkplain String#intern()
+ * interned} to share it with every other recording) and a single shared character buffer holding all text content,
+ * and replay allocates nothing per event. A recording is created using a {@link Recorder}.
+ * </p>
+ */
+@NonNullByDefault
+public final class SAXEventRecording {
+  /**
+   * The opcode for {@link ContentHandler#startDocument()}.
+   */
+  private static final int START_DOCUMENT = 0;
+  /**
+   * The opcode for {@link ContentHandler#endDocument()}.
+   */
+  private static final int END_DOCUMENT = 1;
+  /**
+   * The opcode for {@link ContentHandler#startPrefixMapping(String, String)}.
+   */
+  private static final int START_PREFIX_MAPPING = 2;
+  /**
+   * The opcode for {@link ContentHandler#endPrefixMapping(String)}.
+   */
+  private static final int END_PREFIX_MAPPING = 3;
+  /**
+   * The opcode for {@link ContentHandler#startElement(String, String, String, Attributes)}.
+   */
+  private static final int START_ELEMENT = 4;
+  /**
+   * The opcode for {@link ContentHandler#endElement(String, String, String)}.
+   */
+  private static final int END_ELEMENT = 5;
+  /**
+   * The opcode for {@link ContentHandler#characters(char[], int, int)}.
+   */
+  private static final int CHARACTERS = 6;
+  /**
+   * The opcode for {@link ContentHandler#ignorableWhitespace(char[], int, int)}.
+   */
+  private static final int IGNORABLE_WHITESPACE = 7;
+  /**
+   * The opcode for {@link ContentHandler#processingInstruction(String, String)}.
+   */
+  private static final int PROCESSING_INSTRUCTION = 8;
+  /**
+   * The opcode for {@link ContentHandler#skippedEntity(String)}.
+   */
+  private static final int SKIPPED_ENTITY = 9;
+  /**
+   * The opcode for {@link LexicalHandler#startDTD(String, String, String)}.
+   */
+  private static final int START_DTD = 10;
+  /**
+   * The opcode for {@link LexicalHandler#endDTD()}.
+   */
+  private static final int END_DTD = 11;
+  /**
+   * The opcode for {@link LexicalHandler#startEntity(String)}.
+   */
+  private static final int START_ENTITY = 12;
+  /**
+   * The opcode for {@link LexicalHandler#endEntity(String)}.
+   */
+  private static final int END_ENTITY = 13;
+  /**
+   * The opcode for {@link LexicalHandler#startCDATA()}.
+   */
+  private static final int START_CDATA = 14;
+  /**
+   * The opcode for {@link LexicalHandler#endCDATA()}.
+   */
+  private static final int END_CDATA = 15;
+  /**
+   * The opcode for {@link LexicalHandler#comment(char[], int, int)}.
+   */
+  private static final int COMMENT = 16;
+  /**
+   * The number of operands stored for each attribute of a {@link #START_ELEMENT} event (URI, local name, qualified
+   * name, type and value).
+   */
+  private static final int ATTRIBUTE_SIZE = 5;
+  /**
+   * The opcodes, each followed by it's operands. String operands are indexes into {@link #strings} (or
+   * <code>-1</code> for <code>null</code>), and character operands are an offset and length within
+   * {@link #characters}.
+   */
+  private final int[] events;
+  /**
+   * The distinct strings referenced by the {@link #events}.
+   */
+  private final String[] strings;
+  /**
+   * The character content referenced by the {@link #events}.
+   */
+  private final char[] characters;
+  /**
+   * @see #getEventCount()
+   */
+  private final int eventCount;
+
+  /**
+   * Construct a new <code>SAXEventRecording</code>.
+   * 
+   * @param events The opcodes and operands.
+   * @param strings The distinct strings.
+   * @param characters The character content.
+   * @param eventCount The number of events.
+   */
+  private SAXEventRecording(final int[] events, final String[] strings, final char[] characters, final int eventCount) {
+    this.events = events;
+    this.strings = strings;
+    this.characters = characters;
+    this.eventCount = eventCount;
+    return;
+  }
+
+  /**
+   * Get the number of events in this recording.
+   * 
+   * @return The event count.
+   */
+  public int getEventCount() {
+    return eventCount;
+  }
+
+  /**
+   * Get the approximate number of bytes of heap used to store this recording, excluding the strings it references.
+   * 
+   * @return The size, in bytes.
+   */
+  public long getSize() {
+    return (events.length * 4L) + (strings.length * 8L) + (characters.length * 2L);
+  }
+
+  /**
+   * Get the string with the given index.
+   * 
+   * @param index The index within {@link #strings}, or <code>-1</code>.
+   * @return The string, or <code>null</code> if the <code>index</code> is <code>-1</code>.
+   */
+  private @Nullable String string(final int index) {
+    return (index >= 0) ? strings[index] : null;
+  }
+
+  /**
+   * Get the non-<code>null</code> string with the given index.
+   * 
+   * @param index The index within {@link #strings}.
+   * @return The string, or an empty string if the <code>index</code> is <code>-1</code>.
+   */
+  private String nonNullString(final int index) {
+    return (index >= 0) ? strings[index] : "";
+  }
+
+  /**
+   * Replay this recording into the supplied handlers.
+   * 
+   * @param contentHandler The {@link ContentHandler} to send the content events to.
+   * @param lexicalHandler The {@link LexicalHandler} to send the lexical events to, or <code>null</code> if they
+   * should be discarded.
+   * @throws SAXException If a handler threw an exception.
+   */
+  public void replay(final ContentHandler contentHandler, final @Nullable LexicalHandler lexicalHandler) throws SAXException {
+    final RecordedAttributes attributes = new RecordedAttributes();
+    int i = 0;
+    while (i < events.length) {
+      switch (events[i++]) {
+        case START_DOCUMENT:
+          contentHandler.startDocument();
+          break;
+        case END_DOCUMENT:
+          contentHandler.endDocument();
+          break;
+        case START_PREFIX_MAPPING: {
+          final String prefix = nonNullString(events[i++]);
+          contentHandler.startPrefixMapping(prefix, nonNullString(events[i++]));
+          break;
+        }
+        case END_PREFIX_MAPPING:
+          contentHandler.endPrefixMapping(nonNullString(events[i++]));
+          break;
+        case START_ELEMENT: {
+          final String uri = nonNullString(events[i++]);
+          final String localName = nonNullString(events[i++]);
+          final String qName = nonNullString(events[i++]);
+          final int length = events[i++];
+          attributes.offset = i;
+          attributes.length = length;
+          i += length * ATTRIBUTE_SIZE;
+          contentHandler.startElement(uri, localName, qName, attributes);
+          break;
+        }
+        case END_ELEMENT: {
+          final String uri = nonNullString(events[i++]);
+          final String localName = nonNullString(events[i++]);
+          contentHandler.endElement(uri, localName, nonNullString(events[i++]));
+          break;
+        }
+        case CHARACTERS: {
+          final int start = events[i++];
+          contentHandler.characters(characters, start, events[i++]);
+          break;
+        }
+        case IGNORABLE_WHITESPACE: {
+          final int start = events[i++];
+          contentHandler.ignorableWhitespace(characters, start, events[i++]);
+          break;
+        }
+        case PROCESSING_INSTRUCTION: {
+          final String target = nonNullString(events[i++]);
+          contentHandler.processingInstruction(target, string(events[i++]));
+          break;
+        }
+        case SKIPPED_ENTITY:
+          contentHandler.skippedEntity(nonNullString(events[i++]));
+          break;
+        case START_DTD: {
+          final String name = nonNullString(events[i++]);
+          final String publicId = string(events[i++]);
+          final String systemId = string(events[i++]);
+          if (lexicalHandler != null) lexicalHandler.startDTD(name, publicId, systemId);
+          break;
+        }
+        case END_DTD:
+          if (lexicalHandler != null) lexicalHandler.endDTD();
+          break;
+        case START_ENTITY: {
+          final String name = nonNullString(events[i++]);
+          if (lexicalHandler != null) lexicalHandler.startEntity(name);
+          break;
+        }
+        case END_ENTITY: {
+          final String name = nonNullString(events[i++]);
+          if (lexicalHandler != null) lexicalHandler.endEntity(name);
+          break;
+        }
+        case START_CDATA:
+          if (lexicalHandler != null) lexicalHandler.startCDATA();
+          break;
+        case END_CDATA:
+          if (lexicalHandler != null) lexicalHandler.endCDATA();
+          break;
+        case COMMENT: {
+          final int start = events[i++];
+          final int length = events[i++];
+          if (lexicalHandler != null) lexicalHandler.comment(characters, start, length);
+          break;
+        }
+        default:
+          throw new IllegalStateException("Invalid opcode " + events[i - 1]);
+      }
+    }
+    return;
+  }
+
+  /**
+   * Replay this recording into the supplied <code>result</code>.
+   * 
+   * @param result The {@link SAXResult} to send the events to.
+   * @throws SAXException If a handler threw an exception.
+   */
+  public void replay(final SAXResult result) throws SAXException {
+    final ContentHandler contentHandler = result.getHandler();
+    if (contentHandler == null) throw new IllegalArgumentException("No handler in result");
+    final LexicalHandler lexicalHandler = result.getLexicalHandler();
+    replay(contentHandler, (lexicalHandler != null) ? lexicalHandler : (contentHandler instanceof LexicalHandler) ? (LexicalHandler)contentHandler : null);
+    return;
+  }
+
+  /**
+   * The {@link Attributes} of a recorded {@link #START_ELEMENT} event, which is repositioned for each element
+   * replayed.
+   */
+  private final class RecordedAttributes implements Attributes {
+    /**
+     * The offset of the first attribute within the {@link SAXEventRecording#events events}.
+     */
+    int offset = 0;
+    /**
+     * The number of attributes.
+     */
+    int length = 0;
+
+    @Override
+    public int getLength() {
+      return length;
+    }
+
+    /**
+     * Get the operand for the given attribute.
+     * 
+     * @param index The index of the attribute.
+     * @param field The index of the operand within the attribute.
+     * @return The string referenced by the operand, or <code>null</code> if the <code>index</code> is out of range.
+     */
+    private @Nullable String get(final int index, final int field) {
+      if ((index < 0) || (index >= length)) return null;
+      return nonNullString(events[offset + (index * ATTRIBUTE_SIZE) + field]);
+    }
+
+    @Override
+    public @Nullable String getURI(final int index) {
+      return get(index, 0);
+    }
+
+    @Override
+    public @Nullable String getLocalName(final int index) {
+      return get(index, 1);
+    }
+
+    @Override
+    public @Nullable String getQName(final int index) {
+      return get(index, 2);
+    }
+
+    @Override
+    public @Nullable String getType(final int index) {
+      return get(index, 3);
+    }
+
+    @Override
+    public @Nullable String getValue(final int index) {
+      return get(index, 4);
+    }
+
+    @Override
+    public int getIndex(final @Nullable String uri, final @Nullable String localName) {
+      for (int i = 0; i < length; i++) {
+        if ((nonNullString(events[offset + (i * ATTRIBUTE_SIZE)]).equals(uri)) && (nonNullString(events[offset + (i * ATTRIBUTE_SIZE) + 1]).equals(localName))) return i;
+      }
+      return -1;
+    }
+
+    @Override
+    public int getIndex(final @Nullable String qName) {
+      for (int i = 0; i < length; i++) {
+        if (nonNullString(events[offset + (i * ATTRIBUTE_SIZE) + 2]).equals(qName)) return i;
+      }
+      return -1;
+    }
+
+    @Override
+    public @Nullable String getType(final @Nullable String uri, final @Nullable String localName) {
+      return getType(getIndex(uri, localName));
+    }
+
+    @Override
+    public @Nullable String getType(final @Nullable String qName) {
+      return getType(getIndex(qName));
+    }
+
+    @Override
+    public @Nullable String getValue(final @Nullable String uri, final @Nullable String localName) {
+      return getValue(getIndex(uri, localName));
+    }
+
+    @Override
+    public @Nullable String getValue(final @Nullable String qName) {
+      return getValue(getIndex(qName));
+    }
+
+  }
+
+  /**
+   * A {@link ContentHandler} and {@link LexicalHandler} which records the events it receives into a
+   * {@link SAXEventRecording}, optionally forwarding each of them on to another handler as it does so.
+   * 
+   * <p>
+   * This class is not thread-safe.
+   * </p>
+   */
+  public static final class Recorder implements ContentHandler, LexicalHandler {
+    /**
+     * The handler content events are forwarded to, if any.
+     */
+    private final @Nullable ContentHandler contentHandler;
+    /**
+     * The handler lexical events are forwarded to, if any.
+     */
+    private final @Nullable LexicalHandler lexicalHandler;
+    /**
+     * The recorded opcodes and operands.
+     */
+    private int[] events = new int[256];
+    /**
+     * The number of values used in {@link #events}.
+     */
+    private int eventsLength = 0;
+    /**
+     * The number of events recorded.
+     */
+    private int eventCount = 0;
+    /**
+     * The recorded character content.
+     */
+    private char[] characters = new char[1024];
+    /**
+     * The number of characters used in {@link #characters}.
+     */
+    private int charactersLength = 0;
+    /**
+     * The distinct strings recorded, in index order.
+     */
+    private final ArrayList<String> strings = new ArrayList<String>();
+    /**
+     * The index of each string within {@link #strings}.
+     */
+    private final HashMap<String,Integer> stringIndexes = new HashMap<String,Integer>();
+    /**
+     * @see #getRecording()
+     */
+    private @Nullable SAXEventRecording recording = null;
+
+    /**
+     * Construct a new <code>Recorder</code> which only records.
+     */
+    public Recorder() {
+      this(null, null);
+      return;
+    }
+
+    /**
+     * Construct a new <code>Recorder</code> which forwards each event to the supplied handlers as it's recorded.
+     * 
+     * @param contentHandler The {@link ContentHandler} to forward content events to, or <code>null</code>.
+     * @param lexicalHandler The {@link LexicalHandler} to forward lexical events to, or <code>null</code>.
+     */
+    public Recorder(final @Nullable ContentHandler contentHandler, final @Nullable LexicalHandler lexicalHandler) {
+      this.contentHandler = contentHandler;
+      this.lexicalHandler = lexicalHandler;
+      return;
+    }
+
+    /**
+     * Get the recording of the events received by this recorder.
+     * 
+     * @return The {@link SAXEventRecording}, or <code>null</code> if the {@linkplain #endDocument() end of the
+     * document} hasn't yet been received.
+     */
+    public @Nullable SAXEventRecording getRecording() {
+      return recording;
+    }
+
+    /**
+     * Ensure there is room for the given number of additional values in {@link #events}.
+     * 
+     * @param count The number of values to be added.
+     */
+    private void ensureEvents(final int count) {
+      if (eventsLength + count > events.length) events = Arrays.copyOf(events, Math.max(events.length * 2, eventsLength + count));
+      return;
+    }
+
+    /**
+     * Record an opcode.
+     * 
+     * @param opcode The opcode to record.
+     * @param operandCount The number of operands which will follow it.
+     */
+    private void opcode(final int opcode, final int operandCount) {
+      ensureEvents(1 + operandCount);
+      events[eventsLength++] = opcode;
+      eventCount++;
+      return;
+    }
+
+    /**
+     * Record a string operand.
+     * 
+     * @param string The string to record.
+     * @param name Is the <code>string</code> a name (or namespace URI), which should be {@linkplain String#intern()
+     * interned} so it's shared with every other recording?
+     */
+    private void string(final @Nullable String string, final boolean name) {
+      if (string == null) {
+        events[eventsLength++] = -1;
+        return;
+      }
+      Integer index = stringIndexes.get(string);
+      if (index == null) {
+        index = strings.size();
+        strings.add((name) ? string.intern() : string);
+        stringIndexes.put(string, index);
+      }
+      events[eventsLength++] = index;
+      return;
+    }
+
+    /**
+     * Record a character content operand.
+     * 
+     * @param ch The characters.
+     * @param start The start position in the array.
+     * @param length The number of characters to read from the array.
+     */
+    private void text(final char[] ch, final int start, final int length) {
+      if (charactersLength + length > characters.length) characters = Arrays.copyOf(characters, Math.max(characters.length * 2, charactersLength + length));
+      System.arraycopy(ch, start, characters, charactersLength, length);
+      events[eventsLength++] = charactersLength;
+      events[eventsLength++] = length;
+      charactersLength += length;
+      return;
+    }
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+      if (contentHandler != null) contentHandler.setDocumentLocator(locator);
+      return;
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+      opcode(START_DOCUMENT, 0);
+      if (contentHandler != null) contentHandler.startDocument();
+      return;
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+      opcode(END_DOCUMENT, 0);
+      recording = new SAXEventRecording(Arrays.copyOf(events, eventsLength), strings.toArray(new String[strings.size()]), Arrays.copyOf(characters, charactersLength), eventCount);
+      if (contentHandler != null) contentHandler.endDocument();
+      return;
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+      opcode(START_PREFIX_MAPPING, 2);
+      string(prefix, true);
+      string(uri, true);
+      if (contentHandler != null) contentHandler.startPrefixMapping(prefix, uri);
+      return;
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+      opcode(END_PREFIX_MAPPING, 1);
+      string(prefix, true);
+      if (contentHandler != null) contentHandler.endPrefixMapping(prefix);
+      return;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+      final int length = atts.getLength();
+      opcode(START_ELEMENT, 4 + (length * ATTRIBUTE_SIZE));
+      string(uri, true);
+      string(localName, true);
+      string(qName, true);
+      events[eventsLength++] = length;
+      for (int i = 0; i < length; i++) {
+        string(atts.getURI(i), true);
+        string(atts.getLocalName(i), true);
+        string(atts.getQName(i), true);
+        string(atts.getType(i), true);
+        string(atts.getValue(i), false);
+      }
+      if (contentHandler != null) contentHandler.startElement(uri, localName, qName, atts);
+      return;
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+      opcode(END_ELEMENT, 3);
+      string(uri, true);
+      string(localName, true);
+      string(qName, true);
+      if (contentHandler != null) contentHandler.endElement(uri, localName, qName);
+      return;
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+      opcode(CHARACTERS, 2);
+      text(ch, start, length);
+      if (contentHandler != null) contentHandler.characters(ch, start, length);
+      return;
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+      opcode(IGNORABLE_WHITESPACE, 2);
+      text(ch, start, length);
+      if (contentHandler != null) contentHandler.ignorableWhitespace(ch, start, length);
+      return;
+    }
+
+    @Override
+    public void processingInstruction(final String target, final @Nullable String data) throws SAXException {
+      opcode(PROCESSING_INSTRUCTION, 2);
+      string(target, true);
+      string(data, false);
+      if (contentHandler != null) contentHandler.processingInstruction(target, data);
+      return;
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+      opcode(SKIPPED_ENTITY, 1);
+      string(name, true);
+      if (contentHandler != null) contentHandler.skippedEntity(name);
+      return;
+    }
+
+    @Override
+    public void startDTD(final String name, final @Nullable String publicId, final @Nullable String systemId) throws SAXException {
+      opcode(START_DTD, 3);
+      string(name, true);
+      string(publicId, false);
+      string(systemId, false);
+      if (lexicalHandler != null) lexicalHandler.startDTD(name, publicId, systemId);
+      return;
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+      opcode(END_DTD, 0);
+      if (lexicalHandler != null) lexicalHandler.endDTD();
+      return;
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+      opcode(START_ENTITY, 1);
+      string(name, true);
+      if (lexicalHandler != null) lexicalHandler.startEntity(name);
+      return;
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+      opcode(END_ENTITY, 1);
+      string(name, true);
+      if (lexicalHandler != null) lexicalHandler.endEntity(name);
+      return;
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+      opcode(START_CDATA, 0);
+      if (lexicalHandler != null) lexicalHandler.startCDATA();
+      return;
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+      opcode(END_CDATA, 0);
+      if (lexicalHandler != null) lexicalHandler.endCDATA();
+      return;
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+      opcode(COMMENT, 2);
+      text(ch, start, length);
+      if (lexicalHandler != null) lexicalHandler.comment(ch, start, length);
+      return;
+    }
+
+  }
+
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * A bounded cache of compiled {@link Templates}, keyed by the {@link URI} of the stylesheet they were compiled from,
+ * suitable for supplying the {@linkplain TransformableEntity#setTransformations(Iterable) transformations} of an
+ * entity.
+ * 
+ * <p>
+ * Each stylesheet is compiled at most once, the least recently used entries are evicted once the cache exceeds it's
+ * {@linkplain #getMaximumSize() maximum size}, and, if a {@linkplain #getCheckInterval() check interval} is
+ * configured, the modification time of the stylesheet is checked (at most once per interval, on access) and the
+ * cached {@link Templates} are atomically replaced with a recompiled version when it changes. While one thread is
+ * recompiling a stylesheet, other threads continue to be served the previous version. If recompilation fails, the
+ * previous version continues to be served until the stylesheet is modified again. Note that only the modification
+ * time of the stylesheet itself is checked, not that of any stylesheets it imports or includes.
+ * </p>
+ * 
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+@NonNullByDefault
+public class TemplatesCache {
+  /**
+   * The {@linkplain #getMaximumSize() maximum size} used by the {@linkplain #TemplatesCache() default constructor}.
+   */
+  public static final int DEFAULT_MAXIMUM_SIZE = 256;
+  /**
+   * The {@linkplain #getSystemID(Templates) system ID} of every {@link Templates} compiled by any cache, weakly
+   * referenced so as not to prevent them being collected once evicted.
+   */
+  private static final Map<Templates,String> SYSTEM_IDS = Collections.synchronizedMap(new WeakHashMap<Templates,String>());
+  /**
+   * The {@link TransformerFactory} used to compile stylesheets. Access to this factory should be synchronized for
+   * thread safety.
+   */
+  protected final TransformerFactory transformerFactory;
+  /**
+   * @see #getMaximumSize()
+   */
+  protected final int maximumSize;
+  /**
+   * @see #getCheckInterval()
+   */
+  protected final @Nullable Duration checkInterval;
+  /**
+   * The cached entries, in access order. Access to this map should be synchronized for thread safety.
+   */
+  private final LinkedHashMap<URI,CacheEntry> entries;
+
+  /**
+   * Construct a new <code>TemplatesCache</code> holding up to {@link #DEFAULT_MAXIMUM_SIZE} stylesheets, which never
+   * checks for stylesheet modifications.
+   */
+  public TemplatesCache() {
+    this(DEFAULT_MAXIMUM_SIZE, null);
+    return;
+  }
+
+  /**
+   * Construct a new <code>TemplatesCache</code>.
+   * 
+   * @param maximumSize The {@linkplain #getMaximumSize() maximum size} of the cache.
+   * @param checkInterval The {@linkplain #getCheckInterval() check interval}, or <code>null</code> if stylesheets
+   * should never be checked for modification.
+   * @throws IllegalArgumentException If <code>maximumSize</code> is less than one, or <code>checkInterval</code> is
+   * negative.
+   */
+  public TemplatesCache(final int maximumSize, final @Nullable Duration checkInterval) throws IllegalArgumentException {
+    this(TransformerFactory.newInstance(), maximumSize, checkInterval);
+    return;
+  }
+
+  /**
+   * Construct a new <code>TemplatesCache</code>.
+   * 
+   * @param transformerFactory The {@link TransformerFactory} which will be used to compile stylesheets.
+   * @param maximumSize The {@linkplain #getMaximumSize() maximum size} of the cache.
+   * @param checkInterval The {@linkplain #getCheckInterval() check interval}, or <code>null</code> if stylesheets
+   * should never be checked for modification.
+   * @throws IllegalArgumentException If <code>maximumSize</code> is less than one, or <code>checkInterval</code> is
+   * negative.
+   */
+  public TemplatesCache(final TransformerFactory transformerFactory, final int maximumSize, final @Nullable Duration checkInterval) throws IllegalArgumentException {
+    if (maximumSize < 1) throw new IllegalArgumentException("maximumSize must be positive");
+    if ((checkInterval != null) && (checkInterval.isNegative())) throw new IllegalArgumentException("checkInterval must not be negative");
+    this.transformerFactory = transformerFactory;
+    this.maximumSize = maximumSize;
+    this.checkInterval = checkInterval;
+    entries = new LinkedHashMap<URI,CacheEntry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<URI,CacheEntry> eldest) {
+        return size() > TemplatesCache.this.maximumSize;
+      }
+
+    };
+    return;
+  }
+
+  /**
+   * Get the maximum number of compiled stylesheets this cache will hold before evicting the least recently used.
+   * 
+   * @return The maximum size of this cache.
+   */
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  /**
+   * Get the minimum amount of time which will elapse between checks of a stylesheet's modification time.
+   * 
+   * @return The check interval, or <code>null</code> if stylesheets are never checked for modification.
+   */
+  public @Nullable Duration getCheckInterval() {
+    return checkInterval;
+  }
+
+  /**
+   * Get the compiled {@link Templates} for the stylesheet at the given <code>uri</code>, compiling it if it isn't
+   * already cached, or if it has been modified since it was compiled.
+   * 
+   * @param uri The {@link URI} of the stylesheet.
+   * @return The compiled {@link Templates}.
+   * @throws TransformerConfigurationException If there was a problem compiling the stylesheet.
+   * @throws IOException If there was an I/O problem reading the stylesheet.
+   */
+  public Templates getTemplates(final URI uri) throws TransformerConfigurationException, IOException {
+    CacheEntry entry;
+    synchronized (entries) {
+      entry = entries.get(uri);
+      if (entry == null) {
+        entry = new CacheEntry(uri);
+        entries.put(uri, entry);
+      }
+    }
+    return entry.getTemplates();
+  }
+
+  /**
+   * Get the compiled {@link Templates} for the stylesheet at the given <code>url</code>.
+   * 
+   * @param url The {@link URL} of the stylesheet.
+   * @return The compiled {@link Templates}.
+   * @throws TransformerConfigurationException If there was a problem compiling the stylesheet.
+   * @throws IOException If there was an I/O problem reading the stylesheet, or the <code>url</code> couldn't be
+   * converted to a {@link URI}.
+   * @see #getTemplates(URI)
+   */
+  public Templates getTemplates(final URL url) throws TransformerConfigurationException, IOException {
+    try {
+      return getTemplates(url.toURI());
+    } catch (URISyntaxException use) {
+      throw new IOException(use.getMessage(), use);
+    }
+  }
+
+  /**
+   * Remove any cached {@link Templates} for the stylesheet at the given <code>uri</code>, forcing it to be recompiled
+   * on next access.
+   * 
+   * @param uri The {@link URI} of the stylesheet.
+   */
+  public void invalidate(final URI uri) {
+    synchronized (entries) {
+      entries.remove(uri);
+    }
+    return;
+  }
+
+  /**
+   * Remove all cached {@link Templates}.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+    return;
+  }
+
+  /**
+   * Get the number of stylesheets currently cached.
+   * 
+   * @return The number of cached entries.
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Get the system ID of the stylesheet the given <code>templates</code> were compiled from, if they were compiled by a
+   * <code>TemplatesCache</code>, since {@link Templates} don't otherwise expose it. This is used to identify the stages
+   * of a transform in diagnostics.
+   * 
+   * @param templates The {@link Templates} to look up.
+   * @return The system ID, or <code>null</code> if the <code>templates</code> weren't compiled by a
+   * <code>TemplatesCache</code>.
+   */
+  public static @Nullable String getSystemID(final Templates templates) {
+    return SYSTEM_IDS.get(templates);
+  }
+
+  /**
+   * Compile the stylesheet at the given <code>uri</code>.
+   * 
+   * @param uri The {@link URI} of the stylesheet.
+   * @return The compiled {@link Templates}.
+   * @throws TransformerConfigurationException If there was a problem compiling the stylesheet.
+   * @throws IOException If there was an I/O problem reading the stylesheet.
+   */
+  protected Templates compile(final URI uri) throws TransformerConfigurationException, IOException {
+    try (InputStream inputStream = uri.toURL().openStream()) {
+      final StreamSource templatesSource = new StreamSource(inputStream);
+      templatesSource.setSystemId(uri.toString());
+      synchronized (transformerFactory) {
+        transformerFactory.setErrorListener(TransformableEntity.ERROR_LISTENER);
+        return transformerFactory.newTemplates(templatesSource);
+      }
+    }
+  }
+
+  /**
+   * Get the modification time of the stylesheet at the given <code>uri</code>.
+   * 
+   * @param uri The {@link URI} of the stylesheet.
+   * @return The modification time, in milliseconds since the epoch, or zero if it isn't known.
+   * @throws IOException If there was an I/O problem reading the modification time.
+   */
+  protected long getLastModified(final URI uri) throws IOException {
+    if ("file".equals(uri.getScheme())) {
+      try {
+        return Files.getLastModifiedTime(Paths.get(uri)).toMillis();
+      } catch (NoSuchFileException nsfe) {
+        return 0;
+      }
+    }
+    final URLConnection urlConnection = uri.toURL().openConnection();
+    urlConnection.setUseCaches(false);
+    try {
+      return urlConnection.getLastModified();
+    } finally {
+      if (urlConnection instanceof HttpURLConnection) ((HttpURLConnection)urlConnection).disconnect();
+    }
+  }
+
+  /**
+   * A cache entry holding the current compiled version of a stylesheet.
+   */
+  private final class CacheEntry {
+    /**
+     * The {@link URI} of the stylesheet.
+     */
+    private final URI uri;
+    /**
+     * The current compiled {@link Templates}, or <code>null</code> if not yet compiled. Compilation is synchronized on
+     * this entry.
+     */
+    private volatile @Nullable Templates templates = null;
+    /**
+     * The modification time of the stylesheet when the current {@link #templates} were compiled.
+     */
+    private volatile long lastModified = 0;
+    /**
+     * The {@link System#nanoTime()} the stylesheet modification time was last checked.
+     */
+    private final AtomicLong lastChecked = new AtomicLong();
+
+    /**
+     * Construct a new <code>CacheEntry</code>.
+     * 
+     * @param uri The {@link URI} of the stylesheet.
+     */
+    CacheEntry(final URI uri) {
+      this.uri = uri;
+      return;
+    }
+
+    /**
+     * Get the current compiled {@link Templates}, compiling or recompiling them if required.
+     * 
+     * @return The compiled {@link Templates}.
+     * @throws TransformerConfigurationException If there was a problem compiling the stylesheet.
+     * @throws IOException If there was an I/O problem reading the stylesheet.
+     */
+    Templates getTemplates() throws TransformerConfigurationException, IOException {
+      final Templates current = templates;
+      if (current == null) {
+        synchronized (this) {
+          final Templates compiled = templates;
+          if (compiled != null) return compiled;
+          final long modified = (checkInterval != null) ? getLastModified(uri) : 0;
+          final Templates newTemplates = compile(uri);
+          SYSTEM_IDS.put(newTemplates, uri.toString());
+          lastModified = modified;
+          lastChecked.set(System.nanoTime());
+          templates = newTemplates;
+          return newTemplates;
+        }
+      }
+
+      final Duration checkInterval = TemplatesCache.this.checkInterval;
+      if (checkInterval == null) return current;
+      final long now = System.nanoTime();
+      final long checked = lastChecked.get();
+      if (now - checked < checkInterval.toNanos()) return current;
+      if (!lastChecked.compareAndSet(checked, now)) return current; // Another thread is performing the check.
+
+      synchronized (this) {
+        try {
+          final long modified = getLastModified(uri);
+          if (modified == lastModified) return current;
+          lastModified = modified; // Whether or not compilation succeeds, don't retry until modified again.
+          final Templates newTemplates = compile(uri);
+          SYSTEM_IDS.put(newTemplates, uri.toString());
+          templates = newTemplates;
+          return newTemplates;
+        } catch (TransformerConfigurationException | IOException e) {
+          Logger.getLogger(TemplatesCache.class.getName() + ".getTemplates." + e.getClass().getSimpleName()).log(Level.WARNING, "Error recompiling '" + uri + "', continuing to use previous version: " + e.getMessage(), e);
+          return current;
+        }
+      }
+    }
+
+  }
+
+}
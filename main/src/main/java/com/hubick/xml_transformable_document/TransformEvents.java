@@ -0,0 +1,381 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import javax.xml.transform.sax.*;
+
+import jdk.jfr.*;
+
+import org.xml.sax.*;
+import org.xml.sax.ext.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * The <a href="https://docs.oracle.com/en/java/javase/11/jfapi/">JDK Flight Recorder</a> events emitted by
+ * {@link TransformableEntity}, allowing a slow transform to be correlated with the GC, lock and I/O events in the same
+ * recording, and attributed to the stage of the pipeline responsible.
+ * 
+ * <p>
+ * Every event is created and checked using {@link Event#isEnabled()} before any data is gathered for it, so the cost
+ * while no recording is running is a single (typically eliminated) allocation per transform. In particular, the
+ * {@link Stage} probes are only inserted into a handler chain while that event is enabled, and chains containing them
+ * are never {@linkplain TransformerHandlerPool pooled}.
+ * </p>
+ */
+@NonNullByDefault
+final class TransformEvents {
+  /**
+   * The {@linkplain Category category} of every event.
+   */
+  private static final String CATEGORY = "XML Transformable Document";
+
+  /**
+   * Not instantiable.
+   */
+  private TransformEvents() {
+    return;
+  }
+
+  /**
+   * Get the name of the given <code>transformations</code>.
+   * 
+   * @param transformations The transformations.
+   * @return The {@linkplain TransformationPipeline#getName() pipeline name}, or <code>null</code> if there isn't one.
+   */
+  static @Nullable String getPipelineName(final @Nullable Iterable<?> transformations) {
+    return (transformations instanceof TransformationPipeline) ? ((TransformationPipeline)transformations).getName() : null;
+  }
+
+  /**
+   * A {@linkplain TransformableEntity#transform(javax.xml.transform.Result) transform} of an entity.
+   */
+  @Name("com.hubick.xml_transformable_document.Transform")
+  @Label("Transform")
+  @Category(CATEGORY)
+  @Description("A transform of a TransformableEntity")
+  static final class Transform extends Event {
+    /**
+     * The class of the entity.
+     */
+    @Label("Entity Class")
+    @Nullable Class<?> entityClass;
+    /**
+     * The name of the pipeline.
+     */
+    @Label("Pipeline")
+    @Nullable String pipeline;
+    /**
+     * Were transforms incremental?
+     */
+    @Label("Incremental")
+    boolean incremental;
+    /**
+     * The number of bytes output.
+     */
+    @Label("Output Bytes")
+    @Description("The number of bytes output, or -1 if unknown")
+    @DataAmount
+    long outputBytes;
+    /**
+     * The class of the exception which caused the transform to fail.
+     */
+    @Label("Exception")
+    @Nullable String exception;
+
+  }
+
+  /**
+   * The {@linkplain TransformableEntity#createTransformerHandlers(javax.xml.transform.Result) construction} (or
+   * acquisition from a pool) of a chain of {@link TransformerHandler}'s.
+   */
+  @Name("com.hubick.xml_transformable_document.HandlerChain")
+  @Label("Handler Chain Construction")
+  @Category(CATEGORY)
+  @Description("The construction of the chain of TransformerHandlers for a transform")
+  static final class HandlerChain extends Event {
+    /**
+     * The class of the entity.
+     */
+    @Label("Entity Class")
+    @Nullable Class<?> entityClass;
+    /**
+     * The name of the pipeline.
+     */
+    @Label("Pipeline")
+    @Nullable String pipeline;
+    /**
+     * Were the handlers incremental?
+     */
+    @Label("Incremental")
+    boolean incremental;
+    /**
+     * Was the chain acquired from a {@link TransformerHandlerPool}?
+     */
+    @Label("Pooled")
+    boolean pooled;
+
+  }
+
+  /**
+   * The work performed by a single stage of a chain of {@link TransformerHandler}'s. Since the stages of a chain
+   * process their input concurrently, as it's streamed through them, each event spans the whole transform, and it's
+   * {@linkplain #selfTime self time} reports the time spent in the stage itself, excluding the stages following it.
+   */
+  @Name("com.hubick.xml_transformable_document.Stage")
+  @Label("Transform Stage")
+  @Category(CATEGORY)
+  @Description("The work performed by a single stage of a transform")
+  @StackTrace(false)
+  static final class Stage extends Event {
+    /**
+     * The class of the entity.
+     */
+    @Label("Entity Class")
+    @Nullable Class<?> entityClass;
+    /**
+     * The name of the pipeline.
+     */
+    @Label("Pipeline")
+    @Nullable String pipeline;
+    /**
+     * The position of the stage within the chain.
+     */
+    @Label("Stage")
+    int stage;
+    /**
+     * The system ID of the stylesheet.
+     */
+    @Label("Stylesheet")
+    @Description("The system ID of the stylesheet, if compiled by a TemplatesCache")
+    @Nullable String stylesheet;
+    /**
+     * Was the handler incremental?
+     */
+    @Label("Incremental")
+    boolean incremental;
+    /**
+     * The number of characters of content input to the stage.
+     */
+    @Label("Characters In")
+    long charactersIn;
+    /**
+     * The number of characters of content output by the stage.
+     */
+    @Label("Characters Out")
+    @Description("The number of characters of content output, or -1 if the output was serialized directly")
+    long charactersOut;
+    /**
+     * The time spent in the stage itself.
+     */
+    @Label("Self Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long selfTime;
+
+  }
+
+  /**
+   * Inserted ahead of a stage of a handler chain while the {@link Stage} event is enabled, timing the calls into the
+   * stage and counting the characters passed to it, and committing the event once the document ends.
+   */
+  static final class StageProbe implements ContentHandler, LexicalHandler {
+    /**
+     * The handler for the stage.
+     */
+    private final TransformerHandler transformerHandler;
+    /**
+     * The event being recorded.
+     */
+    private final Stage event = new Stage();
+    /**
+     * The probe for the following stage, or <code>null</code> if this is the last.
+     */
+    @Nullable StageProbe next = null;
+    /**
+     * The time spent in calls to the stage, including the stages following it.
+     */
+    private long nanos = 0;
+
+    /**
+     * Construct a new <code>StageProbe</code>.
+     * 
+     * @param transformerHandler The handler for the stage.
+     * @param entityClass The class of the entity.
+     * @param pipeline The name of the pipeline, or <code>null</code>.
+     * @param stage The position of the stage within the chain.
+     * @param stylesheet The system ID of the stylesheet, or <code>null</code>.
+     * @param incremental Is the handler incremental?
+     */
+    StageProbe(final TransformerHandler transformerHandler, final Class<?> entityClass, final @Nullable String pipeline, final int stage, final @Nullable String stylesheet, final boolean incremental) {
+      this.transformerHandler = transformerHandler;
+      event.entityClass = entityClass;
+      event.pipeline = pipeline;
+      event.stage = stage;
+      event.stylesheet = stylesheet;
+      event.incremental = incremental;
+      return;
+    }
+
+    /**
+     * Create a {@link SAXResult} feeding the stage through this probe.
+     * 
+     * @return The new {@link SAXResult}.
+     */
+    SAXResult newSAXResult() {
+      final SAXResult saxResult = new SAXResult(this);
+      saxResult.setLexicalHandler(this);
+      if (transformerHandler.getSystemId() != null) saxResult.setSystemId(transformerHandler.getSystemId());
+      return saxResult;
+    }
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+      transformerHandler.setDocumentLocator(locator);
+      return;
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+      event.begin();
+      final long start = System.nanoTime();
+      transformerHandler.startDocument();
+      nanos += System.nanoTime() - start;
+      return;
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+      final long start = System.nanoTime();
+      transformerHandler.endDocument();
+      nanos += System.nanoTime() - start;
+      event.end();
+      if (event.shouldCommit()) {
+        final StageProbe next = this.next;
+        event.charactersOut = (next != null) ? next.event.charactersIn : -1;
+        event.selfTime = nanos - ((next != null) ? next.nanos : 0);
+        event.commit();
+      }
+      return;
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+      final long start = System.nanoTime();
+      transformerHandler.startPrefixMapping(prefix, uri);
+      nanos += System.nanoTime() - start;
+      return;
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+      final long start = System.nanoTime();
+      transformerHandler.endPrefixMapping(prefix);
+      nanos += System.nanoTime() - start;
+      return;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+      final long start = System.nanoTime();
+      transformerHandler.startElement(uri, localName, qName, atts);
+      nanos += System.nanoTime() - start;
+      return;
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+      final long start = System.nanoTime();
+      transformerHandler.endElement(uri, localName, qName);
+      nanos += System.nanoTime() - start;
+      return;
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+      event.charactersIn += length;
+      final long startNanos = System.nanoTime();
+      transformerHandler.characters(ch, start, length);
+      nanos += System.nanoTime() - startNanos;
+      return;
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+      event.charactersIn += length;
+      final long startNanos = System.nanoTime();
+      transformerHandler.ignorableWhitespace(ch, start, length);
+      nanos += System.nanoTime() - startNanos;
+      return;
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data) throws SAXException {
+      final long start = System.nanoTime();
+      transformerHandler.processingInstruction(target, data);
+      nanos += System.nanoTime() - start;
+      return;
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+      final long start = System.nanoTime();
+      transformerHandler.skippedEntity(name);
+      nanos += System.nanoTime() - start;
+      return;
+    }
+
+    @Override
+    public void startDTD(final String name, final String publicId, final String systemId) throws SAXException {
+      transformerHandler.startDTD(name, publicId, systemId);
+      return;
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+      transformerHandler.endDTD();
+      return;
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+      transformerHandler.startEntity(name);
+      return;
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+      transformerHandler.endEntity(name);
+      return;
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+      transformerHandler.startCDATA();
+      return;
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+      transformerHandler.endCDATA();
+      return;
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+      event.charactersIn += length;
+      final long startNanos = System.nanoTime();
+      transformerHandler.comment(ch, start, length);
+      nanos += System.nanoTime() - startNanos;
+      return;
+    }
+
+  }
+
+}
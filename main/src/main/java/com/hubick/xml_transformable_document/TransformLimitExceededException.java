@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import javax.xml.transform.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Thrown when a {@linkplain TransformableEntity#transform(Result, TransformLimits) transform} is aborted for exceeding
+ * one of it's {@link TransformLimits}. Any output already written to the result will be incomplete.
+ */
+@NonNullByDefault
+public class TransformLimitExceededException extends TransformerException {
+  /**
+   * Required for serialization.
+   */
+  private static final long serialVersionUID = 1L;
+  /**
+   * @see #getLimit()
+   */
+  private final TransformLimits.Limit limit;
+
+  /**
+   * Construct a new <code>TransformLimitExceededException</code>.
+   * 
+   * @param limit The {@linkplain #getLimit() limit} which was exceeded.
+   * @param message The detail message.
+   */
+  public TransformLimitExceededException(final TransformLimits.Limit limit, final String message) {
+    super(message);
+    this.limit = limit;
+    return;
+  }
+
+  /**
+   * Get the limit which was exceeded.
+   * 
+   * @return The {@link TransformLimits.Limit}.
+   */
+  public TransformLimits.Limit getLimit() {
+    return limit;
+  }
+
+  /**
+   * Find a <code>TransformLimitExceededException</code> within the causes of the supplied <code>throwable</code>, into
+   * which it will have been wrapped while propagating through the SAX handlers and output streams of the transform.
+   * 
+   * @param throwable The {@link Throwable} thrown from the transform.
+   * @return The <code>TransformLimitExceededException</code>, or <code>null</code> if there isn't one.
+   */
+  static @Nullable TransformLimitExceededException find(final @Nullable Throwable throwable) {
+    Throwable cause = throwable;
+    for (int depth = 0; (cause != null) && (depth < 16); depth++) {
+      if (cause instanceof TransformLimitExceededException) return (TransformLimitExceededException)cause;
+      cause = cause.getCause();
+    }
+    return null;
+  }
+
+}
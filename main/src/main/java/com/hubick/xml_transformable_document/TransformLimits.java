@@ -0,0 +1,631 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.sax.*;
+import javax.xml.transform.stream.*;
+
+import org.xml.sax.*;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ext.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Bounds on the resources a single {@linkplain TransformableEntity#transform(Result, TransformLimits) transform} may
+ * consume, allowing a pathological stylesheet or document to fail fast with a
+ * {@link TransformLimitExceededException} rather than tying up a thread indefinitely.
+ * 
+ * <p>
+ * Limits are enforced cooperatively, by checkpoints placed at the head of the chain of {@link TransformerHandler}'s
+ * {@linkplain TransformableEntity#createTransformerHandlers(Result) created} for the transform, and in a wrapper
+ * around the {@link Result} it's output is sent to. The checkpoint counts every SAX event entering the chain, checking
+ * the deadline every {@value #DEADLINE_CHECK_INTERVAL} events, while the wrapper counts the serialized output (in
+ * bytes for an {@link OutputStream} or {@link ChannelResult}, or characters for a {@link Writer}) and checks the
+ * deadline on every write. A stylesheet which neither consumes input nor produces output (looping within a single
+ * template, for example) therefore can't be interrupted. Where an entity is output without any transformations, there
+ * is no chain, and only the output is checked. The output sent to any other kind of {@link Result} (such as a
+ * {@link SAXResult}) can't be measured, and a transform to one is refused if it's output is limited.
+ * </p>
+ * 
+ * <p>
+ * Each transform is measured separately, with the deadline starting when it does. Instances are immutable, and may be
+ * shared between any number of entities and threads.
+ * </p>
+ * 
+ * @see TransformableEntity#setTransformLimits(TransformLimits)
+ */
+@NonNullByDefault
+public final class TransformLimits {
+  /**
+   * The number of events passing a checkpoint between checks of the deadline.
+   */
+  static final int DEADLINE_CHECK_INTERVAL = 64;
+  /**
+   * The longest duration measured, beyond which {@link System#nanoTime()} could overflow.
+   */
+  private static final Duration MAXIMUM_DEADLINE = Duration.ofNanos(Long.MAX_VALUE >> 2);
+  /**
+   * @see #getMaximumDuration()
+   */
+  private final @Nullable Duration maximumDuration;
+  /**
+   * @see #getMaximumOutputBytes()
+   */
+  private final long maximumOutputBytes;
+  /**
+   * @see #getMaximumEvents()
+   */
+  private final long maximumEvents;
+
+  /**
+   * Construct new <code>TransformLimits</code>.
+   * 
+   * @param maximumDuration The {@linkplain #getMaximumDuration() maximum duration}, or <code>null</code> for no limit.
+   * @param maximumOutputBytes The {@linkplain #getMaximumOutputBytes() maximum output bytes}, or a negative value for
+   * no limit.
+   * @param maximumEvents The {@linkplain #getMaximumEvents() maximum events}, or a negative value for no limit.
+   * @throws IllegalArgumentException If <code>maximumDuration</code> is negative.
+   */
+  public TransformLimits(final @Nullable Duration maximumDuration, final long maximumOutputBytes, final long maximumEvents) throws IllegalArgumentException {
+    if ((maximumDuration != null) && (maximumDuration.isNegative())) throw new IllegalArgumentException("maximumDuration must not be negative");
+    this.maximumDuration = maximumDuration;
+    this.maximumOutputBytes = Math.max(maximumOutputBytes, -1);
+    this.maximumEvents = Math.max(maximumEvents, -1);
+    return;
+  }
+
+  /**
+   * Get the maximum wall-clock time a transform may run for.
+   * 
+   * @return The maximum duration, or <code>null</code> if there is no limit.
+   */
+  public @Nullable Duration getMaximumDuration() {
+    return maximumDuration;
+  }
+
+  /**
+   * Get the maximum amount of serialized output a transform may produce (in characters, where the output is sent to a
+   * {@link Writer}).
+   * 
+   * @return The maximum output bytes, or <code>-1</code> if there is no limit.
+   */
+  public long getMaximumOutputBytes() {
+    return maximumOutputBytes;
+  }
+
+  /**
+   * Get the maximum number of SAX events which may enter the chain of transformations during a transform.
+   * 
+   * @return The maximum events, or <code>-1</code> if there is no limit.
+   */
+  public long getMaximumEvents() {
+    return maximumEvents;
+  }
+
+  @Override
+  public String toString() {
+    return "TransformLimits[maximumDuration=" + maximumDuration + ",maximumOutputBytes=" + maximumOutputBytes + ",maximumEvents=" + maximumEvents + ']';
+  }
+
+  /**
+   * Begin measuring a transform against these limits.
+   * 
+   * @return A new {@link Budget}.
+   */
+  Budget newBudget() {
+    return new Budget(this);
+  }
+
+  /**
+   * The limit exceeded by a transform.
+   * 
+   * @see TransformLimitExceededException#getLimit()
+   */
+  public static enum Limit {
+    /**
+     * The {@linkplain TransformLimits#getMaximumDuration() maximum duration}.
+     */
+    DURATION,
+    /**
+     * The {@linkplain TransformLimits#getMaximumOutputBytes() maximum output bytes}.
+     */
+    OUTPUT_BYTES,
+    /**
+     * The {@linkplain TransformLimits#getMaximumEvents() maximum events}.
+     */
+    EVENTS
+  }
+
+  /**
+   * The consumption of a single transform measured against it's limits. This class is not thread-safe.
+   */
+  static final class Budget {
+    /**
+     * The limits being enforced.
+     */
+    final TransformLimits limits;
+    /**
+     * The {@link System#nanoTime()} by which the transform must complete, if it has a
+     * {@linkplain TransformLimits#getMaximumDuration() maximum duration}.
+     */
+    private final long deadline;
+    /**
+     * The number of events which have passed a checkpoint.
+     */
+    private long events = 0;
+    /**
+     * The {@link ChannelResult}'s the output is being sent to, which can't be wrapped, and are instead checked along
+     * with the deadline.
+     */
+    private final ArrayList<ChannelResult> channelResults = new ArrayList<ChannelResult>(1);
+    /**
+     * The {@linkplain ChannelResult#getBytesWritten() bytes written} to each of the {@link #channelResults} before the
+     * transform.
+     */
+    private final ArrayList<Long> channelBytesWritten = new ArrayList<Long>(1);
+
+    /**
+     * Construct a new <code>Budget</code>.
+     * 
+     * @param limits The limits being enforced.
+     */
+    Budget(final TransformLimits limits) {
+      this.limits = limits;
+      final Duration maximumDuration = limits.maximumDuration;
+      this.deadline = (maximumDuration != null) ? System.nanoTime() + ((maximumDuration.compareTo(MAXIMUM_DEADLINE) < 0) ? maximumDuration.toNanos() : MAXIMUM_DEADLINE.toNanos()) : 0;
+      return;
+    }
+
+    /**
+     * Are SAX events required to be counted?
+     * 
+     * @return <code>true</code> if a {@link Checkpoint} is required.
+     */
+    boolean isCheckpointed() {
+      return (limits.maximumDuration != null) || (limits.maximumEvents >= 0) || (!channelResults.isEmpty());
+    }
+
+    /**
+     * Check the deadline hasn't passed, along with the output of any {@link ChannelResult}'s.
+     * 
+     * @throws TransformLimitExceededException If a limit was exceeded.
+     */
+    void check() throws TransformLimitExceededException {
+      final Duration maximumDuration = limits.maximumDuration;
+      if ((maximumDuration != null) && (System.nanoTime() - deadline > 0)) throw new TransformLimitExceededException(Limit.DURATION, "Transform exceeded it's maximum duration of " + maximumDuration);
+      for (int i = 0; i < channelResults.size(); i++) {
+        checkOutput(channelResults.get(i).getBytesWritten() - channelBytesWritten.get(i));
+      }
+      return;
+    }
+
+    /**
+     * Check the given amount of output is within the limit.
+     * 
+     * @param output The amount of output produced.
+     * @throws TransformLimitExceededException If the limit was exceeded.
+     */
+    void checkOutput(final long output) throws TransformLimitExceededException {
+      if ((limits.maximumOutputBytes >= 0) && (output > limits.maximumOutputBytes)) throw new TransformLimitExceededException(Limit.OUTPUT_BYTES, "Transform exceeded it's maximum output of " + limits.maximumOutputBytes + " bytes");
+      return;
+    }
+
+    /**
+     * Count an event passing a checkpoint.
+     * 
+     * @throws SAXException If a limit was exceeded.
+     */
+    void countEvent() throws SAXException {
+      events++;
+      try {
+        if ((limits.maximumEvents >= 0) && (events > limits.maximumEvents)) throw new TransformLimitExceededException(Limit.EVENTS, "Transform exceeded it's maximum of " + limits.maximumEvents + " events");
+        if (events % DEADLINE_CHECK_INTERVAL == 0) check();
+      } catch (TransformLimitExceededException tlee) {
+        throw new SAXException(tlee);
+      }
+      return;
+    }
+
+    /**
+     * Wrap a final <code>result</code> of a transform in order to measure it's output. Where a transform has several
+     * results, each is wrapped separately, and it's output measured against the limit on it's own.
+     * 
+     * @param result The {@link Result} the serialized output should be sent to.
+     * @return The wrapped {@link Result}, or the supplied <code>result</code> if it needn't be wrapped.
+     * @throws IllegalArgumentException If there is a {@linkplain TransformLimits#getMaximumOutputBytes() maximum
+     * output}, and the output to the <code>result</code> can't be measured, not being a {@link ChannelResult}, or a
+     * {@link StreamResult} with an {@link OutputStream} or {@link Writer}.
+     */
+    Result wrap(final Result result) throws IllegalArgumentException {
+      if ((limits.maximumDuration == null) && (limits.maximumOutputBytes < 0)) return result;
+      if (result instanceof ChannelResult) {
+        channelResults.add((ChannelResult)result);
+        channelBytesWritten.add(((ChannelResult)result).getBytesWritten());
+        return result;
+      }
+      final OutputStream outputStream = (result instanceof StreamResult) ? ((StreamResult)result).getOutputStream() : null;
+      final Writer writer = (result instanceof StreamResult) ? ((StreamResult)result).getWriter() : null;
+      final StreamResult limitedResult;
+      if (outputStream != null) {
+        limitedResult = new StreamResult(new LimitedOutputStream(outputStream, this));
+      } else if (writer != null) {
+        limitedResult = new StreamResult(new LimitedWriter(writer, this));
+      } else if (limits.maximumOutputBytes >= 0) {
+        throw new IllegalArgumentException("The output to a " + result.getClass().getName() + " can't be limited");
+      } else {
+        return result; // The deadline is still checked by the checkpoints.
+      }
+      if (result.getSystemId() != null) limitedResult.setSystemId(result.getSystemId());
+      return limitedResult;
+    }
+
+    /**
+     * Place a {@link Checkpoint} at the head of the chain of handlers wrapped by the given <code>transformResult</code>.
+     * 
+     * @param transformResult The {@link Result} returned from
+     * {@link TransformableEntity#createTransformerHandlers(Result)}.
+     * @return A {@link CheckpointResult}, or the supplied <code>transformResult</code> if it isn't a {@link SAXResult}
+     * or no checkpoint is required.
+     */
+    Result checkpoint(final Result transformResult) {
+      if ((!(transformResult instanceof SAXResult)) || (!isCheckpointed())) return transformResult;
+      return new CheckpointResult(new Checkpoint(this, ((SAXResult)transformResult).getHandler(), ((SAXResult)transformResult).getLexicalHandler()), transformResult);
+    }
+
+  }
+
+  /**
+   * A {@link SAXResult} wrapping a {@link Checkpoint}, and the {@link Result} it forwards events to, which must still be
+   * {@linkplain TransformableEntity#releaseTransformerHandlers(Result) released}.
+   */
+  static final class CheckpointResult extends SAXResult {
+    /**
+     * The {@link Result} the checkpoint forwards events to.
+     */
+    final Result transformResult;
+
+    /**
+     * Construct a new <code>CheckpointResult</code>.
+     * 
+     * @param checkpoint The {@link Checkpoint}.
+     * @param transformResult The {@link Result} the checkpoint forwards events to.
+     */
+    CheckpointResult(final Checkpoint checkpoint, final Result transformResult) {
+      super(checkpoint);
+      setLexicalHandler(checkpoint);
+      this.transformResult = transformResult;
+      return;
+    }
+
+  }
+
+  /**
+   * A {@link ContentHandler} and {@link LexicalHandler} counting each event against a {@link Budget} before forwarding
+   * it to the head of a chain of handlers.
+   */
+  static final class Checkpoint implements ContentHandler, LexicalHandler {
+    /**
+     * The budget events are counted against.
+     */
+    private final Budget budget;
+    /**
+     * The handler content events are forwarded to.
+     */
+    private final ContentHandler contentHandler;
+    /**
+     * The handler lexical events are forwarded to, or <code>null</code> to discard them.
+     */
+    private final @Nullable LexicalHandler lexicalHandler;
+
+    /**
+     * Construct a new <code>Checkpoint</code>.
+     * 
+     * @param budget The budget events are counted against.
+     * @param contentHandler The handler content events are forwarded to.
+     * @param lexicalHandler The handler lexical events are forwarded to, or <code>null</code> to discard them.
+     */
+    Checkpoint(final Budget budget, final ContentHandler contentHandler, final @Nullable LexicalHandler lexicalHandler) {
+      this.budget = budget;
+      this.contentHandler = contentHandler;
+      this.lexicalHandler = lexicalHandler;
+      return;
+    }
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+      contentHandler.setDocumentLocator(locator);
+      return;
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+      budget.countEvent();
+      contentHandler.startDocument();
+      return;
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+      budget.countEvent();
+      contentHandler.endDocument();
+      return;
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+      budget.countEvent();
+      contentHandler.startPrefixMapping(prefix, uri);
+      return;
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+      budget.countEvent();
+      contentHandler.endPrefixMapping(prefix);
+      return;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+      budget.countEvent();
+      contentHandler.startElement(uri, localName, qName, atts);
+      return;
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+      budget.countEvent();
+      contentHandler.endElement(uri, localName, qName);
+      return;
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+      budget.countEvent();
+      contentHandler.characters(ch, start, length);
+      return;
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+      budget.countEvent();
+      contentHandler.ignorableWhitespace(ch, start, length);
+      return;
+    }
+
+    @Override
+    public void processingInstruction(final String target, final @Nullable String data) throws SAXException {
+      budget.countEvent();
+      contentHandler.processingInstruction(target, data);
+      return;
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+      budget.countEvent();
+      contentHandler.skippedEntity(name);
+      return;
+    }
+
+    @Override
+    public void startDTD(final String name, final @Nullable String publicId, final @Nullable String systemId) throws SAXException {
+      budget.countEvent();
+      if (lexicalHandler != null) lexicalHandler.startDTD(name, publicId, systemId);
+      return;
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+      budget.countEvent();
+      if (lexicalHandler != null) lexicalHandler.endDTD();
+      return;
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+      budget.countEvent();
+      if (lexicalHandler != null) lexicalHandler.startEntity(name);
+      return;
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+      budget.countEvent();
+      if (lexicalHandler != null) lexicalHandler.endEntity(name);
+      return;
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+      budget.countEvent();
+      if (lexicalHandler != null) lexicalHandler.startCDATA();
+      return;
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+      budget.countEvent();
+      if (lexicalHandler != null) lexicalHandler.endCDATA();
+      return;
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+      budget.countEvent();
+      if (lexicalHandler != null) lexicalHandler.comment(ch, start, length);
+      return;
+    }
+
+  }
+
+  /**
+   * An {@link OutputStream} checking the bytes written through it to another stream, and the deadline, against a
+   * {@link Budget}.
+   */
+  private static final class LimitedOutputStream extends OutputStream {
+    /**
+     * The stream being written to.
+     */
+    private final OutputStream outputStream;
+    /**
+     * The budget being enforced.
+     */
+    private final Budget budget;
+    /**
+     * The number of bytes written.
+     */
+    private long count = 0;
+
+    /**
+     * Construct a new <code>LimitedOutputStream</code>.
+     * 
+     * @param outputStream The stream to write to.
+     * @param budget The budget being enforced.
+     */
+    LimitedOutputStream(final OutputStream outputStream, final Budget budget) {
+      this.outputStream = outputStream;
+      this.budget = budget;
+      return;
+    }
+
+    /**
+     * Check the limits before writing <code>len</code> more bytes.
+     * 
+     * @param len The number of bytes about to be written.
+     * @throws IOException If a limit would be exceeded.
+     */
+    private void check(final int len) throws IOException {
+      count += len;
+      try {
+        budget.checkOutput(count);
+        budget.check();
+      } catch (TransformLimitExceededException tlee) {
+        throw new IOException(tlee.getMessage(), tlee);
+      }
+      return;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      check(1);
+      outputStream.write(b);
+      return;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      check(len);
+      outputStream.write(b, off, len);
+      return;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      outputStream.flush();
+      return;
+    }
+
+    @Override
+    public void close() throws IOException {
+      outputStream.close();
+      return;
+    }
+
+  }
+
+  /**
+   * A {@link Writer} checking the characters written through it to another writer, and the deadline, against a
+   * {@link Budget}.
+   */
+  private static final class LimitedWriter extends Writer {
+    /**
+     * The writer being written to.
+     */
+    private final Writer writer;
+    /**
+     * The budget being enforced.
+     */
+    private final Budget budget;
+    /**
+     * The number of characters written.
+     */
+    private long count = 0;
+
+    /**
+     * Construct a new <code>LimitedWriter</code>.
+     * 
+     * @param writer The writer to write to.
+     * @param budget The budget being enforced.
+     */
+    LimitedWriter(final Writer writer, final Budget budget) {
+      this.writer = writer;
+      this.budget = budget;
+      return;
+    }
+
+    /**
+     * Check the limits before writing <code>len</code> more characters.
+     * 
+     * @param len The number of characters about to be written.
+     * @throws IOException If a limit would be exceeded.
+     */
+    private void check(final int len) throws IOException {
+      count += len;
+      try {
+        budget.checkOutput(count);
+        budget.check();
+      } catch (TransformLimitExceededException tlee) {
+        throw new IOException(tlee.getMessage(), tlee);
+      }
+      return;
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+      check(1);
+      writer.write(c);
+      return;
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+      check(len);
+      writer.write(cbuf, off, len);
+      return;
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+      check(len);
+      writer.write(str, off, len);
+      return;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      writer.flush();
+      return;
+    }
+
+    @Override
+    public void close() throws IOException {
+      writer.close();
+      return;
+    }
+
+  }
+
+}
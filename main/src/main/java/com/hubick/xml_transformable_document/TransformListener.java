@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import javax.xml.transform.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Notified of the outcome of each {@linkplain TransformableEntity#transform(Result) transform} of any entity it's
+ * {@linkplain TransformableEntity#setTransformListener(TransformListener) configured} on, allowing transforms to be
+ * monitored, as by {@link TransformMetrics}.
+ * 
+ * <p>
+ * A listener may be shared between any number of entities, and will be called concurrently from every thread
+ * transforming them, so implementations must be thread-safe, and should return quickly.
+ * </p>
+ */
+@NonNullByDefault
+@FunctionalInterface
+public interface TransformListener {
+
+  /**
+   * Called once each {@linkplain TransformableEntity#transform(Result) transform} has completed, whether or not it was
+   * successful. The <code>setupNanos</code> is the time spent
+   * {@linkplain TransformableEntity#createTransformerHandlers(Result) constructing} (or acquiring) the chain of
+   * {@link javax.xml.transform.sax.TransformerHandler TransformerHandler}'s, and the <code>transformNanos</code> is
+   * the remainder of the time spent traversing the content, transforming and serializing it.
+   * 
+   * @param entity The entity which was transformed.
+   * @param transformations The {@linkplain TransformableEntity#getTransformations() transformations} which were
+   * performed, or <code>null</code> if there were none.
+   * @param setupNanos The number of nanoseconds spent constructing the handler chain.
+   * @param transformNanos The number of nanoseconds spent performing the transform, excluding the
+   * <code>setupNanos</code>.
+   * @param outputBytes The number of bytes output, or <code>-1</code> if unknown, which will be the case unless the
+   * output was to a {@link javax.xml.transform.stream.StreamResult StreamResult} with an
+   * {@linkplain javax.xml.transform.stream.StreamResult#getOutputStream() output stream} or a {@link ChannelResult}.
+   * @param exception The exception which caused the transform to fail, or <code>null</code> if it was successful.
+   */
+  public void transformed(TransformableEntity entity, @Nullable Iterable<? extends @Nullable Templates> transformations, long setupNanos, long transformNanos, long outputBytes, @Nullable Exception exception);
+
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.management.*;
+import javax.xml.transform.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * A {@link TransformListener} keeping statistics on the transforms of the entities it's
+ * {@linkplain TransformableEntity#setTransformListener(TransformListener) configured} on, broken down by pipeline, and
+ * exposing them through JMX once {@linkplain #register(String) registered}.
+ * 
+ * <p>
+ * For each pipeline, identified by it's {@linkplain TransformationPipeline#getName() name} (unnamed pipelines, and
+ * transformations which aren't a {@link TransformationPipeline}, are all recorded under {@link #UNNAMED_PIPELINE}),
+ * the number of transforms, the number which failed, the number of bytes output, and the distribution of both the
+ * setup (handler chain construction) and transform latencies are recorded. Latencies are recorded in a histogram with
+ * logarithmic buckets, such that reported percentiles are accurate to within about 6%. Recording a transform is
+ * lock-free, and the memory used is fixed per pipeline.
+ * </p>
+ * 
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+@NonNullByDefault
+public class TransformMetrics implements TransformListener, TransformMetricsMXBean {
+  /**
+   * The name statistics are recorded under for transformations without a {@linkplain TransformationPipeline#getName()
+   * pipeline name}.
+   */
+  public static final String UNNAMED_PIPELINE = "(unnamed)";
+  /**
+   * The {@linkplain ObjectName#getDomain() domain} of the {@link ObjectName} this class is {@linkplain #register(String)
+   * registered} under.
+   */
+  public static final String OBJECT_NAME_DOMAIN = "com.hubick.xml_transformable_document";
+  /**
+   * The metrics for each pipeline, keyed by name.
+   */
+  private final ConcurrentHashMap<String,PipelineMetrics> pipelineMetrics = new ConcurrentHashMap<String,PipelineMetrics>();
+  /**
+   * The name this instance is currently {@linkplain #register(String) registered} under, or <code>null</code> if it
+   * isn't. Access to this field should be synchronized for thread safety.
+   */
+  private @Nullable ObjectName objectName = null;
+
+  /**
+   * Construct a new <code>TransformMetrics</code>.
+   */
+  public TransformMetrics() {
+    return;
+  }
+
+  /**
+   * Register this instance with the {@linkplain ManagementFactory#getPlatformMBeanServer() platform MBean server},
+   * under an {@link ObjectName} of the form
+   * <code>com.hubick.xml_transformable_document:type=TransformMetrics,name=&quot;<i>name</i>&quot;</code>.
+   * 
+   * @param name The name to register this instance under.
+   * @return The {@link ObjectName} this instance was registered under.
+   * @throws IllegalStateException If this instance is already registered.
+   * @throws JMException If there was a problem registering this instance.
+   */
+  public synchronized ObjectName register(final String name) throws IllegalStateException, JMException {
+    if (objectName != null) throw new IllegalStateException("Already registered as " + objectName);
+    final ObjectName objectName = new ObjectName(OBJECT_NAME_DOMAIN + ":type=" + TransformMetrics.class.getSimpleName() + ",name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    this.objectName = objectName;
+    return objectName;
+  }
+
+  /**
+   * Unregister this instance from the {@linkplain ManagementFactory#getPlatformMBeanServer() platform MBean server},
+   * if it's {@linkplain #register(String) registered}.
+   * 
+   * @throws JMException If there was a problem unregistering this instance.
+   */
+  public synchronized void unregister() throws JMException {
+    final ObjectName objectName = this.objectName;
+    if (objectName == null) return;
+    this.objectName = null;
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    return;
+  }
+
+  /**
+   * Get the name statistics for the given <code>transformations</code> should be recorded under.
+   * 
+   * @param transformations The transformations which were performed.
+   * @return The {@linkplain TransformationPipeline#getName() pipeline name}, or {@link #UNNAMED_PIPELINE}.
+   */
+  protected String getPipelineName(final @Nullable Iterable<? extends @Nullable Templates> transformations) {
+    final String name = (transformations instanceof TransformationPipeline) ? ((TransformationPipeline)transformations).getName() : null;
+    return (name != null) ? name : UNNAMED_PIPELINE;
+  }
+
+  @Override
+  public void transformed(final TransformableEntity entity, final @Nullable Iterable<? extends @Nullable Templates> transformations, final long setupNanos, final long transformNanos, final long outputBytes, final @Nullable Exception exception) {
+    final String name = getPipelineName(transformations);
+    PipelineMetrics metrics = pipelineMetrics.get(name);
+    if (metrics == null) metrics = pipelineMetrics.computeIfAbsent(name, PipelineMetrics::new);
+    metrics.record(setupNanos, transformNanos, outputBytes, exception != null);
+    return;
+  }
+
+  @Override
+  public long getTransformCount() {
+    return pipelineMetrics.values().stream().mapToLong((metrics) -> metrics.transformCount.sum()).sum();
+  }
+
+  @Override
+  public long getErrorCount() {
+    return pipelineMetrics.values().stream().mapToLong((metrics) -> metrics.errorCount.sum()).sum();
+  }
+
+  @Override
+  public long getOutputBytes() {
+    return pipelineMetrics.values().stream().mapToLong((metrics) -> metrics.outputBytes.sum()).sum();
+  }
+
+  @Override
+  public Map<String,PipelineStatistics> getPipelineStatistics() {
+    final TreeMap<String,PipelineStatistics> pipelineStatistics = new TreeMap<String,PipelineStatistics>();
+    for (PipelineMetrics metrics : pipelineMetrics.values()) {
+      pipelineStatistics.put(metrics.name, metrics.getStatistics());
+    }
+    return pipelineStatistics;
+  }
+
+  /**
+   * Get the statistics recorded for the pipeline with the given <code>name</code>.
+   * 
+   * @param name The {@linkplain TransformationPipeline#getName() pipeline name}.
+   * @return The {@link PipelineStatistics}, or <code>null</code> if no transforms have been recorded for that pipeline.
+   */
+  public @Nullable PipelineStatistics getPipelineStatistics(final String name) {
+    final PipelineMetrics metrics = pipelineMetrics.get(name);
+    return (metrics != null) ? metrics.getStatistics() : null;
+  }
+
+  @Override
+  public void reset() {
+    pipelineMetrics.clear();
+    return;
+  }
+
+  /**
+   * A snapshot of the statistics recorded for a pipeline.
+   */
+  public static final class PipelineStatistics {
+    /**
+     * @see #getName()
+     */
+    private final String name;
+    /**
+     * @see #getTransformCount()
+     */
+    private final long transformCount;
+    /**
+     * @see #getErrorCount()
+     */
+    private final long errorCount;
+    /**
+     * @see #getOutputBytes()
+     */
+    private final long outputBytes;
+    /**
+     * @see #getSetupLatency()
+     */
+    private final LatencyStatistics setupLatency;
+    /**
+     * @see #getTransformLatency()
+     */
+    private final LatencyStatistics transformLatency;
+
+    /**
+     * Construct a new <code>PipelineStatistics</code>.
+     * 
+     * @param name The {@linkplain #getName() name}.
+     * @param transformCount The {@linkplain #getTransformCount() transform count}.
+     * @param errorCount The {@linkplain #getErrorCount() error count}.
+     * @param outputBytes The {@linkplain #getOutputBytes() output bytes}.
+     * @param setupLatency The {@linkplain #getSetupLatency() setup latency}.
+     * @param transformLatency The {@linkplain #getTransformLatency() transform latency}.
+     */
+    @ConstructorParameters({ "name", "transformCount", "errorCount", "outputBytes", "setupLatency", "transformLatency" })
+    public PipelineStatistics(final String name, final long transformCount, final long errorCount, final long outputBytes, final LatencyStatistics setupLatency, final LatencyStatistics transformLatency) {
+      this.name = name;
+      this.transformCount = transformCount;
+      this.errorCount = errorCount;
+      this.outputBytes = outputBytes;
+      this.setupLatency = setupLatency;
+      this.transformLatency = transformLatency;
+      return;
+    }
+
+    /**
+     * Get the name of the pipeline.
+     * 
+     * @return The {@linkplain TransformationPipeline#getName() pipeline name}, or {@link TransformMetrics#UNNAMED_PIPELINE}.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the number of transforms performed.
+     * 
+     * @return The number of transforms.
+     */
+    public long getTransformCount() {
+      return transformCount;
+    }
+
+    /**
+     * Get the number of transforms which failed.
+     * 
+     * @return The number of failed transforms.
+     */
+    public long getErrorCount() {
+      return errorCount;
+    }
+
+    /**
+     * Get the number of bytes output, from those transforms where it was known.
+     * 
+     * @return The number of bytes output.
+     */
+    public long getOutputBytes() {
+      return outputBytes;
+    }
+
+    /**
+     * Get the distribution of the time spent constructing handler chains.
+     * 
+     * @return The setup {@link LatencyStatistics}.
+     */
+    public LatencyStatistics getSetupLatency() {
+      return setupLatency;
+    }
+
+    /**
+     * Get the distribution of the time spent transforming, excluding the {@linkplain #getSetupLatency() setup}.
+     * 
+     * @return The transform {@link LatencyStatistics}.
+     */
+    public LatencyStatistics getTransformLatency() {
+      return transformLatency;
+    }
+
+    @Override
+    public String toString() {
+      return name + ": transforms=" + transformCount + ", errors=" + errorCount + ", outputBytes=" + outputBytes + ", setup=" + setupLatency + ", transform=" + transformLatency;
+    }
+
+  }
+
+  /**
+   * A snapshot of the distribution of a latency, in nanoseconds.
+   */
+  public static final class LatencyStatistics {
+    /**
+     * @see #getMeanNanos()
+     */
+    private final long meanNanos;
+    /**
+     * @see #getMedianNanos()
+     */
+    private final long medianNanos;
+    /**
+     * @see #getP90Nanos()
+     */
+    private final long p90Nanos;
+    /**
+     * @see #getP99Nanos()
+     */
+    private final long p99Nanos;
+    /**
+     * @see #getMaximumNanos()
+     */
+    private final long maximumNanos;
+
+    /**
+     * Construct a new <code>LatencyStatistics</code>.
+     * 
+     * @param meanNanos The {@linkplain #getMeanNanos() mean}.
+     * @param medianNanos The {@linkplain #getMedianNanos() median}.
+     * @param p90Nanos The {@linkplain #getP90Nanos() 90th percentile}.
+     * @param p99Nanos The {@linkplain #getP99Nanos() 99th percentile}.
+     * @param maximumNanos The {@linkplain #getMaximumNanos() maximum}.
+     */
+    @ConstructorParameters({ "meanNanos", "medianNanos", "p90Nanos", "p99Nanos", "maximumNanos" })
+    public LatencyStatistics(final long meanNanos, final long medianNanos, final long p90Nanos, final long p99Nanos, final long maximumNanos) {
+      this.meanNanos = meanNanos;
+      this.medianNanos = medianNanos;
+      this.p90Nanos = p90Nanos;
+      this.p99Nanos = p99Nanos;
+      this.maximumNanos = maximumNanos;
+      return;
+    }
+
+    /**
+     * Get the mean latency.
+     * 
+     * @return The mean, in nanoseconds.
+     */
+    public long getMeanNanos() {
+      return meanNanos;
+    }
+
+    /**
+     * Get the median (50th percentile) latency.
+     * 
+     * @return The median, in nanoseconds.
+     */
+    public long getMedianNanos() {
+      return medianNanos;
+    }
+
+    /**
+     * Get the 90th percentile latency.
+     * 
+     * @return The 90th percentile, in nanoseconds.
+     */
+    public long getP90Nanos() {
+      return p90Nanos;
+    }
+
+    /**
+     * Get the 99th percentile latency.
+     * 
+     * @return The 99th percentile, in nanoseconds.
+     */
+    public long getP99Nanos() {
+      return p99Nanos;
+    }
+
+    /**
+     * Get the maximum latency.
+     * 
+     * @return The maximum, in nanoseconds.
+     */
+    public long getMaximumNanos() {
+      return maximumNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "[mean=" + meanNanos + "ns, p50=" + medianNanos + "ns, p90=" + p90Nanos + "ns, p99=" + p99Nanos + "ns, max=" + maximumNanos + "ns]";
+    }
+
+  }
+
+  /**
+   * The live metrics for a single pipeline.
+   */
+  private static final class PipelineMetrics {
+    /**
+     * The name of the pipeline.
+     */
+    final String name;
+    /**
+     * The number of transforms.
+     */
+    final LongAdder transformCount = new LongAdder();
+    /**
+     * The number of failed transforms.
+     */
+    final LongAdder errorCount = new LongAdder();
+    /**
+     * The number of bytes output.
+     */
+    final LongAdder outputBytes = new LongAdder();
+    /**
+     * The setup latencies.
+     */
+    private final LatencyHistogram setupLatency = new LatencyHistogram();
+    /**
+     * The transform latencies.
+     */
+    private final LatencyHistogram transformLatency = new LatencyHistogram();
+
+    /**
+     * Construct a new <code>PipelineMetrics</code>.
+     * 
+     * @param name The name of the pipeline.
+     */
+    PipelineMetrics(final String name) {
+      this.name = name;
+      return;
+    }
+
+    /**
+     * Record a transform.
+     * 
+     * @param setupNanos The setup latency.
+     * @param transformNanos The transform latency.
+     * @param outputBytes The number of bytes output, or <code>-1</code> if unknown.
+     * @param error Did the transform fail?
+     */
+    void record(final long setupNanos, final long transformNanos, final long outputBytes, final boolean error) {
+      transformCount.increment();
+      if (error) errorCount.increment();
+      if (outputBytes > 0) this.outputBytes.add(outputBytes);
+      setupLatency.record(setupNanos);
+      transformLatency.record(transformNanos);
+      return;
+    }
+
+    /**
+     * Take a snapshot of these metrics.
+     * 
+     * @return The {@link PipelineStatistics}.
+     */
+    PipelineStatistics getStatistics() {
+      return new PipelineStatistics(name, transformCount.sum(), errorCount.sum(), outputBytes.sum(), setupLatency.getStatistics(), transformLatency.getStatistics());
+    }
+
+  }
+
+  /**
+   * A lock-free histogram of latencies, with buckets growing logarithmically such that each power of two is divided
+   * into 2<sup>{@link #SUB_BUCKET_BITS}</sup> linear sub-buckets.
+   */
+  private static final class LatencyHistogram {
+    /**
+     * The number of bits of each value below it's highest one bit used to select it's sub-bucket.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+    /**
+     * The number of sub-buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * The count of values recorded in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    /**
+     * The sum of the values recorded.
+     */
+    private final LongAdder sum = new LongAdder();
+    /**
+     * The largest value recorded.
+     */
+    private final AtomicLong maximum = new AtomicLong();
+
+    /**
+     * Get the index of the bucket the given <code>value</code> is recorded in. Values smaller than {@link #SUB_BUCKETS}
+     * each have their own bucket.
+     * 
+     * @param value The (non-negative) value.
+     * @return The bucket index.
+     */
+    private static int index(final long value) {
+      if (value < SUB_BUCKETS) return (int)value;
+      final int exponent = 63 - Long.numberOfLeadingZeros(value);
+      return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + (int)((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Get the value at the middle of the bucket with the given <code>index</code>.
+     * 
+     * @param index The bucket index.
+     * @return The representative value for the bucket.
+     */
+    private static long value(final int index) {
+      if (index < SUB_BUCKETS) return index;
+      final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+      final long lowest = (long)(SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+      return lowest + ((1L << shift) >>> 1);
+    }
+
+    /**
+     * Record a value.
+     * 
+     * @param nanos The latency to record.
+     */
+    void record(final long nanos) {
+      final long value = Math.max(0, nanos);
+      counts.incrementAndGet(index(value));
+      sum.add(value);
+      if (value > maximum.get()) maximum.accumulateAndGet(value, Math::max);
+      return;
+    }
+
+    /**
+     * Take a snapshot of the distribution of the recorded values.
+     * 
+     * @return The {@link LatencyStatistics}.
+     */
+    LatencyStatistics getStatistics() {
+      final long[] counts = new long[this.counts.length()];
+      long total = 0;
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = this.counts.get(i);
+        total += counts[i];
+      }
+      if (total == 0) return new LatencyStatistics(0, 0, 0, 0, 0);
+      final long maximum = this.maximum.get();
+      return new LatencyStatistics(sum.sum() / total, Math.min(percentile(counts, total, 0.5), maximum), Math.min(percentile(counts, total, 0.9), maximum), Math.min(percentile(counts, total, 0.99), maximum), maximum);
+    }
+
+    /**
+     * Find the value at the given <code>percentile</code> of the distribution.
+     * 
+     * @param counts The count of values in each bucket.
+     * @param total The total of the <code>counts</code>.
+     * @param percentile The percentile, between <code>0</code> and <code>1</code>.
+     * @return The representative value of the bucket containing the <code>percentile</code>.
+     */
+    private static long percentile(final long[] counts, final long total, final double percentile) {
+      final long rank = Math.max(1, (long)Math.ceil(total * percentile));
+      long cumulative = 0;
+      for (int i = 0; i < counts.length; i++) {
+        cumulative += counts[i];
+        if (cumulative >= rank) return value(i);
+      }
+      return value(counts.length - 1);
+    }
+
+  }
+
+}
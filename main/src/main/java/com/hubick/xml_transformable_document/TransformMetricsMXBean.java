@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.util.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * The JMX management interface of {@link TransformMetrics}.
+ */
+@NonNullByDefault
+public interface TransformMetricsMXBean {
+
+  /**
+   * Get the total number of transforms recorded, across all pipelines.
+   * 
+   * @return The number of transforms.
+   */
+  public long getTransformCount();
+
+  /**
+   * Get the total number of failed transforms recorded, across all pipelines.
+   * 
+   * @return The number of failed transforms.
+   */
+  public long getErrorCount();
+
+  /**
+   * Get the total number of bytes output by the transforms recorded, across all pipelines.
+   * 
+   * @return The number of bytes output.
+   */
+  public long getOutputBytes();
+
+  /**
+   * Get the statistics recorded for each pipeline.
+   * 
+   * @return A Map of statistics, keyed by the {@linkplain TransformMetrics.PipelineStatistics#getName() pipeline name}.
+   */
+  public Map<String,TransformMetrics.PipelineStatistics> getPipelineStatistics();
+
+  /**
+   * Discard all the statistics recorded so far.
+   */
+  public void reset();
+
+}
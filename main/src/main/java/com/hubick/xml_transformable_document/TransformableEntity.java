@@ -9,17 +9,28 @@
 package com.hubick.xml_transformable_document;
 
 import java.io.*;
+import java.lang.invoke.*;
 import java.net.*;
+import java.nio.*;
 import java.nio.charset.*;
+import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 import java.util.stream.*;
 
 import javax.activation.*;
+import javax.xml.*;
 import javax.xml.transform.*;
 import javax.xml.transform.sax.*;
 import javax.xml.transform.stream.*;
 
+import org.xml.sax.*;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ext.*;
+import org.xml.sax.helpers.*;
+
 import org.eclipse.jdt.annotation.*;
 
 
@@ -52,55 +63,50 @@ public abstract class TransformableEntity {
 
   };
   /**
-   * A shared {@link SAXTransformerFactory}.
+   * The {@link SAXTransformerFactories} belonging to each platform thread, avoiding any need to synchronize access to a
+   * shared instance.
    */
-  private static final SAXTransformerFactory SAX_TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+  private static final ThreadLocal<SAXTransformerFactories> SAX_TRANSFORMER_FACTORIES = ThreadLocal.withInitial(() -> new SAXTransformerFactories(false));
   /**
-   * A shared {@link SAXTransformerFactory} which supports
-   * <a href="http://xml.apache.org/xalan-j/features.html#incremental">incremental</a> transforms, or <code>null</code>
-   * if not available.
+   * The {@link MimeType} Object for the <code>"text/html"</code> mime type.
    */
-  private static final @Nullable SAXTransformerFactory SAX_TRANSFORMER_FACTORY_INCREMENTAL;
-  static {
-    SAXTransformerFactory stf = null;
-    try {
-      stf = (SAXTransformerFactory)TransformerFactory.newInstance();
-      stf.setAttribute("http://xml.apache.org/xalan/features/incremental", Boolean.TRUE);
-    } catch (IllegalArgumentException iae) {
-      stf = null;
-    }
-    SAX_TRANSFORMER_FACTORY_INCREMENTAL = stf;
-  }
+  private static final MimeType TEXT_HTML_MIME_TYPE = newMimeType("text", "html");
   /**
-   * Does the {@link #SAX_TRANSFORMER_FACTORY} support the <a href="http://www.w3.org/TR/xslt20/">XSLT 2.0</a>
-   * &quot;xhtml&quot; <a href="http://www.w3.org/TR/xslt20/#serialization">output serialization</a>
-   * {@linkplain OutputKeys#METHOD method}?
+   * The source of unique {@link #entityID} values.
    */
-  private static final boolean SAX_TRANSFORMER_FACTORY_SUPPORTS_XHTML_OUTPUT;
-  static {
-    Exception e = null;
-    try {
-      final Transformer transformer = SAX_TRANSFORMER_FACTORY.newTransformer();
-      transformer.setErrorListener(ERROR_LISTENER);
-      transformer.setOutputProperty(OutputKeys.METHOD, "xhtml"); // JDK (1.6) does _not_ throw here.
-      // With "xhtml" JDK (1.6) throws NullPointerException via TransformerImpl.transform(Source, Result) -> TransformerImpl.getOutputHandler(Result) -> TransletOutputHandlerFactory.getSerializationHandler().
-      transformer.transform(new StreamSource(new StringReader("<html><head><title>Test</title></head><body></body></html>")), new StreamResult(new OutputStream() {
-
-        @Override
-        public void write(final int b) throws IOException {
-          return;
-        }
-
-      }));
-    } catch (Exception e2) {
-      e = e2;
-    }
-    SAX_TRANSFORMER_FACTORY_SUPPORTS_XHTML_OUTPUT = (e == null) ? true : false;
-  }
+  private static final AtomicLong NEXT_ENTITY_ID = new AtomicLong();
   /**
-   * The {@link MimeType} Object for the <code>"text/html"</code> mime type.
+   * The size of the buffer (in characters) used to decode cached output being written to a {@link Writer}.
    */
-  private static final MimeType TEXT_HTML_MIME_TYPE = newMimeType("text", "html");
+  private static final int WRITE_OUTPUT_BUFFER_SIZE = 8192;
+  /**
+   * A random value identifying this instance of the JVM, included in each {@linkplain #getEntityTag() entity tag} so
+   * that tags issued before a restart (when {@link #entityID} values are reassigned) can't match.
+   */
+  private static final String INSTANCE_ID = UUID.randomUUID().toString();
+  /**
+   * A unique identifier for each {@link Templates} instance which has contributed to an {@linkplain #getEntityTag()
+   * entity tag}.
+   */
+  private static final Map<Templates,Long> TEMPLATES_IDS = Collections.synchronizedMap(new WeakHashMap<Templates,Long>());
+  /**
+   * The source of unique {@link #TEMPLATES_IDS} values.
+   */
+  private static final AtomicLong NEXT_TEMPLATES_ID = new AtomicLong();
+  /**
+   * Accumulates the time spent {@linkplain #createTransformerHandlers(Result) constructing} handler chains during the
+   * current {@linkplain #setTransformListener(TransformListener) monitored} transform on each thread.
+   */
+  private static final ThreadLocal<long @Nullable []> SETUP_NANOS = new ThreadLocal<long @Nullable []>();
+  /**
+   * The {@link TransformLimits.Budget} of the current {@linkplain #transform(Result, TransformLimits) limited}
+   * transform on each thread.
+   */
+  private static final ThreadLocal<TransformLimits.@Nullable Budget> TRANSFORM_BUDGET = new ThreadLocal<TransformLimits.@Nullable Budget>();
+  /**
+   * A unique identifier for this entity, used in {@link OutputCache} keys.
+   */
+  private final long entityID = NEXT_ENTITY_ID.getAndIncrement();
   /**
    * @see #setMediaType(MimeType)
    */
@@ -125,6 +131,22 @@ public abstract class TransformableEntity {
    * @see #setTransformationParameters(Map)
    */
   protected @Nullable Map<?,?> transformationParameters = null;
+  /**
+   * @see #setTransformerHandlerPool(TransformerHandlerPool)
+   */
+  protected @Nullable TransformerHandlerPool transformerHandlerPool = null;
+  /**
+   * @see #setOutputCache(OutputCache)
+   */
+  protected @Nullable OutputCache outputCache = null;
+  /**
+   * @see #setTransformListener(TransformListener)
+   */
+  protected @Nullable TransformListener transformListener = null;
+  /**
+   * @see #setTransformLimits(TransformLimits)
+   */
+  protected @Nullable TransformLimits transformLimits = null;
   /**
    * @see #setIncremental(boolean)
    */
@@ -137,6 +159,15 @@ public abstract class TransformableEntity {
    * @see #setOmitXMLDeclaration(boolean)
    */
   protected boolean omitXMLDeclaration = false;
+  /**
+   * @see #freeze()
+   */
+  private volatile boolean frozen = false;
+  /**
+   * The recorded output of the {@linkplain TransformationPipeline#getCacheablePrefixLength() cacheable prefix} of the
+   * {@linkplain #setTransformationPipeline(TransformationPipeline) pipeline}, if any.
+   */
+  private volatile @Nullable RecordedPrefix recordedPrefix = null;
 
 
   /**
@@ -165,6 +196,7 @@ public abstract class TransformableEntity {
    * @param mediaType A {@link MimeType} containing the {@linkplain OutputKeys#MEDIA_TYPE media type}.
    */
   public synchronized void setMediaType(final @Nullable MimeType mediaType) {
+    checkNotFrozen();
     this.mediaType = mediaType;
     return;
   }
@@ -186,6 +218,7 @@ public abstract class TransformableEntity {
    * @param encoding A {@link Charset} containing the {@linkplain OutputKeys#ENCODING encoding}.
    */
   public synchronized void setEncoding(final @Nullable Charset encoding) {
+    checkNotFrozen();
     this.encoding = encoding;
     return;
   }
@@ -209,6 +242,7 @@ public abstract class TransformableEntity {
    * @param systemID A {@link URI} containing the {@linkplain OutputKeys#DOCTYPE_SYSTEM system identifier}.
    */
   public synchronized void setSystemID(final @Nullable URI systemID) {
+    checkNotFrozen();
     this.systemID = systemID;
     return;
   }
@@ -232,6 +266,7 @@ public abstract class TransformableEntity {
    * @param publicID A String containing the {@linkplain OutputKeys#DOCTYPE_PUBLIC public identifier}.
    */
   public synchronized void setPublicID(final @Nullable String publicID) {
+    checkNotFrozen();
     this.publicID = publicID;
     return;
   }
@@ -251,10 +286,35 @@ public abstract class TransformableEntity {
    * @param transformations A list of {@link Templates}.
    */
   public synchronized void setTransformations(final @Nullable Iterable<? extends @Nullable Templates> transformations) {
+    checkNotFrozen();
     this.transformations = transformations;
     return;
   }
 
+  /**
+   * Get the {@link TransformationPipeline} which will be performed on this entity during {@linkplain #transform(Result)
+   * output}.
+   * 
+   * @return The {@link TransformationPipeline}, or <code>null</code> if the {@linkplain #getTransformations()
+   * configured transformations} aren't a pipeline.
+   */
+  public synchronized @Nullable TransformationPipeline getTransformationPipeline() {
+    return (transformations instanceof TransformationPipeline) ? (TransformationPipeline)transformations : null;
+  }
+
+  /**
+   * Set the {@link TransformationPipeline} which will be performed on this entity during {@linkplain #transform(Result)
+   * output}. This replaces any previously {@linkplain #setTransformations(Iterable) configured transformations}, and
+   * a single pipeline may be shared by any number of entities.
+   * 
+   * @param transformationPipeline The {@link TransformationPipeline}.
+   */
+  public synchronized void setTransformationPipeline(final @Nullable TransformationPipeline transformationPipeline) {
+    checkNotFrozen();
+    this.transformations = transformationPipeline;
+    return;
+  }
+
   /**
    * Get the parameters which will be {@linkplain Transformer#setParameter(String, Object) supplied} to any
    * {@linkplain #setTransformations(Iterable) configured transformations} during {@linkplain #transform(Result) output}
@@ -274,10 +334,128 @@ public abstract class TransformableEntity {
    * @param transformationParameters A Map of parameters.
    */
   public synchronized void setTransformationParameters(final @Nullable Map<?,?> transformationParameters) {
+    checkNotFrozen();
     this.transformationParameters = transformationParameters;
     return;
   }
 
+  /**
+   * Get the {@link TransformerHandlerPool} which {@linkplain #setTransformations(Iterable) configured transformations}
+   * will be acquired from during {@linkplain #transform(Result) output}.
+   * 
+   * @return The {@link TransformerHandlerPool}, or <code>null</code> if new handlers are created for every transform.
+   */
+  public synchronized @Nullable TransformerHandlerPool getTransformerHandlerPool() {
+    return transformerHandlerPool;
+  }
+
+  /**
+   * Set the {@link TransformerHandlerPool} which {@linkplain #setTransformations(Iterable) configured transformations}
+   * will be acquired from during {@linkplain #transform(Result) output}. A pool may be shared between any number of
+   * entities, and is only used when the output is to a {@link StreamResult}.
+   * 
+   * @param transformerHandlerPool The {@link TransformerHandlerPool}, or <code>null</code> if new handlers should be
+   * created for every transform.
+   */
+  public synchronized void setTransformerHandlerPool(final @Nullable TransformerHandlerPool transformerHandlerPool) {
+    checkNotFrozen();
+    this.transformerHandlerPool = transformerHandlerPool;
+    return;
+  }
+
+  /**
+   * Get the {@link OutputCache} which the output of this entity will be stored in and served from during
+   * {@linkplain #transform(Result) output}.
+   * 
+   * @return The {@link OutputCache}, or <code>null</code> if output isn't cached.
+   */
+  public synchronized @Nullable OutputCache getOutputCache() {
+    return outputCache;
+  }
+
+  /**
+   * Set the {@link OutputCache} which the output of this entity will be stored in and served from during
+   * {@linkplain #transform(Result) output}. A cache may be shared between any number of entities. Output is only
+   * cached when it's to a {@link StreamResult} with an {@linkplain StreamResult#getOutputStream() output stream} or
+   * {@linkplain StreamResult#getWriter() writer}, and this entity has a known {@linkplain #getContentVersion() content
+   * version}.
+   * 
+   * @param outputCache The {@link OutputCache}, or <code>null</code> if output shouldn't be cached.
+   */
+  public synchronized void setOutputCache(final @Nullable OutputCache outputCache) {
+    checkNotFrozen();
+    this.outputCache = outputCache;
+    return;
+  }
+
+  /**
+   * Get the {@link TransformListener} which will be notified of each {@linkplain #transform(Result) transform} of this
+   * entity.
+   * 
+   * @return The {@link TransformListener}, or <code>null</code> if transforms aren't monitored.
+   */
+  public synchronized @Nullable TransformListener getTransformListener() {
+    return transformListener;
+  }
+
+  /**
+   * Set the {@link TransformListener} which will be notified of each {@linkplain #transform(Result) transform} of this
+   * entity, such as a {@link TransformMetrics} instance. A listener may be shared between any number of entities.
+   * 
+   * @param transformListener The {@link TransformListener}, or <code>null</code> if transforms shouldn't be monitored.
+   */
+  public synchronized void setTransformListener(final @Nullable TransformListener transformListener) {
+    checkNotFrozen();
+    this.transformListener = transformListener;
+    return;
+  }
+
+  /**
+   * Get the {@link TransformLimits} enforced on each {@linkplain #transform(Result) transform} of this entity.
+   * 
+   * @return The {@link TransformLimits}, or <code>null</code> if transforms aren't limited.
+   */
+  public synchronized @Nullable TransformLimits getTransformLimits() {
+    return transformLimits;
+  }
+
+  /**
+   * Set the {@link TransformLimits} enforced on each {@linkplain #transform(Result) transform} of this entity (including
+   * those performed to fill it's {@linkplain #setOutputCache(OutputCache) output cache}), unless others are supplied to
+   * {@link #transform(Result, TransformLimits)}.
+   * 
+   * @param transformLimits The {@link TransformLimits}, or <code>null</code> if transforms shouldn't be limited.
+   */
+  public synchronized void setTransformLimits(final @Nullable TransformLimits transformLimits) {
+    checkNotFrozen();
+    this.transformLimits = transformLimits;
+    return;
+  }
+
+  /**
+   * Get the version of the content of this entity. The version must change whenever the content of this entity is
+   * modified, allowing output to be {@linkplain #setOutputCache(OutputCache) cached} for as long as it remains the
+   * same.
+   * 
+   * @return The content version, or <code>-1</code> if it isn't known, in which case output will never be cached. This
+   * default implementation always returns <code>-1</code>.
+   */
+  public long getContentVersion() {
+    return -1;
+  }
+
+  /**
+   * Get the time at which the content of this entity was last modified, suitable for use as an HTTP
+   * <code>Last-Modified</code> header. Unlike the {@linkplain #getEntityTag() entity tag}, this doesn't reflect any
+   * change to the transformations or output settings.
+   * 
+   * @return The time of the last modification, in milliseconds since the epoch, or <code>-1</code> if it isn't known.
+   * This default implementation always returns <code>-1</code>.
+   */
+  public long getLastModified() {
+    return -1;
+  }
+
   /**
    * Will <a href="http://xml.apache.org/xalan-j/features.html#incremental">incremental</a> transformations be used if
    * available?
@@ -295,6 +473,7 @@ public abstract class TransformableEntity {
    * @param incremental Should incremental transforms be enabled?
    */
   public synchronized void setIncremental(final boolean incremental) {
+    checkNotFrozen();
     this.incremental = incremental;
     return;
   }
@@ -318,6 +497,7 @@ public abstract class TransformableEntity {
    * @param indent A boolean containing the {@linkplain OutputKeys#INDENT indenting policy}.
    */
   public synchronized void setIndent(final boolean indent) {
+    checkNotFrozen();
     this.indent = indent;
     return;
   }
@@ -342,10 +522,41 @@ public abstract class TransformableEntity {
    * policy}.
    */
   public synchronized void setOmitXMLDeclaration(final boolean omitXMLDeclaration) {
+    checkNotFrozen();
     this.omitXMLDeclaration = omitXMLDeclaration;
     return;
   }
 
+  /**
+   * Freeze the configuration of this entity, after which any attempt to modify it will result in an
+   * {@link IllegalStateException}. Subclasses may extend this guarantee to their content, allowing any number of threads
+   * to {@linkplain #transform(Result) transform} a frozen entity concurrently. Freezing an entity which is already
+   * frozen has no effect.
+   */
+  public synchronized void freeze() {
+    frozen = true;
+    return;
+  }
+
+  /**
+   * Has this entity been {@linkplain #freeze() frozen}?
+   * 
+   * @return <code>true</code> if this entity is frozen.
+   */
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Ensure this entity hasn't been {@linkplain #freeze() frozen}, prior to modifying it.
+   * 
+   * @throws IllegalStateException If this entity is frozen.
+   */
+  protected final void checkNotFrozen() throws IllegalStateException {
+    if (frozen) throw new IllegalStateException(getClass().getName() + " is frozen");
+    return;
+  }
+
   /**
    * Get the final {@linkplain OutputKeys#MEDIA_TYPE media type} which will be {@linkplain #transform(Result) output} by
    * this entity and it's {@linkplain #setTransformations(Iterable) configured transformations}.
@@ -355,6 +566,10 @@ public abstract class TransformableEntity {
    * result.
    */
   public synchronized @Nullable MimeType getOutputMediaType() throws MimeTypeParseException {
+    if (transformations instanceof TransformationPipeline) {
+      final TransformationPipeline transformationPipeline = (TransformationPipeline)transformations;
+      return (transformationPipeline.isEmpty()) ? mediaType : transformationPipeline.getOutputMediaType();
+    }
     final Optional<? extends @Nullable Templates> lastTransformation = last(transformations, true);
     if (!lastTransformation.isPresent()) return mediaType;
     final String mediaType = lastTransformation.get().getOutputProperties().getProperty(OutputKeys.MEDIA_TYPE);
@@ -370,6 +585,10 @@ public abstract class TransformableEntity {
    * result.
    */
   public synchronized @Nullable Charset getOutputEncoding() throws UnsupportedCharsetException {
+    if (transformations instanceof TransformationPipeline) {
+      final TransformationPipeline transformationPipeline = (TransformationPipeline)transformations;
+      return (transformationPipeline.isEmpty()) ? encoding : transformationPipeline.getOutputEncoding();
+    }
     final Optional<? extends @Nullable Templates> lastTransformation = last(transformations, true);
     if (!lastTransformation.isPresent()) return encoding;
     final String encoding = lastTransformation.get().getOutputProperties().getProperty(OutputKeys.ENCODING);
@@ -408,7 +627,7 @@ public abstract class TransformableEntity {
 
       // Use the media type to set a default output method as best we can...
       if (isXML(mediaType)) {
-        if ((SAX_TRANSFORMER_FACTORY_SUPPORTS_XHTML_OUTPUT) && (isHTML(mediaType))) {
+        if ((isHTML(mediaType)) && (XHTMLOutputSupport.SUPPORTED)) {
           baseTransformer.setOutputProperty(OutputKeys.METHOD, "xhtml");
         } else {
           baseTransformer.setOutputProperty(OutputKeys.METHOD, "xml");
@@ -440,6 +659,12 @@ public abstract class TransformableEntity {
 
   /**
    * Construct the chain of {@link TransformerHandler}'s required to {@linkplain #transform(Result) output} this entity.
+   * If a {@linkplain #setTransformerHandlerPool(TransformerHandlerPool) pool} is configured, the chain may be acquired
+   * from it, and if the {@linkplain #setTransformationPipeline(TransformationPipeline) pipeline} has a
+   * {@linkplain TransformationPipeline#getCacheablePrefixLength() cacheable prefix}, it's output will be recorded. In
+   * either case, the chain should be {@linkplain #releaseTransformerHandlers(Result) released} after a successful
+   * transform. During a {@linkplain #transform(Result, TransformLimits) limited} transform, a checkpoint enforcing the
+   * {@link TransformLimits} is placed at the head of the chain.
    * 
    * @param result The final {@link Result} the chain of handlers should output to.
    * @return A {@link Result} wrapping the head of the created {@link TransformerHandler} chain, or the supplied
@@ -448,27 +673,116 @@ public abstract class TransformableEntity {
    * {@linkplain SAXTransformerFactory#newTransformerHandler(Templates) constructing} a handler.
    */
   protected Result createTransformerHandlers(final Result result) throws TransformerConfigurationException {
+    final TransformEvents.HandlerChain handlerChainEvent = new TransformEvents.HandlerChain();
+    final long @Nullable [] setupNanos = (transformListener != null) ? SETUP_NANOS.get() : null;
+    if ((setupNanos == null) && (!handlerChainEvent.isEnabled())) return checkpoint(createTransformerHandlersImpl(result));
+    handlerChainEvent.begin();
+    final long start = System.nanoTime();
+    try {
+      final Result transformResult = createTransformerHandlersImpl(result);
+      handlerChainEvent.end();
+      if (handlerChainEvent.shouldCommit()) {
+        handlerChainEvent.entityClass = getClass();
+        handlerChainEvent.pipeline = TransformEvents.getPipelineName(transformations);
+        handlerChainEvent.incremental = incremental;
+        handlerChainEvent.pooled = transformResult instanceof TransformerHandlerPool.PooledResult;
+        handlerChainEvent.commit();
+      }
+      return checkpoint(transformResult);
+    } finally {
+      if (setupNanos != null) setupNanos[0] += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * @param result The final {@link Result} the chain of handlers should output to.
+   * @return A {@link Result} wrapping the head of the created {@link TransformerHandler} chain, or the supplied
+   * <code>result</code> if there are no <code>transformations</code>.
+   * @throws TransformerConfigurationException If there was a problem
+   * {@linkplain SAXTransformerFactory#newTransformerHandler(Templates) constructing} a handler.
+   * @see #createTransformerHandlers(Result)
+   */
+  private Result createTransformerHandlersImpl(final Result result) throws TransformerConfigurationException {
     final Iterable<? extends @Nullable Templates> transformations = this.transformations;
-    if ((transformations == null) || (!first(transformations, true).isPresent())) return result;
+    if (transformations == null) return result;
+    if (transformations instanceof TransformationPipeline) {
+      final TransformationPipeline transformationPipeline = (TransformationPipeline)transformations;
+      if (transformationPipeline.getCacheablePrefixLength() > 0) return createRecordingTransformerHandlers(transformationPipeline, getContentVersion(), result);
+    }
+    return createTransformerHandlers(transformations, result);
+  }
+
+  /**
+   * Place a checkpoint enforcing the {@link TransformLimits} of the current {@linkplain #transform(Result,
+   * TransformLimits) limited} transform (if any) at the head of the chain of handlers wrapped by the given
+   * <code>transformResult</code>.
+   * 
+   * @param transformResult The {@link Result} wrapping the head of a {@link TransformerHandler} chain.
+   * @return A {@link Result} wrapping the checkpoint, or the supplied <code>transformResult</code> if none is required.
+   */
+  private static Result checkpoint(final Result transformResult) {
+    final TransformLimits.Budget budget = TRANSFORM_BUDGET.get();
+    return (budget != null) ? budget.checkpoint(transformResult) : transformResult;
+  }
+
+  /**
+   * Construct the chain of {@link TransformerHandler}'s required to perform the given <code>transformations</code>.
+   * 
+   * @param transformations The transformations to create handlers for.
+   * @param result The final {@link Result} the chain of handlers should output to.
+   * @return A {@link Result} wrapping the head of the created {@link TransformerHandler} chain, or the supplied
+   * <code>result</code> if there are no <code>transformations</code>.
+   * @throws TransformerConfigurationException If there was a problem
+   * {@linkplain SAXTransformerFactory#newTransformerHandler(Templates) constructing} a handler.
+   * @see #createTransformerHandlers(Result)
+   */
+  private Result createTransformerHandlers(final Iterable<? extends @Nullable Templates> transformations, final Result result) throws TransformerConfigurationException {
+    final TransformationPipeline transformationPipeline = (transformations instanceof TransformationPipeline) ? (TransformationPipeline)transformations : null;
+    if ((transformationPipeline != null) ? transformationPipeline.isEmpty() : !first(transformations, true).isPresent()) return result;
+    final Map<String,Object> defaultParameters = (transformationPipeline != null) ? transformationPipeline.getParameters() : null;
+
+    final boolean probeStages = new TransformEvents.Stage().isEnabled();
+    final TransformerHandlerPool transformerHandlerPool = this.transformerHandlerPool;
+    if ((transformerHandlerPool != null) && (result instanceof StreamResult) && (!probeStages)) {
+      final TransformerHandlerPool.Key key;
+      if (transformationPipeline != null) {
+        key = (incremental) ? transformationPipeline.poolKeyIncremental : transformationPipeline.poolKey;
+      } else {
+        final ArrayList<Templates> templates = new ArrayList<Templates>();
+        for (Templates template : transformations) {
+          if (template != null) templates.add(template);
+        }
+        key = new TransformerHandlerPool.Key(templates, incremental);
+      }
+      return transformerHandlerPool.acquire(key, defaultParameters, transformationParameters, (StreamResult)result);
+    }
 
     final ArrayList<TransformerHandler> transformerHandlers = new ArrayList<TransformerHandler>();
     TransformerHandler lastHandler = null;
+    TransformEvents.StageProbe firstProbe = null;
+    TransformEvents.StageProbe lastProbe = null;
     for (Templates template : transformations) {
       if (template == null) continue;
 
       final TransformerHandler transformerHandler = newTransformerHandler(template, incremental, ERROR_LISTENER);
 
-      final Map<?,?> transformationParameters = this.transformationParameters;
-      if (transformationParameters != null) {
-        for (Object key : transformationParameters.keySet()) {
-          if (key == null) continue;
-          final Object value = transformationParameters.get(key);
-          if (value == null) continue;
-          transformerHandler.getTransformer().setParameter(key.toString(), value);
+      setParameters(transformerHandler.getTransformer(), defaultParameters);
+      setParameters(transformerHandler.getTransformer(), transformationParameters);
+
+      final SAXResult handlerResult;
+      if (probeStages) {
+        final TransformEvents.StageProbe probe = new TransformEvents.StageProbe(transformerHandler, getClass(), TransformEvents.getPipelineName(transformations), transformerHandlers.size(), TemplatesCache.getSystemID(template), incremental);
+        if (lastProbe != null) {
+          lastProbe.next = probe;
+        } else {
+          firstProbe = probe;
         }
+        lastProbe = probe;
+        handlerResult = probe.newSAXResult();
+      } else {
+        handlerResult = newSAXResult(transformerHandler);
       }
-
-      if (lastHandler != null) lastHandler.setResult(newSAXResult(transformerHandler)); // Set the previous handler's result to the one we just created.
+      if (lastHandler != null) lastHandler.setResult(handlerResult); // Set the previous handler's result to the one we just created.
 
       transformerHandlers.add(transformerHandler);
       lastHandler = transformerHandler;
@@ -477,93 +791,696 @@ public abstract class TransformableEntity {
     if (lastHandler == null) return result;
     lastHandler.setResult(result);
 
+    if (firstProbe != null) return firstProbe.newSAXResult();
     final Optional<TransformerHandler> firstHandler = first(transformerHandlers, false);
     return (firstHandler.isPresent()) ? newSAXResult(firstHandler.get()) : result;
   }
 
   /**
-   * Output this entity to the given <code>result</code> while performing any {@linkplain #setTransformations(Iterable)
-   * configured transformations}.
+   * Construct the chain of {@link TransformerHandler}'s required to perform the given <code>transformationPipeline</code>,
+   * recording the output of it's {@linkplain TransformationPipeline#getCacheablePrefixLength() cacheable prefix} as it's
+   * passed on to the remaining stages. The recording is retained when the chain is
+   * {@linkplain #releaseTransformerHandlers(Result) released}. If the content version isn't known, nothing is recorded,
+   * but the prefix stages are still supplied only the {@linkplain TransformationPipeline#getParameters() default
+   * parameters} of the pipeline.
+   * 
+   * @param transformationPipeline The {@link TransformationPipeline} to create handlers for.
+   * @param contentVersion The {@linkplain #getContentVersion() content version} being transformed, or <code>-1</code>
+   * if it isn't known.
+   * @param result The final {@link Result} the chain of handlers should output to.
+   * @return A {@link Result} wrapping the head of the created {@link TransformerHandler} chain.
+   * @throws TransformerConfigurationException If there was a problem
+   * {@linkplain SAXTransformerFactory#newTransformerHandler(Templates) constructing} a handler.
+   */
+  private Result createRecordingTransformerHandlers(final TransformationPipeline transformationPipeline, final long contentVersion, final Result result) throws TransformerConfigurationException {
+    final TransformationPipeline cacheableSuffix = Objects.requireNonNull(transformationPipeline.cacheableSuffix);
+    final SAXResult suffixResult = (SAXResult)createTransformerHandlers(cacheableSuffix, result);
+    final SAXEventRecording.Recorder recorder = (contentVersion >= 0) ? new SAXEventRecording.Recorder(suffixResult.getHandler(), suffixResult.getLexicalHandler()) : null;
+
+    final List<Templates> prefix = transformationPipeline.getStages().subList(0, transformationPipeline.getCacheablePrefixLength());
+    final TransformerHandler[] transformerHandlers = new TransformerHandler[prefix.size()];
+    for (int i = 0; i < transformerHandlers.length; i++) {
+      transformerHandlers[i] = newTransformerHandler(prefix.get(i), incremental, ERROR_LISTENER);
+      setParameters(transformerHandlers[i].getTransformer(), transformationPipeline.getParameters());
+      if (i > 0) transformerHandlers[i - 1].setResult(newSAXResult(transformerHandlers[i]));
+    }
+    if (recorder == null) {
+      transformerHandlers[transformerHandlers.length - 1].setResult(suffixResult);
+      return new RecordingResult(transformerHandlers[0], null, suffixResult);
+    }
+    final SAXResult recorderResult = new SAXResult(recorder);
+    recorderResult.setLexicalHandler(recorder);
+    transformerHandlers[transformerHandlers.length - 1].setResult(recorderResult);
+
+    return new RecordingResult(transformerHandlers[0], new RecordedPrefix(transformationPipeline, contentVersion, recorder), suffixResult);
+  }
+
+  /**
+   * Release the chain of {@link TransformerHandler}'s returned from {@link #createTransformerHandlers(Result)} after a
+   * successful transform, returning it to the {@linkplain #setTransformerHandlerPool(TransformerHandlerPool) pool} it
+   * was acquired from (if any). A chain which was used in a failed transform should not be released.
+   * 
+   * @param transformResult The {@link Result} returned from {@link #createTransformerHandlers(Result)}.
+   */
+  protected static final void releaseTransformerHandlers(final Result transformResult) {
+    if (transformResult instanceof TransformLimits.CheckpointResult) {
+      releaseTransformerHandlers(((TransformLimits.CheckpointResult)transformResult).transformResult);
+    } else if (transformResult instanceof TransformerHandlerPool.PooledResult) {
+      ((TransformerHandlerPool.PooledResult)transformResult).release();
+    } else if (transformResult instanceof RecordingResult) {
+      ((RecordingResult)transformResult).release();
+    }
+    return;
+  }
+
+  /**
+   * If the output of the {@linkplain TransformationPipeline#getCacheablePrefixLength() cacheable prefix} of the
+   * {@linkplain #setTransformationPipeline(TransformationPipeline) pipeline} has been recorded for the current
+   * {@linkplain #getContentVersion() content version}, replay it into the remaining stages, outputting to the given
+   * <code>result</code>.
    * 
    * @param result The {@link Result} the serialized output should be sent to.
+   * @return <code>true</code> if the recording was replayed, <code>false</code> if this entity still needs to be
+   * {@linkplain #transformImpl(Result) transformed}.
    * @throws TransformerException If there was a problem constructing the transformer(s).
    * @throws IOException If there was an I/O problem writing to the <code>result</code>.
    */
-  protected abstract void transformImpl(Result result) throws TransformerException, IOException;
+  private boolean transformRecordedPrefix(final Result result) throws TransformerException, IOException {
+    if (recordedPrefix == null) return false;
+    if (isFrozen()) return transformRecordedPrefixImpl(result);
+    synchronized (this) {
+      return transformRecordedPrefixImpl(result);
+    }
+  }
 
   /**
-   * Output this entity to the given <code>result</code> while performing any {@linkplain #setTransformations(Iterable)
-   * configured transformations}.
-   * 
    * @param result The {@link Result} the serialized output should be sent to.
+   * @return <code>true</code> if the recording was replayed.
    * @throws TransformerException If there was a problem constructing the transformer(s).
    * @throws IOException If there was an I/O problem writing to the <code>result</code>.
+   * @see #transformRecordedPrefix(Result)
    */
-  public void transform(final Result result) throws TransformerException, IOException {
+  private boolean transformRecordedPrefixImpl(final Result result) throws TransformerException, IOException {
+    final RecordedPrefix recordedPrefix = this.recordedPrefix;
+    final long contentVersion = getContentVersion();
+    if ((recordedPrefix == null) || (contentVersion < 0) || (recordedPrefix.transformationPipeline != transformations) || (recordedPrefix.contentVersion != contentVersion)) return false;
+    final SAXEventRecording recording = recordedPrefix.recorder.getRecording();
+    final TransformationPipeline cacheableSuffix = recordedPrefix.transformationPipeline.cacheableSuffix;
+    if ((recording == null) || (cacheableSuffix == null)) return false;
+
+    final long @Nullable [] setupNanos = (transformListener != null) ? SETUP_NANOS.get() : null;
+    final long setupStart = (setupNanos != null) ? System.nanoTime() : 0;
+    final Result suffixResult = checkpoint(createTransformerHandlers(cacheableSuffix, result));
+    if (setupNanos != null) setupNanos[0] += System.nanoTime() - setupStart;
     try {
-      transformImpl(result);
-    } catch (TransformerException te) {
-      Logger.getLogger(TransformableEntity.class.getName() + ".transform." + TransformerException.class.getSimpleName()).log(Level.FINER, te.getMessage(), te);
-      throw te;
-    } catch (IOException ioe) {
-      Logger.getLogger(TransformableEntity.class.getName() + ".transform." + IOException.class.getSimpleName()).log(Level.FINER, ioe.getMessage(), ioe);
-      throw ioe;
-    } catch (RuntimeException re) {
-      Logger.getLogger(TransformableEntity.class.getName() + ".transform." + RuntimeException.class.getSimpleName()).log(Level.FINER, re.getMessage(), re);
-      throw re;
+      recording.replay((SAXResult)suffixResult);
+      releaseTransformerHandlers(suffixResult);
+    } catch (SAXException saxe) {
+      if (saxe.getCause() instanceof IOException) throw (IOException)saxe.getCause();
+      if ((saxe.getCause() instanceof TransformerException) && (saxe.getCause().getCause() instanceof IOException)) throw (IOException)saxe.getCause().getCause();
+      throw new TransformerException(saxe);
+    }
+    return true;
+  }
+
+  /**
+   * {@linkplain Transformer#setParameter(String, Object) Supply} the given <code>transformationParameters</code> to
+   * the <code>transformer</code>, ignoring any <code>null</code> keys or values.
+   * 
+   * @param transformer The {@link Transformer} to supply the parameters to.
+   * @param transformationParameters The parameters to supply.
+   */
+  static final void setParameters(final Transformer transformer, final @Nullable Map<?,?> transformationParameters) {
+    if (transformationParameters == null) return;
+    for (Object key : transformationParameters.keySet()) {
+      if (key == null) continue;
+      final Object value = transformationParameters.get(key);
+      if (value == null) continue;
+      transformer.setParameter(key.toString(), value);
     }
     return;
   }
 
   /**
-   * Return the first item of the supplied <code>iterable</code>.
+   * Output this entity to the given <code>result</code> while performing any {@linkplain #setTransformations(Iterable)
+   * configured transformations}.
    * 
-   * @param <T> The type of the <code>list</code> items.
-   * @param iterable The collection to retrieve the first element of.
-   * @param skipNulls Should <code>null</code> values within the collection be ignored?
-   * @return The first (optionally non-<code>null</code>) item in <code>iterable</code>.
+   * @param result The {@link Result} the serialized output should be sent to.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem writing to the <code>result</code>.
    */
-  protected static final <T> Optional<@NonNull T> first(final @Nullable Iterable<T> iterable, final boolean skipNulls) {
-    return Optional.ofNullable(iterable).flatMap((i) -> StreamSupport.stream(i.spliterator(), false).filter((obj) -> !skipNulls || Objects.nonNull(obj)).findFirst());
+  protected abstract void transformImpl(Result result) throws TransformerException, IOException;
+
+  /**
+   * Output this entity to the given <code>result</code> while performing any {@linkplain #setTransformations(Iterable)
+   * configured transformations}, enforcing any {@linkplain #setTransformLimits(TransformLimits) configured limits}.
+   * 
+   * @param result The {@link Result} the serialized output should be sent to.
+   * @throws TransformLimitExceededException If the transform was aborted for exceeding it's limits.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem writing to the <code>result</code>.
+   */
+  public void transform(final Result result) throws TransformLimitExceededException, TransformerException, IOException {
+    transform(result, transformLimits);
+    return;
   }
 
   /**
-   * Return the last item of the supplied <code>iterable</code>.
+   * Output this entity to the given <code>result</code> while performing any {@linkplain #setTransformations(Iterable)
+   * configured transformations}, aborting with a {@link TransformLimitExceededException} if the supplied
+   * <code>transformLimits</code> are exceeded. The limits are enforced from the start of this call, in place of any
+   * {@linkplain #setTransformLimits(TransformLimits) configured for this entity}.
    * 
-   * @param <T> The type of the <code>iterable</code> items.
-   * @param iterable The collection to retrieve the last element of.
-   * @param skipNulls Should <code>null</code> values within the collection be ignored?
-   * @return The last (optionally non-<code>null</code>) item in <code>iterable</code>.
+   * @param result The {@link Result} the serialized output should be sent to.
+   * @param transformLimits The {@link TransformLimits} to enforce, or <code>null</code> for none.
+   * @throws IllegalArgumentException If the <code>transformLimits</code> have a
+   * {@linkplain TransformLimits#getMaximumOutputBytes() maximum output}, which can't be enforced on the
+   * <code>result</code>.
+   * @throws TransformLimitExceededException If the transform was aborted for exceeding it's limits.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem writing to the <code>result</code>.
    */
-  protected static final <T> Optional<@NonNull T> last(final @Nullable Iterable<T> iterable, final boolean skipNulls) {
-    return Optional.ofNullable(iterable).flatMap((i) -> StreamSupport.stream(i.spliterator(), false).filter((obj) -> !skipNulls || Objects.nonNull(obj)).reduce((p, c) -> c));
+  public void transform(final Result result, final @Nullable TransformLimits transformLimits) throws IllegalArgumentException, TransformLimitExceededException, TransformerException, IOException {
+    final TransformLimits.Budget budget = (transformLimits != null) ? transformLimits.newBudget() : null;
+    transformLimited((budget != null) ? budget.wrap(result) : result, budget);
+    return;
   }
 
   /**
-   * Is the supplied {@link MimeType} that of an XML document?
+   * Output this entity to the given (already {@linkplain TransformLimits.Budget#wrap(Result) wrapped})
+   * <code>limitedResult</code>, enforcing the supplied <code>budget</code>.
    * 
-   * @param mimeType The {@link MimeType} in question
-   * @return <code>true</code> if the <code>mimeType</code> argument is an XML type.
+   * @param limitedResult The {@link Result} the serialized output should be sent to.
+   * @param budget The {@link TransformLimits.Budget} to enforce, or <code>null</code> for none.
+   * @throws TransformLimitExceededException If the transform was aborted for exceeding it's limits.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem writing to the <code>limitedResult</code>.
    */
-  protected static final boolean isXML(final @Nullable MimeType mimeType) {
-    if (mimeType == null) return false;
-    final String subType = mimeType.getSubType();
-    if (subType == null) return false;
-    if (subType.endsWith("+xml")) return true;
-    final String primaryType = mimeType.getPrimaryType();
-    if (primaryType == null) return false;
-    if (primaryType.equals("application")) {
-      if (subType.equals("xml")) return true;
-    } else if (primaryType.equals("text")) {
-      if (subType.equals("xml")) return true;
+  private void transformLimited(final Result limitedResult, final TransformLimits.@Nullable Budget budget) throws TransformLimitExceededException, TransformerException, IOException {
+    final TransformLimits.Budget outerBudget = TRANSFORM_BUDGET.get();
+    if ((budget != null) || (outerBudget != null)) TRANSFORM_BUDGET.set(budget);
+    try {
+      final TransformListener transformListener = this.transformListener;
+      final TransformEvents.Transform transformEvent = new TransformEvents.Transform();
+      if ((transformListener != null) || (transformEvent.isEnabled())) {
+        transformMonitored(limitedResult, transformListener, transformEvent);
+      } else {
+        transformLogged(limitedResult);
+      }
+    } finally {
+      if (outerBudget != null) {
+        TRANSFORM_BUDGET.set(outerBudget);
+      } else if (budget != null) {
+        TRANSFORM_BUDGET.remove();
+      }
     }
-    return false;
+    return;
   }
 
   /**
-   * Is the supplied {@link MimeType} that of an <a href="http://www.w3.org/TR/html/">HTML</a> document?
+   * Perform a {@linkplain #transform(Result) transform}, timing it, counting the bytes output, and notifying the
+   * supplied <code>transformListener</code> of the outcome and/or committing the <code>transformEvent</code>.
    * 
-   * @param mimeType The {@link MimeType} in question
+   * @param result The {@link Result} the serialized output should be sent to.
+   * @param transformListener The {@link TransformListener} to notify, or <code>null</code>.
+   * @param transformEvent The {@link TransformEvents.Transform} event to record, if it's enabled.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem writing to the <code>result</code>.
+   */
+  private void transformMonitored(final Result result, final @Nullable TransformListener transformListener, final TransformEvents.Transform transformEvent) throws TransformerException, IOException {
+    final Result monitoredResult;
+    final CountingOutputStream countingOutputStream;
+    final long channelBytesWritten;
+    if (result instanceof ChannelResult) {
+      monitoredResult = result;
+      countingOutputStream = null;
+      channelBytesWritten = ((ChannelResult)result).getBytesWritten();
+    } else if ((result.getClass() == StreamResult.class) && (((StreamResult)result).getOutputStream() != null)) {
+      countingOutputStream = new CountingOutputStream(((StreamResult)result).getOutputStream());
+      monitoredResult = new StreamResult(countingOutputStream);
+      if (result.getSystemId() != null) monitoredResult.setSystemId(result.getSystemId());
+      channelBytesWritten = -1;
+    } else {
+      monitoredResult = result;
+      countingOutputStream = null;
+      channelBytesWritten = -1;
+    }
+
+    final long @Nullable [] outerSetupNanos = SETUP_NANOS.get();
+    final long[] setupNanos = new long[1];
+    SETUP_NANOS.set(setupNanos);
+    transformEvent.begin();
+    final long start = System.nanoTime();
+    Exception exception = null;
+    try {
+      transformLogged(monitoredResult);
+    } catch (TransformerException | IOException | RuntimeException e) {
+      exception = e;
+      throw e;
+    } finally {
+      final long elapsedNanos = System.nanoTime() - start;
+      if (outerSetupNanos != null) {
+        SETUP_NANOS.set(outerSetupNanos);
+      } else {
+        SETUP_NANOS.remove();
+      }
+      final long outputBytes = (countingOutputStream != null) ? countingOutputStream.count : (channelBytesWritten >= 0) ? ((ChannelResult)result).getBytesWritten() - channelBytesWritten : -1;
+      if (transformListener != null) transformListener.transformed(this, transformations, setupNanos[0], elapsedNanos - setupNanos[0], outputBytes, exception);
+      transformEvent.end();
+      if (transformEvent.shouldCommit()) {
+        transformEvent.entityClass = getClass();
+        transformEvent.pipeline = TransformEvents.getPipelineName(transformations);
+        transformEvent.incremental = incremental;
+        transformEvent.outputBytes = outputBytes;
+        transformEvent.exception = (exception != null) ? exception.getClass().getName() : null;
+        transformEvent.commit();
+      }
+    }
+    return;
+  }
+
+  /**
+   * Perform a {@linkplain #transform(Result) transform}, logging any failure.
+   * 
+   * @param result The {@link Result} the serialized output should be sent to.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem writing to the <code>result</code>.
+   */
+  private void transformLogged(final Result result) throws TransformerException, IOException {
+    try {
+      try {
+        final byte[] cachedOutput = ((result instanceof StreamResult) && ((((StreamResult)result).getOutputStream() != null) || (((StreamResult)result).getWriter() != null))) ? getCachedOutputImpl(null, null) : null;
+        if (cachedOutput != null) {
+          writeOutput(cachedOutput, (StreamResult)result);
+        } else if (!transformRecordedPrefix(result)) {
+          transformImpl(result);
+        }
+        if (result instanceof ChannelResult) ((ChannelResult)result).flush();
+      } catch (TransformerException | IOException | RuntimeException e) {
+        final TransformLimitExceededException tlee = TransformLimitExceededException.find(e);
+        if (tlee != null) throw tlee;
+        throw e;
+      } finally {
+        if (result instanceof ChannelResult) ((ChannelResult)result).release(); // Return the buffer if the transform or flush failed.
+      }
+    } catch (TransformerException te) {
+      Logger.getLogger(TransformableEntity.class.getName() + ".transform." + TransformerException.class.getSimpleName()).log(Level.FINER, te.getMessage(), te);
+      throw te;
+    } catch (IOException ioe) {
+      Logger.getLogger(TransformableEntity.class.getName() + ".transform." + IOException.class.getSimpleName()).log(Level.FINER, ioe.getMessage(), ioe);
+      throw ioe;
+    } catch (RuntimeException re) {
+      Logger.getLogger(TransformableEntity.class.getName() + ".transform." + RuntimeException.class.getSimpleName()).log(Level.FINER, re.getMessage(), re);
+      throw re;
+    }
+    return;
+  }
+
+  /**
+   * Output this entity to each of the given <code>branches</code>, performing any {@linkplain
+   * #setTransformations(Iterable) configured transformations} only once, and then sending that output through each
+   * branch's own transformations to it's {@linkplain OutputBranch#getResult() result}. The source content is traversed
+   * a single time, however many branches there are. A failure in any branch fails the whole transform. Any
+   * {@linkplain #setTransformLimits(TransformLimits) configured limits} are enforced on the transform as a whole, with
+   * the output of each branch measured separately.
+   * 
+   * @param branches The {@link OutputBranch}'s to output to.
+   * @throws IllegalArgumentException If there is a {@linkplain TransformLimits#getMaximumOutputBytes() maximum output}
+   * configured, which can't be enforced on a branch's result.
+   * @throws TransformLimitExceededException If the transform was aborted for exceeding it's limits.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem writing to a branch's result.
+   */
+  public void transform(final List<? extends OutputBranch> branches) throws IllegalArgumentException, TransformLimitExceededException, TransformerException, IOException {
+    final TransformLimits transformLimits = this.transformLimits;
+    final TransformLimits.Budget budget = (transformLimits != null) ? transformLimits.newBudget() : null;
+    final ContentHandler[] contentHandlers = new ContentHandler[branches.size()];
+    final @Nullable LexicalHandler[] lexicalHandlers = new LexicalHandler[branches.size()];
+    for (int i = 0; i < contentHandlers.length; i++) {
+      final Result result = branches.get(i).getResult();
+      final SAXResult branchResult = branches.get(i).createTransformerHandlers(incremental, (budget != null) ? budget.wrap(result) : result);
+      contentHandlers[i] = branchResult.getHandler();
+      lexicalHandlers[i] = branchResult.getLexicalHandler();
+    }
+    final FanOutHandler fanOutHandler = new FanOutHandler(contentHandlers, lexicalHandlers);
+    final SAXResult fanOutResult = new SAXResult(fanOutHandler);
+    fanOutResult.setLexicalHandler(fanOutHandler);
+    try {
+      try {
+        transformLimited(fanOutResult, budget);
+      } catch (TransformerException te) {
+        if ((te.getCause() instanceof SAXException) && (te.getCause().getCause() instanceof IOException)) throw (IOException)te.getCause().getCause();
+        throw te;
+      }
+      for (OutputBranch branch : branches) {
+        if (branch.getResult() instanceof ChannelResult) ((ChannelResult)branch.getResult()).flush();
+      }
+    } finally {
+      for (OutputBranch branch : branches) {
+        if (branch.getResult() instanceof ChannelResult) ((ChannelResult)branch.getResult()).release(); // Return the buffers of any branch which failed, or wasn't flushed.
+      }
+    }
+    return;
+  }
+
+  /**
+   * Get the serialized output of this entity from it's {@linkplain #setOutputCache(OutputCache) output cache},
+   * transforming it and storing the result if it isn't already cached. If a <code>variant</code> is specified, the
+   * output is additionally encoded (compressed, for example) using the supplied <code>encoder</code>, and the encoded
+   * output is also cached under that variant name, such that subsequent requests for it will avoid both the transform
+   * and the encoding.
+   * 
+   * @param variant The name of the encoded variant of the output required, or <code>null</code> for the output itself.
+   * @param encoder The {@link OutputCache.Encoder} used to create the <code>variant</code> from the output.
+   * @return The (possibly encoded) output, which must not be modified, or <code>null</code> if there is no
+   * {@linkplain #setOutputCache(OutputCache) output cache} or this entity doesn't have a known
+   * {@linkplain #getContentVersion() content version}, in which case the output isn't cacheable.
+   * @throws IllegalArgumentException If a <code>variant</code> is specified without an <code>encoder</code>.
+   * @throws TransformLimitExceededException If the transform was aborted for exceeding it's
+   * {@linkplain #setTransformLimits(TransformLimits) limits}.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem encoding the output.
+   */
+  public byte @Nullable [] getCachedOutput(final @Nullable String variant, final OutputCache.@Nullable Encoder encoder) throws IllegalArgumentException, TransformLimitExceededException, TransformerException, IOException {
+    if ((variant != null) && (encoder == null)) throw new IllegalArgumentException("No encoder supplied for variant '" + variant + "'");
+    final TransformLimits transformLimits = this.transformLimits;
+    final boolean limited = (transformLimits != null) && (TRANSFORM_BUDGET.get() == null);
+    if ((limited) && (transformLimits != null)) TRANSFORM_BUDGET.set(transformLimits.newBudget());
+    try {
+      try {
+        return getCachedOutputImpl(variant, encoder);
+      } catch (TransformerException | IOException | RuntimeException e) {
+        final TransformLimitExceededException tlee = TransformLimitExceededException.find(e);
+        if (tlee != null) throw tlee;
+        throw e;
+      } finally {
+        if (limited) TRANSFORM_BUDGET.remove();
+      }
+    } catch (TransformerException te) {
+      Logger.getLogger(TransformableEntity.class.getName() + ".getCachedOutput." + TransformerException.class.getSimpleName()).log(Level.FINER, te.getMessage(), te);
+      throw te;
+    } catch (IOException ioe) {
+      Logger.getLogger(TransformableEntity.class.getName() + ".getCachedOutput." + IOException.class.getSimpleName()).log(Level.FINER, ioe.getMessage(), ioe);
+      throw ioe;
+    } catch (RuntimeException re) {
+      Logger.getLogger(TransformableEntity.class.getName() + ".getCachedOutput." + RuntimeException.class.getSimpleName()).log(Level.FINER, re.getMessage(), re);
+      throw re;
+    }
+  }
+
+  /**
+   * @param variant The name of the encoded variant of the output required, or <code>null</code> for the output itself.
+   * @param encoder The {@link OutputCache.Encoder} used to create the <code>variant</code> from the output.
+   * @return The (possibly encoded) output, or <code>null</code> if it isn't cacheable.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem encoding the output.
+   * @see #getCachedOutput(String, OutputCache.Encoder)
+   */
+  private byte @Nullable [] getCachedOutputImpl(final @Nullable String variant, final OutputCache.@Nullable Encoder encoder) throws TransformerException, IOException {
+    final OutputCache outputCache = this.outputCache;
+    if (outputCache == null) return null;
+    final OutputCache.Key outputCacheKey = createOutputCacheKey(null);
+    if (outputCacheKey == null) return null;
+
+    final OutputCache.Key variantCacheKey = ((variant != null) && (encoder != null)) ? outputCacheKey.withVariant(variant) : null;
+    if ((variantCacheKey != null) && (encoder != null)) {
+      final byte[] cachedVariant = outputCache.get(variantCacheKey);
+      if (cachedVariant != null) return cachedVariant;
+    }
+
+    byte[] output = outputCache.get(outputCacheKey);
+    if (output == null) {
+      final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      final TransformLimits.Budget budget = TRANSFORM_BUDGET.get();
+      final Result result = (budget != null) ? budget.wrap(new StreamResult(outputStream)) : new StreamResult(outputStream);
+      if (!transformRecordedPrefix(result)) transformImpl(result);
+      output = outputStream.toByteArray();
+      outputCache.put(outputCacheKey, output);
+    }
+    if ((variantCacheKey == null) || (encoder == null)) return output;
+
+    final byte[] encodedOutput = encoder.encode(output);
+    outputCache.put(variantCacheKey, encodedOutput);
+    return encodedOutput;
+  }
+
+  /**
+   * Create the {@link OutputCache} key identifying the output of this entity.
+   * 
+   * @param variant The name of the encoded variant of the output, or <code>null</code> for the output itself.
+   * @return The {@link OutputCache.Key}, or <code>null</code> if the output isn't cacheable.
+   */
+  private synchronized OutputCache.@Nullable Key createOutputCacheKey(final @Nullable String variant) {
+    final long contentVersion = getContentVersion();
+    if (contentVersion < 0) return null;
+
+    final ArrayList<Templates> templates = new ArrayList<Templates>();
+    final HashMap<String,Object> parameters = new HashMap<String,Object>();
+    if (transformations != null) {
+      for (Templates template : transformations) {
+        if (template != null) templates.add(template);
+      }
+      if (transformations instanceof TransformationPipeline) parameters.putAll(((TransformationPipeline)transformations).getParameters());
+    }
+    if (transformationParameters != null) {
+      for (Map.Entry<?,?> parameter : transformationParameters.entrySet()) {
+        if ((parameter.getKey() == null) || (parameter.getValue() == null)) continue;
+        parameters.put(parameter.getKey().toString(), parameter.getValue());
+      }
+    }
+
+    final List<@Nullable Object> outputSettings = Arrays.asList((mediaType != null) ? mediaType.toString() : null, encoding, systemID, publicID, indent, omitXMLDeclaration);
+    return new OutputCache.Key(entityID, contentVersion, templates.toArray(new Templates[templates.size()]), parameters, outputSettings, variant);
+  }
+
+  /**
+   * Get a strong validator for the serialized output of this entity, suitable for use as an HTTP <code>ETag</code>,
+   * without performing a transform. The tag combines the identity of this entity and it's
+   * {@linkplain #getContentVersion() content version} with the identity of each of the
+   * {@linkplain #setTransformations(Iterable) transformations}, the (default and supplied) parameters and the output
+   * settings, so it changes whenever the output could. Since the content itself isn't examined, the tag is only useful
+   * for an entity which is retained between requests, and it won't survive a restart of the JVM.
+   * 
+   * @return The (unquoted) entity tag, or <code>null</code> if this entity doesn't have a known
+   * {@linkplain #getContentVersion() content version}, or has a parameter whose value isn't a {@link String},
+   * {@link Number} or {@link Boolean}, in which case the output can't be validated.
+   */
+  public @Nullable String getEntityTag() {
+    final StringBuilder validator = new StringBuilder();
+    synchronized (this) {
+      final long contentVersion = getContentVersion();
+      if (contentVersion < 0) return null;
+      appendValidatorField(validator, INSTANCE_ID);
+      appendValidatorField(validator, entityID);
+      appendValidatorField(validator, contentVersion);
+
+      final TreeMap<String,Object> parameters = new TreeMap<String,Object>();
+      if (transformations != null) {
+        for (Templates template : transformations) {
+          if (template != null) appendValidatorField(validator, TEMPLATES_IDS.computeIfAbsent(template, (t) -> NEXT_TEMPLATES_ID.getAndIncrement()));
+        }
+        if (transformations instanceof TransformationPipeline) parameters.putAll(((TransformationPipeline)transformations).getParameters());
+      }
+      if (transformationParameters != null) {
+        for (Map.Entry<?,?> parameter : transformationParameters.entrySet()) {
+          if ((parameter.getKey() == null) || (parameter.getValue() == null)) continue;
+          parameters.put(parameter.getKey().toString(), parameter.getValue());
+        }
+      }
+      for (Map.Entry<String,Object> parameter : parameters.entrySet()) {
+        final Object value = parameter.getValue();
+        if ((!(value instanceof String)) && (!(value instanceof Number)) && (!(value instanceof Boolean))) return null;
+        appendValidatorField(validator, parameter.getKey());
+        appendValidatorField(validator, value.getClass().getName());
+        appendValidatorField(validator, value);
+      }
+
+      for (Object outputSetting : Arrays.asList((mediaType != null) ? mediaType.toString() : null, encoding, systemID, publicID, indent, omitXMLDeclaration)) {
+        appendValidatorField(validator, outputSetting);
+      }
+    }
+
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-256").digest(validator.toString().getBytes(StandardCharsets.UTF_8));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 18));
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new IllegalStateException(nsae);
+    }
+  }
+
+  /**
+   * Append a (length prefixed) field to the <code>validator</code> an {@linkplain #getEntityTag() entity tag} is
+   * derived from.
+   * 
+   * @param validator The validator being built.
+   * @param value The value of the field.
+   */
+  private static void appendValidatorField(final StringBuilder validator, final @Nullable Object value) {
+    final String string = String.valueOf(value);
+    validator.append(string.length()).append(':').append(string);
+    return;
+  }
+
+  /**
+   * Write the serialized <code>output</code> of this entity to the given <code>result</code>. Output to a
+   * {@linkplain StreamResult#getWriter() writer} is decoded through a small buffer, rather than into a String the size
+   * of the output.
+   * 
+   * @param output The serialized output.
+   * @param result The {@link StreamResult} to write the output to.
+   * @throws IOException If there was an I/O problem writing to the <code>result</code>.
+   */
+  private void writeOutput(final byte[] output, final StreamResult result) throws IOException {
+    final OutputStream outputStream = result.getOutputStream();
+    if (outputStream != null) {
+      outputStream.write(output);
+      return;
+    }
+    final Writer writer = result.getWriter();
+    final Charset outputEncoding = getOutputEncoding();
+    final CharsetDecoder decoder = ((outputEncoding != null) ? outputEncoding : StandardCharsets.UTF_8).newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    final ByteBuffer in = ByteBuffer.wrap(output);
+    final CharBuffer out = CharBuffer.allocate(Math.min(output.length + 1, WRITE_OUTPUT_BUFFER_SIZE));
+    CoderResult coderResult;
+    do {
+      coderResult = decoder.decode(in, out, true);
+      writer.write(out.array(), 0, out.position());
+      out.clear();
+    } while (coderResult.isOverflow());
+    do {
+      coderResult = decoder.flush(out);
+      writer.write(out.array(), 0, out.position());
+      out.clear();
+    } while (coderResult.isOverflow());
+    return;
+  }
+
+  /**
+   * Prepare for the first requests to be served by performing the work which would otherwise delay them: creating the
+   * {@link SAXTransformerFactory} instances and probing their capabilities, loading (and, given enough
+   * <code>iterations</code>, JIT compiling) the classes on the transform path, and running each of the supplied
+   * <code>transformations</code> over a small synthetic document, both with and without
+   * {@linkplain #setIncremental(boolean) incremental} transforms. A stylesheet which fails to transform the synthetic
+   * document (because it requires particular input or parameters, for example) is still warmed up as far as it got,
+   * and the failure is only logged. Note that factories are created per-thread, so this only avoids their creation
+   * cost for the calling thread (and, where virtual threads are available, for the first of them, which share pooled
+   * factories), though the lookup of the factory implementation is shared by all threads.
+   * 
+   * @param transformations The compiled stylesheets to warm up, any <code>null</code> values within which will be
+   * ignored.
+   * @param iterations The number of times to transform the synthetic document with each stylesheet.
+   * @throws IllegalArgumentException If <code>iterations</code> is negative.
+   */
+  public static void warmUp(final Iterable<? extends @Nullable Templates> transformations, final int iterations) throws IllegalArgumentException {
+    if (iterations < 0) throw new IllegalArgumentException("iterations must not be negative");
+    SAXTransformerFactories.warmUp();
+    warmUp((Templates)null, iterations);
+    for (Templates templates : transformations) {
+      if (templates != null) warmUp(templates, iterations);
+    }
+    return;
+  }
+
+  /**
+   * Compile each of the given <code>stylesheets</code> into the supplied <code>templatesCache</code>, and then
+   * {@linkplain #warmUp(Iterable, int) warm up} the result.
+   * 
+   * @param templatesCache The {@link TemplatesCache} to compile the <code>stylesheets</code> into.
+   * @param stylesheets The {@link URI}'s of the stylesheets to compile.
+   * @param iterations The number of times to transform the synthetic document with each stylesheet.
+   * @return The compiled {@link Templates} for each of the <code>stylesheets</code>, in order.
+   * @throws IllegalArgumentException If <code>iterations</code> is negative.
+   * @throws TransformerConfigurationException If there was a problem compiling a stylesheet.
+   * @throws IOException If there was an I/O problem reading a stylesheet.
+   * @see #warmUp(Iterable, int)
+   */
+  public static List<Templates> warmUp(final TemplatesCache templatesCache, final Collection<URI> stylesheets, final int iterations) throws IllegalArgumentException, TransformerConfigurationException, IOException {
+    if (iterations < 0) throw new IllegalArgumentException("iterations must not be negative");
+    final ArrayList<Templates> templates = new ArrayList<Templates>(stylesheets.size());
+    for (URI stylesheet : stylesheets) {
+      templates.add(templatesCache.getTemplates(stylesheet));
+    }
+    warmUp(templates, iterations);
+    return templates;
+  }
+
+  /**
+   * Repeatedly transform a {@link WarmUpEntity} using the given <code>templates</code>.
+   * 
+   * @param templates The {@link Templates} to warm up, or <code>null</code> to warm up the base (identity) transform,
+   * for both XML and HTML output.
+   * @param iterations The number of transforms to perform in each mode.
+   */
+  private static void warmUp(final @Nullable Templates templates, final int iterations) {
+    final WarmUpEntity warmUpEntity = new WarmUpEntity();
+    if (templates != null) warmUpEntity.setTransformations(Collections.singletonList(templates));
+    for (int mode = 0; mode < 2; mode++) {
+      if (templates != null) {
+        warmUpEntity.setIncremental(mode == 1);
+      } else {
+        warmUpEntity.setMediaType((mode == 1) ? TEXT_HTML_MIME_TYPE : null);
+      }
+      for (int i = 0; i < iterations; i++) {
+        try {
+          warmUpEntity.transform(new StreamResult(OutputStream.nullOutputStream()));
+        } catch (TransformerException | IOException | RuntimeException e) {
+          Logger.getLogger(TransformableEntity.class.getName() + ".warmUp." + e.getClass().getSimpleName()).log(Level.FINE, e.getMessage(), e);
+          break;
+        }
+      }
+    }
+    return;
+  }
+
+  /**
+   * Return the first item of the supplied <code>iterable</code>.
+   * 
+   * @param <T> The type of the <code>list</code> items.
+   * @param iterable The collection to retrieve the first element of.
+   * @param skipNulls Should <code>null</code> values within the collection be ignored?
+   * @return The first (optionally non-<code>null</code>) item in <code>iterable</code>.
+   */
+  protected static final <T> Optional<@NonNull T> first(final @Nullable Iterable<T> iterable, final boolean skipNulls) {
+    return Optional.ofNullable(iterable).flatMap((i) -> StreamSupport.stream(i.spliterator(), false).filter((obj) -> !skipNulls || Objects.nonNull(obj)).findFirst());
+  }
+
+  /**
+   * Return the last item of the supplied <code>iterable</code>.
+   * 
+   * @param <T> The type of the <code>iterable</code> items.
+   * @param iterable The collection to retrieve the last element of.
+   * @param skipNulls Should <code>null</code> values within the collection be ignored?
+   * @return The last (optionally non-<code>null</code>) item in <code>iterable</code>.
+   */
+  protected static final <T> Optional<@NonNull T> last(final @Nullable Iterable<T> iterable, final boolean skipNulls) {
+    return Optional.ofNullable(iterable).flatMap((i) -> StreamSupport.stream(i.spliterator(), false).filter((obj) -> !skipNulls || Objects.nonNull(obj)).reduce((p, c) -> c));
+  }
+
+  /**
+   * Is the supplied {@link MimeType} that of an XML document?
+   * 
+   * @param mimeType The {@link MimeType} in question
+   * @return <code>true</code> if the <code>mimeType</code> argument is an XML type.
+   */
+  protected static final boolean isXML(final @Nullable MimeType mimeType) {
+    if (mimeType == null) return false;
+    final String subType = mimeType.getSubType();
+    if (subType == null) return false;
+    if (subType.endsWith("+xml")) return true;
+    final String primaryType = mimeType.getPrimaryType();
+    if (primaryType == null) return false;
+    if (primaryType.equals("application")) {
+      if (subType.equals("xml")) return true;
+    } else if (primaryType.equals("text")) {
+      if (subType.equals("xml")) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Is the supplied {@link MimeType} that of an <a href="http://www.w3.org/TR/html/">HTML</a> document?
+   * 
+   * @param mimeType The {@link MimeType} in question
    * @return <code>true</code> if the <code>mimeType</code> argument is an HTML type.
    */
   protected static final boolean isHTML(final @Nullable MimeType mimeType) {
@@ -610,11 +1527,13 @@ public abstract class TransformableEntity {
    * @see Transformer#setErrorListener(ErrorListener)
    */
   protected static final Transformer newTransformer(final boolean incremental, final @Nullable ErrorListener errorListener) throws TransformerConfigurationException {
-    final SAXTransformerFactory saxTransformerFactory = ((incremental) && (SAX_TRANSFORMER_FACTORY_INCREMENTAL != null)) ? SAX_TRANSFORMER_FACTORY_INCREMENTAL : SAX_TRANSFORMER_FACTORY;
-    synchronized (saxTransformerFactory) {
-      final Transformer transformer = saxTransformerFactory.newTransformer();
+    final SAXTransformerFactories saxTransformerFactories = SAXTransformerFactories.acquire();
+    try {
+      final Transformer transformer = saxTransformerFactories.get(incremental).newTransformer();
       if (errorListener != null) transformer.setErrorListener(errorListener);
       return transformer;
+    } finally {
+      saxTransformerFactories.release();
     }
   }
 
@@ -632,12 +1551,555 @@ public abstract class TransformableEntity {
    * @see Transformer#setErrorListener(ErrorListener)
    */
   protected static final TransformerHandler newTransformerHandler(final @Nullable Templates templates, final boolean incremental, final @Nullable ErrorListener errorListener) throws TransformerConfigurationException {
-    final SAXTransformerFactory saxTransformerFactory = ((incremental) && (SAX_TRANSFORMER_FACTORY_INCREMENTAL != null)) ? SAX_TRANSFORMER_FACTORY_INCREMENTAL : SAX_TRANSFORMER_FACTORY;
-    synchronized (saxTransformerFactory) {
+    final SAXTransformerFactories saxTransformerFactories = SAXTransformerFactories.acquire();
+    try {
+      final SAXTransformerFactory saxTransformerFactory = saxTransformerFactories.get(incremental);
       final TransformerHandler transformerHandler = (templates != null) ? saxTransformerFactory.newTransformerHandler(templates) : saxTransformerFactory.newTransformerHandler();
       if (errorListener != null) transformerHandler.getTransformer().setErrorListener(errorListener);
       return transformerHandler;
+    } finally {
+      saxTransformerFactories.release();
     }
   }
 
+  /**
+   * The {@link SAXTransformerFactory} instances used by a single thread at a time, which are created lazily, since a
+   * thread may never need an incremental one.
+   * 
+   * <p>
+   * Each platform thread has it's own instance, held by {@link TransformableEntity#SAX_TRANSFORMER_FACTORIES}, but
+   * virtual threads are typically created per task, so a per-thread instance would mean creating new factories for
+   * every transform. A virtual thread instead {@linkplain #acquire() borrows} an instance from a bounded pool for the
+   * duration of each use, and {@linkplain #release() returns} it afterwards.
+   * </p>
+   */
+  private static final class SAXTransformerFactories {
+    /**
+     * A handle to the <code>Thread.isVirtual()</code> method (added in Java 21), or <code>null</code> if this runtime
+     * doesn't support virtual threads.
+     */
+    private static final @Nullable MethodHandle THREAD_IS_VIRTUAL;
+    static {
+      MethodHandle threadIsVirtual = null;
+      try {
+        threadIsVirtual = MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {}
+      THREAD_IS_VIRTUAL = threadIsVirtual;
+    }
+    /**
+     * The maximum number of instances retained by the {@link #POOL}, beyond which released instances are discarded.
+     */
+    private static final int MAXIMUM_POOLED = Runtime.getRuntime().availableProcessors() * 4;
+    /**
+     * The instances available to be borrowed by virtual threads.
+     */
+    private static final Queue<SAXTransformerFactories> POOL = new ConcurrentLinkedQueue<>();
+    /**
+     * The number of instances in the {@link #POOL}, which is tracked separately, as {@link ConcurrentLinkedQueue#size()}
+     * must traverse the queue.
+     */
+    private static final AtomicInteger POOLED_COUNT = new AtomicInteger();
+    /**
+     * Was this instance created for the {@link #POOL}, and must therefore be {@linkplain #release() returned}?
+     */
+    private final boolean pooled;
+    /**
+     * The lazily created non-incremental {@link SAXTransformerFactory}.
+     */
+    private @Nullable SAXTransformerFactory saxTransformerFactory = null;
+    /**
+     * The lazily created {@link SAXTransformerFactory} supporting
+     * <a href="http://xml.apache.org/xalan-j/features.html#incremental">incremental</a> transforms.
+     */
+    private @Nullable SAXTransformerFactory saxTransformerFactoryIncremental = null;
+    /**
+     * Has creation of the {@link #saxTransformerFactoryIncremental} been attempted (it remaining <code>null</code>
+     * afterwards if incremental transforms aren't supported)?
+     */
+    private boolean incrementalCreated = false;
+
+    /**
+     * Construct a new <code>SAXTransformerFactories</code>.
+     * 
+     * @param pooled Is the new instance for the {@link #POOL}?
+     */
+    SAXTransformerFactories(final boolean pooled) {
+      this.pooled = pooled;
+      return;
+    }
+
+    /**
+     * Get the {@link SAXTransformerFactory} to use, creating it if required.
+     * 
+     * @param incremental Use <a href="http://xml.apache.org/xalan-j/features.html#incremental">incremental</a>
+     * transformations if available.
+     * @return The {@link SAXTransformerFactory}, which must only be used by the current thread, and, for a pooled
+     * instance, only until it's {@linkplain #release() released}.
+     */
+    SAXTransformerFactory get(final boolean incremental) {
+      if (incremental) {
+        if (!incrementalCreated) {
+          incrementalCreated = true;
+          try {
+            final SAXTransformerFactory stf = (SAXTransformerFactory)TransformerFactory.newInstance();
+            stf.setAttribute("http://xml.apache.org/xalan/features/incremental", Boolean.TRUE);
+            saxTransformerFactoryIncremental = stf;
+          } catch (IllegalArgumentException iae) {}
+        }
+        final SAXTransformerFactory stfi = saxTransformerFactoryIncremental;
+        if (stfi != null) return stfi;
+      }
+      SAXTransformerFactory stf = saxTransformerFactory;
+      if (stf == null) {
+        stf = (SAXTransformerFactory)TransformerFactory.newInstance();
+        saxTransformerFactory = stf;
+      }
+      return stf;
+    }
+
+    /**
+     * Is the current thread a virtual thread?
+     * 
+     * @return <code>true</code> if the current thread is virtual.
+     */
+    static boolean isVirtualThread() {
+      final MethodHandle threadIsVirtual = THREAD_IS_VIRTUAL;
+      if (threadIsVirtual == null) return false;
+      try {
+        return (boolean)threadIsVirtual.invokeExact(Thread.currentThread());
+      } catch (Throwable t) {
+        return false;
+      }
+    }
+
+    /**
+     * Acquire the <code>SAXTransformerFactories</code> for use by the current thread, which must be
+     * {@linkplain #release() released} once the factory has been used.
+     * 
+     * @return The <code>SAXTransformerFactories</code>.
+     */
+    static SAXTransformerFactories acquire() {
+      if (!isVirtualThread()) return SAX_TRANSFORMER_FACTORIES.get();
+      final SAXTransformerFactories saxTransformerFactories = POOL.poll();
+      if (saxTransformerFactories == null) return new SAXTransformerFactories(true);
+      POOLED_COUNT.decrementAndGet();
+      return saxTransformerFactories;
+    }
+
+    /**
+     * Release this instance after it was {@linkplain #acquire() acquired}, returning it to the {@link #POOL} if it's
+     * pooled and there is room.
+     */
+    void release() {
+      if (!pooled) return;
+      if (POOLED_COUNT.incrementAndGet() > MAXIMUM_POOLED) {
+        POOLED_COUNT.decrementAndGet();
+        return;
+      }
+      POOL.offer(this);
+      return;
+    }
+
+    /**
+     * Create the factories for the current thread and, if virtual threads are supported, for one pooled instance.
+     * 
+     * @see TransformableEntity#warmUp(Iterable, int)
+     */
+    static void warmUp() {
+      final SAXTransformerFactories saxTransformerFactories = acquire();
+      saxTransformerFactories.get(false);
+      saxTransformerFactories.get(true);
+      saxTransformerFactories.release();
+      if ((THREAD_IS_VIRTUAL == null) || (saxTransformerFactories.pooled) || (!POOL.isEmpty())) return;
+      final SAXTransformerFactories pooledSAXTransformerFactories = new SAXTransformerFactories(true);
+      pooledSAXTransformerFactories.get(false);
+      pooledSAXTransformerFactories.get(true);
+      pooledSAXTransformerFactories.release();
+      return;
+    }
+
+  }
+
+  /**
+   * The recorded output of the {@linkplain TransformationPipeline#getCacheablePrefixLength() cacheable prefix} of a
+   * {@link TransformationPipeline}.
+   */
+  private static final class RecordedPrefix {
+    /**
+     * The pipeline whose prefix was recorded.
+     */
+    final TransformationPipeline transformationPipeline;
+    /**
+     * The {@linkplain TransformableEntity#getContentVersion() content version} which was recorded.
+     */
+    final long contentVersion;
+    /**
+     * The recorder, whose {@linkplain SAXEventRecording.Recorder#getRecording() recording} is available once the
+     * prefix has completed.
+     */
+    final SAXEventRecording.Recorder recorder;
+
+    /**
+     * Construct a new <code>RecordedPrefix</code>.
+     * 
+     * @param transformationPipeline The pipeline whose prefix is being recorded.
+     * @param contentVersion The content version being recorded.
+     * @param recorder The recorder.
+     */
+    RecordedPrefix(final TransformationPipeline transformationPipeline, final long contentVersion, final SAXEventRecording.Recorder recorder) {
+      this.transformationPipeline = transformationPipeline;
+      this.contentVersion = contentVersion;
+      this.recorder = recorder;
+      return;
+    }
+
+  }
+
+  /**
+   * A {@link SAXResult} wrapping the head of a chain whose {@linkplain TransformationPipeline#getCacheablePrefixLength()
+   * cacheable prefix} output is being recorded.
+   */
+  private final class RecordingResult extends SAXResult {
+    /**
+     * The prefix being recorded, or <code>null</code> if the content version isn't known.
+     */
+    private final @Nullable RecordedPrefix recordedPrefix;
+    /**
+     * The {@link Result} wrapping the head of the remaining stages.
+     */
+    private final Result suffixResult;
+
+    /**
+     * Construct a new <code>RecordingResult</code>.
+     * 
+     * @param transformerHandler The head of the chain.
+     * @param recordedPrefix The prefix being recorded, or <code>null</code> if the content version isn't known.
+     * @param suffixResult The {@link Result} wrapping the head of the remaining stages.
+     */
+    RecordingResult(final TransformerHandler transformerHandler, final @Nullable RecordedPrefix recordedPrefix, final Result suffixResult) {
+      super(transformerHandler);
+      setLexicalHandler(transformerHandler);
+      if (transformerHandler.getSystemId() != null) setSystemId(transformerHandler.getSystemId());
+      this.recordedPrefix = recordedPrefix;
+      this.suffixResult = suffixResult;
+      return;
+    }
+
+    /**
+     * Retain the recording (if it's complete and still current), and release the remaining stages.
+     */
+    void release() {
+      final RecordedPrefix recordedPrefix = this.recordedPrefix;
+      if ((recordedPrefix != null) && (recordedPrefix.recorder.getRecording() != null) && (recordedPrefix.contentVersion >= 0) && (recordedPrefix.contentVersion == getContentVersion())) TransformableEntity.this.recordedPrefix = recordedPrefix;
+      releaseTransformerHandlers(suffixResult);
+      return;
+    }
+
+  }
+
+  /**
+   * Holds the (lazily computed) answer to whether the {@link SAXTransformerFactory} supports the
+   * <a href="http://www.w3.org/TR/xslt20/">XSLT 2.0</a> &quot;xhtml&quot;
+   * <a href="http://www.w3.org/TR/xslt20/#serialization">output serialization</a> {@linkplain OutputKeys#METHOD
+   * method}. Answering requires a test transform, so it's deferred until this class is first initialized, when HTML
+   * output is first configured (or during {@linkplain TransformableEntity#warmUp(Iterable, int) warm-up}), rather than
+   * delaying whichever thread first uses {@link TransformableEntity}.
+   */
+  private static final class XHTMLOutputSupport {
+    /**
+     * Does the {@link SAXTransformerFactory} support &quot;xhtml&quot; output?
+     */
+    static final boolean SUPPORTED;
+    static {
+      Exception e = null;
+      try {
+        final Transformer transformer = newTransformer(false, ERROR_LISTENER);
+        transformer.setOutputProperty(OutputKeys.METHOD, "xhtml"); // JDK (1.6) does _not_ throw here.
+        // With "xhtml" JDK (1.6) throws NullPointerException via TransformerImpl.transform(Source, Result) -> TransformerImpl.getOutputHandler(Result) -> TransletOutputHandlerFactory.getSerializationHandler().
+        transformer.transform(new StreamSource(new StringReader("<html><head><title>Test</title></head><body></body></html>")), new StreamResult(new OutputStream() {
+
+          @Override
+          public void write(final int b) throws IOException {
+            return;
+          }
+
+        }));
+      } catch (Exception e2) {
+        e = e2;
+      }
+      SUPPORTED = (e == null) ? true : false;
+    }
+
+  }
+
+  /**
+   * The synthetic entity transformed during {@linkplain TransformableEntity#warmUp(Iterable, int) warm-up}.
+   */
+  private static final class WarmUpEntity extends TransformableEntity {
+    /**
+     * The number of item elements in the synthetic document.
+     */
+    private static final int ITEMS = 64;
+
+    @Override
+    protected void transformImpl(final Result result) throws TransformerException, IOException {
+
+      final TransformerHandler baseTransformerHandler = newTransformerHandler(null, incremental, ERROR_LISTENER);
+      setupBaseTransformer(baseTransformerHandler.getTransformer());
+
+      final Result transformResult = createTransformerHandlers(result);
+      baseTransformerHandler.setResult(transformResult);
+
+      try {
+        final AttributesImpl attributes = new AttributesImpl();
+        baseTransformerHandler.startDocument();
+        baseTransformerHandler.startElement(XMLConstants.NULL_NS_URI, "html", "html", attributes);
+        baseTransformerHandler.startElement(XMLConstants.NULL_NS_URI, "body", "body", attributes);
+        for (int i = 0; i < ITEMS; i++) {
+          attributes.clear();
+          attributes.addAttribute(XMLConstants.NULL_NS_URI, "id", "id", "CDATA", "item" + i);
+          baseTransformerHandler.startElement(XMLConstants.NULL_NS_URI, "p", "p", attributes);
+          final char[] text = ("Warm-up item " + i + " & <text>.").toCharArray();
+          baseTransformerHandler.characters(text, 0, text.length);
+          baseTransformerHandler.endElement(XMLConstants.NULL_NS_URI, "p", "p");
+          baseTransformerHandler.comment(text, 0, 7);
+        }
+        baseTransformerHandler.endElement(XMLConstants.NULL_NS_URI, "body", "body");
+        baseTransformerHandler.endElement(XMLConstants.NULL_NS_URI, "html", "html");
+        baseTransformerHandler.endDocument();
+        releaseTransformerHandlers(transformResult);
+      } catch (SAXException saxe) {
+        if (saxe.getCause() instanceof IOException) throw (IOException)saxe.getCause();
+        throw new TransformerException(saxe);
+      }
+
+      return;
+    }
+
+  }
+
+  /**
+   * An {@link OutputStream} counting the bytes written through it to another stream, used to measure the output of a
+   * {@linkplain #setTransformListener(TransformListener) monitored} transform.
+   */
+  private static final class CountingOutputStream extends OutputStream {
+    /**
+     * The stream being written to.
+     */
+    private final OutputStream outputStream;
+    /**
+     * The number of bytes written.
+     */
+    long count = 0;
+
+    /**
+     * Construct a new <code>CountingOutputStream</code>.
+     * 
+     * @param outputStream The stream to write to.
+     */
+    CountingOutputStream(final OutputStream outputStream) {
+      this.outputStream = outputStream;
+      return;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      outputStream.write(b);
+      count++;
+      return;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      outputStream.write(b, off, len);
+      count += len;
+      return;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      outputStream.flush();
+      return;
+    }
+
+    @Override
+    public void close() throws IOException {
+      outputStream.close();
+      return;
+    }
+
+  }
+
+  /**
+   * A {@link ContentHandler} and {@link LexicalHandler} which forwards every event it receives to each of a number of
+   * other handlers.
+   */
+  private static final class FanOutHandler implements ContentHandler, LexicalHandler {
+    /**
+     * The handlers content events are forwarded to.
+     */
+    private final ContentHandler[] contentHandlers;
+    /**
+     * The handlers lexical events are forwarded to, with a <code>null</code> for each branch which discards them.
+     */
+    private final @Nullable LexicalHandler[] lexicalHandlers;
+
+    /**
+     * Construct a new <code>FanOutHandler</code>.
+     * 
+     * @param contentHandlers The handlers content events are forwarded to.
+     * @param lexicalHandlers The handlers lexical events are forwarded to.
+     */
+    FanOutHandler(final ContentHandler[] contentHandlers, final @Nullable LexicalHandler[] lexicalHandlers) {
+      this.contentHandlers = contentHandlers;
+      this.lexicalHandlers = lexicalHandlers;
+      return;
+    }
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.setDocumentLocator(locator);
+      }
+      return;
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.startDocument();
+      }
+      return;
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.endDocument();
+      }
+      return;
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.startPrefixMapping(prefix, uri);
+      }
+      return;
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.endPrefixMapping(prefix);
+      }
+      return;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.startElement(uri, localName, qName, atts);
+      }
+      return;
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.endElement(uri, localName, qName);
+      }
+      return;
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.characters(ch, start, length);
+      }
+      return;
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.ignorableWhitespace(ch, start, length);
+      }
+      return;
+    }
+
+    @Override
+    public void processingInstruction(final String target, final @Nullable String data) throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.processingInstruction(target, data);
+      }
+      return;
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+      for (ContentHandler contentHandler : contentHandlers) {
+        contentHandler.skippedEntity(name);
+      }
+      return;
+    }
+
+    @Override
+    public void startDTD(final String name, final @Nullable String publicId, final @Nullable String systemId) throws SAXException {
+      for (LexicalHandler lexicalHandler : lexicalHandlers) {
+        if (lexicalHandler != null) lexicalHandler.startDTD(name, publicId, systemId);
+      }
+      return;
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+      for (LexicalHandler lexicalHandler : lexicalHandlers) {
+        if (lexicalHandler != null) lexicalHandler.endDTD();
+      }
+      return;
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+      for (LexicalHandler lexicalHandler : lexicalHandlers) {
+        if (lexicalHandler != null) lexicalHandler.startEntity(name);
+      }
+      return;
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+      for (LexicalHandler lexicalHandler : lexicalHandlers) {
+        if (lexicalHandler != null) lexicalHandler.endEntity(name);
+      }
+      return;
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+      for (LexicalHandler lexicalHandler : lexicalHandlers) {
+        if (lexicalHandler != null) lexicalHandler.startCDATA();
+      }
+      return;
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+      for (LexicalHandler lexicalHandler : lexicalHandlers) {
+        if (lexicalHandler != null) lexicalHandler.endCDATA();
+      }
+      return;
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+      for (LexicalHandler lexicalHandler : lexicalHandlers) {
+        if (lexicalHandler != null) lexicalHandler.comment(ch, start, length);
+      }
+      return;
+    }
+
+  }
+
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.nio.charset.*;
+import java.util.*;
+
+import javax.activation.*;
+import javax.xml.namespace.*;
+import javax.xml.transform.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * An immutable sequence of {@link Templates}, along with (optional) default parameters, which can be
+ * {@linkplain TransformableEntity#setTransformationPipeline(TransformationPipeline) configured} as the transformations
+ * for any number of entities.
+ * 
+ * <p>
+ * Unlike an arbitrary {@link Iterable} supplied to {@link TransformableEntity#setTransformations(Iterable)}, a pipeline
+ * is analyzed once, on construction: <code>null</code> stages are removed, the final
+ * {@linkplain OutputKeys#MEDIA_TYPE media type}, {@linkplain OutputKeys#ENCODING encoding} and
+ * {@linkplain OutputKeys#METHOD method} output by the last stage are resolved, and the parameter names are validated,
+ * so none of this work needs to be repeated for every {@linkplain TransformableEntity#transform(Result) transform}.
+ * </p>
+ * 
+ * <p>
+ * A pipeline may also have a {@linkplain #getCacheablePrefixLength() cacheable prefix}: a number of leading stages
+ * which are only supplied the pipeline's {@linkplain #getParameters() default parameters} (never the
+ * {@linkplain TransformableEntity#setTransformationParameters(Map) parameters} configured on an entity), and whose
+ * output therefore depends only on the content of the entity. The output of the prefix is recorded as a
+ * {@link SAXEventRecording} the first time each entity is transformed, and subsequent transforms of the same
+ * {@linkplain TransformableEntity#getContentVersion() content version} replay that recording into only the remaining
+ * stages.
+ * </p>
+ * 
+ * <p>
+ * A pipeline may also be given a {@linkplain #getName() name}, identifying it in diagnostics such as
+ * {@link TransformMetrics}.
+ * </p>
+ */
+@NonNullByDefault
+public final class TransformationPipeline implements Iterable<Templates> {
+  /**
+   * An empty pipeline.
+   */
+  public static final TransformationPipeline EMPTY = new TransformationPipeline(Collections.<Templates> emptyList(), null);
+  /**
+   * @see #getStages()
+   */
+  private final List<Templates> stages;
+  /**
+   * @see #getParameters()
+   */
+  private final Map<String,Object> parameters;
+  /**
+   * @see #getOutputMediaType()
+   */
+  private final @Nullable String outputMediaType;
+  /**
+   * @see #getOutputEncoding()
+   */
+  private final @Nullable Charset outputEncoding;
+  /**
+   * @see #getOutputMethod()
+   */
+  private final @Nullable String outputMethod;
+  /**
+   * @see #getCacheablePrefixLength()
+   */
+  private final int cacheablePrefixLength;
+  /**
+   * @see #getName()
+   */
+  private final @Nullable String name;
+  /**
+   * A pipeline of the stages following the {@linkplain #getCacheablePrefixLength() cacheable prefix}, or
+   * <code>null</code> if there is no prefix.
+   */
+  final @Nullable TransformationPipeline cacheableSuffix;
+  /**
+   * The {@link TransformerHandlerPool} key for this pipeline, when performed non-incrementally.
+   */
+  final TransformerHandlerPool.Key poolKey;
+  /**
+   * The {@link TransformerHandlerPool} key for this pipeline, when performed incrementally.
+   */
+  final TransformerHandlerPool.Key poolKeyIncremental;
+
+  /**
+   * Construct a new <code>TransformationPipeline</code>.
+   * 
+   * @param transformations The sequence of {@link Templates}, any <code>null</code> values within which will be
+   * ignored.
+   * @param parameters Default parameters to be {@linkplain Transformer#setParameter(String, Object) supplied} to each
+   * transformation, which will be overridden by any {@linkplain TransformableEntity#setTransformationParameters(Map)
+   * parameters} configured on the entity being transformed.
+   * @param cacheablePrefixLength The number of (non-<code>null</code>) leading stages forming the
+   * {@linkplain #getCacheablePrefixLength() cacheable prefix}, or <code>0</code> for none.
+   * @param name The {@linkplain #getName() name} of the pipeline, or <code>null</code> if it's unnamed.
+   * @throws IllegalArgumentException If a parameter name is not a valid {@link QName} in
+   * {@linkplain QName#toString() string form}, a parameter value is <code>null</code>, or the
+   * <code>cacheablePrefixLength</code> is negative or doesn't leave at least one stage following the prefix.
+   * @throws UnsupportedCharsetException If the {@linkplain OutputKeys#ENCODING encoding} output by the last stage isn't
+   * supported.
+   */
+  public TransformationPipeline(final Iterable<? extends @Nullable Templates> transformations, final @Nullable Map<String,?> parameters, final int cacheablePrefixLength, final @Nullable String name) throws IllegalArgumentException, UnsupportedCharsetException {
+    final ArrayList<Templates> stages = new ArrayList<Templates>();
+    for (Templates templates : transformations) {
+      if (templates != null) stages.add(templates);
+    }
+    this.stages = Collections.unmodifiableList(stages);
+
+    final LinkedHashMap<String,Object> validatedParameters = new LinkedHashMap<String,Object>();
+    if (parameters != null) {
+      for (Map.Entry<String,?> parameter : parameters.entrySet()) {
+        final Object value = parameter.getValue();
+        if (value == null) throw new IllegalArgumentException("Null value for parameter '" + parameter.getKey() + "'");
+        validatedParameters.put(validateParameterName(parameter.getKey()), value);
+      }
+    }
+    this.parameters = Collections.unmodifiableMap(validatedParameters);
+
+    if (!stages.isEmpty()) {
+      final Properties outputProperties = stages.get(stages.size() - 1).getOutputProperties();
+      outputMediaType = outputProperties.getProperty(OutputKeys.MEDIA_TYPE);
+      final String encoding = outputProperties.getProperty(OutputKeys.ENCODING);
+      outputEncoding = (encoding != null) ? Charset.forName(encoding) : null;
+      outputMethod = outputProperties.getProperty(OutputKeys.METHOD);
+    } else {
+      outputMediaType = null;
+      outputEncoding = null;
+      outputMethod = null;
+    }
+
+    if ((cacheablePrefixLength < 0) || ((cacheablePrefixLength > 0) && (cacheablePrefixLength >= stages.size()))) throw new IllegalArgumentException("Invalid cacheable prefix length " + cacheablePrefixLength + " for " + stages.size() + " stages");
+    this.cacheablePrefixLength = cacheablePrefixLength;
+    cacheableSuffix = (cacheablePrefixLength > 0) ? new TransformationPipeline(stages.subList(cacheablePrefixLength, stages.size()), this.parameters, 0, name) : null;
+    this.name = name;
+
+    poolKey = new TransformerHandlerPool.Key(stages, false);
+    poolKeyIncremental = new TransformerHandlerPool.Key(stages, true);
+    return;
+  }
+
+  /**
+   * Construct a new unnamed <code>TransformationPipeline</code>.
+   * 
+   * @param transformations The sequence of {@link Templates}, any <code>null</code> values within which will be
+   * ignored.
+   * @param parameters Default parameters to be {@linkplain Transformer#setParameter(String, Object) supplied} to each
+   * transformation, which will be overridden by any {@linkplain TransformableEntity#setTransformationParameters(Map)
+   * parameters} configured on the entity being transformed.
+   * @param cacheablePrefixLength The number of (non-<code>null</code>) leading stages forming the
+   * {@linkplain #getCacheablePrefixLength() cacheable prefix}, or <code>0</code> for none.
+   * @throws IllegalArgumentException If a parameter name is not a valid {@link QName} in
+   * {@linkplain QName#toString() string form}, a parameter value is <code>null</code>, or the
+   * <code>cacheablePrefixLength</code> is negative or doesn't leave at least one stage following the prefix.
+   * @throws UnsupportedCharsetException If the {@linkplain OutputKeys#ENCODING encoding} output by the last stage isn't
+   * supported.
+   */
+  public TransformationPipeline(final Iterable<? extends @Nullable Templates> transformations, final @Nullable Map<String,?> parameters, final int cacheablePrefixLength) throws IllegalArgumentException, UnsupportedCharsetException {
+    this(transformations, parameters, cacheablePrefixLength, null);
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformationPipeline</code> without a {@linkplain #getCacheablePrefixLength() cacheable
+   * prefix}.
+   * 
+   * @param transformations The sequence of {@link Templates}, any <code>null</code> values within which will be
+   * ignored.
+   * @param parameters Default parameters to be {@linkplain Transformer#setParameter(String, Object) supplied} to each
+   * transformation, which will be overridden by any {@linkplain TransformableEntity#setTransformationParameters(Map)
+   * parameters} configured on the entity being transformed.
+   * @throws IllegalArgumentException If a parameter name is not a valid {@link QName} in
+   * {@linkplain QName#toString() string form}, or a parameter value is <code>null</code>.
+   * @throws UnsupportedCharsetException If the {@linkplain OutputKeys#ENCODING encoding} output by the last stage isn't
+   * supported.
+   */
+  public TransformationPipeline(final Iterable<? extends @Nullable Templates> transformations, final @Nullable Map<String,?> parameters) throws IllegalArgumentException, UnsupportedCharsetException {
+    this(transformations, parameters, 0);
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformationPipeline</code> without any default parameters.
+   * 
+   * @param transformations The sequence of {@link Templates}, any <code>null</code> values within which will be
+   * ignored.
+   * @throws UnsupportedCharsetException If the {@linkplain OutputKeys#ENCODING encoding} output by the last stage isn't
+   * supported.
+   */
+  public TransformationPipeline(final Iterable<? extends @Nullable Templates> transformations) throws UnsupportedCharsetException {
+    this(transformations, null, 0);
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformationPipeline</code> without any default parameters.
+   * 
+   * @param transformations The sequence of {@link Templates}, any <code>null</code> values within which will be
+   * ignored.
+   * @return The new <code>TransformationPipeline</code>.
+   * @throws UnsupportedCharsetException If the {@linkplain OutputKeys#ENCODING encoding} output by the last stage isn't
+   * supported.
+   */
+  public static TransformationPipeline of(final @Nullable Templates... transformations) throws UnsupportedCharsetException {
+    return new TransformationPipeline(Arrays.asList(transformations), null);
+  }
+
+  /**
+   * Get the stages of this pipeline.
+   * 
+   * @return An unmodifiable list of the (non-<code>null</code>) {@link Templates} in this pipeline.
+   */
+  public List<Templates> getStages() {
+    return stages;
+  }
+
+  /**
+   * Does this pipeline contain no stages?
+   * 
+   * @return <code>true</code> if this pipeline is empty.
+   */
+  public boolean isEmpty() {
+    return stages.isEmpty();
+  }
+
+  @Override
+  public Iterator<Templates> iterator() {
+    return stages.iterator();
+  }
+
+  /**
+   * Get the default parameters to be {@linkplain Transformer#setParameter(String, Object) supplied} to each
+   * transformation.
+   * 
+   * @return An unmodifiable Map of parameters.
+   */
+  public Map<String,Object> getParameters() {
+    return parameters;
+  }
+
+  /**
+   * Get the number of leading stages of this pipeline whose output is cached for each entity (and
+   * {@linkplain TransformableEntity#getContentVersion() content version}) it's performed on. These stages are only
+   * supplied the {@linkplain #getParameters() default parameters}. Caching requires the entity to have a known content
+   * version, and an entity without one will always perform every stage.
+   * 
+   * @return The length of the cacheable prefix, or <code>0</code> if there is none.
+   */
+  public int getCacheablePrefixLength() {
+    return cacheablePrefixLength;
+  }
+
+  /**
+   * Create a copy of this pipeline with the given {@linkplain #getCacheablePrefixLength() cacheable prefix}.
+   * 
+   * @param cacheablePrefixLength The number of leading stages forming the cacheable prefix, or <code>0</code> for none.
+   * @return The new <code>TransformationPipeline</code>.
+   * @throws IllegalArgumentException If the <code>cacheablePrefixLength</code> is negative or doesn't leave at least
+   * one stage following the prefix.
+   */
+  public TransformationPipeline withCacheablePrefix(final int cacheablePrefixLength) throws IllegalArgumentException {
+    return new TransformationPipeline(stages, parameters, cacheablePrefixLength, name);
+  }
+
+  /**
+   * Get the name identifying this pipeline in diagnostics, such as the statistics kept by {@link TransformMetrics}.
+   * 
+   * @return The name of this pipeline, or <code>null</code> if it's unnamed.
+   */
+  public @Nullable String getName() {
+    return name;
+  }
+
+  /**
+   * Create a copy of this pipeline with the given {@linkplain #getName() name}.
+   * 
+   * @param name The name of the new pipeline, or <code>null</code> if it should be unnamed.
+   * @return The new <code>TransformationPipeline</code>.
+   */
+  public TransformationPipeline withName(final @Nullable String name) {
+    return new TransformationPipeline(stages, parameters, cacheablePrefixLength, name);
+  }
+
+  /**
+   * Get the final {@linkplain OutputKeys#MEDIA_TYPE media type} output by the last stage of this pipeline.
+   * 
+   * @return A new {@link MimeType} containing the final media type, or <code>null</code> if there is none.
+   * @throws MimeTypeParseException If there was a problem {@linkplain MimeType#MimeType(String) constructing} the
+   * result.
+   */
+  public @Nullable MimeType getOutputMediaType() throws MimeTypeParseException {
+    return (outputMediaType != null) ? new MimeType(outputMediaType) : null;
+  }
+
+  /**
+   * Get the final {@linkplain OutputKeys#ENCODING encoding} output by the last stage of this pipeline.
+   * 
+   * @return A {@link Charset} containing the final encoding, or <code>null</code> if there is none.
+   */
+  public @Nullable Charset getOutputEncoding() {
+    return outputEncoding;
+  }
+
+  /**
+   * Get the final {@linkplain OutputKeys#METHOD method} output by the last stage of this pipeline.
+   * 
+   * @return The final output method, or <code>null</code> if there is none.
+   */
+  public @Nullable String getOutputMethod() {
+    return outputMethod;
+  }
+
+  /**
+   * Validate that the supplied <code>name</code> is a {@link QName} in {@linkplain QName#toString() string form}
+   * (<code>"{namespaceURI}localPart"</code> or <code>"localPart"</code>) with a valid local part.
+   * 
+   * @param name The parameter name to validate.
+   * @return The supplied <code>name</code>.
+   * @throws IllegalArgumentException If <code>name</code> isn't valid.
+   */
+  private static String validateParameterName(final @Nullable String name) throws IllegalArgumentException {
+    if (name == null) throw new IllegalArgumentException("Null parameter name");
+    final String localPart;
+    try {
+      localPart = QName.valueOf(name).getLocalPart();
+    } catch (IllegalArgumentException iae) {
+      throw new IllegalArgumentException("Invalid parameter name '" + name + "'", iae);
+    }
+    if (localPart.isEmpty()) throw new IllegalArgumentException("Invalid parameter name '" + name + "'");
+    for (int i = 0; i < localPart.length(); i++) {
+      final char c = localPart.charAt(i);
+      final boolean valid = (Character.isLetter(c)) || (c == '_') || ((i > 0) && ((Character.isDigit(c)) || (c == '-') || (c == '.')));
+      if (!valid) throw new IllegalArgumentException("Invalid parameter name '" + name + "'");
+    }
+    return name;
+  }
+
+}
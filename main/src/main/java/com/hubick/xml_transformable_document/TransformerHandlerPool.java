@@ -0,0 +1,307 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.sax.*;
+import javax.xml.transform.stream.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * A pool of pre-linked chains of {@link TransformerHandler}'s, keyed by the identity of the sequence of
+ * {@link Templates} they were created from, which can be {@linkplain TransformableEntity#setTransformerHandlerPool(
+ * TransformerHandlerPool) configured} on an entity to avoid constructing a new chain for every
+ * {@linkplain TransformableEntity#transform(Result) transform}.
+ * 
+ * <p>
+ * Pooled chains are only used when transforming to a {@link StreamResult}. Each chain retains it's own
+ * {@link StreamResult}, which is rebound to the caller's output stream or writer when the chain is acquired, and each
+ * {@link Transformer} in the chain is {@linkplain Transformer#clearParameters() cleared} and
+ * {@linkplain Transformer#reset() reset} when it's returned. A chain is only returned to the pool after a successful
+ * transform, and this requires a {@link TransformerFactory} implementation (such as the JDK default) whose
+ * {@link TransformerHandler}'s can process consecutive documents. Note that the pool retains references to the
+ * {@link Templates} used as keys until it is {@linkplain #clear() cleared}.
+ * </p>
+ * 
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+@NonNullByDefault
+public class TransformerHandlerPool {
+  /**
+   * The {@linkplain #getMaximumIdle() maximum idle} count used by the {@linkplain #TransformerHandlerPool() default
+   * constructor}.
+   */
+  public static final int DEFAULT_MAXIMUM_IDLE = 16;
+  /**
+   * @see #getMaximumIdle()
+   */
+  protected final int maximumIdle;
+  /**
+   * The idle chains for each sequence of {@link Templates}.
+   */
+  private final ConcurrentHashMap<Key,IdleChains> idleChains = new ConcurrentHashMap<>();
+
+  /**
+   * Construct a new <code>TransformerHandlerPool</code> retaining up to {@link #DEFAULT_MAXIMUM_IDLE} chains for each
+   * sequence of {@link Templates}.
+   */
+  public TransformerHandlerPool() {
+    this(DEFAULT_MAXIMUM_IDLE);
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformerHandlerPool</code>.
+   * 
+   * @param maximumIdle The {@linkplain #getMaximumIdle() maximum idle} count.
+   * @throws IllegalArgumentException If <code>maximumIdle</code> is negative.
+   */
+  public TransformerHandlerPool(final int maximumIdle) throws IllegalArgumentException {
+    if (maximumIdle < 0) throw new IllegalArgumentException("maximumIdle must not be negative");
+    this.maximumIdle = maximumIdle;
+    return;
+  }
+
+  /**
+   * Get the maximum number of idle chains which will be retained for each sequence of {@link Templates}.
+   * 
+   * @return The maximum idle count.
+   */
+  public int getMaximumIdle() {
+    return maximumIdle;
+  }
+
+  /**
+   * Get the total number of idle chains currently retained by this pool.
+   * 
+   * @return The idle count.
+   */
+  public int getIdleCount() {
+    return idleChains.values().stream().mapToInt((i) -> i.size.get()).sum();
+  }
+
+  /**
+   * Discard all idle chains, along with the references to the {@link Templates} they were created from.
+   */
+  public void clear() {
+    idleChains.clear();
+    return;
+  }
+
+  /**
+   * Acquire a chain of handlers for the given <code>key</code>, creating one if none are idle.
+   *
+   * @param key The {@link Key} identifying the sequence of {@link Templates} to be performed.
+   * @param defaultParameters Parameters to {@linkplain Transformer#setParameter(String, Object) supply} to each
+   * transformation, which may be overridden by the <code>transformationParameters</code>.
+   * @param transformationParameters Parameters to {@linkplain Transformer#setParameter(String, Object) supply} to
+   * each transformation.
+   * @param result The final {@link StreamResult} the chain should output to.
+   * @return A {@link SAXResult} wrapping the head of the chain, which should be
+   * {@linkplain TransformableEntity#releaseTransformerHandlers(Result) released} after a successful transform.
+   * @throws TransformerConfigurationException If there was a problem constructing a handler.
+   */
+  PooledResult acquire(final Key key, final @Nullable Map<?,?> defaultParameters, final @Nullable Map<?,?> transformationParameters, final StreamResult result) throws TransformerConfigurationException {
+    final IdleChains idle = idleChains.get(key);
+    Chain chain = (idle != null) ? idle.chains.poll() : null;
+    if (chain != null) {
+      idle.size.decrementAndGet();
+    } else {
+      chain = new Chain(key);
+    }
+
+    for (TransformerHandler transformerHandler : chain.transformerHandlers) {
+      TransformableEntity.setParameters(transformerHandler.getTransformer(), defaultParameters);
+      TransformableEntity.setParameters(transformerHandler.getTransformer(), transformationParameters);
+    }
+    chain.result.setSystemId(result.getSystemId());
+    chain.result.setOutputStream(result.getOutputStream());
+    chain.result.setWriter(result.getWriter());
+
+    return new PooledResult(this, chain);
+  }
+
+  /**
+   * Reset the given <code>chain</code> and return it to the pool.
+   * 
+   * @param chain The chain to release.
+   */
+  void release(final Chain chain) {
+    chain.result.setOutputStream(null);
+    chain.result.setWriter(null);
+    chain.result.setSystemId((String)null);
+    for (TransformerHandler transformerHandler : chain.transformerHandlers) {
+      final Transformer transformer = transformerHandler.getTransformer();
+      transformer.clearParameters();
+      transformer.reset();
+      transformer.setErrorListener(TransformableEntity.ERROR_LISTENER);
+    }
+
+    final IdleChains idle = idleChains.computeIfAbsent(chain.key, (k) -> new IdleChains());
+    if (idle.size.incrementAndGet() > maximumIdle) {
+      idle.size.decrementAndGet();
+      return;
+    }
+    idle.chains.offer(chain);
+    return;
+  }
+
+  /**
+   * The key identifying a sequence of {@link Templates}, compared by identity.
+   */
+  static final class Key {
+    /**
+     * The sequence of {@link Templates}.
+     */
+    final Templates[] templates;
+    /**
+     * Use incremental transformations if available?
+     */
+    final boolean incremental;
+    /**
+     * The cached hash code.
+     */
+    private final int hashCode;
+
+    /**
+     * Construct a new <code>Key</code>.
+     * 
+     * @param templates The sequence of {@link Templates}.
+     * @param incremental Use incremental transformations if available?
+     */
+    Key(final List<Templates> templates, final boolean incremental) {
+      this.templates = templates.toArray(new Templates[templates.size()]);
+      this.incremental = incremental;
+      int hashCode = Boolean.hashCode(incremental);
+      for (Templates t : this.templates) {
+        hashCode = 31 * hashCode + System.identityHashCode(t);
+      }
+      this.hashCode = hashCode;
+      return;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(final @Nullable Object other) {
+      if (this == other) return true;
+      if (!(other instanceof Key)) return false;
+      final Key otherKey = (Key)other;
+      if ((incremental != otherKey.incremental) || (templates.length != otherKey.templates.length)) return false;
+      for (int i = 0; i < templates.length; i++) {
+        if (templates[i] != otherKey.templates[i]) return false;
+      }
+      return true;
+    }
+
+  }
+
+  /**
+   * A pre-linked chain of {@link TransformerHandler}'s.
+   */
+  static final class Chain {
+    /**
+     * The key this chain was created for.
+     */
+    final Key key;
+    /**
+     * The linked handlers.
+     */
+    final TransformerHandler[] transformerHandlers;
+    /**
+     * The {@link StreamResult} the last handler outputs to, which is rebound for each use.
+     */
+    final StreamResult result = new StreamResult();
+
+    /**
+     * Construct a new <code>Chain</code>.
+     * 
+     * @param key The key to create the chain for.
+     * @throws TransformerConfigurationException If there was a problem constructing a handler.
+     */
+    Chain(final Key key) throws TransformerConfigurationException {
+      this.key = key;
+      transformerHandlers = new TransformerHandler[key.templates.length];
+      for (int i = 0; i < transformerHandlers.length; i++) {
+        transformerHandlers[i] = TransformableEntity.newTransformerHandler(key.templates[i], key.incremental, TransformableEntity.ERROR_LISTENER);
+        if (i > 0) transformerHandlers[i - 1].setResult(TransformableEntity.newSAXResult(transformerHandlers[i]));
+      }
+      transformerHandlers[transformerHandlers.length - 1].setResult(result);
+      return;
+    }
+
+  }
+
+  /**
+   * The idle chains for a sequence of {@link Templates}.
+   */
+  private static final class IdleChains {
+    /**
+     * The idle chains.
+     */
+    final ConcurrentLinkedQueue<Chain> chains = new ConcurrentLinkedQueue<>();
+    /**
+     * The number of idle chains (or reservations for them).
+     */
+    final AtomicInteger size = new AtomicInteger();
+  }
+
+  /**
+   * A {@link SAXResult} wrapping the head of an acquired {@link Chain}.
+   */
+  static final class PooledResult extends SAXResult {
+    /**
+     * The pool the chain was acquired from.
+     */
+    private final TransformerHandlerPool pool;
+    /**
+     * The acquired chain, or <code>null</code> once released.
+     */
+    private @Nullable Chain chain;
+
+    /**
+     * Construct a new <code>PooledResult</code>.
+     * 
+     * @param pool The pool the chain was acquired from.
+     * @param chain The acquired chain.
+     */
+    PooledResult(final TransformerHandlerPool pool, final Chain chain) {
+      super(chain.transformerHandlers[0]);
+      setLexicalHandler(chain.transformerHandlers[0]);
+      if (chain.transformerHandlers[0].getSystemId() != null) setSystemId(chain.transformerHandlers[0].getSystemId());
+      this.pool = pool;
+      this.chain = chain;
+      return;
+    }
+
+    /**
+     * Return the acquired chain to the pool it was acquired from. Subsequent calls have no effect.
+     */
+    void release() {
+      final Chain chain = this.chain;
+      if (chain == null) return;
+      this.chain = null;
+      pool.release(chain);
+      return;
+    }
+
+  }
+
+}
@@ -0,0 +1,704 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import javax.xml.*;
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * The core of the serializers which write output straight to a {@link StreamResult}, bypassing the JDK's built-in
+ * (XSLTC) identity {@link Transformer}, while reproducing it's (non-indented) "xml" method output byte-for-byte.
+ * 
+ * <p>
+ * This class buffers the output, and implements the encoding and escaping of content, along with the in-scope
+ * namespace mappings and the attributes of the current element. Subclasses feed it content from their own source,
+ * decide when the {@linkplain #makeRoom(int) buffer is written out}, and decide what happens to
+ * {@linkplain #unsupportedContent() content} the transformer might serialize differently. Only the UTF-8,
+ * ISO-8859-1, and US-ASCII {@linkplain #SUPPORTED_ENCODINGS encodings} are supported.
+ * </p>
+ * 
+ * <p>
+ * This class exists to be shared by the {@link com.hubick.xml_transformable_document.dom} and
+ * {@link com.hubick.xml_transformable_document.stax} implementations, and isn't intended for use outside of this
+ * library. Instances are not thread-safe.
+ * </p>
+ * 
+ * @param <E> The type of exception thrown when the output can't be written.
+ */
+@NonNullByDefault
+public abstract class XMLSerializer<E extends Exception> {
+  /**
+   * The names of the output encodings which are supported.
+   */
+  public static final Set<String> SUPPORTED_ENCODINGS = Set.of(StandardCharsets.UTF_8.name(), StandardCharsets.ISO_8859_1.name(), StandardCharsets.US_ASCII.name());
+  /**
+   * The line separator written in place of each line feed, as the transformer does.
+   */
+  protected static final String LINE_SEPARATOR = System.lineSeparator();
+  /**
+   * The initial size of the {@link #buffer}.
+   */
+  protected static final int BUFFER_SIZE = 8192;
+  /**
+   * The output encoding.
+   */
+  protected final Charset encoding;
+  /**
+   * The highest (non-surrogate) character the {@link #encoding} can represent.
+   */
+  private final char maximumEncodable;
+  /**
+   * Can the {@link #encoding} represent supplementary characters?
+   */
+  protected final boolean supplementaryEncodable;
+  /**
+   * The output which hasn't yet been written out.
+   */
+  protected char[] buffer = new char[BUFFER_SIZE];
+  /**
+   * The number of characters in the {@link #buffer}.
+   */
+  protected int bufferLength = 0;
+  /**
+   * The prefixes of the in-scope namespace mappings, in declaration order.
+   */
+  private final ArrayList<String> namespacePrefixes = new ArrayList<String>();
+  /**
+   * The URI's of the in-scope namespace mappings, in declaration order.
+   */
+  private final ArrayList<String> namespaceURIs = new ArrayList<String>();
+  /**
+   * The element depth each of the in-scope namespace mappings was declared at.
+   */
+  private final ArrayList<Integer> namespaceDepths = new ArrayList<Integer>();
+  /**
+   * The qualified names of the attributes of the current element, in output order.
+   */
+  private final ArrayList<String> attributeNames = new ArrayList<String>();
+  /**
+   * The values of the attributes of the current element, in output order.
+   */
+  private final ArrayList<String> attributeValues = new ArrayList<String>();
+  /**
+   * Has the start tag of the current element been written without it's attributes and closing bracket?
+   */
+  private boolean startTagOpen = false;
+  /**
+   * Has the start of a CDATA section been written without it's end?
+   */
+  private boolean cdataOpen = false;
+
+  /**
+   * Construct a new <code>XMLSerializer</code>.
+   * 
+   * @param encoding The output encoding, which must be one of the {@link #SUPPORTED_ENCODINGS}.
+   */
+  protected XMLSerializer(final Charset encoding) {
+    this.encoding = encoding;
+    this.maximumEncodable = (encoding.equals(StandardCharsets.US_ASCII)) ? '\u007F' : (encoding.equals(StandardCharsets.ISO_8859_1)) ? '\u00FF' : Character.MAX_VALUE;
+    this.supplementaryEncodable = encoding.equals(StandardCharsets.UTF_8);
+    namespacePrefixes.add(XMLConstants.DEFAULT_NS_PREFIX);
+    namespaceURIs.add(XMLConstants.NULL_NS_URI);
+    namespaceDepths.add(0);
+    namespacePrefixes.add(XMLConstants.XML_NS_PREFIX);
+    namespaceURIs.add(XMLConstants.XML_NS_URI);
+    namespaceDepths.add(0);
+    return;
+  }
+
+  /**
+   * Get a {@link Writer} for the supplied <code>result</code>.
+   * 
+   * @param result The {@link StreamResult} to write to, which must have an {@link OutputStream} or {@link Writer}.
+   * @param encoding The output encoding.
+   * @return The {@link Writer} of the <code>result</code>, or one encoding to it's {@link OutputStream}.
+   * @throws IllegalArgumentException If the <code>result</code> has neither an {@link OutputStream} nor a
+   * {@link Writer}.
+   */
+  protected static final Writer newWriter(final StreamResult result, final Charset encoding) throws IllegalArgumentException {
+    final OutputStream outputStream = result.getOutputStream();
+    if (outputStream != null) return new OutputStreamWriter(outputStream, encoding);
+    final Writer writer = result.getWriter();
+    if (writer == null) throw new IllegalArgumentException("No OutputStream or Writer");
+    return writer;
+  }
+
+  /**
+   * Make room in the {@link #buffer} for (at least one of) the given number of characters, by writing it out, or by
+   * growing it.
+   * 
+   * @param length The number of characters to be appended.
+   * @throws E If there was a problem writing the output.
+   */
+  protected abstract void makeRoom(int length) throws E;
+
+  /**
+   * Called for content which the transformer might serialize differently than this class, before it's written as best
+   * it can be.
+   * 
+   * @throws E If the content is not to be written.
+   */
+  protected abstract void unsupportedContent() throws E;
+
+  /**
+   * Append a character to the output.
+   * 
+   * @param c The character to append.
+   * @throws E If there was a problem writing the output.
+   */
+  protected final void append(final char c) throws E {
+    if (bufferLength == buffer.length) makeRoom(1);
+    buffer[bufferLength++] = c;
+    return;
+  }
+
+  /**
+   * Append a range of characters from the given sequence to the output.
+   * 
+   * @param s The sequence containing the characters.
+   * @param start The index of the first character to append.
+   * @param end The index after the last character to append.
+   * @throws E If there was a problem writing the output.
+   */
+  protected final void append(final CharSequence s, final int start, final int end) throws E {
+    int i = start;
+    while (i < end) {
+      if (bufferLength == buffer.length) makeRoom(end - i);
+      final int count = Math.min(end - i, buffer.length - bufferLength);
+      if (s instanceof String) {
+        ((String)s).getChars(i, i + count, buffer, bufferLength);
+      } else {
+        for (int j = 0; j < count; j++) {
+          buffer[bufferLength + j] = s.charAt(i + j);
+        }
+      }
+      bufferLength += count;
+      i += count;
+    }
+    return;
+  }
+
+  /**
+   * Append the given string to the output.
+   * 
+   * @param s The string to append.
+   * @throws E If there was a problem writing the output.
+   */
+  protected final void append(final String s) throws E {
+    append(s, 0, s.length());
+    return;
+  }
+
+  /**
+   * Can the given (non-surrogate) character be represented in the output encoding?
+   * 
+   * @param c The character in question.
+   * @return <code>true</code> if the <code>c</code> can be encoded.
+   */
+  protected final boolean canEncode(final char c) {
+    return (c <= maximumEncodable) && (!Character.isSurrogate(c));
+  }
+
+  /**
+   * Can the given character be written to the output without a character reference?
+   * 
+   * @param c The character in question.
+   * @return <code>true</code> if the <code>c</code> can be written as is.
+   */
+  protected final boolean isEncodable(final char c) {
+    if (c < 127) return (c >= 0x20) || (c == '\n') || (c == '\r') || (c == '\t');
+    return canEncode(c);
+  }
+
+  /**
+   * Is the given character in the C0 or C1 control ranges (other than the whitespace characters)?
+   * 
+   * @param c The character in question.
+   * @return <code>true</code> if <code>c</code> is a control character.
+   */
+  protected static final boolean isControl(final char c) {
+    if ((c == '\t') || (c == '\n') || (c == '\r')) return false;
+    return ((c >= 0x01) && (c <= 0x1F)) || ((c >= 0x7F) && (c <= 0x9F));
+  }
+
+  /**
+   * Is there a surrogate pair at the given index?
+   * 
+   * @param s The characters in question.
+   * @param i The index of the (potential) high surrogate.
+   * @param end The index after the last character which may be examined.
+   * @return <code>true</code> if there is a valid surrogate pair at <code>i</code>.
+   */
+  protected static final boolean isSurrogatePair(final CharSequence s, final int i, final int end) {
+    return (Character.isHighSurrogate(s.charAt(i))) && (i + 1 < end) && (Character.isLowSurrogate(s.charAt(i + 1)));
+  }
+
+  /**
+   * Append a range of the given sequence, which is output without escaping, so should consist entirely of encodable
+   * characters.
+   * 
+   * @param s The sequence to write.
+   * @param start The index of the first character to write.
+   * @param end The index after the last character to write.
+   * @throws E If <code>s</code> contains {@linkplain #unsupportedContent() unsupported} characters, or there was a
+   * problem writing the output.
+   */
+  protected final void writeRaw(final CharSequence s, final int start, final int end) throws E {
+    for (int i = start; i < end; i++) {
+      final char c = s.charAt(i);
+      if (c < 127) {
+        if (c == 0) unsupportedContent();
+      } else if (isSurrogatePair(s, i, end)) {
+        if (!supplementaryEncodable) unsupportedContent();
+        i++;
+      } else if (!canEncode(c)) {
+        unsupportedContent();
+      }
+    }
+    append(s, start, end);
+    return;
+  }
+
+  /**
+   * Append the given string, which is output without escaping, so should consist entirely of encodable characters.
+   * 
+   * @param s The string to write.
+   * @throws E If <code>s</code> contains {@linkplain #unsupportedContent() unsupported} characters, or there was a
+   * problem writing the output.
+   */
+  protected final void writeRaw(final String s) throws E {
+    writeRaw(s, 0, s.length());
+    return;
+  }
+
+  /**
+   * Append a numeric character reference.
+   * 
+   * @param codePoint The code point to reference.
+   * @throws E If there was a problem writing the output.
+   */
+  protected final void writeCharRef(final int codePoint) throws E {
+    append("&#");
+    append(Integer.toString(codePoint));
+    append(';');
+    return;
+  }
+
+  /**
+   * Write the XML declaration.
+   * 
+   * @param standaloneNo Should <code>standalone="no"</code> be declared?
+   * @throws E If there was a problem writing the output.
+   */
+  protected final void writeXMLDeclaration(final boolean standaloneNo) throws E {
+    append("<?xml version=\"1.0\" encoding=\"");
+    append(encoding.name());
+    append('"');
+    if (standaloneNo) append(" standalone=\"no\"");
+    append("?>");
+    return;
+  }
+
+  /**
+   * Write a DOCTYPE declaration.
+   * 
+   * @param name The name of the document element.
+   * @param publicId The public identifier, if any.
+   * @param systemId The system identifier.
+   * @throws E If the declaration contains {@linkplain #unsupportedContent() unsupported} characters, or there was a
+   * problem writing the output.
+   */
+  protected final void writeDoctype(final String name, final @Nullable String publicId, final String systemId) throws E {
+    append("<!DOCTYPE ");
+    writeRaw(name);
+    if (publicId != null) {
+      append(" PUBLIC ");
+      writeQuoted(publicId);
+      append(' ');
+    } else {
+      append(" SYSTEM ");
+    }
+    writeQuoted(systemId);
+    append('>');
+    append(LINE_SEPARATOR);
+    return;
+  }
+
+  /**
+   * Write the given DOCTYPE identifier as a quoted literal.
+   * 
+   * @param s The identifier to write.
+   * @throws E If <code>s</code> contains {@linkplain #unsupportedContent() unsupported} characters, or there was a
+   * problem writing the output.
+   */
+  private void writeQuoted(final String s) throws E {
+    final char quote = (s.indexOf('"') >= 0) ? '\'' : '"';
+    append(quote);
+    writeRaw(s);
+    append(quote);
+    return;
+  }
+
+  /**
+   * Look up the URI currently mapped to the given namespace <code>prefix</code>.
+   * 
+   * @param prefix The namespace prefix.
+   * @return The namespace URI, or <code>null</code> if the prefix isn't mapped.
+   */
+  protected final @Nullable String lookupNamespace(final String prefix) {
+    for (int i = namespacePrefixes.size() - 1; i >= 0; i--) {
+      if (namespacePrefixes.get(i).equals(prefix)) return namespaceURIs.get(i);
+    }
+    return null;
+  }
+
+  /**
+   * Map the given namespace <code>prefix</code> to the <code>uri</code> for the current element, adding a declaration
+   * attribute if required, the same as the transformer does.
+   * 
+   * @param prefix The namespace prefix.
+   * @param uri The namespace URI.
+   * @param depth The element depth of the current element.
+   */
+  protected final void declareNamespace(final String prefix, final String uri, final int depth) {
+    if (prefix.startsWith(XMLConstants.XML_NS_PREFIX)) return;
+    if (uri.equals(lookupNamespace(prefix))) return;
+    namespacePrefixes.add(prefix);
+    namespaceURIs.add(uri);
+    namespaceDepths.add(depth);
+    if (prefix.isEmpty()) {
+      addAttribute(XMLConstants.XMLNS_ATTRIBUTE, uri);
+    } else if (!uri.isEmpty()) {
+      addAttribute(XMLConstants.XMLNS_ATTRIBUTE + ':' + prefix, uri);
+    }
+    return;
+  }
+
+  /**
+   * Remove the namespace mappings declared at or below the given element depth.
+   * 
+   * @param depth The element depth of the element being ended.
+   */
+  protected final void endNamespaces(final int depth) {
+    for (int i = namespaceDepths.size() - 1; (i >= 0) && (namespaceDepths.get(i) >= depth); i--) {
+      namespacePrefixes.remove(i);
+      namespaceURIs.remove(i);
+      namespaceDepths.remove(i);
+    }
+    return;
+  }
+
+  /**
+   * Add an attribute to the current element, replacing the value of any existing attribute with the same name.
+   * 
+   * @param name The qualified name of the attribute.
+   * @param value The value of the attribute.
+   */
+  protected final void addAttribute(final String name, final String value) {
+    final int index = attributeNames.indexOf(name);
+    if (index >= 0) {
+      attributeValues.set(index, value);
+    } else {
+      attributeNames.add(name);
+      attributeValues.add(value);
+    }
+    return;
+  }
+
+  /**
+   * Write the start of the start tag for a new element, leaving it open for attributes.
+   * 
+   * @param name The qualified name of the element.
+   * @throws E If the name contains {@linkplain #unsupportedContent() unsupported} characters, or there was a problem
+   * writing the output.
+   */
+  protected final void openStartTag(final String name) throws E {
+    closeStartTag();
+    append('<');
+    writeRaw(name);
+    startTagOpen = true;
+    return;
+  }
+
+  /**
+   * Close the start tag of the current element (if it's open), writing out it's attributes.
+   * 
+   * @throws E If there was a problem writing the output.
+   */
+  protected final void closeStartTag() throws E {
+    if (!startTagOpen) return;
+    writeAttributes();
+    append('>');
+    startTagOpen = false;
+    return;
+  }
+
+  /**
+   * Write the end of the current element, as an empty-element tag if it's start tag is still open.
+   * 
+   * @param name The qualified name of the element.
+   * @throws E If there was a problem writing the output.
+   */
+  protected final void writeEndTag(final String name) throws E {
+    if (startTagOpen) {
+      writeAttributes();
+      append("/>");
+      startTagOpen = false;
+    } else {
+      append("</");
+      append(name);
+      append('>');
+    }
+    return;
+  }
+
+  /**
+   * Write out, and then clear, the attributes of the current element.
+   * 
+   * @throws E If there was a problem writing the output.
+   */
+  private void writeAttributes() throws E {
+    for (int i = 0; i < attributeNames.size(); i++) {
+      append(' ');
+      writeRaw(attributeNames.get(i));
+      append("=\"");
+      writeAttributeValue(attributeValues.get(i));
+      append('"');
+    }
+    attributeNames.clear();
+    attributeValues.clear();
+    return;
+  }
+
+  /**
+   * Write an attribute value, escaping it as required.
+   * 
+   * @param value The attribute value to write.
+   * @throws E If the value contains an {@linkplain #unsupportedContent() unsupported} invalid surrogate, or there was
+   * a problem writing the output.
+   */
+  private void writeAttributeValue(final String value) throws E {
+    final int length = value.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      if ((c >= 0x20) && (c < 127) && (c != '&') && (c != '<') && (c != '>') && (c != '"')) continue;
+      append(value, start, i);
+      switch (c) {
+        case '&':
+          append("&amp;");
+          break;
+        case '<':
+          append("&lt;");
+          break;
+        case '>':
+          append("&gt;");
+          break;
+        case '"':
+          append("&quot;");
+          break;
+        case '\t':
+        case '\n':
+        case '\r':
+          writeCharRef(c);
+          break;
+        default:
+          if (isSurrogatePair(value, i, length)) {
+            writeCharRef(Character.toCodePoint(c, value.charAt(++i)));
+          } else if (Character.isSurrogate(c)) {
+            unsupportedContent();
+            writeCharRef(c);
+          } else if (isEncodable(c)) {
+            append(c);
+          } else {
+            writeCharRef(c);
+          }
+          break;
+      }
+      start = i + 1;
+    }
+    append(value, start, length);
+    return;
+  }
+
+  /**
+   * Write character data, escaping it as required.
+   * 
+   * @param s The characters to write from.
+   * @param start The index of the first character to write.
+   * @param end The index after the last character to write.
+   * @throws E If the text contains an {@linkplain #unsupportedContent() unsupported} invalid surrogate, or there was a
+   * problem writing the output.
+   */
+  protected final void writeCharacters(final CharSequence s, final int start, final int end) throws E {
+    int runStart = start;
+    for (int i = start; i < end; i++) {
+      final char c = s.charAt(i);
+      if ((c >= 0x20) && (c < 127) && (c != '&') && (c != '<') && (c != '>')) continue;
+      append(s, runStart, i);
+      switch (c) {
+        case '&':
+          append("&amp;");
+          break;
+        case '<':
+          append("&lt;");
+          break;
+        case '>':
+          append("&gt;");
+          break;
+        case '\n':
+          append(LINE_SEPARATOR);
+          break;
+        case '\r':
+          writeCharRef(c);
+          break;
+        default:
+          if (isSurrogatePair(s, i, end)) {
+            writeCharRef(Character.toCodePoint(c, s.charAt(++i)));
+          } else if (Character.isSurrogate(c)) {
+            unsupportedContent();
+            writeCharRef(c);
+          } else if ((isControl(c)) || (!isEncodable(c))) {
+            writeCharRef(c);
+          } else {
+            append(c);
+          }
+          break;
+      }
+      runStart = i + 1;
+    }
+    append(s, runStart, end);
+    return;
+  }
+
+  /**
+   * Open a CDATA section (if one isn't already open).
+   * 
+   * @throws E If there was a problem writing the output.
+   */
+  private void openCDATA() throws E {
+    if (cdataOpen) return;
+    append("<![CDATA[");
+    cdataOpen = true;
+    return;
+  }
+
+  /**
+   * Close the current CDATA section (if one is open).
+   * 
+   * @throws E If there was a problem writing the output.
+   */
+  protected final void closeCDATA() throws E {
+    if (!cdataOpen) return;
+    append("]]>");
+    cdataOpen = false;
+    return;
+  }
+
+  /**
+   * Write the content of a CDATA section, splitting the section around any characters which can't be written within
+   * it, as the transformer does. The same as the transformer, whether the section is initially opened depends only on
+   * the first character, line feeds and supplementary characters are written without opening it, and a "]]&gt;"
+   * sequence is split without opening it. The section is left open, to be {@linkplain #closeCDATA() closed} once it
+   * ends.
+   * 
+   * @param s The characters to write from.
+   * @param start The index of the first character to write.
+   * @param end The index after the last character to write.
+   * @throws E If the section contains an {@linkplain #unsupportedContent() unsupported} invalid surrogate, or there was
+   * a problem writing the output.
+   */
+  protected final void writeCDATA(final CharSequence s, final int start, final int end) throws E {
+    if ((start < end) && (isEncodable(s.charAt(start)))) openCDATA();
+    for (int i = start; i < end; i++) {
+      final char c = s.charAt(i);
+      if (c == '\n') {
+        append(LINE_SEPARATOR);
+      } else if (isSurrogatePair(s, i, end)) {
+        if (supplementaryEncodable) {
+          append(s, i, i + 2);
+        } else {
+          closeCDATA();
+          writeCharRef(Character.toCodePoint(c, s.charAt(i + 1)));
+        }
+        i++;
+      } else if (!isEncodable(c)) {
+        if (Character.isSurrogate(c)) unsupportedContent();
+        closeCDATA();
+        writeCharRef(c);
+      } else if ((c == ']') && (i + 2 < end) && (s.charAt(i + 1) == ']') && (s.charAt(i + 2) == '>')) {
+        append("]]]]><![CDATA[>");
+        i += 2;
+      } else {
+        openCDATA();
+        append(c);
+      }
+    }
+    return;
+  }
+
+  /**
+   * Write a comment, separating any consecutive hyphens, as the transformer does.
+   * 
+   * @param s The characters to write from.
+   * @param start The index of the first character of the comment.
+   * @param end The index after the last character of the comment.
+   * @throws E If the comment contains {@linkplain #unsupportedContent() unsupported} characters, or there was a
+   * problem writing the output.
+   */
+  protected final void writeComment(final CharSequence s, final int start, final int end) throws E {
+    closeStartTag();
+    append("<!--");
+    int runStart = start;
+    for (int i = start + 1; i < end; i++) {
+      if ((s.charAt(i) != '-') || (s.charAt(i - 1) != '-')) continue;
+      writeRaw(s, runStart, i);
+      append(' ');
+      runStart = i;
+    }
+    writeRaw(s, runStart, end);
+    if ((end > start) && (s.charAt(end - 1) == '-')) append(' ');
+    append("-->");
+    return;
+  }
+
+  /**
+   * Write a processing instruction.
+   * 
+   * @param target The target of the processing instruction.
+   * @param data The data of the processing instruction.
+   * @throws E If the processing instruction contains {@linkplain #unsupportedContent() unsupported} characters, or
+   * there was a problem writing the output.
+   */
+  protected final void writeProcessingInstruction(final String target, final String data) throws E {
+    closeStartTag();
+    append("<?");
+    writeRaw(target);
+    if ((!data.isEmpty()) && (!Character.isSpaceChar(data.charAt(0)))) append(' ');
+    final int index = data.indexOf("?>");
+    if (index >= 0) {
+      writeRaw(data, 0, index);
+      append("? >");
+      writeRaw(data, index + 2, data.length());
+    } else {
+      writeRaw(data);
+    }
+    append("?>");
+    return;
+  }
+
+}
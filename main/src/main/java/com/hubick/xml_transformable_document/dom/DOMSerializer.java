@@ -0,0 +1,512 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.dom;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import javax.xml.*;
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.w3c.dom.*;
+
+import com.hubick.xml_transformable_document.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * A serializer which writes a DOM {@link Document} straight to a {@link StreamResult}, bypassing the JAXP identity
+ * {@link Transformer}.
+ * 
+ * <p>
+ * The output is byte-for-byte identical to that of the JDK's built-in (XSLTC) identity transformer, for the subset of
+ * output settings and content supported here. Only the "xml" and "text" {@linkplain OutputKeys#METHOD methods} are
+ * supported, without {@linkplain OutputKeys#INDENT indenting}, in the UTF-8, ISO-8859-1, or US-ASCII encodings. The
+ * {@linkplain #newInstance(Transformer) factory method} returns <code>null</code> for any other configuration, and
+ * {@link #serialize(Document, StreamResult)} returns <code>false</code> (without writing anything) for any content
+ * which it can't guarantee to serialize identically, in which case the caller should fall back to the transformer.
+ * </p>
+ * 
+ * <p>
+ * Output is written through a bounded buffer. Should a document outgrow that buffer, it's first scanned in full for
+ * unsupported content (by serializing it to nowhere), before anything is written.
+ * </p>
+ * 
+ * <p>
+ * The document is only read, through {@link Node#getFirstChild()}, {@link Node#getNextSibling()}, and
+ * {@link Node#getAttributes()}, the same as the transformer does. The encoding and escaping of the content is performed
+ * by the {@link XMLSerializer} core. Instances are not thread-safe, and should be used for a single document.
+ * </p>
+ */
+@NonNullByDefault
+final class DOMSerializer extends XMLSerializer<IOException> {
+  /**
+   * The class name of the JDK's built-in {@link Transformer}, whose output this class reproduces.
+   */
+  private static final String JDK_TRANSFORMER_CLASS_NAME = "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerImpl";
+  /**
+   * The {@linkplain Transformer#getOutputProperties() output properties} which may be set on a transformer this class
+   * is used in place of.
+   */
+  private static final Set<String> SUPPORTED_OUTPUT_PROPERTIES = Set.of(OutputKeys.METHOD, OutputKeys.MEDIA_TYPE, OutputKeys.ENCODING, OutputKeys.DOCTYPE_SYSTEM, OutputKeys.DOCTYPE_PUBLIC, OutputKeys.INDENT, OutputKeys.OMIT_XML_DECLARATION);
+  /**
+   * Is the {@linkplain OutputKeys#METHOD output method} "text" (as opposed to "xml")?
+   */
+  private final boolean textMethod;
+  /**
+   * Was the {@linkplain OutputKeys#METHOD output method} explicitly specified?
+   */
+  private final boolean methodSpecified;
+  /**
+   * Should the XML declaration be omitted?
+   */
+  private final boolean omitXMLDeclaration;
+  /**
+   * The {@linkplain OutputKeys#DOCTYPE_SYSTEM DOCTYPE system identifier}, if any.
+   */
+  private final @Nullable String doctypeSystem;
+  /**
+   * The {@linkplain OutputKeys#DOCTYPE_PUBLIC DOCTYPE public identifier}, if any.
+   */
+  private final @Nullable String doctypePublic;
+  /**
+   * The {@link Writer} for the result, or <code>null</code> if the output is being discarded while
+   * {@linkplain #scan() scanning} the document.
+   */
+  private @Nullable Writer writer = null;
+  /**
+   * The {@link Document} being serialized.
+   */
+  private @Nullable Document document = null;
+  /**
+   * Is the {@link #document} known to contain only supported content, so that output can be written?
+   */
+  private boolean scanned = false;
+  /**
+   * Does the DOCTYPE still need to be written, before the document element?
+   */
+  private boolean doctypePending = false;
+  /**
+   * When the {@linkplain OutputKeys#METHOD output method} isn't specified, the transformer defers the namespace
+   * declarations of the document element until it's decided which method to use, which affects the order they're
+   * output in. This holds the (alternating prefix and URI) declarations deferred so far, or <code>null</code> if
+   * they're not being deferred.
+   */
+  private @Nullable ArrayList<String> deferredNamespaces = null;
+  /**
+   * The namespace URI the transformer has determined for the document element while it's namespace declarations are
+   * being {@linkplain #deferredNamespaces deferred}.
+   */
+  private @Nullable String documentElementURI = null;
+
+  /**
+   * Construct a new <code>DOMSerializer</code>.
+   * 
+   * @param textMethod Is the output method "text"?
+   * @param methodSpecified Was the output method explicitly specified?
+   * @param encoding The output encoding.
+   * @param omitXMLDeclaration Should the XML declaration be omitted?
+   * @param doctypeSystem The DOCTYPE system identifier, if any.
+   * @param doctypePublic The DOCTYPE public identifier, if any.
+   */
+  private DOMSerializer(final boolean textMethod, final boolean methodSpecified, final Charset encoding, final boolean omitXMLDeclaration, final @Nullable String doctypeSystem, final @Nullable String doctypePublic) {
+    super(encoding);
+    this.textMethod = textMethod;
+    this.methodSpecified = methodSpecified;
+    this.omitXMLDeclaration = omitXMLDeclaration;
+    this.doctypeSystem = doctypeSystem;
+    this.doctypePublic = doctypePublic;
+    return;
+  }
+
+  /**
+   * Create a <code>DOMSerializer</code> to be used in place of the supplied identity <code>transformer</code>, if
+   * it's output settings are supported.
+   * 
+   * @param transformer The (already configured) identity {@link Transformer} the new serializer will stand in for.
+   * @return A new {@link DOMSerializer}, or <code>null</code> if the <code>transformer</code> isn't the JDK's
+   * built-in implementation, or it's output settings aren't supported.
+   */
+  static @Nullable DOMSerializer newInstance(final Transformer transformer) {
+    if (!JDK_TRANSFORMER_CLASS_NAME.equals(transformer.getClass().getName())) return null;
+    final Properties outputProperties = transformer.getOutputProperties();
+    for (Object key : outputProperties.keySet()) {
+      if (!SUPPORTED_OUTPUT_PROPERTIES.contains(key)) return null;
+    }
+    final String method = (outputProperties.containsKey(OutputKeys.METHOD)) ? outputProperties.getProperty(OutputKeys.METHOD) : null; // Otherwise, the default.
+    if ((method != null) && (!method.equals("xml")) && (!method.equals("text"))) return null;
+    if ("yes".equals(outputProperties.getProperty(OutputKeys.INDENT))) return null;
+    final String encoding = outputProperties.getProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+    if (!SUPPORTED_ENCODINGS.contains(encoding)) return null;
+    return new DOMSerializer("text".equals(method), method != null, Charset.forName(encoding), "yes".equals(outputProperties.getProperty(OutputKeys.OMIT_XML_DECLARATION)), outputProperties.getProperty(OutputKeys.DOCTYPE_SYSTEM), outputProperties.getProperty(OutputKeys.DOCTYPE_PUBLIC));
+  }
+
+  /**
+   * Serialize the supplied <code>document</code> to the given <code>result</code>.
+   * 
+   * @param document The {@link Document} to serialize.
+   * @param result The {@link StreamResult} to write to, which must have an {@link OutputStream} or {@link Writer}.
+   * @return <code>true</code> if the document was serialized, or <code>false</code> if it contains content which
+   * isn't supported, in which case nothing has been written.
+   * @throws IOException If there was an I/O problem writing to the <code>result</code>.
+   */
+  boolean serialize(final Document document, final StreamResult result) throws IOException {
+    final Writer writer = newWriter(result, encoding);
+    this.writer = writer;
+    this.document = document;
+    try {
+      write(document);
+      scanned = true; // Any content remaining in the buffer was serialized without a problem.
+      flushBuffer();
+    } catch (UnsupportedContentException uce) {
+      return false;
+    }
+    writer.flush();
+    return true;
+  }
+
+  /**
+   * Write the supplied <code>document</code> using the configured output method.
+   * 
+   * @param document The {@link Document} to write.
+   * @throws UnsupportedContentException If the document contains unsupported content.
+   * @throws IOException If there was an I/O problem writing the output.
+   */
+  private void write(final Document document) throws UnsupportedContentException, IOException {
+    if (textMethod) {
+      writeText(document);
+    } else {
+      writeDocument(document);
+    }
+    return;
+  }
+
+  /**
+   * Verify the entire {@link #document} can be serialized, by serializing it with another instance which discards it's
+   * output.
+   * 
+   * @throws UnsupportedContentException If the document contains unsupported content.
+   * @throws IOException Never, as nothing is written.
+   */
+  private void scan() throws UnsupportedContentException, IOException {
+    new DOMSerializer(textMethod, methodSpecified, encoding, omitXMLDeclaration, doctypeSystem, doctypePublic).write(Objects.requireNonNull(document));
+    return;
+  }
+
+  /**
+   * Write the content of the {@link #buffer} to the {@link #writer}, {@linkplain #scan() scanning} the document first
+   * if that hasn't been done.
+   * 
+   * @throws UnsupportedContentException If the document is found to contain unsupported content, in which case
+   * nothing has been written.
+   * @throws IOException If there was an I/O problem writing the output.
+   */
+  private void flushBuffer() throws UnsupportedContentException, IOException {
+    final Writer writer = this.writer;
+    if (writer == null) { // Scanning.
+      bufferLength = 0;
+      return;
+    }
+    if (!scanned) {
+      scan();
+      scanned = true;
+    }
+    writer.write(buffer, 0, bufferLength);
+    bufferLength = 0;
+    return;
+  }
+
+  /**
+   * Make room in the {@link #buffer} by {@linkplain #flushBuffer() flushing} it.
+   * 
+   * @throws UnsupportedContentException If the document is found to contain unsupported content when the output is
+   * first flushed.
+   */
+  @Override
+  protected void makeRoom(final int length) throws IOException {
+    flushBuffer();
+    return;
+  }
+
+  /**
+   * @throws UnsupportedContentException Always, as the document can be serialized using the transformer instead.
+   */
+  @Override
+  protected void unsupportedContent() throws UnsupportedContentException {
+    throw UnsupportedContentException.INSTANCE;
+  }
+
+  /**
+   * Write the content of the supplied <code>document</code> using the "text" output method, which outputs only it's
+   * text and CDATA content.
+   * 
+   * @param node The node whose text content should be written.
+   * @throws UnsupportedContentException If the document contains a character which can't be encoded.
+   * @throws IOException If there was an I/O problem writing the output.
+   */
+  private void writeText(final Node node) throws UnsupportedContentException, IOException {
+    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      switch (child.getNodeType()) {
+        case Node.ELEMENT_NODE:
+        case Node.DOCUMENT_FRAGMENT_NODE:
+          writeText(child);
+          break;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          final String value = child.getNodeValue();
+          int start = 0;
+          for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != '\n') continue;
+            writeRaw(value, start, i); // The transformer would warn about any character which can't be encoded.
+            append(LINE_SEPARATOR);
+            start = i + 1;
+          }
+          writeRaw(value, start, value.length());
+          break;
+        default:
+          break;
+      }
+    }
+    return;
+  }
+
+  /**
+   * Write the supplied <code>document</code> using the "xml" output method.
+   * 
+   * @param document The {@link Document} to write.
+   * @throws UnsupportedContentException If the document contains unsupported content.
+   * @throws IOException If there was an I/O problem writing the output.
+   */
+  private void writeDocument(final Document document) throws UnsupportedContentException, IOException {
+    if (!"1.0".equals(document.getXmlVersion())) throw UnsupportedContentException.INSTANCE;
+    if (!methodSpecified) { // The transformer would switch to the "html" method for an HTML document element.
+      final Element documentElement = document.getDocumentElement();
+      if (documentElement != null) {
+        final String name = documentElement.getNodeName();
+        if (name.substring(name.indexOf(':') + 1).equalsIgnoreCase("html")) throw UnsupportedContentException.INSTANCE;
+      }
+    }
+
+    if (!omitXMLDeclaration) writeXMLDeclaration(!document.getXmlStandalone());
+    doctypePending = doctypeSystem != null;
+
+    writeChildren(document, 0);
+    return;
+  }
+
+  /**
+   * Write the children of the supplied <code>node</code>.
+   * 
+   * @param node The {@link Node} whose children should be written.
+   * @param depth The element depth of the children.
+   * @throws UnsupportedContentException If the children contain unsupported content.
+   * @throws IOException If there was an I/O problem writing the output.
+   */
+  private void writeChildren(final Node node, final int depth) throws UnsupportedContentException, IOException {
+    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      switch (child.getNodeType()) {
+        case Node.ELEMENT_NODE:
+          writeElement(child, depth + 1);
+          break;
+        case Node.DOCUMENT_FRAGMENT_NODE:
+          writeChildren(child, depth);
+          break;
+        case Node.TEXT_NODE:
+          final String text = child.getNodeValue();
+          if (text.isEmpty()) break;
+          closeStartTag();
+          writeCharacters(text, 0, text.length());
+          break;
+        case Node.CDATA_SECTION_NODE:
+          final String cdata = child.getNodeValue();
+          if (cdata.isEmpty()) break;
+          closeStartTag();
+          writeCDATA(cdata, 0, cdata.length());
+          closeCDATA();
+          break;
+        case Node.COMMENT_NODE:
+          final String comment = child.getNodeValue();
+          writeComment(comment, 0, comment.length());
+          break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+          final String target = child.getNodeName();
+          if ((Result.PI_DISABLE_OUTPUT_ESCAPING.equals(target)) || (Result.PI_ENABLE_OUTPUT_ESCAPING.equals(target))) throw UnsupportedContentException.INSTANCE;
+          writeProcessingInstruction(target, child.getNodeValue());
+          break;
+        default: // Document types, entity references, etc, are ignored by the transformer.
+          break;
+      }
+    }
+    return;
+  }
+
+  /**
+   * Map the given namespace <code>prefix</code> to the <code>uri</code> for the current element, deferring the
+   * declaration if required.
+   * 
+   * @param prefix The namespace prefix.
+   * @param uri The namespace URI.
+   * @param name The qualified name of the current element.
+   * @param depth The element depth of the current element.
+   */
+  private void startPrefixMapping(final String prefix, final String uri, final String name, final int depth) {
+    final ArrayList<String> deferredNamespaces = this.deferredNamespaces;
+    if (deferredNamespaces == null) {
+      declareNamespace(prefix, uri, depth);
+      return;
+    }
+    final int colon = name.indexOf(':');
+    if ((documentElementURI == null) && (prefix.equals((colon > 0) ? name.substring(0, colon) : XMLConstants.DEFAULT_NS_PREFIX))) documentElementURI = uri;
+    deferredNamespaces.add(prefix);
+    deferredNamespaces.add(uri);
+    return;
+  }
+
+  /**
+   * Declare the {@linkplain #deferredNamespaces deferred} namespaces of the document element, preceded by it's own
+   * namespace if that isn't already declared, as the transformer does.
+   * 
+   * @param name The qualified name of the document element.
+   * @param depth The element depth of the document element.
+   */
+  private void declareDeferredNamespaces(final String name, final int depth) {
+    final ArrayList<String> deferredNamespaces = Objects.requireNonNull(this.deferredNamespaces);
+    this.deferredNamespaces = null;
+    final String documentElementURI = this.documentElementURI;
+    if ((documentElementURI != null) && (!documentElementURI.isEmpty())) {
+      final int colon = name.indexOf(':');
+      final String prefix = (colon >= 0) ? name.substring(0, colon) : XMLConstants.DEFAULT_NS_PREFIX;
+      if (!documentElementURI.equals(lookupNamespace(prefix))) {
+        declareNamespace(prefix, documentElementURI, depth);
+        addAttribute((colon >= 0) ? XMLConstants.XMLNS_ATTRIBUTE + ':' + prefix : XMLConstants.XMLNS_ATTRIBUTE, documentElementURI);
+      }
+    }
+    for (int i = 0; i < deferredNamespaces.size(); i += 2) {
+      declareNamespace(deferredNamespaces.get(i), deferredNamespaces.get(i + 1), depth);
+    }
+    return;
+  }
+
+  /**
+   * Normalize the prefix of an attribute name, the same as the transformer does.
+   * 
+   * @param name The qualified name of the attribute.
+   * @return The normalized name.
+   */
+  private String patchName(final String name) {
+    final int lastColon = name.lastIndexOf(':');
+    if (lastColon > 0) {
+      final int firstColon = name.indexOf(':');
+      final String prefix = name.substring(0, firstColon);
+      final String localName = name.substring(lastColon + 1);
+      final String uri = lookupNamespace(prefix);
+      if ((uri != null) && (uri.isEmpty())) {
+        return localName;
+      } else if (firstColon != lastColon) {
+        return prefix + ':' + localName;
+      }
+    }
+    return name;
+  }
+
+  /**
+   * Write the supplied <code>element</code>, including it's attributes and children.
+   * 
+   * @param element The element {@link Node} to write.
+   * @param depth The element depth of the <code>element</code>.
+   * @throws UnsupportedContentException If the element contains unsupported content.
+   * @throws IOException If there was an I/O problem writing the output.
+   */
+  private void writeElement(final Node element, final int depth) throws UnsupportedContentException, IOException {
+    final String name = element.getNodeName();
+    if (doctypePending) {
+      writeDoctype(name, doctypePublic, Objects.requireNonNull(doctypeSystem));
+      doctypePending = false;
+    }
+    openStartTag(name);
+    if ((!methodSpecified) && (depth == 1)) {
+      deferredNamespaces = new ArrayList<String>();
+      documentElementURI = null;
+    }
+
+    final NamedNodeMap attributes = element.getAttributes();
+    final int attributeCount = attributes.getLength();
+    for (int i = 0; i < attributeCount; i++) {
+      final Node attribute = attributes.item(i);
+      final String attributeName = attribute.getNodeName();
+      if (!attributeName.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) continue;
+      final int colon = attributeName.lastIndexOf(':');
+      startPrefixMapping((colon > 0) ? attributeName.substring(colon + 1) : XMLConstants.DEFAULT_NS_PREFIX, attribute.getNodeValue(), name, depth);
+    }
+    for (int i = 0; i < attributeCount; i++) {
+      final Node attribute = attributes.item(i);
+      final String attributeName = attribute.getNodeName();
+      if (attributeName.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) continue;
+      final String attributeURI = attribute.getNamespaceURI();
+      if ((attributeURI != null) && (!attributeURI.isEmpty())) {
+        final int colon = attributeName.lastIndexOf(':');
+        if (colon <= 0) throw UnsupportedContentException.INSTANCE; // The transformer would generate a prefix.
+        final String prefix = attributeName.substring(0, colon);
+        startPrefixMapping(prefix, attributeURI, name, depth);
+        if (deferredNamespaces != null) declareDeferredNamespaces(name, depth);
+        addAttribute(patchName(prefix + ':' + attributeName), attribute.getNodeValue());
+      } else {
+        if (deferredNamespaces != null) declareDeferredNamespaces(name, depth);
+        addAttribute(patchName(attributeName), attribute.getNodeValue());
+      }
+    }
+
+    final String uri = element.getNamespaceURI();
+    if (uri != null) {
+      final int colon = name.lastIndexOf(':');
+      startPrefixMapping((colon > 0) ? name.substring(0, colon) : XMLConstants.DEFAULT_NS_PREFIX, uri, name, depth);
+    } else if (element.getLocalName() != null) {
+      startPrefixMapping(XMLConstants.DEFAULT_NS_PREFIX, XMLConstants.NULL_NS_URI, name, depth);
+    }
+    if (deferredNamespaces != null) declareDeferredNamespaces(name, depth);
+
+    writeChildren(element, depth);
+
+    endNamespaces(depth);
+    writeEndTag(name);
+    return;
+  }
+
+  /**
+   * Signals that the document contains content this class can't serialize identically to the transformer.
+   */
+  private static final class UnsupportedContentException extends IOException {
+    /**
+     * The serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The shared instance, as no detail is required.
+     */
+    static final UnsupportedContentException INSTANCE = new UnsupportedContentException();
+
+    /**
+     * Construct a new <code>UnsupportedContentException</code>.
+     */
+    private UnsupportedContentException() {
+      super("Unsupported content");
+      return;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+
+  }
+
+}
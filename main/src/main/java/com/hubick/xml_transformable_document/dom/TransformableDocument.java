@@ -9,12 +9,16 @@
 package com.hubick.xml_transformable_document.dom;
 
 import java.io.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 import javax.xml.parsers.*;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
 
 import org.w3c.dom.*;
+import org.w3c.dom.events.*;
 
 import org.xml.sax.*;
 
@@ -27,6 +31,20 @@ import org.eclipse.jdt.annotation.*;
  * Encapsulate a DOM {@link Document} entity along with a set of (optional) {@linkplain #setTransformations(Iterable)
  * transformations}, the various objects needed to configure the serialized output, and the code to
  * {@linkplain #transform(Result) perform} it.
+ * 
+ * <p>
+ * A <code>TransformableDocument</code> may be {@linkplain #TransformableDocument(Supplier) constructed} lazily, in
+ * which case the document isn't created and populated until it's first {@linkplain #getDocument() required}, usually by
+ * a {@linkplain #transform(Result) transform}. When the output is served from an {@linkplain #setOutputCache(
+ * OutputCache) output cache}, or the response is otherwise short-circuited, the document is never built at all.
+ * </p>
+ * 
+ * <p>
+ * When there are no transformations configured, and the output is plain XML or text (without
+ * {@linkplain #setIndent(boolean) indenting}) being written to a {@link StreamResult}, the document is serialized
+ * directly, rather than through a JAXP {@link Transformer}, avoiding the overhead of it's SAX event pipeline. The output
+ * is identical either way, and any content which can't be serialized directly falls back to the transformer.
+ * </p>
  */
 @NonNullByDefault
 public class TransformableDocument extends TransformableEntity {
@@ -40,42 +58,353 @@ public class TransformableDocument extends TransformableEntity {
     DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
   }
   /**
-   * The DOM {@link Document} encapsulated by this object.
+   * The DOM {@link Document} encapsulated by this object, when it was supplied at construction.
+   * 
+   * @deprecated A {@linkplain #TransformableDocument(Supplier) lazily} supplied document isn't available here, so this
+   * is <code>null</code> for one, use {@link #getDocument()} instead.
+   */
+  @Deprecated
+  protected final @Nullable Document document;
+  /**
+   * The DOM {@link Document} encapsulated by this object, or <code>null</code> if it's being
+   * {@linkplain #TransformableDocument(Supplier) lazily} supplied and hasn't yet been {@linkplain #getDocument()
+   * required}.
+   */
+  private volatile @Nullable Document lazyDocument;
+  /**
+   * The source of the {@link #lazyDocument}, until it's been supplied.
+   */
+  private @Nullable Supplier<? extends Document> documentSupplier;
+  /**
+   * @see #getContentVersion()
+   */
+  private final AtomicLong contentVersion = new AtomicLong();
+  /**
+   * Has the {@linkplain #getDocument() document} been modified since this object was {@linkplain #freeze() frozen}?
+   */
+  private volatile boolean modifiedWhileFrozen = false;
+  /**
+   * @see #getLastModified()
+   */
+  private volatile long lastModified = System.currentTimeMillis();
+  /**
+   * @see #trackModifications()
+   */
+  private volatile boolean trackModifications = false;
+  /**
+   * Has {@link #markModified()} been called?
    */
-  protected final Document document;
+  private volatile boolean modificationsMarked = false;
 
   /**
    * Construct a new <code>TransformableDocument</code>.
    */
   public TransformableDocument() {
     super();
-    document = newDocument();
+    final Document document = newDocument();
+    this.document = document;
+    lazyDocument = document;
+    documentSupplier = null;
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformableDocument</code> which lazily obtains it's {@linkplain #getDocument() document}
+   * from the supplied <code>documentSupplier</code> the first time it's required, caching it thereafter.
+   * 
+   * @param documentSupplier The source of the (populated) document, which will be called at most once.
+   */
+  public TransformableDocument(final Supplier<? extends Document> documentSupplier) {
+    super();
+    document = null;
+    lazyDocument = null;
+    this.documentSupplier = documentSupplier;
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformableDocument</code> which lazily creates a new {@linkplain #getDocument() document}
+   * and passes it to the supplied <code>documentPopulator</code> the first time it's required, caching it thereafter.
+   * 
+   * @param documentPopulator The code to populate the new document, which will be called at most once.
+   */
+  public TransformableDocument(final Consumer<? super Document> documentPopulator) {
+    this(() -> {
+      final Document document = newDocument();
+      documentPopulator.accept(document);
+      return document;
+    });
     return;
   }
 
   /**
-   * Get the DOM {@link Document} encapsulated by this object.
+   * Get the DOM {@link Document} encapsulated by this object, obtaining it from the
+   * {@linkplain #TransformableDocument(Supplier) supplier} if that hasn't yet been done.
    * 
    * @return The encapsulated {@link Document}.
    */
   public Document getDocument() {
-    return document;
+    final Document document = lazyDocument;
+    if (document != null) return document;
+    synchronized (this) {
+      final Document currentDocument = lazyDocument;
+      if (currentDocument != null) return currentDocument;
+      final Supplier<? extends Document> documentSupplier = this.documentSupplier;
+      if (documentSupplier == null) throw new IllegalStateException("No document supplier");
+      final Document suppliedDocument = documentSupplier.get();
+      if (isFrozen()) {
+        expand(suppliedDocument);
+        addModificationListener(suppliedDocument);
+      }
+      if (trackModifications) addTrackingListener(suppliedDocument);
+      lazyDocument = suppliedDocument;
+      this.documentSupplier = null;
+      return suppliedDocument;
+    }
+  }
+
+  /**
+   * Has the {@linkplain #getDocument() document} been created yet? This will only return <code>false</code> for a
+   * {@linkplain #TransformableDocument(Supplier) lazily} supplied document which hasn't yet been required.
+   * 
+   * @return <code>true</code> if the document exists.
+   */
+  public boolean isDocumentCreated() {
+    return lazyDocument != null;
+  }
+
+  /**
+   * Record that the {@linkplain #getDocument() document} has been modified, by incrementing the
+   * {@linkplain #getContentVersion() content version}. This must be called after modifying the document in order for
+   * any {@linkplain #setOutputCache(OutputCache) cached output} to be invalidated.
+   * 
+   * @throws IllegalStateException If this object has been {@linkplain #freeze() frozen}.
+   */
+  public void markModified() {
+    checkNotFrozen();
+    contentVersion.incrementAndGet();
+    lastModified = System.currentTimeMillis();
+    modificationsMarked = true;
+    return;
   }
 
+  /**
+   * Get the version of the content of this document, which is only known once this object is
+   * {@linkplain #isModificationAware() aware} of modifications to the document, since the document could otherwise be
+   * modified without the version changing. Until then, output is never {@linkplain #setOutputCache(OutputCache)
+   * cached}.
+   * 
+   * @return The content version, or <code>-1</code> if it isn't known.
+   */
   @Override
-  protected synchronized void transformImpl(final Result result) throws TransformerException, IOException {
+  public long getContentVersion() {
+    return (isModificationAware()) ? contentVersion.get() : -1;
+  }
+
+  /**
+   * Are modifications to the {@linkplain #getDocument() document} known to be reflected in it's
+   * {@linkplain #getContentVersion() content version}, this object having been {@linkplain #freeze() frozen}, or it's
+   * modifications {@linkplain #trackModifications() tracked} or {@linkplain #markModified() marked}? Otherwise, the
+   * document may have been modified without anything recording it, and it's output is neither cached nor validated.
+   * 
+   * @return <code>true</code> if modifications are accounted for.
+   */
+  protected boolean isModificationAware() {
+    return (isFrozen()) || (trackModifications) || (modificationsMarked);
+  }
+
+  /**
+   * Get the time at which the {@linkplain #getDocument() document} was last modified, being the time this object was
+   * last {@linkplain #markModified() marked modified} (or {@linkplain #trackModifications() found} to have been), or
+   * otherwise the time it began accounting for modifications.
+   * 
+   * @return The time of the last modification, in milliseconds since the epoch, or <code>-1</code> if this object
+   * isn't {@linkplain #isModificationAware() aware} of modifications to the document.
+   */
+  @Override
+  public long getLastModified() {
+    return (isModificationAware()) ? lastModified : -1;
+  }
+
+  /**
+   * Listen for DOM mutation events on the {@linkplain #getDocument() document}, incrementing the
+   * {@linkplain #getContentVersion() content version} whenever it's modified, so that calling {@link #markModified()}
+   * is no longer required. This requires a DOM implementation supporting mutation events (such as the JDK's own), and
+   * adds the cost of dispatching an event to every subsequent modification of the document. Calling this method more
+   * than once has no further effect.
+   */
+  public synchronized void trackModifications() {
+    if (trackModifications) return;
+    if (!isModificationAware()) lastModified = System.currentTimeMillis(); // Any untracked modification came before.
+    trackModifications = true;
+    final Document document = lazyDocument;
+    if (document != null) addTrackingListener(document); // Otherwise, it's added when the document is supplied.
+    return;
+  }
+
+  /**
+   * Freeze the configuration of this object, along with the {@linkplain #getDocument() document}, which must not be
+   * modified after this method is called. A frozen document may be {@linkplain #transform(Result) transformed} by any
+   * number of threads concurrently, without any synchronization.
+   * 
+   * <p>
+   * A DOM implementation isn't required to be safe for concurrent reads, and a parsed document typically isn't, since
+   * parsers (including the JDK's) default to deferred node expansion, where a node's children and attributes are only
+   * built the first time they're read. The document is therefore traversed in full when it's frozen (or when it's
+   * {@linkplain #TransformableDocument(Supplier) supplied}, if that's later), forcing it's expansion before it's read by
+   * other threads, which relies on a fully expanded DOM not modifying itself when read, as is the case for the JDK's
+   * implementation.
+   * </p>
+   * 
+   * <p>
+   * The DOM also can't refuse a modification, and a modification can't safely be made while another thread is
+   * transforming the document. The restriction is only enforced after the fact: any modification to the document which
+   * is detected after freezing will cause all subsequent transforms to fail with an {@link IllegalStateException}.
+   * </p>
+   */
+  @Override
+  public synchronized void freeze() {
+    if (isFrozen()) return;
+    final Document document = lazyDocument;
+    if (document != null) { // Otherwise, this is done when the document is supplied.
+      expand(document);
+      addModificationListener(document);
+    }
+    if (!isModificationAware()) lastModified = System.currentTimeMillis(); // Any unrecorded modification came before.
+    super.freeze();
+    return;
+  }
+
+  /**
+   * Traverse every node of the supplied tree, forcing the expansion of any nodes which a deferred DOM implementation
+   * hasn't yet built.
+   * 
+   * @param root The root of the tree to expand.
+   */
+  private static void expand(final Node root) {
+    Node node = root;
+    while (true) {
+      node.getNodeName();
+      node.getNodeValue();
+      node.getNamespaceURI();
+      node.getLocalName();
+      final NamedNodeMap attributes = node.getAttributes();
+      if (attributes != null) {
+        for (int i = 0; i < attributes.getLength(); i++) {
+          expand(attributes.item(i));
+        }
+      }
+      if (node instanceof DocumentType) {
+        final NamedNodeMap entities = ((DocumentType)node).getEntities();
+        for (int i = 0; i < entities.getLength(); i++) {
+          expand(entities.item(i));
+        }
+        final NamedNodeMap notations = ((DocumentType)node).getNotations();
+        for (int i = 0; i < notations.getLength(); i++) {
+          expand(notations.item(i));
+        }
+      }
+
+      final Node firstChild = node.getFirstChild();
+      if (firstChild != null) {
+        node = firstChild;
+        continue;
+      }
+      while ((node != root) && (node.getNextSibling() == null)) {
+        node = node.getParentNode();
+      }
+      if (node == root) return;
+      node = node.getNextSibling();
+    }
+  }
+
+  /**
+   * Listen for modifications to the given <code>document</code> once this object has been {@linkplain #freeze()
+   * frozen}.
+   * 
+   * @param document The {@link Document} to listen to.
+   */
+  private void addModificationListener(final Document document) {
+    if (document instanceof EventTarget) {
+      ((EventTarget)document).addEventListener("DOMSubtreeModified", (event) -> modifiedWhileFrozen = true, false);
+    }
+    return;
+  }
+
+  /**
+   * Increment the {@linkplain #getContentVersion() content version} whenever the given <code>document</code> is
+   * modified.
+   * 
+   * @param document The {@link Document} to listen to.
+   * @see #trackModifications()
+   */
+  private void addTrackingListener(final Document document) {
+    if (document instanceof EventTarget) {
+      ((EventTarget)document).addEventListener("DOMSubtreeModified", (event) -> {
+        contentVersion.incrementAndGet();
+        lastModified = System.currentTimeMillis();
+      }, false);
+    }
+    return;
+  }
+
+  @Override
+  protected void transformImpl(final Result result) throws TransformerException, IOException {
+    if (isFrozen()) {
+      if (modifiedWhileFrozen) throw new IllegalStateException("Document modified after " + TransformableDocument.class.getSimpleName() + " was frozen");
+      transformImpl(result, false);
+      return;
+    }
+    synchronized (this) {
+      transformImpl(result, true);
+    }
+    return;
+  }
+
+  /**
+   * Output the {@linkplain #getDocument() document} to the given <code>result</code> while performing any
+   * {@linkplain #setTransformations(Iterable) configured transformations}.
+   * 
+   * @param result The {@link Result} the serialized output should be sent to.
+   * @param synchronizeDocument Should access to the document be synchronized?
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem writing to the <code>result</code>.
+   */
+  private void transformImpl(final Result result, final boolean synchronizeDocument) throws TransformerException, IOException {
 
     final Transformer baseTransformer = newTransformer(incremental, ERROR_LISTENER);
     setupBaseTransformer(baseTransformer);
 
     final Result transformResult = createTransformerHandlers(result);
 
+    final Document document = getDocument();
+
+    if ((transformResult == result) && (result instanceof StreamResult) && ((((StreamResult)result).getOutputStream() != null) || (((StreamResult)result).getWriter() != null))) {
+      final DOMSerializer domSerializer = DOMSerializer.newInstance(baseTransformer);
+      if (domSerializer != null) {
+        final boolean serialized;
+        if (synchronizeDocument) {
+          synchronized (document) {
+            serialized = domSerializer.serialize(document, (StreamResult)result);
+          }
+        } else {
+          serialized = domSerializer.serialize(document, (StreamResult)result);
+        }
+        if (serialized) return;
+      }
+    }
+
     final DOMSource documentDOMSource = new DOMSource(document);
 
     try {
-      synchronized (document) {
+      if (synchronizeDocument) {
+        synchronized (document) {
+          baseTransformer.transform(documentDOMSource, transformResult);
+        }
+      } else {
         baseTransformer.transform(documentDOMSource, transformResult);
       }
+      releaseTransformerHandlers(transformResult);
     } catch (TransformerException te) {
       if (te.getCause() instanceof IOException) throw (IOException)te.getCause();
       if ((te.getCause() instanceof SAXException) && (te.getCause().getCause() instanceof IOException)) throw (IOException)te.getCause().getCause();
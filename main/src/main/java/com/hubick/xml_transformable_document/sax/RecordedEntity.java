@@ -0,0 +1,181 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.sax;
+
+import java.io.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.sax.*;
+import javax.xml.transform.stream.*;
+
+import org.xml.sax.*;
+
+import com.hubick.xml_transformable_document.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * An entity whose content is an immutable {@link SAXEventRecording}, which is replayed into the chain of
+ * {@linkplain #setTransformations(Iterable) transformations} on each {@linkplain #transform(Result) transform}.
+ * 
+ * <p>
+ * A recording uses a small fraction of the heap of an equivalent DOM, and replaying it is considerably cheaper than
+ * traversing one, making this class well suited to holding large numbers of documents in memory for repeated output. A
+ * <code>RecordedEntity</code> can be created from any {@link Source} (such as a {@link DOMSource} or
+ * {@link StreamSource}), or from the content of a {@link SAXEntity}. Since the content can't change, the
+ * {@linkplain #getContentVersion() content version} is always <code>0</code>, and once this entity is
+ * {@linkplain #freeze() frozen}, any number of threads may transform it concurrently without synchronization. Note
+ * that the content is recorded as the JDK {@link Transformer} reports it, which (for a DOM) extends a CDATA section
+ * over any text immediately following it.
+ * </p>
+ */
+@NonNullByDefault
+public class RecordedEntity extends TransformableEntity {
+  /**
+   * The recorded content.
+   */
+  protected final SAXEventRecording recording;
+
+  /**
+   * Construct a new <code>RecordedEntity</code>.
+   * 
+   * @param recording The {@link SAXEventRecording} containing the content.
+   */
+  public RecordedEntity(final SAXEventRecording recording) {
+    super();
+    this.recording = recording;
+    return;
+  }
+
+  /**
+   * Construct a new <code>RecordedEntity</code> by recording the content of the supplied <code>source</code>.
+   * 
+   * @param source The {@link Source} to read the content from.
+   * @throws TransformerException If there was a problem reading the <code>source</code>.
+   */
+  public RecordedEntity(final Source source) throws TransformerException {
+    this(record(source));
+    return;
+  }
+
+  /**
+   * Construct a new <code>RecordedEntity</code> by recording the content written by the supplied
+   * <code>saxEntity</code> (without performing any of it's transformations).
+   * 
+   * @param saxEntity The {@link SAXEntity} to record the content of.
+   * @throws TransformerException If there was a problem writing the content.
+   */
+  public RecordedEntity(final SAXEntity saxEntity) throws TransformerException {
+    this(record(saxEntity));
+    return;
+  }
+
+  /**
+   * Get the recorded content of this entity.
+   * 
+   * @return The {@link SAXEventRecording}.
+   */
+  public SAXEventRecording getRecording() {
+    return recording;
+  }
+
+  /**
+   * Record the content of the supplied <code>source</code>.
+   * 
+   * @param source The {@link Source} to read the content from.
+   * @return The {@link SAXEventRecording}.
+   * @throws TransformerException If there was a problem reading the <code>source</code>.
+   */
+  public static SAXEventRecording record(final Source source) throws TransformerException {
+    final SAXEventRecording.Recorder recorder = new SAXEventRecording.Recorder();
+    final SAXResult recorderResult = new SAXResult(recorder);
+    recorderResult.setLexicalHandler(recorder);
+    newTransformer(false, ERROR_LISTENER).transform(source, recorderResult);
+    final SAXEventRecording recording = recorder.getRecording();
+    if (recording == null) throw new TransformerException("Incomplete document");
+    return recording;
+  }
+
+  /**
+   * Record the content written by the supplied <code>saxEntity</code> (without performing any of it's
+   * transformations).
+   * 
+   * @param saxEntity The {@link SAXEntity} to record the content of.
+   * @return The {@link SAXEventRecording}.
+   * @throws TransformerException If there was a problem writing the content.
+   */
+  public static SAXEventRecording record(final SAXEntity saxEntity) throws TransformerException {
+    final SAXEventRecording.Recorder recorder = new SAXEventRecording.Recorder();
+    final SAXResult recorderResult = new SAXResult(recorder);
+    recorderResult.setLexicalHandler(recorder);
+    final TransformerHandler transformerHandler = newTransformerHandler(null, false, ERROR_LISTENER);
+    transformerHandler.setResult(recorderResult);
+    try {
+      synchronized (saxEntity) {
+        saxEntity.writeSAXEntity(transformerHandler);
+      }
+    } catch (SAXException saxe) {
+      throw new TransformerException(saxe);
+    }
+    final SAXEventRecording recording = recorder.getRecording();
+    if (recording == null) throw new TransformerException("Incomplete document");
+    return recording;
+  }
+
+  @Override
+  public long getContentVersion() {
+    return 0;
+  }
+
+  @Override
+  protected void transformImpl(final Result result) throws TransformerException, IOException {
+    if (isFrozen()) {
+      replay(result);
+      return;
+    }
+    synchronized (this) {
+      replay(result);
+    }
+    return;
+  }
+
+  /**
+   * Replay the {@linkplain #getRecording() recording} into the given <code>result</code> while performing any
+   * {@linkplain #setTransformations(Iterable) configured transformations}.
+   * 
+   * @param result The {@link Result} the serialized output should be sent to.
+   * @throws TransformerException If there was a problem constructing the transformer(s).
+   * @throws IOException If there was an I/O problem writing to the <code>result</code>.
+   */
+  private void replay(final Result result) throws TransformerException, IOException {
+    final Result transformResult = createTransformerHandlers(result);
+
+    try {
+      if (transformResult instanceof SAXResult) {
+        // The first transformation can consume the events directly, without passing through an identity transformer.
+        recording.replay((SAXResult)transformResult);
+      } else {
+        final TransformerHandler baseTransformerHandler = newTransformerHandler(null, incremental, ERROR_LISTENER);
+        setupBaseTransformer(baseTransformerHandler.getTransformer());
+        baseTransformerHandler.setResult(transformResult);
+        recording.replay(baseTransformerHandler, baseTransformerHandler);
+      }
+      releaseTransformerHandlers(transformResult);
+    } catch (SAXException saxe) {
+      if (saxe.getCause() instanceof IOException) throw (IOException)saxe.getCause();
+      if ((saxe.getCause() instanceof TransformerException) && (saxe.getCause().getCause() instanceof IOException)) throw (IOException)saxe.getCause().getCause();
+      throw new TransformerException(saxe);
+    }
+
+    return;
+  }
+
+}
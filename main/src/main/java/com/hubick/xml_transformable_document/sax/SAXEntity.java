@@ -50,10 +50,12 @@ public abstract class SAXEntity extends TransformableEntity {
     final TransformerHandler baseTransformerHandler = newTransformerHandler(null, incremental, ERROR_LISTENER);
     setupBaseTransformer(baseTransformerHandler.getTransformer());
 
-    baseTransformerHandler.setResult(createTransformerHandlers(result));
+    final Result transformResult = createTransformerHandlers(result);
+    baseTransformerHandler.setResult(transformResult);
 
     try {
       writeSAXEntity(baseTransformerHandler);
+      releaseTransformerHandlers(transformResult);
     } catch (SAXException saxe) {
       if (saxe.getCause() instanceof IOException) throw (IOException)saxe.getCause();
       throw new TransformerException(saxe);
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.sax;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+import javax.xml.*;
+import javax.xml.parsers.*;
+import javax.xml.transform.*;
+import javax.xml.transform.sax.*;
+
+import org.xml.sax.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * An entity whose content is raw XML read from a {@link Path}, an {@link InputStream}, or a {@link ByteBuffer} (such
+ * as a {@linkplain FileChannel#map(FileChannel.MapMode, long, long) memory-mapped} region of a file), which is parsed
+ * and streamed straight into the chain of {@linkplain #setTransformations(Iterable) transformations} on each
+ * {@linkplain #transform(Result) transform}, without ever building a DOM. Memory use is therefore independent of the
+ * size of the content (unless a transformation itself requires the whole input tree, as most XSLT does).
+ * 
+ * <p>
+ * A <code>TransformableSource</code> created from an {@link InputStream} can only be transformed once.
+ * </p>
+ */
+@NonNullByDefault
+public class TransformableSource extends SAXEntity {
+  /**
+   * A per-thread {@link SAXParserFactory}, as implementations aren't guaranteed to be thread-safe.
+   */
+  private static final ThreadLocal<SAXParserFactory> SAX_PARSER_FACTORY = ThreadLocal.withInitial(() -> {
+    final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+    saxParserFactory.setNamespaceAware(true);
+    try {
+      saxParserFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+    } catch (ParserConfigurationException | SAXException e) {
+      // Not all implementations support this feature.
+    }
+    return saxParserFactory;
+  });
+  /**
+   * The file to read content from, if any.
+   */
+  protected final @Nullable Path path;
+  /**
+   * The stream to read content from, if any, which is set to <code>null</code> once consumed.
+   */
+  protected @Nullable InputStream inputStream;
+  /**
+   * The buffer to read content from, if any.
+   */
+  protected final @Nullable ByteBuffer buffer;
+  /**
+   * The system identifier used to resolve any relative URI's within the content.
+   */
+  protected final @Nullable String sourceSystemID;
+
+  /**
+   * Construct a new <code>TransformableSource</code> reading content from a file.
+   * 
+   * @param path The file to read the content from, on each {@linkplain #transform(Result) transform}.
+   */
+  public TransformableSource(final Path path) {
+    super();
+    this.path = path;
+    this.inputStream = null;
+    this.buffer = null;
+    this.sourceSystemID = path.toUri().toString();
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformableSource</code> reading content from a stream, which can only be
+   * {@linkplain #transform(Result) transformed} once.
+   * 
+   * @param inputStream The stream to read the content from, which will be closed once it's been read.
+   * @param sourceSystemID The system identifier used to resolve any relative URI's within the content, or
+   * <code>null</code>.
+   */
+  public TransformableSource(final InputStream inputStream, final @Nullable String sourceSystemID) {
+    super();
+    this.path = null;
+    this.inputStream = inputStream;
+    this.buffer = null;
+    this.sourceSystemID = sourceSystemID;
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformableSource</code> reading content from a buffer.
+   * 
+   * @param buffer The buffer containing the content, between it's current position and limit, which will not be
+   * modified (each {@linkplain #transform(Result) transform} reads from a {@linkplain ByteBuffer#duplicate()
+   * duplicate}).
+   * @param sourceSystemID The system identifier used to resolve any relative URI's within the content, or
+   * <code>null</code>.
+   */
+  public TransformableSource(final ByteBuffer buffer, final @Nullable String sourceSystemID) {
+    super();
+    this.path = null;
+    this.inputStream = null;
+    this.buffer = buffer.asReadOnlyBuffer();
+    this.sourceSystemID = sourceSystemID;
+    return;
+  }
+
+  /**
+   * Open a stream over the content of this entity.
+   * 
+   * @return A new {@link InputStream}.
+   * @throws IOException If there was a problem opening the stream.
+   * @throws IllegalStateException If this entity was created from an {@link InputStream} which has already been
+   * consumed.
+   */
+  protected InputStream openStream() throws IOException, IllegalStateException {
+    final Path path = this.path;
+    if (path != null) return Files.newInputStream(path);
+    final ByteBuffer buffer = this.buffer;
+    if (buffer != null) return new ByteBufferInputStream(buffer.duplicate());
+    final InputStream inputStream = this.inputStream;
+    if (inputStream == null) throw new IllegalStateException("Source stream has already been consumed");
+    this.inputStream = null;
+    return inputStream;
+  }
+
+  @Override
+  protected void writeSAXEntity(final TransformerHandler transformerHandler) throws SAXException {
+    final XMLReader xmlReader;
+    try {
+      xmlReader = SAX_PARSER_FACTORY.get().newSAXParser().getXMLReader();
+    } catch (ParserConfigurationException pce) {
+      throw new SAXException(pce);
+    }
+    xmlReader.setContentHandler(transformerHandler);
+    xmlReader.setDTDHandler(transformerHandler);
+    xmlReader.setProperty("http://xml.org/sax/properties/lexical-handler", transformerHandler);
+
+    try (InputStream inputStream = openStream()) {
+      final InputSource inputSource = new InputSource(inputStream);
+      if (sourceSystemID != null) inputSource.setSystemId(sourceSystemID);
+      xmlReader.parse(inputSource);
+    } catch (IOException ioe) {
+      throw new SAXException(ioe);
+    }
+    return;
+  }
+
+  /**
+   * An {@link InputStream} reading from a {@link ByteBuffer}.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+    /**
+     * The buffer being read.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Construct a new <code>ByteBufferInputStream</code>.
+     * 
+     * @param buffer The buffer to read, from it's current position to it's limit.
+     */
+    ByteBufferInputStream(final ByteBuffer buffer) {
+      this.buffer = buffer;
+      return;
+    }
+
+    @Override
+    public int read() {
+      return (buffer.hasRemaining()) ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      if (len == 0) return 0;
+      if (!buffer.hasRemaining()) return -1;
+      final int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+  }
+
+}
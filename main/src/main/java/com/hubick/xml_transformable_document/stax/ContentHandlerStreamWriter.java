@@ -0,0 +1,633 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.stax;
+
+import java.util.*;
+import java.util.regex.*;
+
+import javax.xml.*;
+import javax.xml.namespace.*;
+import javax.xml.stream.*;
+import javax.xml.transform.*;
+
+import org.xml.sax.*;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ext.*;
+import org.xml.sax.helpers.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * A non-{@linkplain XMLOutputFactory#IS_REPAIRING_NAMESPACES repairing} {@link XMLStreamWriter} which generates SAX
+ * events on a {@link ContentHandler} (and optional {@link LexicalHandler}).
+ * 
+ * <p>
+ * A single {@link AttributesImpl} and character buffer are reused for every element and text event, so (beyond the
+ * strings supplied by the caller, and qualified names for prefixed elements) no garbage is generated per event.
+ * Attributes are accumulated until the start tag is closed by a subsequent event, at which point
+ * {@link ContentHandler#startElement(String, String, String, Attributes)} is called.
+ * </p>
+ * 
+ * <p>
+ * A {@linkplain #writeDTD(String) DTD} is reported to the {@link LexicalHandler} (if any) as it's name and external
+ * identifiers, since an internal subset can't be represented as SAX events. An {@linkplain #writeEntityRef(String)
+ * entity reference} to a character or predefined entity is reported as the referenced character, while any other is
+ * reported as it's literal reference text, surrounded by {@link Result#PI_DISABLE_OUTPUT_ESCAPING} and
+ * {@link Result#PI_ENABLE_OUTPUT_ESCAPING} processing instructions, so it's only preserved when serialized to a
+ * stream.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+@NonNullByDefault
+class ContentHandlerStreamWriter implements XMLStreamWriter {
+  /**
+   * Matches a DOCTYPE declaration without an internal subset, capturing it's name, and then either it's public and
+   * system identifiers, or just a system identifier (each including the surrounding quotes).
+   */
+  private static final Pattern DOCTYPE_PATTERN = Pattern.compile("\\s*<!DOCTYPE\\s+([^\\s>\\[]+)(?:\\s+(?:PUBLIC\\s+(\"[^\"]*\"|'[^']*')\\s+(\"[^\"]*\"|'[^']*')|SYSTEM\\s+(\"[^\"]*\"|'[^']*')))?\\s*>\\s*");
+  /**
+   * The handler receiving content events.
+   */
+  protected final ContentHandler contentHandler;
+  /**
+   * The handler receiving lexical events, if any.
+   */
+  protected final @Nullable LexicalHandler lexicalHandler;
+  /**
+   * The namespace bindings currently in scope.
+   */
+  protected final NamespaceSupport namespaceSupport = new NamespaceSupport();
+  /**
+   * The attributes of the pending start tag, reused for every element.
+   */
+  private final AttributesImpl attributes = new AttributesImpl();
+  /**
+   * The namespace URI, local name, and qualified name of each open element (including any pending one), in groups of
+   * three.
+   */
+  private final ArrayList<String> elementNames = new ArrayList<String>();
+  /**
+   * The prefixes {@linkplain #writeNamespace(String, String) declared} on the open elements, which require
+   * {@link ContentHandler#endPrefixMapping(String)} to be called when the declaring element ends.
+   */
+  private final ArrayList<String> declaredPrefixes = new ArrayList<String>();
+  /**
+   * The size of {@link #declaredPrefixes} at the start of each open element.
+   */
+  private int[] declaredPrefixMarks = new int[16];
+  /**
+   * A buffer reused for passing {@link String} character data to the {@link #contentHandler}.
+   */
+  private char[] characterBuffer = new char[256];
+  /**
+   * Has a start tag been written which hasn't yet been reported to the {@link #contentHandler}?
+   */
+  private boolean startTagOpen = false;
+  /**
+   * Is the pending start tag for an {@linkplain #writeEmptyElement(String) empty element}?
+   */
+  private boolean emptyElement = false;
+  /**
+   * Has {@link ContentHandler#startDocument()} been called?
+   */
+  private boolean documentStarted = false;
+  /**
+   * The {@linkplain #setNamespaceContext(NamespaceContext) root namespace context}, consulted for any prefix or URI not
+   * bound by the {@link #namespaceSupport}, if any.
+   */
+  private @Nullable NamespaceContext rootNamespaceContext = null;
+
+  /**
+   * Construct a new <code>ContentHandlerStreamWriter</code>.
+   * 
+   * @param contentHandler The handler to receive content events.
+   * @param lexicalHandler The handler to receive lexical events (comments and CDATA sections), or <code>null</code>.
+   */
+  ContentHandlerStreamWriter(final ContentHandler contentHandler, final @Nullable LexicalHandler lexicalHandler) {
+    this.contentHandler = contentHandler;
+    this.lexicalHandler = lexicalHandler;
+    return;
+  }
+
+  /**
+   * Call {@link ContentHandler#startDocument()}, if it hasn't already been called.
+   * 
+   * @throws SAXException If the {@link #contentHandler} threw an exception.
+   */
+  private void startDocument() throws SAXException {
+    if (documentStarted) return;
+    documentStarted = true;
+    contentHandler.startDocument();
+    return;
+  }
+
+  /**
+   * Report any pending start tag (and, if it's empty, it's end) to the {@link #contentHandler}.
+   * 
+   * @throws XMLStreamException If the {@link #contentHandler} threw an exception.
+   */
+  private void closeStartTag() throws XMLStreamException {
+    if (!startTagOpen) return;
+    startTagOpen = false;
+    final int size = elementNames.size();
+    try {
+      contentHandler.startElement(elementNames.get(size - 3), elementNames.get(size - 2), elementNames.get(size - 1), attributes);
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    attributes.clear();
+    if (emptyElement) {
+      emptyElement = false;
+      endElement();
+    }
+    return;
+  }
+
+  /**
+   * Begin a new (pending) element.
+   * 
+   * @param namespaceURI The namespace URI of the element.
+   * @param localName The local name of the element.
+   * @param qName The qualified name of the element.
+   * @param empty Is this an empty element?
+   * @throws XMLStreamException If the {@link #contentHandler} threw an exception.
+   */
+  private void startElement(final String namespaceURI, final String localName, final String qName, final boolean empty) throws XMLStreamException {
+    closeStartTag();
+    try {
+      startDocument();
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    final int depth = elementNames.size() / 3;
+    if (depth == declaredPrefixMarks.length) declaredPrefixMarks = Arrays.copyOf(declaredPrefixMarks, depth * 2);
+    declaredPrefixMarks[depth] = declaredPrefixes.size();
+    elementNames.add(namespaceURI);
+    elementNames.add(localName);
+    elementNames.add(qName);
+    namespaceSupport.pushContext();
+    startTagOpen = true;
+    emptyElement = empty;
+    return;
+  }
+
+  /**
+   * Report the end of the innermost open element to the {@link #contentHandler}.
+   * 
+   * @throws XMLStreamException If there is no open element, or the {@link #contentHandler} threw an exception.
+   */
+  private void endElement() throws XMLStreamException {
+    final int size = elementNames.size();
+    if (size == 0) throw new XMLStreamException("No open element to end");
+    try {
+      contentHandler.endElement(elementNames.get(size - 3), elementNames.get(size - 2), elementNames.get(size - 1));
+      final int mark = declaredPrefixMarks[(size / 3) - 1];
+      for (int i = declaredPrefixes.size() - 1; i >= mark; i--) {
+        contentHandler.endPrefixMapping(declaredPrefixes.remove(i));
+      }
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    elementNames.subList(size - 3, size).clear();
+    namespaceSupport.popContext();
+    return;
+  }
+
+  /**
+   * Get the prefix bound to the given <code>namespaceURI</code>.
+   * 
+   * @param namespaceURI The namespace URI.
+   * @param attribute Is the prefix for an attribute (which can't use the default namespace)?
+   * @return The prefix, which will be empty for the default namespace.
+   * @throws XMLStreamException If the <code>namespaceURI</code> isn't bound.
+   */
+  private String requirePrefix(final String namespaceURI, final boolean attribute) throws XMLStreamException {
+    if (namespaceURI.isEmpty()) return XMLConstants.DEFAULT_NS_PREFIX;
+    if ((!attribute) && (namespaceURI.equals(namespaceSupport.getURI(XMLConstants.DEFAULT_NS_PREFIX)))) return XMLConstants.DEFAULT_NS_PREFIX;
+    final String prefix = namespaceSupport.getPrefix(namespaceURI);
+    if (prefix != null) return prefix;
+    final String rootPrefix = getRootPrefix(namespaceURI);
+    if ((rootPrefix == null) || ((attribute) && (rootPrefix.isEmpty()))) throw new XMLStreamException("Namespace URI '" + namespaceURI + "' has not been bound to a prefix");
+    return rootPrefix;
+  }
+
+  /**
+   * Get the prefix bound to the given <code>namespaceURI</code> by the {@link #rootNamespaceContext}, unless that
+   * prefix has since been bound to another URI.
+   * 
+   * @param namespaceURI The namespace URI.
+   * @return The prefix, or <code>null</code> if there isn't one.
+   */
+  private @Nullable String getRootPrefix(final String namespaceURI) {
+    final NamespaceContext rootNamespaceContext = this.rootNamespaceContext;
+    if (rootNamespaceContext == null) return null;
+    final String prefix = rootNamespaceContext.getPrefix(namespaceURI);
+    if (prefix == null) return null;
+    final String boundURI = namespaceSupport.getURI(prefix);
+    return ((boundURI == null) || (boundURI.equals(namespaceURI))) ? prefix : null;
+  }
+
+  /**
+   * Create a qualified name.
+   * 
+   * @param prefix The prefix, which may be empty.
+   * @param localName The local name.
+   * @return The qualified name.
+   */
+  private static String qName(final @Nullable String prefix, final String localName) {
+    return ((prefix == null) || (prefix.isEmpty())) ? localName : prefix + ':' + localName;
+  }
+
+  @Override
+  public void writeStartElement(final String localName) throws XMLStreamException {
+    startElement(XMLConstants.NULL_NS_URI, localName, localName, false);
+    return;
+  }
+
+  @Override
+  public void writeStartElement(final String namespaceURI, final String localName) throws XMLStreamException {
+    startElement(namespaceURI, localName, qName(requirePrefix(namespaceURI, false), localName), false);
+    return;
+  }
+
+  @Override
+  public void writeStartElement(final String prefix, final String localName, final String namespaceURI) throws XMLStreamException {
+    startElement(namespaceURI, localName, qName(prefix, localName), false);
+    return;
+  }
+
+  @Override
+  public void writeEmptyElement(final String namespaceURI, final String localName) throws XMLStreamException {
+    startElement(namespaceURI, localName, qName(requirePrefix(namespaceURI, false), localName), true);
+    return;
+  }
+
+  @Override
+  public void writeEmptyElement(final String prefix, final String localName, final String namespaceURI) throws XMLStreamException {
+    startElement(namespaceURI, localName, qName(prefix, localName), true);
+    return;
+  }
+
+  @Override
+  public void writeEmptyElement(final String localName) throws XMLStreamException {
+    startElement(XMLConstants.NULL_NS_URI, localName, localName, true);
+    return;
+  }
+
+  @Override
+  public void writeEndElement() throws XMLStreamException {
+    closeStartTag();
+    endElement();
+    return;
+  }
+
+  @Override
+  public void writeEndDocument() throws XMLStreamException {
+    closeStartTag();
+    while (!elementNames.isEmpty()) {
+      endElement();
+    }
+    try {
+      startDocument();
+      contentHandler.endDocument();
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  @Override
+  public void close() throws XMLStreamException {
+    return;
+  }
+
+  @Override
+  public void flush() throws XMLStreamException {
+    return;
+  }
+
+  @Override
+  public void writeAttribute(final String localName, final String value) throws XMLStreamException {
+    if (!startTagOpen) throw new XMLStreamException("Attribute written outside of a start tag");
+    attributes.addAttribute(XMLConstants.NULL_NS_URI, localName, localName, "CDATA", value);
+    return;
+  }
+
+  @Override
+  public void writeAttribute(final String prefix, final String namespaceURI, final String localName, final String value) throws XMLStreamException {
+    if (!startTagOpen) throw new XMLStreamException("Attribute written outside of a start tag");
+    attributes.addAttribute(namespaceURI, localName, qName(prefix, localName), "CDATA", value);
+    return;
+  }
+
+  @Override
+  public void writeAttribute(final String namespaceURI, final String localName, final String value) throws XMLStreamException {
+    if (!startTagOpen) throw new XMLStreamException("Attribute written outside of a start tag");
+    attributes.addAttribute(namespaceURI, localName, qName(requirePrefix(namespaceURI, true), localName), "CDATA", value);
+    return;
+  }
+
+  @Override
+  public void writeNamespace(final @Nullable String prefix, final String namespaceURI) throws XMLStreamException {
+    if ((prefix == null) || (prefix.isEmpty()) || (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix))) {
+      writeDefaultNamespace(namespaceURI);
+      return;
+    }
+    if (!startTagOpen) throw new XMLStreamException("Namespace written outside of a start tag");
+    namespaceSupport.declarePrefix(prefix, namespaceURI);
+    declaredPrefixes.add(prefix);
+    try {
+      contentHandler.startPrefixMapping(prefix, namespaceURI);
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  @Override
+  public void writeDefaultNamespace(final String namespaceURI) throws XMLStreamException {
+    if (!startTagOpen) throw new XMLStreamException("Namespace written outside of a start tag");
+    namespaceSupport.declarePrefix(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI);
+    declaredPrefixes.add(XMLConstants.DEFAULT_NS_PREFIX);
+    try {
+      contentHandler.startPrefixMapping(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI);
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  @Override
+  public void writeComment(final String data) throws XMLStreamException {
+    closeStartTag();
+    final LexicalHandler lexicalHandler = this.lexicalHandler;
+    if (lexicalHandler == null) return;
+    try {
+      startDocument();
+      lexicalHandler.comment(toCharacterBuffer(data), 0, data.length());
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  @Override
+  public void writeProcessingInstruction(final String target) throws XMLStreamException {
+    writeProcessingInstruction(target, "");
+    return;
+  }
+
+  @Override
+  public void writeProcessingInstruction(final String target, final String data) throws XMLStreamException {
+    closeStartTag();
+    try {
+      startDocument();
+      contentHandler.processingInstruction(target, data);
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  @Override
+  public void writeCData(final String data) throws XMLStreamException {
+    closeStartTag();
+    final LexicalHandler lexicalHandler = this.lexicalHandler;
+    try {
+      if (lexicalHandler != null) lexicalHandler.startCDATA();
+      contentHandler.characters(toCharacterBuffer(data), 0, data.length());
+      if (lexicalHandler != null) lexicalHandler.endCDATA();
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  /**
+   * Report the name and external identifiers of the supplied DOCTYPE declaration to the {@link #lexicalHandler}. A
+   * DOCTYPE may also be output by setting the
+   * {@linkplain com.hubick.xml_transformable_document.TransformableEntity#setSystemID(java.net.URI) system} and
+   * {@linkplain com.hubick.xml_transformable_document.TransformableEntity#setPublicID(String) public} ID's of the
+   * entity.
+   * 
+   * @throws XMLStreamException If the document element has been written, the declaration has an internal subset
+   * (which can't be represented as SAX events), or the {@link #lexicalHandler} threw an exception.
+   */
+  @Override
+  public void writeDTD(final String dtd) throws XMLStreamException {
+    if (!elementNames.isEmpty()) throw new XMLStreamException("DTD written after the document element");
+    final Matcher matcher = DOCTYPE_PATTERN.matcher(dtd);
+    if (!matcher.matches()) throw new XMLStreamException("Unsupported DTD (internal subsets are not supported): " + dtd);
+    final String publicID = unquote(matcher.group(2));
+    final String systemID = unquote((matcher.group(3) != null) ? matcher.group(3) : matcher.group(4));
+    final LexicalHandler lexicalHandler = this.lexicalHandler;
+    try {
+      startDocument();
+      if (lexicalHandler == null) return;
+      lexicalHandler.startDTD(matcher.group(1), publicID, systemID);
+      lexicalHandler.endDTD();
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  /**
+   * Remove the quotes surrounding a literal.
+   * 
+   * @param literal The quoted literal.
+   * @return The literal without it's quotes, or <code>null</code> if the <code>literal</code> was <code>null</code>.
+   */
+  private static @Nullable String unquote(final @Nullable String literal) {
+    return (literal != null) ? literal.substring(1, literal.length() - 1) : null;
+  }
+
+  @Override
+  public void writeEntityRef(final String name) throws XMLStreamException {
+    closeStartTag();
+    try {
+      startDocument();
+      if (name.startsWith("#")) {
+        final int codePoint;
+        try {
+          codePoint = (name.startsWith("#x")) ? Integer.parseInt(name.substring(2), 16) : Integer.parseInt(name.substring(1));
+        } catch (NumberFormatException nfe) {
+          throw new XMLStreamException("Invalid character reference '" + name + "'", null, nfe);
+        }
+        if (!Character.isValidCodePoint(codePoint)) throw new XMLStreamException("Invalid character reference '" + name + "'");
+        final char[] chars = Character.toChars(codePoint);
+        contentHandler.characters(chars, 0, chars.length);
+        return;
+      }
+      final String text;
+      switch (name) {
+        case "amp":
+          text = "&";
+          break;
+        case "lt":
+          text = "<";
+          break;
+        case "gt":
+          text = ">";
+          break;
+        case "quot":
+          text = "\"";
+          break;
+        case "apos":
+          text = "'";
+          break;
+        default:
+          final String reference = '&' + name + ';';
+          contentHandler.processingInstruction(Result.PI_DISABLE_OUTPUT_ESCAPING, "");
+          contentHandler.characters(toCharacterBuffer(reference), 0, reference.length());
+          contentHandler.processingInstruction(Result.PI_ENABLE_OUTPUT_ESCAPING, "");
+          return;
+      }
+      contentHandler.characters(toCharacterBuffer(text), 0, 1);
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  @Override
+  public void writeStartDocument() throws XMLStreamException {
+    try {
+      startDocument();
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  @Override
+  public void writeStartDocument(final String version) throws XMLStreamException {
+    writeStartDocument();
+    return;
+  }
+
+  @Override
+  public void writeStartDocument(final String encoding, final String version) throws XMLStreamException {
+    writeStartDocument();
+    return;
+  }
+
+  @Override
+  public void writeCharacters(final String text) throws XMLStreamException {
+    closeStartTag();
+    try {
+      contentHandler.characters(toCharacterBuffer(text), 0, text.length());
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  @Override
+  public void writeCharacters(final char[] text, final int start, final int len) throws XMLStreamException {
+    closeStartTag();
+    try {
+      contentHandler.characters(text, start, len);
+    } catch (SAXException saxe) {
+      throw new XMLStreamException(saxe);
+    }
+    return;
+  }
+
+  /**
+   * Copy the supplied <code>text</code> into the reusable {@link #characterBuffer}, growing it if required.
+   * 
+   * @param text The text to copy.
+   * @return The {@link #characterBuffer}.
+   */
+  private char[] toCharacterBuffer(final String text) {
+    if (text.length() > characterBuffer.length) characterBuffer = new char[Math.max(text.length(), characterBuffer.length * 2)];
+    text.getChars(0, text.length(), characterBuffer, 0);
+    return characterBuffer;
+  }
+
+  @Override
+  public @Nullable String getPrefix(final String uri) throws XMLStreamException {
+    return getNamespaceContext().getPrefix(uri);
+  }
+
+  @Override
+  public void setPrefix(final String prefix, final String uri) throws XMLStreamException {
+    namespaceSupport.declarePrefix(prefix, uri);
+    return;
+  }
+
+  @Override
+  public void setDefaultNamespace(final String uri) throws XMLStreamException {
+    namespaceSupport.declarePrefix(XMLConstants.DEFAULT_NS_PREFIX, uri);
+    return;
+  }
+
+  /**
+   * Set the root namespace context, which will be consulted for any prefix or namespace URI not bound by this writer.
+   * Since this writer doesn't repair namespaces, these bindings are only used for resolving prefixes, and must still be
+   * declared through {@link #writeNamespace(String, String)} or {@link #writeDefaultNamespace(String)}.
+   * 
+   * @throws XMLStreamException If an element has already been written.
+   */
+  @Override
+  public void setNamespaceContext(final NamespaceContext context) throws XMLStreamException {
+    if (!elementNames.isEmpty()) throw new XMLStreamException("The namespace context must be set before the document element");
+    rootNamespaceContext = context;
+    return;
+  }
+
+  @Override
+  public NamespaceContext getNamespaceContext() {
+    return new NamespaceContext() {
+
+      @Override
+      public @Nullable String getNamespaceURI(final String prefix) {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) return XMLConstants.XML_NS_URI;
+        if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+        final String uri = namespaceSupport.getURI(prefix);
+        if (uri != null) return uri;
+        final NamespaceContext rootNamespaceContext = ContentHandlerStreamWriter.this.rootNamespaceContext;
+        return (rootNamespaceContext != null) ? rootNamespaceContext.getNamespaceURI(prefix) : XMLConstants.NULL_NS_URI;
+      }
+
+      @Override
+      public @Nullable String getPrefix(final String namespaceURI) {
+        if (namespaceURI.equals(namespaceSupport.getURI(XMLConstants.DEFAULT_NS_PREFIX))) return XMLConstants.DEFAULT_NS_PREFIX;
+        final String prefix = namespaceSupport.getPrefix(namespaceURI);
+        return (prefix != null) ? prefix : getRootPrefix(namespaceURI);
+      }
+
+      @Override
+      public Iterator<String> getPrefixes(final String namespaceURI) {
+        final ArrayList<String> prefixes = new ArrayList<String>();
+        if (namespaceURI.equals(namespaceSupport.getURI(XMLConstants.DEFAULT_NS_PREFIX))) prefixes.add(XMLConstants.DEFAULT_NS_PREFIX);
+        final Enumeration<String> e = namespaceSupport.getPrefixes(namespaceURI);
+        while (e.hasMoreElements()) {
+          prefixes.add(e.nextElement());
+        }
+        final String rootPrefix = getRootPrefix(namespaceURI);
+        if ((rootPrefix != null) && (!prefixes.contains(rootPrefix))) prefixes.add(rootPrefix);
+        return prefixes.iterator();
+      }
+
+    };
+  }
+
+  @Override
+  public Object getProperty(final String name) throws IllegalArgumentException {
+    if (XMLOutputFactory.IS_REPAIRING_NAMESPACES.equals(name)) return Boolean.FALSE;
+    throw new IllegalArgumentException("Unsupported property '" + name + "'");
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.stax;
+
+import java.io.*;
+import java.nio.charset.*;
+
+import javax.activation.*;
+import javax.xml.stream.*;
+import javax.xml.transform.*;
+import javax.xml.transform.sax.*;
+import javax.xml.transform.stream.*;
+
+import org.xml.sax.*;
+
+import com.hubick.xml_transformable_document.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Encapsulate a StAX generated entity along with a set of (optional) {@linkplain #setTransformations(Iterable)
+ * transformations}, the various objects needed to configure the serialized output, and the code to
+ * {@linkplain #transform(Result) perform} it.
+ * 
+ * <p>
+ * Content is written through an {@link XMLStreamWriter}, which feeds the chain of {@link TransformerHandler}'s
+ * {@linkplain #createTransformerHandlers(Result) created} for the configured transformations, without the need to
+ * construct SAX {@link Attributes} objects or character arrays for each event. When there are no transformations,
+ * the output is plain XML ({@linkplain #getMediaType() media type} is unspecified or XML, but not HTML), and there is
+ * no {@linkplain #setIndent(boolean) indenting} or {@linkplain #setSystemID(java.net.URI) DOCTYPE} to be applied, the
+ * writer serializes directly to a {@link StreamResult}, bypassing the {@link Transformer} entirely. The direct output
+ * is the same as the transformer would produce, with the same events being generated either way, but if the document
+ * element is named "html" (which the transformer would output as HTML), the direct output is abandoned before any of
+ * it is written, and {@link #writeStAXEntity(XMLStreamWriter)} is called again to transform it instead.
+ * </p>
+ */
+@NonNullByDefault
+public abstract class StAXEntity extends TransformableEntity {
+  /**
+   * Construct a new <code>StAXEntity</code>.
+   */
+  protected StAXEntity() {
+    super();
+    return;
+  }
+
+  /**
+   * Write the content for this entity. The start and end of the document (including any XML declaration) are written
+   * by the caller, so implementations must not call {@link XMLStreamWriter#writeStartDocument()} or
+   * {@link XMLStreamWriter#writeEndDocument()}, and should only write the document element (along with any surrounding
+   * comments or processing instructions). The writer is not {@linkplain XMLOutputFactory#IS_REPAIRING_NAMESPACES
+   * repairing namespaces}, so any namespace used must be declared with {@link XMLStreamWriter#writeNamespace(String,
+   * String)} or {@link XMLStreamWriter#writeDefaultNamespace(String)}.
+   * 
+   * @param xmlStreamWriter Content is generated within this method through calls to this {@link XMLStreamWriter}.
+   * @throws XMLStreamException If there was a problem while calling the <code>xmlStreamWriter</code> to generate
+   * content.
+   */
+  protected abstract void writeStAXEntity(XMLStreamWriter xmlStreamWriter) throws XMLStreamException;
+
+  /**
+   * Can the output of this entity be written directly to the supplied <code>result</code>, without a
+   * {@link Transformer}?
+   * 
+   * @param result The {@link Result} the output is being sent to.
+   * @param transformResult The {@link Result} returned from {@link #createTransformerHandlers(Result)}.
+   * @return <code>true</code> if the output can be written directly.
+   */
+  protected boolean isDirectOutput(final Result result, final Result transformResult) {
+    if ((transformResult != result) || (!(result instanceof StreamResult))) return false;
+    if ((((StreamResult)result).getOutputStream() == null) && (((StreamResult)result).getWriter() == null)) return false;
+    final MimeType mediaType = this.mediaType;
+    if ((mediaType != null) && ((!isXML(mediaType)) || (isHTML(mediaType)))) return false;
+    if ((encoding != null) && (!XMLSerializer.SUPPORTED_ENCODINGS.contains(encoding.name()))) return false;
+    return (!indent) && (systemID == null) && (publicID == null);
+  }
+
+  @Override
+  protected synchronized void transformImpl(final Result result) throws TransformerException, IOException {
+    final Result transformResult = createTransformerHandlers(result);
+
+    try {
+      if ((isDirectOutput(result, transformResult)) && (writeDirect((StreamResult)result))) return;
+
+      final TransformerHandler baseTransformerHandler = newTransformerHandler(null, incremental, ERROR_LISTENER);
+      setupBaseTransformer(baseTransformerHandler.getTransformer());
+      baseTransformerHandler.setResult(transformResult);
+
+      final XMLStreamWriter xmlStreamWriter = new ContentHandlerStreamWriter(baseTransformerHandler, baseTransformerHandler);
+      xmlStreamWriter.writeStartDocument();
+      writeStAXEntity(xmlStreamWriter);
+      xmlStreamWriter.writeEndDocument();
+      releaseTransformerHandlers(transformResult);
+    } catch (XMLStreamException xmlse) {
+      final Throwable cause = xmlse.getCause();
+      if (cause instanceof IOException) throw (IOException)cause;
+      if ((cause instanceof SAXException) && (cause.getCause() instanceof IOException)) throw (IOException)cause.getCause();
+      throw new TransformerException(xmlse);
+    }
+
+    return;
+  }
+
+  /**
+   * Write the output of this entity directly to the supplied <code>result</code> using a {@link StreamSerializer}.
+   * 
+   * @param result The {@link StreamResult} to write to, which must have an {@link OutputStream} or {@link Writer}.
+   * @return <code>true</code> if the output was written, or <code>false</code> if it contains content which must be
+   * transformed instead, in which case nothing has been written.
+   * @throws XMLStreamException If there was a problem writing the output.
+   */
+  private boolean writeDirect(final StreamResult result) throws XMLStreamException {
+    final StreamSerializer streamSerializer = new StreamSerializer(result, mediaType != null, (encoding != null) ? encoding : StandardCharsets.UTF_8, omitXMLDeclaration);
+    final XMLStreamWriter xmlStreamWriter = new ContentHandlerStreamWriter(streamSerializer, streamSerializer);
+    try {
+      xmlStreamWriter.writeStartDocument();
+      writeStAXEntity(xmlStreamWriter);
+      xmlStreamWriter.writeEndDocument();
+    } catch (XMLStreamException xmlse) {
+      if (xmlse.getCause() == StreamSerializer.UnsupportedContentException.INSTANCE) return false;
+      throw xmlse;
+    }
+    return true;
+  }
+
+}
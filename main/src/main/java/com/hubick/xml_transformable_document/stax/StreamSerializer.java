@@ -0,0 +1,370 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.stax;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import javax.xml.*;
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.xml.sax.*;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ext.*;
+
+import com.hubick.xml_transformable_document.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Serializes SAX events to a {@link StreamResult}, reproducing the output of the JDK's built-in identity
+ * {@link Transformer} using the (non-indented) "xml", or an unspecified, output method, so {@link StAXEntity} can bypass
+ * the transformer without changing it's output.
+ * 
+ * <p>
+ * Output is accumulated in a bounded buffer, which is written through to the result each time it fills. Before the
+ * document element has started, however, nothing is written, since when no output method is specified, a document
+ * element named "html" switches the transformer to HTML output, which isn't supported here. In that case
+ * {@link #startElement(String, String, String, Attributes)} throws {@link UnsupportedContentException#INSTANCE}, and
+ * the caller can fall back to using a transformer. Any other content the {@link XMLSerializer} core can't guarantee to
+ * serialize identically is still written, as best it can be, since output may already have been written by then.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+@NonNullByDefault
+final class StreamSerializer extends XMLSerializer<SAXException> implements ContentHandler, LexicalHandler {
+  /**
+   * The {@link Writer} the output is written to.
+   */
+  private final Writer writer;
+  /**
+   * Was the output method explicitly specified?
+   */
+  private final boolean methodSpecified;
+  /**
+   * Should the XML declaration be omitted?
+   */
+  private final boolean omitXMLDeclaration;
+  /**
+   * The prefixes and URIs (in pairs) of the {@linkplain #startPrefixMapping(String, String) mappings} for the next
+   * element.
+   */
+  private final ArrayList<String> pendingNamespaces = new ArrayList<String>();
+  /**
+   * The element depth of the current element.
+   */
+  private int depth = 0;
+  /**
+   * Has the document element been started?
+   */
+  private boolean documentElementStarted = false;
+  /**
+   * Are characters within a CDATA section?
+   */
+  private boolean inCDATA = false;
+  /**
+   * Has output escaping been {@linkplain Result#PI_DISABLE_OUTPUT_ESCAPING disabled}?
+   */
+  private boolean outputEscapingDisabled = false;
+  /**
+   * The name of a DOCTYPE declaration deferred until the document element, if any.
+   */
+  private @Nullable String doctypeName = null;
+  /**
+   * The public identifier of a DOCTYPE declaration deferred until the document element, if any.
+   */
+  private @Nullable String doctypePublic = null;
+  /**
+   * The system identifier of a DOCTYPE declaration deferred until the document element, if any.
+   */
+  private @Nullable String doctypeSystem = null;
+
+  /**
+   * Construct a new <code>StreamSerializer</code>.
+   * 
+   * @param result The {@link StreamResult} to write to, which must have an {@link OutputStream} or {@link Writer}.
+   * @param methodSpecified Was the "xml" output method explicitly specified?
+   * @param encoding The output encoding, which must be one of the {@linkplain XMLSerializer#SUPPORTED_ENCODINGS
+   * supported encodings}.
+   * @param omitXMLDeclaration Should the XML declaration be omitted?
+   */
+  StreamSerializer(final StreamResult result, final boolean methodSpecified, final Charset encoding, final boolean omitXMLDeclaration) {
+    super(encoding);
+    this.writer = newWriter(result, encoding);
+    this.methodSpecified = methodSpecified;
+    this.omitXMLDeclaration = omitXMLDeclaration;
+    return;
+  }
+
+  /**
+   * Write the {@link #buffer} to the {@link #writer}.
+   * 
+   * @throws SAXException If there was an I/O problem writing to the {@link #writer}.
+   */
+  private void flushBuffer() throws SAXException {
+    if (bufferLength == 0) return;
+    try {
+      writer.write(buffer, 0, bufferLength);
+    } catch (IOException ioe) {
+      throw new SAXException(ioe);
+    }
+    bufferLength = 0;
+    return;
+  }
+
+  /**
+   * Make room in the {@link #buffer} by writing it out once the document element has started, or otherwise by growing
+   * it.
+   * 
+   * @throws SAXException If there was an I/O problem writing to the {@link #writer}.
+   */
+  @Override
+  protected void makeRoom(final int length) throws SAXException {
+    if (documentElementStarted) {
+      flushBuffer();
+      return;
+    }
+    buffer = Arrays.copyOf(buffer, Math.max(bufferLength + length, buffer.length * 2));
+    return;
+  }
+
+  /**
+   * Does nothing, so the content is written as best it can be, as output may already have been written.
+   */
+  @Override
+  protected void unsupportedContent() {
+    return;
+  }
+
+  @Override
+  public void setDocumentLocator(final Locator locator) {
+    return;
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    if (!omitXMLDeclaration) writeXMLDeclaration(false);
+    return;
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    closeStartTag();
+    closeCDATA();
+    flushBuffer();
+    try {
+      writer.flush();
+    } catch (IOException ioe) {
+      throw new SAXException(ioe);
+    }
+    return;
+  }
+
+  @Override
+  public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+    closeStartTag();
+    closeCDATA();
+    pendingNamespaces.add(prefix);
+    pendingNamespaces.add(uri);
+    return;
+  }
+
+  @Override
+  public void endPrefixMapping(final String prefix) throws SAXException {
+    return;
+  }
+
+  /**
+   * @throws UnsupportedContentException If this is a document element the transformer would produce HTML output for.
+   */
+  @Override
+  public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+    closeStartTag();
+    closeCDATA();
+    final int colon = qName.indexOf(':');
+    final String prefix = (colon > 0) ? qName.substring(0, colon) : XMLConstants.DEFAULT_NS_PREFIX;
+    if (!documentElementStarted) {
+      if ((!methodSpecified) && (qName.substring(colon + 1).equalsIgnoreCase("html"))) throw UnsupportedContentException.INSTANCE;
+      documentElementStarted = true;
+      final String doctypeSystem = this.doctypeSystem;
+      if (doctypeSystem != null) writeDoctype(Objects.requireNonNull(doctypeName), doctypePublic, doctypeSystem);
+    }
+    depth++;
+    openStartTag(qName);
+
+    final boolean deferNamespaces = (!methodSpecified) && (depth == 1); // The transformer buffers the document element, and declares it's namespaces after it's attributes.
+    if (!deferNamespaces) declarePendingNamespaces();
+    if ((!uri.isEmpty()) && (!uri.equals(lookupNamespace(prefix)))) declareNamespace(prefix, uri, depth); // The transformer declares any undeclared element namespace.
+    for (int i = 0; i < atts.getLength(); i++) {
+      addAttribute(atts.getQName(i), atts.getValue(i));
+    }
+    if (deferNamespaces) declarePendingNamespaces();
+    return;
+  }
+
+  /**
+   * Declare the namespaces {@linkplain #startPrefixMapping(String, String) mapped} for the current element.
+   */
+  private void declarePendingNamespaces() {
+    for (int i = 0; i < pendingNamespaces.size(); i += 2) {
+      declareNamespace(pendingNamespaces.get(i), pendingNamespaces.get(i + 1), depth);
+    }
+    pendingNamespaces.clear();
+    return;
+  }
+
+  @Override
+  public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+    closeCDATA();
+    writeEndTag(qName);
+    endNamespaces(depth);
+    depth--;
+    return;
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length) throws SAXException {
+    closeStartTag();
+    final CharBuffer characters = CharBuffer.wrap(ch);
+    if (inCDATA) {
+      writeCDATA(characters, start, start + length);
+      return;
+    }
+    closeCDATA();
+    if (outputEscapingDisabled) {
+      append(characters, start, start + length);
+    } else {
+      writeCharacters(characters, start, start + length);
+    }
+    return;
+  }
+
+  @Override
+  public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+    characters(ch, start, length);
+    return;
+  }
+
+  /**
+   * Write a processing instruction, or, for {@link Result#PI_DISABLE_OUTPUT_ESCAPING} and
+   * {@link Result#PI_ENABLE_OUTPUT_ESCAPING}, disable or enable output escaping.
+   */
+  @Override
+  public void processingInstruction(final String target, final String data) throws SAXException {
+    if (Result.PI_DISABLE_OUTPUT_ESCAPING.equals(target)) {
+      outputEscapingDisabled = true;
+      return;
+    } else if (Result.PI_ENABLE_OUTPUT_ESCAPING.equals(target)) {
+      outputEscapingDisabled = false;
+      return;
+    }
+    closeStartTag();
+    closeCDATA();
+    writeProcessingInstruction(target, data);
+    return;
+  }
+
+  @Override
+  public void skippedEntity(final String name) throws SAXException {
+    return;
+  }
+
+  /**
+   * Write the DOCTYPE declaration, or, when no output method is specified, defer it until the document element, as the
+   * transformer does. As with the transformer, a DOCTYPE without a system identifier is not output.
+   */
+  @Override
+  public void startDTD(final String name, final @Nullable String publicId, final @Nullable String systemId) throws SAXException {
+    if (systemId == null) return;
+    if ((methodSpecified) || (documentElementStarted)) {
+      writeDoctype(name, publicId, systemId);
+      return;
+    }
+    doctypeName = name;
+    doctypePublic = publicId;
+    doctypeSystem = systemId;
+    return;
+  }
+
+  @Override
+  public void endDTD() throws SAXException {
+    return;
+  }
+
+  @Override
+  public void startEntity(final String name) throws SAXException {
+    return;
+  }
+
+  @Override
+  public void endEntity(final String name) throws SAXException {
+    return;
+  }
+
+  @Override
+  public void startCDATA() throws SAXException {
+    inCDATA = true;
+    return;
+  }
+
+  @Override
+  public void endCDATA() throws SAXException {
+    inCDATA = false;
+    closeCDATA();
+    return;
+  }
+
+  /**
+   * Write a comment, separating any consecutive hyphens, as the transformer does.
+   */
+  @Override
+  public void comment(final char[] ch, final int start, final int length) throws SAXException {
+    closeStartTag();
+    closeCDATA();
+    writeComment(CharBuffer.wrap(ch), start, start + length);
+    return;
+  }
+
+  /**
+   * Signals that the document contains content this class can't serialize identically to the transformer, before any
+   * output has been written.
+   */
+  static final class UnsupportedContentException extends SAXException {
+    /**
+     * The serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The shared instance, as no detail is required.
+     */
+    static final UnsupportedContentException INSTANCE = new UnsupportedContentException();
+
+    /**
+     * Construct a new <code>UnsupportedContentException</code>.
+     */
+    private UnsupportedContentException() {
+      super("Unsupported content");
+      return;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+
+  }
+
+}
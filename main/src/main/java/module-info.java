@@ -3,8 +3,11 @@ module com.hubick.util.xml_transformable_document {
   requires transitive jakarta.activation;
   requires transitive java.xml;
   requires java.logging;
+  requires java.management;
+  requires jdk.jfr;
 
   exports com.hubick.xml_transformable_document;
   exports com.hubick.xml_transformable_document.dom;
   exports com.hubick.xml_transformable_document.sax;
+  exports com.hubick.xml_transformable_document.stax;
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link BatchTransformer}.
+ */
+@NonNullByDefault
+public class BatchTransformerTest {
+
+  /**
+   * Test transforming a batch of {@link TransformableDocument}'s using a {@link BatchTransformer}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testBatchTransformer() throws Exception {
+
+    final TransformationPipeline pipeline = TransformationPipeline.of(TransformableDocumentTest.loadTestTemplates());
+    final TransformerHandlerPool pool = new TransformerHandlerPool();
+    final List<TransformableDocument> testDocuments = new ArrayList<TransformableDocument>();
+    for (int i = 0; i < 100; i++) {
+      final TransformableDocument testDocument = TransformableDocumentTest.newTestDocument("Hello World " + i);
+      testDocument.setTransformationPipeline(pipeline);
+      testDocument.setTransformerHandlerPool(pool);
+      testDocuments.add(testDocument);
+    }
+
+    final BatchTransformer batchTransformer = new BatchTransformer(new ForkJoinPool(4));
+    final ConcurrentHashMap<TransformableDocument,ByteArrayOutputStream> outputs = new ConcurrentHashMap<>();
+    final AtomicInteger closed = new AtomicInteger();
+    final List<BatchTransformer.Failure<TransformableDocument>> failures = batchTransformer.transform(testDocuments, new BatchTransformer.ResultFactory<TransformableDocument>() {
+
+      @Override
+      public Result open(final TransformableDocument entity) throws IOException {
+        if (entity == testDocuments.get(42)) throw new IOException("Test failure");
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outputs.put(entity, outputStream);
+        return new StreamResult(outputStream);
+      }
+
+      @Override
+      public void close(final TransformableDocument entity, final Result result) throws IOException {
+        closed.incrementAndGet();
+        BatchTransformer.ResultFactory.super.close(entity, result);
+        return;
+      }
+
+    });
+    assertEquals(1, failures.size());
+    assertEquals(42, failures.get(0).getIndex());
+    assertSame(testDocuments.get(42), failures.get(0).getEntity());
+    assertTrue(failures.get(0).getException() instanceof IOException);
+    assertEquals(99, closed.get());
+    for (int i = 0; i < 100; i++) {
+      if (i != 42) assertEquals("<test>Hello World " + i + "!</test>", outputs.get(testDocuments.get(i)).toString("UTF-8"));
+    }
+
+    final List<Map.Entry<TransformableEntity,Result>> items = new ArrayList<>();
+    final List<StringWriter> writers = new ArrayList<>();
+    for (TransformableDocument testDocument : testDocuments) {
+      final StringWriter writer = new StringWriter();
+      writers.add(writer);
+      items.add(new AbstractMap.SimpleEntry<>(testDocument, new StreamResult(writer)));
+    }
+    assertTrue(batchTransformer.transform(items).isEmpty());
+    for (int i = 0; i < 100; i++) {
+      assertEquals("<test>Hello World " + i + "!</test>", writers.get(i).toString());
+    }
+
+    return;
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link ChannelResult}.
+ */
+@NonNullByDefault
+public class ChannelResultTest {
+
+  /**
+   * A {@link ChannelResult.BufferPool} counting the buffers acquired from it which haven't been released.
+   */
+  protected static class CountingBufferPool extends ChannelResult.BufferPool {
+    /**
+     * The number of buffers acquired.
+     */
+    protected final AtomicInteger acquired = new AtomicInteger();
+    /**
+     * The number of buffers acquired which haven't been released.
+     */
+    protected final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * Construct a new <code>CountingBufferPool</code>.
+     * 
+     * @param bufferSize The {@linkplain #getBufferSize() buffer size}.
+     */
+    public CountingBufferPool(final int bufferSize) {
+      super(bufferSize, 1);
+      return;
+    }
+
+    @Override
+    public ByteBuffer acquire() {
+      acquired.incrementAndGet();
+      outstanding.incrementAndGet();
+      return super.acquire();
+    }
+
+    @Override
+    public void release(final ByteBuffer buffer) {
+      outstanding.decrementAndGet();
+      super.release(buffer);
+      return;
+    }
+
+  }
+
+  /**
+   * Test transforming to a {@link ChannelResult}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testChannelResult() throws Exception {
+
+    final TransformableDocument testDocument = TransformableDocumentTest.newTestDocument("Hello World");
+    testDocument.setOmitXMLDeclaration(true);
+    testDocument.setTransformations(Arrays.asList(TransformableDocumentTest.loadTestTemplates()));
+
+    final ChannelResult.BufferPool bufferPool = new ChannelResult.BufferPool(8, 1); // Force the buffer to be drained repeatedly.
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    testDocument.transform(new ChannelResult(Channels.newChannel(outputStream), bufferPool));
+    assertEquals("<test>Hello World!</test>", outputStream.toString("UTF-8"));
+    assertEquals(1, bufferPool.getPooledCount());
+
+    return;
+  }
+
+  /**
+   * Test that a {@link ChannelResult}'s buffer is returned to the pool when output is abandoned.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testRelease() throws Exception {
+
+    final ChannelResult.BufferPool bufferPool = new ChannelResult.BufferPool(1024, 2);
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final ChannelResult channelResult = new ChannelResult(Channels.newChannel(outputStream), bufferPool);
+    channelResult.getOutputStream().write(new byte[] { 'a', 'b', 'c' });
+    channelResult.release();
+    assertEquals(1, bufferPool.getPooledCount());
+    channelResult.release();
+    assertEquals(1, bufferPool.getPooledCount());
+    channelResult.flush();
+    assertEquals(0, outputStream.size()); // The buffered output was discarded.
+    channelResult.getOutputStream().write('d');
+    channelResult.flush();
+    assertEquals("d", outputStream.toString("UTF-8"));
+    assertEquals(1, bufferPool.getPooledCount());
+
+    // A transform which fails writing to the channel still returns the buffer.
+    final TransformableDocument testDocument = TransformableDocumentTest.newTestDocument("Hello World");
+    final WritableByteChannel failingChannel = Channels.newChannel(new OutputStream() {
+
+      @Override
+      public void write(final int b) throws IOException {
+        throw new IOException("Test failure");
+      }
+
+    });
+    final CountingBufferPool smallBufferPool = new CountingBufferPool(8);
+    assertThrows(IOException.class, () -> testDocument.transform(new ChannelResult(failingChannel, smallBufferPool)));
+    assertEquals(1, smallBufferPool.acquired.get());
+    assertEquals(0, smallBufferPool.outstanding.get());
+
+    // As does a failure in any branch, for every branch.
+    for (boolean failFirst : new boolean[] { false, true }) {
+      final CountingBufferPool branchBufferPool = new CountingBufferPool(8);
+      final OutputBranch branch = new OutputBranch(new ChannelResult(Channels.newChannel(new ByteArrayOutputStream()), branchBufferPool), null);
+      final OutputBranch failingBranch = new OutputBranch(new ChannelResult(failingChannel, branchBufferPool), null);
+      assertThrows(IOException.class, () -> testDocument.transform((failFirst) ? Arrays.asList(failingBranch, branch) : Arrays.asList(branch, failingBranch)));
+      assertTrue(branchBufferPool.acquired.get() > 0);
+      assertEquals(0, branchBufferPool.outstanding.get());
+    }
+
+    return;
+  }
+
+}
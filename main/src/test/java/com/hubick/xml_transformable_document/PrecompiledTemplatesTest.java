@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link PrecompiledTemplates}.
+ */
+@NonNullByDefault
+public class PrecompiledTemplatesTest {
+
+  /**
+   * Test writing and reading back precompiled {@link Templates}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testPrecompiledTemplates() throws Exception {
+    final URL testTemplatesURL = PrecompiledTemplatesTest.class.getResource("/com/hubick/xml_transformable_document/test.xsl");
+    assertNotNull(testTemplatesURL, "test.xsl not found");
+    final StreamSource templatesSource = new StreamSource(testTemplatesURL.toString());
+    final Templates templates = TransformerFactory.newDefaultInstance().newTemplates(templatesSource);
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    PrecompiledTemplates.write(templates, testTemplatesURL.toString(), outputStream);
+    assertEquals(testTemplatesURL.toString(), PrecompiledTemplates.getSystemID(new ByteArrayInputStream(outputStream.toByteArray())));
+
+    final Templates precompiledTemplates = PrecompiledTemplates.read(new ByteArrayInputStream(outputStream.toByteArray()));
+    final StringWriter writer = new StringWriter();
+    final Transformer transformer = precompiledTemplates.newTransformer();
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    transformer.transform(new StreamSource(new StringReader("<test>Hello World</test>")), new StreamResult(writer));
+    assertEquals("<test>Hello World!</test>", writer.toString());
+    return;
+  }
+
+  /**
+   * Test that anything other than XSLTC {@link Templates}, or those compiled by another Java version, are rejected.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testRejected() throws Exception {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    PrecompiledTemplates.write(new SerializableTemplates(), null, outputStream);
+    assertThrows(InvalidClassException.class, () -> PrecompiledTemplates.read(new ByteArrayInputStream(outputStream.toByteArray())));
+
+    final ByteArrayOutputStream versionOutputStream = new ByteArrayOutputStream();
+    final DataOutputStream dataOutputStream = new DataOutputStream(versionOutputStream);
+    dataOutputStream.writeInt(0x58544454);
+    dataOutputStream.writeInt(1);
+    dataOutputStream.writeUTF("1.0");
+    dataOutputStream.writeUTF("");
+    assertThrows(InvalidClassException.class, () -> PrecompiledTemplates.read(new ByteArrayInputStream(versionOutputStream.toByteArray())));
+
+    assertThrows(IOException.class, () -> PrecompiledTemplates.read(new ByteArrayInputStream(new byte[16])));
+    return;
+  }
+
+  /**
+   * A {@link Serializable} {@link Templates} implementation which isn't XSLTC.
+   */
+  public static final class SerializableTemplates implements Templates, Serializable {
+    /**
+     * Required for serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Transformer newTransformer() throws TransformerConfigurationException {
+      throw new TransformerConfigurationException();
+    }
+
+    @Override
+    public Properties getOutputProperties() {
+      return new Properties();
+    }
+
+  }
+
+}
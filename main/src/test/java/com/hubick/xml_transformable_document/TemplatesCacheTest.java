@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.time.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link TemplatesCache}.
+ */
+@NonNullByDefault
+public class TemplatesCacheTest {
+
+  /**
+   * Write a stylesheet which outputs the given <code>text</code> to the given <code>path</code>.
+   * 
+   * @param path The file to write the stylesheet to.
+   * @param text The text the stylesheet should output.
+   * @param lastModified The modification time to set on the file.
+   * @return The {@link URI} of the stylesheet.
+   * @throws IOException If there was an I/O problem writing the file.
+   */
+  protected static final URI writeStylesheet(final Path path, final String text, final long lastModified) throws IOException {
+    Files.write(path, ("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:output method=\"text\"/><xsl:template match=\"/\">" + text + "</xsl:template></xsl:stylesheet>").getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+    return path.toUri();
+  }
+
+  /**
+   * Transform an empty document using the supplied <code>templates</code>.
+   * 
+   * @param templates The {@link Templates} to use.
+   * @return The String output of the transformation.
+   * @throws TransformerException If there was a problem performing the transformation.
+   */
+  protected static final String transform(final Templates templates) throws TransformerException {
+    final StringWriter writer = new StringWriter();
+    templates.newTransformer().transform(new StreamSource(new StringReader("<test/>")), new StreamResult(writer));
+    return writer.toString();
+  }
+
+  /**
+   * Test that stylesheets are compiled once, and recompiled when modified.
+   * 
+   * @param tempDir A temporary directory to write stylesheets into.
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testRecompileOnModification(final @TempDir Path tempDir) throws Exception {
+    final URI uri = writeStylesheet(tempDir.resolve("a.xsl"), "one", 1000000000000L);
+
+    final TemplatesCache cache = new TemplatesCache(4, Duration.ZERO);
+    final Templates first = cache.getTemplates(uri);
+    assertSame(first, cache.getTemplates(uri));
+    assertEquals("one", transform(first));
+
+    writeStylesheet(tempDir.resolve("a.xsl"), "two", 1000000001000L);
+    final Templates second = cache.getTemplates(uri);
+    assertNotSame(first, second);
+    assertEquals("two", transform(second));
+    assertSame(second, cache.getTemplates(uri));
+
+    // A broken edit continues to serve the previous version.
+    Files.write(tempDir.resolve("a.xsl"), "<broken".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(tempDir.resolve("a.xsl"), FileTime.fromMillis(1000000002000L));
+    assertSame(second, cache.getTemplates(uri));
+
+    return;
+  }
+
+  /**
+   * Test that the least recently used stylesheets are evicted.
+   * 
+   * @param tempDir A temporary directory to write stylesheets into.
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testEviction(final @TempDir Path tempDir) throws Exception {
+    final URI a = writeStylesheet(tempDir.resolve("a.xsl"), "a", 1000000000000L);
+    final URI b = writeStylesheet(tempDir.resolve("b.xsl"), "b", 1000000000000L);
+    final URI c = writeStylesheet(tempDir.resolve("c.xsl"), "c", 1000000000000L);
+
+    final TemplatesCache cache = new TemplatesCache(2, null);
+    final Templates aTemplates = cache.getTemplates(a);
+    final Templates bTemplates = cache.getTemplates(b);
+    assertSame(aTemplates, cache.getTemplates(a)); // Make 'b' the least recently used.
+    cache.getTemplates(c);
+    assertEquals(2, cache.size());
+    assertSame(aTemplates, cache.getTemplates(a));
+    assertNotSame(bTemplates, cache.getTemplates(b));
+
+    return;
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import jdk.jfr.*;
+import jdk.jfr.consumer.*;
+
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link TransformEvents}.
+ */
+@NonNullByDefault
+public class TransformEventsTest {
+
+  /**
+   * Test the Flight Recorder events emitted while transforming a {@link TransformableDocument}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testFlightRecorderEvents() throws Exception {
+
+    final URL testTemplatesURL = TransformEventsTest.class.getResource("/com/hubick/xml_transformable_document/test.xsl");
+    assertNotNull(testTemplatesURL, "test.xsl not found");
+    final TemplatesCache templatesCache = new TemplatesCache();
+    final Templates testTemplates = templatesCache.getTemplates(testTemplatesURL);
+    assertEquals(testTemplatesURL.toString(), TemplatesCache.getSystemID(testTemplates));
+
+    final TransformableDocument testDocument = TransformableDocumentTest.newTestDocument("Hello World");
+    testDocument.setTransformationPipeline(new TransformationPipeline(Arrays.asList(testTemplates, TransformableDocumentTest.loadTestTemplates()), null, 0, "test"));
+
+    final Path recordingFile = Files.createTempFile("testFlightRecorderEvents", ".jfr");
+    try {
+      try (Recording recording = new Recording()) {
+        recording.enable("com.hubick.xml_transformable_document.Transform");
+        recording.enable("com.hubick.xml_transformable_document.HandlerChain");
+        recording.enable("com.hubick.xml_transformable_document.Stage");
+        recording.start();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        testDocument.transform(new StreamResult(outputStream));
+        assertEquals("<test>Hello World!!</test>", outputStream.toString("UTF-8"));
+        recording.stop();
+        recording.dump(recordingFile);
+      }
+
+      final Map<String,List<RecordedEvent>> events = new HashMap<>();
+      for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+        events.computeIfAbsent(event.getEventType().getName(), (name) -> new ArrayList<>()).add(event);
+      }
+
+      final List<RecordedEvent> transformEvents = events.get("com.hubick.xml_transformable_document.Transform");
+      assertNotNull(transformEvents);
+      assertEquals(1, transformEvents.size());
+      assertEquals("test", transformEvents.get(0).getString("pipeline"));
+      assertEquals(TransformableDocument.class.getName(), transformEvents.get(0).getClass("entityClass").getName());
+      assertEquals("<test>Hello World!!</test>".length(), transformEvents.get(0).getLong("outputBytes"));
+      assertNull(transformEvents.get(0).getString("exception"));
+
+      final List<RecordedEvent> handlerChainEvents = events.get("com.hubick.xml_transformable_document.HandlerChain");
+      assertNotNull(handlerChainEvents);
+      assertEquals(1, handlerChainEvents.size());
+
+      final List<RecordedEvent> stageEvents = events.get("com.hubick.xml_transformable_document.Stage");
+      assertNotNull(stageEvents);
+      assertEquals(2, stageEvents.size());
+      stageEvents.sort((e1, e2) -> Integer.compare(e1.getInt("stage"), e2.getInt("stage")));
+      assertEquals(testTemplatesURL.toString(), stageEvents.get(0).getString("stylesheet"));
+      assertEquals("Hello World".length(), stageEvents.get(0).getLong("charactersIn"));
+      assertEquals("Hello World!".length(), stageEvents.get(0).getLong("charactersOut"));
+      assertEquals(stageEvents.get(0).getLong("charactersOut"), stageEvents.get(1).getLong("charactersIn"));
+      assertEquals(-1, stageEvents.get(1).getLong("charactersOut"));
+    } finally {
+      Files.delete(recordingFile);
+    }
+
+    return;
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.time.*;
+import java.util.*;
+
+import javax.xml.*;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
+
+import org.w3c.dom.*;
+
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link TransformLimits}.
+ */
+@NonNullByDefault
+public class TransformLimitsTest {
+
+  /**
+   * Test {@linkplain TransformableEntity#transform(Result, TransformLimits) limited} transforms.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testTransformLimits() throws Exception {
+
+    final TransformableDocument testDocument = new TransformableDocument();
+    testDocument.setOmitXMLDeclaration(true);
+    final Element testElement = testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "test");
+    testDocument.getDocument().appendChild(testElement);
+    for (int i = 0; i < 100; i++) {
+      testElement.appendChild(testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "item")).appendChild(testDocument.getDocument().createTextNode("Hello World"));
+    }
+    final String expectedOutput = TransformableDocumentTest.toString(testDocument);
+
+    // Without transformations, only the output is checked.
+    assertEquals(TransformLimits.Limit.OUTPUT_BYTES, assertThrows(TransformLimitExceededException.class, () -> testDocument.transform(new StreamResult(new ByteArrayOutputStream()), new TransformLimits(null, 100, 10))).getLimit());
+    assertEquals(TransformLimits.Limit.OUTPUT_BYTES, assertThrows(TransformLimitExceededException.class, () -> testDocument.transform(new StreamResult(new StringWriter()), new TransformLimits(null, 100, -1))).getLimit());
+    final StreamResult streamResultSubclass = new StreamResult(new ByteArrayOutputStream()) {};
+    assertEquals(TransformLimits.Limit.OUTPUT_BYTES, assertThrows(TransformLimitExceededException.class, () -> testDocument.transform(streamResultSubclass, new TransformLimits(null, 100, -1))).getLimit());
+
+    // Output which can't be measured can't be limited, though the deadline still applies.
+    assertThrows(IllegalArgumentException.class, () -> testDocument.transform(new DOMResult(), new TransformLimits(null, 100, -1)));
+    assertThrows(IllegalArgumentException.class, () -> testDocument.transform(new StreamResult("file:/dev/null"), new TransformLimits(null, 100, -1)));
+    final DOMResult domResult = new DOMResult();
+    testDocument.transform(domResult, new TransformLimits(Duration.ofMinutes(1), -1, -1));
+    assertNotNull(domResult.getNode());
+
+    // Each output branch is limited.
+    testDocument.setTransformLimits(new TransformLimits(null, 100, -1));
+    final ByteArrayOutputStream branchOutputStream = new ByteArrayOutputStream();
+    assertEquals(TransformLimits.Limit.OUTPUT_BYTES, assertThrows(TransformLimitExceededException.class, () -> testDocument.transform(Arrays.asList(new OutputBranch(new StreamResult(new StringWriter()), null), new OutputBranch(new StreamResult(branchOutputStream), null)))).getLimit());
+    assertTrue(branchOutputStream.size() <= 100);
+    testDocument.setTransformLimits(new TransformLimits(null, 1024 * 1024, -1));
+    final Properties branchProperties = new Properties();
+    branchProperties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final StringWriter branchWriter = new StringWriter();
+    testDocument.transform(Arrays.asList(new OutputBranch(new StreamResult(branchWriter), branchProperties)));
+    assertEquals(expectedOutput, branchWriter.toString());
+    testDocument.setTransformLimits(null);
+
+    testDocument.setTransformations(Arrays.asList(TransformableDocumentTest.loadTestTemplates()));
+    testDocument.setTransformerHandlerPool(new TransformerHandlerPool());
+    final String expectedTransformedOutput = TransformableDocumentTest.toString(testDocument);
+    assertEquals(TransformLimits.Limit.EVENTS, assertThrows(TransformLimitExceededException.class, () -> testDocument.transform(new StreamResult(new ByteArrayOutputStream()), new TransformLimits(null, -1, 10))).getLimit());
+    assertEquals(TransformLimits.Limit.OUTPUT_BYTES, assertThrows(TransformLimitExceededException.class, () -> testDocument.transform(new StreamResult(new ByteArrayOutputStream()), new TransformLimits(null, 100, -1))).getLimit());
+    assertEquals(TransformLimits.Limit.DURATION, assertThrows(TransformLimitExceededException.class, () -> testDocument.transform(new StreamResult(new ByteArrayOutputStream()), new TransformLimits(Duration.ZERO, -1, -1))).getLimit());
+
+    // Generous limits don't affect the output, and limits configured on the entity can be overridden per transform.
+    final TransformLimits generousLimits = new TransformLimits(Duration.ofMinutes(1), 1024 * 1024, 100000);
+    for (int i = 0; i < 2; i++) {
+      final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      testDocument.transform(new StreamResult(outputStream), generousLimits);
+      assertEquals(expectedTransformedOutput, outputStream.toString(StandardCharsets.UTF_8));
+    }
+    testDocument.setTransformLimits(new TransformLimits(null, -1, 10));
+    assertThrows(TransformLimitExceededException.class, () -> TransformableDocumentTest.toString(testDocument));
+    final StringWriter transformResultWriter = new StringWriter();
+    testDocument.transform(new StreamResult(transformResultWriter), null);
+    assertEquals(expectedTransformedOutput, transformResultWriter.toString());
+
+    testDocument.setTransformations(null);
+    testDocument.setTransformLimits(null);
+    assertEquals(expectedOutput, TransformableDocumentTest.toString(testDocument));
+
+    return;
+  }
+
+}
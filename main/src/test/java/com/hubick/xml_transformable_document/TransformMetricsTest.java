@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document;
+
+import java.io.*;
+import java.lang.management.*;
+
+import javax.management.*;
+import javax.xml.transform.stream.*;
+
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link TransformMetrics}.
+ */
+@NonNullByDefault
+public class TransformMetricsTest {
+
+  /**
+   * Test recording the transforms of a {@link TransformableDocument} using {@link TransformMetrics}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testTransformMetrics() throws Exception {
+
+    final TransformableDocument testDocument = TransformableDocumentTest.newTestDocument("Hello World");
+    testDocument.setTransformationPipeline(TransformationPipeline.of(TransformableDocumentTest.loadTestTemplates()).withName("test"));
+
+    final TransformMetrics metrics = new TransformMetrics();
+    testDocument.setTransformListener(metrics);
+    long outputBytes = 0;
+    for (int i = 0; i < 3; i++) {
+      final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      testDocument.transform(new StreamResult(outputStream));
+      assertEquals("<test>Hello World!</test>", outputStream.toString("UTF-8"));
+      outputBytes += outputStream.size();
+    }
+    assertThrows(Exception.class, () -> testDocument.transform(new StreamResult(new OutputStream() {
+
+      @Override
+      public void write(final int b) throws IOException {
+        throw new IOException("Test failure");
+      }
+
+    })));
+
+    final TransformMetrics.PipelineStatistics statistics = metrics.getPipelineStatistics("test");
+    assertNotNull(statistics);
+    assertEquals(4, statistics.getTransformCount());
+    assertEquals(1, statistics.getErrorCount());
+    assertEquals(outputBytes, statistics.getOutputBytes());
+    assertTrue(statistics.getSetupLatency().getMaximumNanos() > 0);
+    assertTrue(statistics.getTransformLatency().getMedianNanos() > 0);
+    assertTrue(statistics.getTransformLatency().getMedianNanos() <= statistics.getTransformLatency().getMaximumNanos());
+    assertNull(metrics.getPipelineStatistics(TransformMetrics.UNNAMED_PIPELINE));
+
+    final ObjectName objectName = metrics.register("testTransformMetrics");
+    try {
+      assertEquals(4L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "TransformCount"));
+      assertNotNull(ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "PipelineStatistics"));
+    } finally {
+      metrics.unregister();
+    }
+
+    metrics.reset();
+    assertEquals(0, metrics.getTransformCount());
+
+    return;
+  }
+
+}
@@ -10,16 +10,26 @@ package com.hubick.xml_transformable_document.dom;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
+import javax.activation.*;
 import javax.xml.*;
+import javax.xml.parsers.*;
 import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.sax.*;
 import javax.xml.transform.stream.*;
 
 import org.w3c.dom.*;
 
 import org.xml.sax.*;
 
+import com.hubick.xml_transformable_document.*;
+
 import org.eclipse.jdt.annotation.*;
 
 import org.junit.jupiter.api.*;
@@ -70,12 +80,26 @@ public class TransformableDocumentTest {
    * @return The String output from the test document.
    * @throws Exception If there was a problem.
    */
-  protected static final String toString(final TransformableDocument testDocument) throws Exception {
+  public static final String toString(final TransformableDocument testDocument) throws Exception {
     final StringWriter transformResultWriter = new StringWriter();
     testDocument.transform(new StreamResult(transformResultWriter));
     return transformResultWriter.toString();
   }
 
+  /**
+   * Create a {@link TransformableDocument} containing a single <code>test</code> element with the given text.
+   * 
+   * @param text The text content of the <code>test</code> element.
+   * @return The new TransformableDocument.
+   */
+  public static final TransformableDocument newTestDocument(final String text) {
+    final TransformableDocument testDocument = new TransformableDocument();
+    final Element testElement = testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "test");
+    testDocument.getDocument().appendChild(testElement);
+    testElement.appendChild(testDocument.getDocument().createTextNode(text));
+    return testDocument;
+  }
+
   /**
    * Test the {@link TransformableDocument}.
    * 
@@ -121,4 +145,626 @@ public class TransformableDocumentTest {
     return;
   }
 
+  /**
+   * Test the {@link TransformableDocument} using a {@link TransformerHandlerPool}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testTransformerHandlerPool() throws Exception {
+
+    final TransformerHandlerPool pool = new TransformerHandlerPool(1);
+    final List<@Nullable Templates> testTransformations = Arrays.asList(loadTestTemplates(), null, loadTestTemplates());
+
+    for (int i = 0; i < 3; i++) {
+      final TransformableDocument testDocument = newTestDocument("Hello World " + i);
+      testDocument.setOmitXMLDeclaration(true);
+      testDocument.setTransformations(testTransformations);
+      testDocument.setTransformerHandlerPool(pool);
+
+      assertEquals("<test>Hello World " + i + "!!</test>", toString(testDocument));
+      assertEquals(1, pool.getIdleCount());
+    }
+
+    return;
+  }
+
+  /**
+   * Test the {@link TransformableDocument} using a {@link TransformationPipeline}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testTransformationPipeline() throws Exception {
+
+    assertThrows(IllegalArgumentException.class, () -> new TransformationPipeline(Collections.emptyList(), Collections.singletonMap("1invalid", "value")));
+
+    final TransformationPipeline pipeline = TransformationPipeline.of(null, loadTestTemplates(), null, loadTestTemplates());
+    assertEquals(2, pipeline.getStages().size());
+    assertEquals("xml", pipeline.getOutputMethod());
+
+    final TransformableDocument testDocument = newTestDocument("Hello World");
+    testDocument.setOmitXMLDeclaration(true);
+    testDocument.setTransformationPipeline(pipeline);
+    assertSame(pipeline, testDocument.getTransformationPipeline());
+    assertEquals("application/xhtml+xml", String.valueOf(testDocument.getOutputMediaType()));
+
+    assertEquals("<test>Hello World!!</test>", toString(testDocument));
+
+    return;
+  }
+
+  /**
+   * Test the {@link TransformableDocument} using an {@link OutputCache}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testOutputCache() throws Exception {
+
+    final OutputCache outputCache = new OutputCache(1024);
+    final TransformableDocument testDocument = new TransformableDocument();
+    testDocument.setOmitXMLDeclaration(true);
+    testDocument.setTransformations(Arrays.asList(loadTestTemplates()));
+    testDocument.setOutputCache(outputCache);
+
+    final Element testElement = testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "test");
+    testDocument.getDocument().appendChild(testElement);
+    final Text testText = testDocument.getDocument().createTextNode("Untracked");
+    testElement.appendChild(testText);
+
+    // Until modifications are accounted for, the output isn't cached, so an unmarked modification is still output.
+    assertEquals(-1, testDocument.getContentVersion());
+    assertEquals("<test>Untracked!</test>", toString(testDocument));
+    testText.setData("Hello World");
+    assertEquals("<test>Hello World!</test>", toString(testDocument));
+    assertNull(testDocument.getCachedOutput(null, null));
+    assertEquals(0, outputCache.getMissCount());
+    assertEquals(0, outputCache.getHitCount());
+    testDocument.markModified();
+
+    assertEquals("<test>Hello World!</test>", toString(testDocument));
+    assertEquals("<test>Hello World!</test>", toString(testDocument));
+    assertEquals(1, outputCache.getMissCount());
+    assertEquals(1, outputCache.getHitCount());
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    testDocument.transform(new StreamResult(outputStream));
+    assertEquals("<test>Hello World!</test>", outputStream.toString("UTF-8"));
+    assertEquals(2, outputCache.getHitCount());
+
+    testElement.appendChild(testDocument.getDocument().createTextNode("!"));
+    testDocument.markModified();
+    assertEquals("<test>Hello World!!</test>", toString(testDocument));
+    assertEquals(2, outputCache.getMissCount());
+
+    testDocument.setTransformationParameters(Collections.singletonMap("unused", "value"));
+    assertEquals("<test>Hello World!!</test>", toString(testDocument));
+    assertEquals(3, outputCache.getMissCount());
+
+    final OutputCache.Encoder reverser = (output) -> new StringBuilder(new String(output, "UTF-8")).reverse().toString().getBytes("UTF-8");
+    assertEquals(">tset/<!!dlroW olleH>tset<", new String(testDocument.getCachedOutput("reversed", reverser), "UTF-8"));
+    assertEquals(4, outputCache.getMissCount()); // The variant missed, but the output it was encoded from was cached.
+    assertEquals(3, outputCache.getHitCount());
+    assertEquals(">tset/<!!dlroW olleH>tset<", new String(testDocument.getCachedOutput("reversed", reverser), "UTF-8"));
+    assertEquals(4, outputCache.getHitCount());
+    assertThrows(IllegalArgumentException.class, () -> testDocument.getCachedOutput("reversed", null));
+
+    // Cached output larger than the decoding buffer, containing multi-byte (and surrogate pair) characters.
+    final String longText = String.join("", Collections.nCopies(5000, "\u00e9\u20ac\ud83d\ude00"));
+    testElement.appendChild(testDocument.getDocument().createTextNode(longText));
+    testDocument.markModified();
+    testDocument.setOutputCache(null);
+    final String longOutput = toString(testDocument);
+    assertTrue(longOutput.length() > 8192);
+    final OutputCache largeOutputCache = new OutputCache(1024 * 1024);
+    testDocument.setOutputCache(largeOutputCache);
+    assertEquals(longOutput, toString(testDocument));
+    assertEquals(longOutput, toString(testDocument));
+    assertEquals(1, largeOutputCache.getHitCount());
+
+    return;
+  }
+
+  /**
+   * Test a {@linkplain TransformableDocument#TransformableDocument(java.util.function.Consumer) lazily} populated
+   * {@link TransformableDocument}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testLazyDocument() throws Exception {
+
+    final AtomicInteger populateCount = new AtomicInteger();
+    final TransformableDocument testDocument = new TransformableDocument((Document document) -> {
+      populateCount.incrementAndGet();
+      final Element testElement = document.createElementNS(XMLConstants.NULL_NS_URI, "test");
+      document.appendChild(testElement);
+      testElement.appendChild(document.createTextNode("Hello World"));
+      return;
+    });
+    testDocument.setOmitXMLDeclaration(true);
+    testDocument.setTransformations(Arrays.asList(loadTestTemplates()));
+    testDocument.setOutputCache(new OutputCache(1024));
+    assertFalse(testDocument.isDocumentCreated());
+
+    assertEquals("<test>Hello World!</test>", toString(testDocument));
+    assertTrue(testDocument.isDocumentCreated());
+    assertEquals("<test>Hello World!</test>", toString(testDocument));
+    assertEquals(1, populateCount.get());
+
+    // Freezing doesn't require the document, but modifying it once supplied is still detected.
+    final TransformableDocument frozenDocument = new TransformableDocument(() -> testDocument.getDocument());
+    frozenDocument.setOmitXMLDeclaration(true);
+    frozenDocument.freeze();
+    assertFalse(frozenDocument.isDocumentCreated());
+    assertEquals("<test>Hello World</test>", toString(frozenDocument));
+    frozenDocument.getDocument().getDocumentElement().appendChild(frozenDocument.getDocument().createTextNode("!"));
+    assertThrows(IllegalStateException.class, () -> toString(frozenDocument));
+
+    // The deprecated field only holds a document supplied at construction.
+    final TransformableDocument eagerDocument = new TransformableDocument();
+    assertSame(eagerDocument.getDocument(), eagerDocument.document);
+    assertNull(testDocument.document);
+
+    return;
+  }
+
+  /**
+   * Test that untransformed output serialized directly by the {@link DOMSerializer} is identical to that of a JAXP
+   * identity {@link Transformer}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testDirectSerialization() throws Exception {
+
+    final TransformableDocument testDocument = new TransformableDocument();
+    final Document document = testDocument.getDocument();
+    document.appendChild(document.createComment(" a -- b -"));
+    final Element testElement = document.createElementNS("urn:a", "a:test");
+    document.appendChild(testElement);
+    testElement.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:b", "urn:b");
+    testElement.setAttributeNS("urn:c", "c:attr", "<\"quoted\" & 'tabbed'\t\n\u00e9\u4e2d\ud83d\ude00>");
+    testElement.setAttributeNS(XMLConstants.XML_NS_URI, "xml:lang", "en");
+    testElement.setAttribute("plain", "value");
+    testElement.appendChild(document.createCDATASection("\ud83d\ude00 leading ]]> "));
+    testElement.appendChild(document.createCDATASection("split \u0085\u00e9]]>\ud83d\ude00\n\u00e9\nend"));
+    final Element childElement = document.createElementNS("urn:b", "child");
+    testElement.appendChild(childElement);
+    childElement.appendChild(document.createTextNode("Text <&> \"'\r\n\t\u0001\u0085\u00e9\u4e2d\ud83d\ude00 ]]>"));
+    childElement.appendChild(document.createElementNS(null, "noNamespace"));
+    testElement.appendChild(document.createCDATASection("CDATA <&> ]]> \u00e9"));
+    testElement.appendChild(document.createCDATASection("]"));
+    testElement.appendChild(document.createProcessingInstruction("pi", "data ?> more"));
+    testElement.appendChild(document.createElement("empty"));
+    testElement.appendChild(document.createTextNode(""));
+
+    final DOMSerializer supportedSerializer = DOMSerializer.newInstance(TransformerFactory.newInstance().newTransformer());
+    assertNotNull(supportedSerializer);
+    assertTrue(supportedSerializer.serialize(document, new StreamResult(new StringWriter())));
+
+    for (String method : new String[] { null, "xml", "text" }) {
+      for (String encoding : new String[] { "UTF-8", "ISO-8859-1", "US-ASCII" }) {
+        for (boolean omitXMLDeclaration : new boolean[] { false, true }) {
+          for (boolean doctype : new boolean[] { false, true }) {
+            testDocument.setMediaType((method == null) ? null : new MimeType((method.equals("text")) ? "text/plain" : "application/xml"));
+            testDocument.setEncoding(Charset.forName(encoding));
+            testDocument.setOmitXMLDeclaration(omitXMLDeclaration);
+            testDocument.setSystemID((doctype) ? new URI("test.dtd") : null);
+            testDocument.setPublicID((doctype) ? "-//TEST//DTD Test//EN" : null);
+
+            final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            if (method != null) transformer.setOutputProperty(OutputKeys.METHOD, method);
+            transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
+            transformer.setOutputProperty(OutputKeys.INDENT, "no");
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, (omitXMLDeclaration) ? "yes" : "no");
+            if (doctype) {
+              transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, "test.dtd");
+              transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, "-//TEST//DTD Test//EN");
+            }
+            final ByteArrayOutputStream expectedOutput = new ByteArrayOutputStream();
+            transformer.transform(new DOMSource(document), new StreamResult(expectedOutput));
+            final StringWriter expectedWriter = new StringWriter();
+            transformer.transform(new DOMSource(document), new StreamResult(expectedWriter));
+
+            final ByteArrayOutputStream actualOutput = new ByteArrayOutputStream();
+            testDocument.transform(new StreamResult(actualOutput));
+            assertArrayEquals(expectedOutput.toByteArray(), actualOutput.toByteArray(), method + " " + encoding);
+            assertEquals(expectedWriter.toString(), toString(testDocument), method + " " + encoding);
+          }
+        }
+      }
+    }
+
+    // Unsupported settings and content are left to the transformer.
+    final Transformer indentingTransformer = TransformerFactory.newInstance().newTransformer();
+    indentingTransformer.setOutputProperty(OutputKeys.INDENT, "yes");
+    assertNull(DOMSerializer.newInstance(indentingTransformer));
+    childElement.appendChild(document.createTextNode("\ud83d"));
+    assertFalse(supportedSerializer.serialize(document, new StreamResult(new StringWriter())));
+    final StringWriter expectedWriter = new StringWriter();
+    final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    transformer.transform(new DOMSource(document), new StreamResult(expectedWriter));
+    testDocument.setMediaType(null);
+    testDocument.setEncoding(null);
+    testDocument.setSystemID(null);
+    testDocument.setPublicID(null);
+    assertEquals(expectedWriter.toString(), toString(testDocument));
+
+    return;
+  }
+
+  /**
+   * Test that a document larger than the {@link DOMSerializer} buffer is streamed identically to the output of a JAXP
+   * identity {@link Transformer}, that unsupported content found late in such a document still results in a fallback
+   * to the transformer, and that an output limit is enforced before the whole document has been serialized.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testDirectSerializationStreaming() throws Exception {
+
+    final TransformableDocument testDocument = new TransformableDocument();
+    testDocument.setOmitXMLDeclaration(true);
+    final Document document = testDocument.getDocument();
+    final Element testElement = document.createElementNS(XMLConstants.NULL_NS_URI, "test");
+    document.appendChild(testElement);
+    for (int i = 0; i < 2000; i++) {
+      final Element itemElement = document.createElementNS(XMLConstants.NULL_NS_URI, "item");
+      itemElement.setAttribute("index", String.valueOf(i));
+      itemElement.appendChild(document.createTextNode("Hello World \u00e9\ud83d\ude00\n"));
+      itemElement.appendChild(document.createComment("- a -- b -"));
+      itemElement.appendChild(document.createCDATASection("\ud83d\ude00 ]]> "));
+      testElement.appendChild(itemElement);
+    }
+
+    final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final ByteArrayOutputStream expectedOutput = new ByteArrayOutputStream();
+    transformer.transform(new DOMSource(document), new StreamResult(expectedOutput));
+    assertTrue(expectedOutput.size() > 100000);
+    final ByteArrayOutputStream actualOutput = new ByteArrayOutputStream();
+    testDocument.transform(new StreamResult(actualOutput));
+    assertArrayEquals(expectedOutput.toByteArray(), actualOutput.toByteArray());
+    final StringWriter expectedWriter = new StringWriter();
+    transformer.transform(new DOMSource(document), new StreamResult(expectedWriter));
+    assertEquals(expectedWriter.toString(), toString(testDocument));
+
+    final AtomicLong writtenBytes = new AtomicLong();
+    final OutputStream countingOutputStream = new OutputStream() {
+
+      @Override
+      public void write(final int b) throws IOException {
+        writtenBytes.incrementAndGet();
+        return;
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len) throws IOException {
+        writtenBytes.addAndGet(len);
+        return;
+      }
+
+    };
+    assertEquals(TransformLimits.Limit.OUTPUT_BYTES, assertThrows(TransformLimitExceededException.class, () -> testDocument.transform(new StreamResult(countingOutputStream), new TransformLimits(null, 20000, -1))).getLimit());
+    assertTrue(writtenBytes.get() > 0);
+    assertTrue(writtenBytes.get() <= 20000);
+
+    final DOMSerializer serializer = DOMSerializer.newInstance(transformer);
+    assertNotNull(serializer);
+    ((Element)testElement.getLastChild()).appendChild(document.createTextNode("\ud83d"));
+    final StringWriter unwrittenWriter = new StringWriter();
+    assertFalse(serializer.serialize(document, new StreamResult(unwrittenWriter)));
+    assertEquals("", unwrittenWriter.toString());
+    final StringWriter expectedFallbackWriter = new StringWriter();
+    transformer.transform(new DOMSource(document), new StreamResult(expectedFallbackWriter));
+    assertEquals(expectedFallbackWriter.toString(), toString(testDocument));
+
+    return;
+  }
+
+  /**
+   * Test a {@link TransformationPipeline} with a {@linkplain TransformationPipeline#getCacheablePrefixLength() cacheable
+   * prefix}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testCacheablePrefix() throws Exception {
+
+    final String markTemplates = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:output omit-xml-declaration=\"yes\" /><xsl:param name=\"mark\" /><xsl:template match=\"/test\"><test><xsl:value-of select=\"concat(., $mark)\" /></test></xsl:template></xsl:stylesheet>";
+    final List<Templates> stages = new ArrayList<Templates>();
+    for (int i = 0; i < 3; i++) {
+      stages.add(TransformerFactory.newInstance().newTemplates(new StreamSource(new StringReader(markTemplates))));
+    }
+    assertThrows(IllegalArgumentException.class, () -> new TransformationPipeline(stages, null, 3));
+    assertThrows(IllegalArgumentException.class, () -> new TransformationPipeline(stages, null, -1));
+    final TransformationPipeline pipeline = new TransformationPipeline(stages, Collections.singletonMap("mark", "?"), 2);
+    assertEquals(2, pipeline.getCacheablePrefixLength());
+    assertEquals(0, pipeline.withCacheablePrefix(0).getCacheablePrefixLength());
+
+    final TransformableDocument testDocument = new TransformableDocument();
+    testDocument.setOmitXMLDeclaration(true);
+    testDocument.setTransformationPipeline(pipeline);
+    testDocument.setTransformerHandlerPool(new TransformerHandlerPool());
+    final Element testElement = testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "test");
+    testDocument.getDocument().appendChild(testElement);
+    final Text testText = testDocument.getDocument().createTextNode("Hello World");
+    testElement.appendChild(testText);
+
+    // Until the content version is known, the prefix output is neither recorded nor replayed, but the prefix stages still receive only the pipeline parameters.
+    testDocument.setTransformationParameters(Collections.singletonMap("mark", "!"));
+    assertEquals(-1, testDocument.getContentVersion());
+    testText.setData("Untracked");
+    assertEquals("<test>Untracked??!</test>", toString(testDocument));
+    testText.setData("Hello World");
+    assertEquals("<test>Hello World??!</test>", toString(testDocument));
+    testDocument.markModified();
+
+    // Only the last stage receives the entity parameters.
+    testDocument.setTransformationParameters(Collections.singletonMap("mark", "!"));
+    assertEquals("<test>Hello World??!</test>", toString(testDocument));
+    testDocument.setTransformationParameters(Collections.singletonMap("mark", "#"));
+    assertEquals("<test>Hello World??#</test>", toString(testDocument));
+
+    // The prefix output is replayed until the content version changes.
+    testElement.appendChild(testDocument.getDocument().createTextNode("!"));
+    assertEquals("<test>Hello World??#</test>", toString(testDocument));
+    testDocument.markModified();
+    assertEquals("<test>Hello World!??#</test>", toString(testDocument));
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    testDocument.transform(new StreamResult(outputStream));
+    assertEquals("<test>Hello World!??#</test>", outputStream.toString("UTF-8"));
+
+    // Replaying a recording reproduces the recorded events exactly.
+    final Document richDocument = TransformableDocument.newDocument();
+    final Element richElement = richDocument.createElementNS("urn:test", "t:root");
+    richElement.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:t", "urn:test");
+    richElement.setAttributeNS(XMLConstants.NULL_NS_URI, "a", "1 & 2");
+    richDocument.appendChild(richElement);
+    richElement.appendChild(richDocument.createComment(" comment "));
+    richElement.appendChild(richDocument.createCDATASection("<cdata>"));
+    richElement.appendChild(richDocument.createProcessingInstruction("pi", "data"));
+    richElement.appendChild(richDocument.createElementNS(XMLConstants.NULL_NS_URI, "child")).appendChild(richDocument.createTextNode("text"));
+    final SAXEventRecording.Recorder recorder = new SAXEventRecording.Recorder();
+    final SAXResult recorderResult = new SAXResult(recorder);
+    recorderResult.setLexicalHandler(recorder);
+    TransformerFactory.newInstance().newTransformer().transform(new DOMSource(richDocument), recorderResult);
+    final SAXEventRecording recording = recorder.getRecording();
+    assertNotNull(recording);
+    final StringWriter expectedWriter = new StringWriter();
+    final Transformer expectedTransformer = TransformerFactory.newInstance().newTransformer();
+    expectedTransformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    expectedTransformer.transform(new DOMSource(richDocument), new StreamResult(expectedWriter));
+    for (int i = 0; i < 2; i++) {
+      final TransformerHandler transformerHandler = ((SAXTransformerFactory)TransformerFactory.newInstance()).newTransformerHandler();
+      transformerHandler.getTransformer().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      final StringWriter replayWriter = new StringWriter();
+      transformerHandler.setResult(new StreamResult(replayWriter));
+      recording.replay(transformerHandler, transformerHandler);
+      assertEquals(expectedWriter.toString(), replayWriter.toString());
+    }
+
+    return;
+  }
+
+  /**
+   * Test transforming a {@link TransformableDocument} to multiple {@link OutputBranch}'s.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testOutputBranches() throws Exception {
+
+    final TransformableDocument testDocument = newTestDocument("Hello World");
+
+    final Properties xmlProperties = new Properties();
+    xmlProperties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final Properties textProperties = new Properties();
+    textProperties.setProperty(OutputKeys.METHOD, "text");
+
+    for (int i = 0; i < 2; i++) {
+      final StringWriter xmlWriter = new StringWriter();
+      final StringWriter transformedWriter = new StringWriter();
+      final ByteArrayOutputStream textOutputStream = new ByteArrayOutputStream();
+      testDocument.transform(Arrays.asList(new OutputBranch(new StreamResult(xmlWriter), xmlProperties), new OutputBranch(new StreamResult(transformedWriter), TransformationPipeline.of(loadTestTemplates()), null, null), new OutputBranch(new StreamResult(textOutputStream), textProperties)));
+      final String exclaim = (i == 0) ? "" : "!"; // The second pass adds a shared transformation.
+      assertEquals("<test>Hello World" + exclaim + "</test>", xmlWriter.toString());
+      assertEquals("<test>Hello World" + exclaim + "!</test>", transformedWriter.toString());
+      assertEquals("Hello World" + exclaim, textOutputStream.toString("UTF-8"));
+      testDocument.setTransformations(Arrays.asList(loadTestTemplates()));
+    }
+
+    return;
+  }
+
+  /**
+   * Test {@linkplain TransformableEntity#warmUp(TemplatesCache, Collection, int) warming up} a set of stylesheets.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testWarmUp() throws Exception {
+
+    final URL testTemplatesURL = TransformableDocumentTest.class.getResource("/com/hubick/xml_transformable_document/test.xsl");
+    assertNotNull(testTemplatesURL, "test.xsl not found");
+    final TemplatesCache templatesCache = new TemplatesCache();
+    final List<Templates> templates = TransformableEntity.warmUp(templatesCache, Arrays.asList(testTemplatesURL.toURI()), 3);
+    assertEquals(1, templates.size());
+    assertSame(templates.get(0), templatesCache.getTemplates(testTemplatesURL));
+
+    // A stylesheet which can't transform the synthetic document is logged, not thrown.
+    final Templates failingTemplates = TransformerFactory.newInstance().newTemplates(new StreamSource(new StringReader("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:template match=\"/\"><xsl:message terminate=\"yes\">Unexpected input</xsl:message></xsl:template></xsl:stylesheet>")));
+    TransformableEntity.warmUp(Arrays.asList(failingTemplates, null), 2);
+
+    assertThrows(IllegalArgumentException.class, () -> TransformableEntity.warmUp(templates, -1));
+
+    return;
+  }
+
+  /**
+   * Test the {@linkplain TransformableEntity#getEntityTag() entity tag} and {@linkplain
+   * TransformableDocument#getLastModified() last modification} of a {@link TransformableDocument}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testEntityTag() throws Exception {
+
+    // No validators are issued until modifications are accounted for.
+    final TransformableDocument testDocument = new TransformableDocument();
+    final Element testElement = testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "test");
+    testDocument.getDocument().appendChild(testElement);
+    assertNull(testDocument.getEntityTag());
+    assertEquals(-1, testDocument.getLastModified());
+    testDocument.markModified();
+    assertTrue(testDocument.getLastModified() > 0);
+
+    final String initialTag = testDocument.getEntityTag();
+    assertNotNull(initialTag);
+    assertEquals(initialTag, testDocument.getEntityTag());
+    final TransformableDocument frozenDocument = new TransformableDocument();
+    frozenDocument.freeze();
+    assertNotNull(frozenDocument.getEntityTag());
+    assertTrue(frozenDocument.getLastModified() > 0);
+    assertNotEquals(initialTag, frozenDocument.getEntityTag());
+
+    testDocument.setTransformations(Arrays.asList(loadTestTemplates()));
+    final String transformedTag = testDocument.getEntityTag();
+    assertNotEquals(initialTag, transformedTag);
+    testDocument.setTransformations(Arrays.asList(loadTestTemplates()));
+    assertNotEquals(transformedTag, testDocument.getEntityTag());
+
+    testDocument.setTransformationParameters(Collections.singletonMap("p", "1"));
+    final String parameterTag = testDocument.getEntityTag();
+    testDocument.setTransformationParameters(Collections.singletonMap("p", 1));
+    assertNotEquals(parameterTag, testDocument.getEntityTag());
+    testDocument.setTransformationParameters(Collections.singletonMap("p", testElement));
+    assertNull(testDocument.getEntityTag());
+    testDocument.setTransformationParameters(null);
+
+    testDocument.setIndent(true);
+    final String indentedTag = testDocument.getEntityTag();
+    assertNotEquals(indentedTag, transformedTag);
+
+    // Modifications are only reflected once marked, or if they're tracked.
+    testElement.appendChild(testDocument.getDocument().createTextNode("Hello"));
+    assertEquals(indentedTag, testDocument.getEntityTag());
+    testDocument.markModified();
+    final String modifiedTag = testDocument.getEntityTag();
+    assertNotEquals(indentedTag, modifiedTag);
+    testDocument.trackModifications();
+    testElement.appendChild(testDocument.getDocument().createTextNode(" World"));
+    assertNotEquals(modifiedTag, testDocument.getEntityTag());
+
+    final TransformableDocument lazyDocument = new TransformableDocument((document) -> document.appendChild(document.createElementNS(XMLConstants.NULL_NS_URI, "test")));
+    assertNull(lazyDocument.getEntityTag());
+    lazyDocument.trackModifications();
+    assertNotNull(lazyDocument.getEntityTag());
+    final long lazyVersion = lazyDocument.getContentVersion();
+    lazyDocument.getDocument().getDocumentElement().setAttributeNS(XMLConstants.NULL_NS_URI, "a", "1");
+    assertTrue(lazyDocument.getContentVersion() > lazyVersion);
+
+    return;
+  }
+
+  /**
+   * Test concurrent transforms of a {@linkplain TransformableDocument#freeze() frozen} {@link TransformableDocument}
+   * whose document was parsed using deferred node expansion, both when it's supplied before freezing, and after.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testFreezeDeferredDocument() throws Exception {
+
+    final StringBuilder content = new StringBuilder("<!DOCTYPE test [<!ENTITY e 'entity'>]><test xmlns=\"urn:test\">");
+    for (int i = 0; i < 500; i++) {
+      content.append("<item id=\"").append(i).append("\" xmlns:p=\"urn:p\" p:a=\"&amp;").append(i).append("\"><!-- ").append(i).append(" --><p:child>Hello &e; ").append(i).append("</p:child><![CDATA[<").append(i).append(">]]></item>");
+    }
+    content.append("</test>");
+    final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    documentBuilderFactory.setNamespaceAware(true);
+    final Supplier<Document> parser = () -> {
+      try {
+        return documentBuilderFactory.newDocumentBuilder().parse(new InputSource(new StringReader(content.toString())));
+      } catch (ParserConfigurationException | SAXException | IOException e) {
+        throw new RuntimeException(e);
+      }
+    };
+    assertTrue(parser.get().getClass().getName().contains("Deferred"), "Parsed document isn't deferred");
+
+    for (boolean indent : new boolean[] { false, true }) { // The direct serializer, and the transformer.
+      final TransformableDocument expectedDocument = new TransformableDocument(parser);
+      expectedDocument.setIndent(indent);
+      final String expectedOutput = toString(expectedDocument);
+
+      final TransformableDocument suppliedDocument = new TransformableDocument(parser);
+      suppliedDocument.getDocument();
+      final TransformableDocument lazyDocument = new TransformableDocument(parser);
+      for (TransformableDocument testDocument : Arrays.asList(suppliedDocument, lazyDocument)) {
+        testDocument.setIndent(indent);
+        testDocument.freeze();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+          final CountDownLatch start = new CountDownLatch(1);
+          final List<Future<String>> results = new ArrayList<>();
+          for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+              start.await();
+              return toString(testDocument);
+            }));
+          }
+          start.countDown();
+          for (Future<String> result : results) {
+            assertEquals(expectedOutput, result.get());
+          }
+        } finally {
+          executor.shutdown();
+        }
+      }
+    }
+
+    return;
+  }
+
+  /**
+   * Test concurrent transforms of a {@linkplain TransformableDocument#freeze() frozen} {@link TransformableDocument}.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testFreeze() throws Exception {
+
+    final TransformableDocument testDocument = new TransformableDocument();
+    testDocument.setOmitXMLDeclaration(true);
+    testDocument.setTransformations(Arrays.asList(loadTestTemplates()));
+
+    final Element testElement = testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "test");
+    testDocument.getDocument().appendChild(testElement);
+    testElement.appendChild(testDocument.getDocument().createTextNode("Hello World"));
+
+    testDocument.freeze();
+    assertThrows(IllegalStateException.class, () -> testDocument.setIndent(true));
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        results.add(executor.submit(() -> toString(testDocument)));
+      }
+      for (Future<String> result : results) {
+        assertEquals("<test>Hello World!</test>", result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    testElement.appendChild(testDocument.getDocument().createTextNode("!"));
+    assertThrows(IllegalStateException.class, () -> toString(testDocument));
+
+    return;
+  }
+
 }
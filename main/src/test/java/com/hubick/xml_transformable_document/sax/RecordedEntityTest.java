@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.sax;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.xml.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
+
+import org.w3c.dom.*;
+
+import com.hubick.xml_transformable_document.*;
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link RecordedEntity}.
+ */
+@NonNullByDefault
+public class RecordedEntityTest {
+
+  /**
+   * {@linkplain TransformableEntity#transform(javax.xml.transform.Result) Transform} the supplied entity into a String.
+   * 
+   * @param entity The entity to be transformed.
+   * @return The String output from the entity.
+   * @throws Exception If there was a problem.
+   */
+  protected static final String toString(final TransformableEntity entity) throws Exception {
+    final StringWriter transformResultWriter = new StringWriter();
+    entity.transform(new StreamResult(transformResultWriter));
+    return transformResultWriter.toString();
+  }
+
+  /**
+   * Test a {@link RecordedEntity} created from a DOM, and from a {@link SAXEntity}, with and without transformations.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testRecordedEntity() throws Exception {
+
+    final TransformableDocument testDocument = new TransformableDocument();
+    testDocument.setOmitXMLDeclaration(true);
+    final Element testElement = testDocument.getDocument().createElementNS("urn:test", "t:test");
+    testElement.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:t", "urn:test");
+    testElement.setAttributeNS(XMLConstants.NULL_NS_URI, "a", "<1>");
+    testDocument.getDocument().appendChild(testElement);
+    testElement.appendChild(testDocument.getDocument().createTextNode("Hello "));
+    testElement.appendChild(testDocument.getDocument().createComment(" comment "));
+    testElement.appendChild(testDocument.getDocument().createCDATASection("World"));
+
+    final RecordedEntity domEntity = new RecordedEntity(new DOMSource(testDocument.getDocument()));
+    domEntity.setOmitXMLDeclaration(true);
+    assertEquals(0, domEntity.getContentVersion());
+    assertTrue(domEntity.getRecording().getEventCount() > 0);
+    assertEquals(toString(testDocument), toString(domEntity));
+
+    final RecordedEntity sourceEntity = new RecordedEntity(new TransformableSource(ByteBuffer.wrap(TransformableSourceTest.TEST_CONTENT), null));
+    sourceEntity.setOmitXMLDeclaration(true);
+    assertEquals("<!-- comment --><test>Hello World</test>", toString(sourceEntity));
+    sourceEntity.setTransformations(Arrays.asList(TransformableDocumentTest.loadTestTemplates()));
+    assertEquals("<test>Hello World!</test>", toString(sourceEntity));
+
+    sourceEntity.freeze();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        results.add(executor.submit(() -> toString(sourceEntity)));
+      }
+      for (Future<String> result : results) {
+        assertEquals("<test>Hello World!</test>", result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    return;
+  }
+
+}
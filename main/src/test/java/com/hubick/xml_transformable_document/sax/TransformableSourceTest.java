@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.sax;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import javax.xml.transform.stream.*;
+
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link TransformableSource}.
+ */
+@NonNullByDefault
+public class TransformableSourceTest {
+  /**
+   * The test content.
+   */
+  protected static final byte[] TEST_CONTENT = "<?xml version=\"1.0\"?><!-- comment --><test>Hello World</test>".getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * {@linkplain TransformableSource#transform(javax.xml.transform.Result) Transform} the supplied source into a
+   * String.
+   * 
+   * @param source The source to be transformed.
+   * @return The String output from the source.
+   * @throws Exception If there was a problem.
+   */
+  protected static final String toString(final TransformableSource source) throws Exception {
+    final StringWriter transformResultWriter = new StringWriter();
+    source.transform(new StreamResult(transformResultWriter));
+    return transformResultWriter.toString();
+  }
+
+  /**
+   * Test each kind of {@link TransformableSource}, with and without transformations.
+   * 
+   * @param tempDir A temporary directory to write the test content into.
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testTransformableSource(final @TempDir Path tempDir) throws Exception {
+    final Path path = Files.write(tempDir.resolve("test.xml"), TEST_CONTENT);
+
+    final TransformableSource pathSource = new TransformableSource(path);
+    pathSource.setOmitXMLDeclaration(true);
+    assertEquals("<!-- comment --><test>Hello World</test>", toString(pathSource));
+    pathSource.setTransformations(Arrays.asList(TransformableDocumentTest.loadTestTemplates()));
+    assertEquals("<test>Hello World!</test>", toString(pathSource));
+
+    final TransformableSource bufferSource = new TransformableSource(ByteBuffer.wrap(TEST_CONTENT), null);
+    bufferSource.setTransformations(Arrays.asList(TransformableDocumentTest.loadTestTemplates()));
+    assertEquals("<test>Hello World!</test>", toString(bufferSource));
+    assertEquals("<test>Hello World!</test>", toString(bufferSource));
+
+    final TransformableSource streamSource = new TransformableSource(new ByteArrayInputStream(TEST_CONTENT), null);
+    streamSource.setTransformations(Arrays.asList(TransformableDocumentTest.loadTestTemplates()));
+    assertEquals("<test>Hello World!</test>", toString(streamSource));
+    assertThrows(IllegalStateException.class, () -> toString(streamSource));
+
+    return;
+  }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.stax;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import javax.activation.*;
+import javax.xml.namespace.*;
+import javax.xml.stream.*;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
+
+import org.w3c.dom.*;
+
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link StAXEntity}.
+ */
+@NonNullByDefault
+public class StAXEntityTest {
+
+  /**
+   * A {@link StAXEntity} writing a namespaced test document.
+   */
+  protected static class TestEntity extends StAXEntity {
+
+    @Override
+    protected void writeStAXEntity(final XMLStreamWriter xmlStreamWriter) throws XMLStreamException {
+      xmlStreamWriter.writeStartElement("t", "test", "urn:test");
+      xmlStreamWriter.writeNamespace("t", "urn:test");
+      xmlStreamWriter.writeAttribute("urn:test", "id", "1 & 2");
+      xmlStreamWriter.writeEmptyElement("empty");
+      xmlStreamWriter.writeCharacters("Hello <World>");
+      xmlStreamWriter.writeEndElement();
+      return;
+    }
+
+  }
+
+  /**
+   * A {@link StAXEntity} writing the content supplied to it, which records whether it's output was written directly,
+   * or can be forced to use a {@link Transformer}.
+   */
+  protected static class ContentEntity extends StAXEntity {
+    /**
+     * The content to write.
+     */
+    protected final XMLStreamWriterContent content;
+    /**
+     * Should the output be forced through a {@link Transformer}?
+     */
+    protected final boolean transformed;
+    /**
+     * Was the output of the last transform eligible to be written directly?
+     */
+    protected boolean directOutput = false;
+
+    /**
+     * Construct a new <code>ContentEntity</code>.
+     * 
+     * @param content The content to write.
+     * @param transformed Should the output be forced through a {@link Transformer}?
+     */
+    public ContentEntity(final XMLStreamWriterContent content, final boolean transformed) {
+      this.content = content;
+      this.transformed = transformed;
+      return;
+    }
+
+    @Override
+    protected boolean isDirectOutput(final Result result, final Result transformResult) {
+      directOutput = (!transformed) && (super.isDirectOutput(result, transformResult));
+      return directOutput;
+    }
+
+    @Override
+    protected void writeStAXEntity(final XMLStreamWriter xmlStreamWriter) throws XMLStreamException {
+      content.write(xmlStreamWriter);
+      return;
+    }
+
+  }
+
+  /**
+   * Writes content through an {@link XMLStreamWriter}.
+   */
+  @FunctionalInterface
+  protected static interface XMLStreamWriterContent {
+
+    /**
+     * Write the content.
+     * 
+     * @param xmlStreamWriter The {@link XMLStreamWriter} to write the content to.
+     * @throws XMLStreamException If there was a problem writing the content.
+     */
+    public void write(XMLStreamWriter xmlStreamWriter) throws XMLStreamException;
+
+  }
+
+  /**
+   * {@linkplain StAXEntity#transform(Result) Transform} the supplied entity into a String.
+   * 
+   * @param entity The entity to be transformed.
+   * @return The String output from the entity.
+   * @throws Exception If there was a problem.
+   */
+  protected static final String toString(final StAXEntity entity) throws Exception {
+    final StringWriter transformResultWriter = new StringWriter();
+    entity.transform(new StreamResult(transformResultWriter));
+    return transformResultWriter.toString();
+  }
+
+  /**
+   * Test the direct output of a {@link StAXEntity}, and that the events it generates through a {@link Transformer}
+   * are equivalent.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testStAXEntity() throws Exception {
+
+    final TestEntity testEntity = new TestEntity();
+    testEntity.setOmitXMLDeclaration(true);
+    assertEquals("<t:test xmlns:t=\"urn:test\" t:id=\"1 &amp; 2\"><empty/>Hello &lt;World&gt;</t:test>", toString(testEntity));
+
+    final DOMResult domResult = new DOMResult();
+    testEntity.transform(domResult);
+    final Element testElement = ((Document)domResult.getNode()).getDocumentElement();
+    assertEquals("urn:test", testElement.getNamespaceURI());
+    assertEquals("t:test", testElement.getTagName());
+    assertEquals("1 & 2", testElement.getAttributeNS("urn:test", "id"));
+    assertEquals("empty", testElement.getFirstChild().getNodeName());
+    assertEquals("Hello <World>", testElement.getTextContent());
+
+    return;
+  }
+
+  /**
+   * Write content exercising the escaping, namespace, and lexical events an {@link XMLStreamWriter} can generate.
+   * 
+   * @param xmlStreamWriter The {@link XMLStreamWriter} to write to.
+   * @throws XMLStreamException If there was a problem writing the content.
+   */
+  protected static final void writeMixedContent(final XMLStreamWriter xmlStreamWriter) throws XMLStreamException {
+    xmlStreamWriter.writeDTD("<!DOCTYPE p:doc PUBLIC \"-//Test//DTD Test//EN\" 'test.dtd'>");
+    xmlStreamWriter.writeComment(" A -- comment - ");
+    xmlStreamWriter.writeProcessingInstruction("target");
+    xmlStreamWriter.writeStartElement("p", "doc", "urn:p");
+    xmlStreamWriter.writeNamespace("q", "urn:q");
+    xmlStreamWriter.writeNamespace("p", "urn:p");
+    xmlStreamWriter.writeAttribute("attribute", "<\"tab\t newline\n return\r ampersand& apostrophe' \u00E9 \u2028 \uD83D\uDE00 \u0085 \u007F>");
+    xmlStreamWriter.writeAttribute("q", "urn:q", "attribute", "q");
+    xmlStreamWriter.writeStartElement("empty");
+    xmlStreamWriter.writeEndElement();
+    xmlStreamWriter.writeEmptyElement("urn:q", "empty");
+    xmlStreamWriter.writeStartElement("r", "undeclared", "urn:r");
+    xmlStreamWriter.writeEndElement();
+    xmlStreamWriter.writeStartElement("", "default", "urn:d");
+    xmlStreamWriter.writeDefaultNamespace("urn:d");
+    xmlStreamWriter.writeStartElement("none");
+    xmlStreamWriter.writeDefaultNamespace("");
+    xmlStreamWriter.writeCharacters("<text\t newline\n return\r ampersand& quotes\"' \u00E9 \u00A0 \u2028 \uD83D\uDE00 \u0085 \u007F ]]>");
+    xmlStreamWriter.writeEndElement();
+    xmlStreamWriter.writeEndElement();
+    xmlStreamWriter.writeCData("cdata ]]> newline\n \u00E9 \u2028 \uD83D\uDE00 \u0085 \u007F");
+    xmlStreamWriter.writeCData("");
+    xmlStreamWriter.writeCData("adjacent");
+    final char[] characters = "characters & more".toCharArray();
+    xmlStreamWriter.writeCharacters(characters, 0, 10);
+    xmlStreamWriter.writeEntityRef("#169");
+    xmlStreamWriter.writeEntityRef("#x1F600");
+    xmlStreamWriter.writeEntityRef("lt");
+    xmlStreamWriter.writeEntityRef("custom");
+    xmlStreamWriter.writeProcessingInstruction("target", "data ?> more");
+    xmlStreamWriter.writeEndElement();
+    xmlStreamWriter.writeComment("after-");
+    return;
+  }
+
+  /**
+   * Transform the supplied entity to bytes, through either an {@link OutputStream} or a {@link Writer}.
+   * 
+   * @param entity The entity to be transformed.
+   * @param writer Should the output be written to a {@link Writer}?
+   * @return The output, encoded using the entity's encoding if written to a {@link Writer}.
+   * @throws Exception If there was a problem.
+   */
+  protected static final byte[] toBytes(final StAXEntity entity, final boolean writer) throws Exception {
+    if (writer) {
+      final String output = toString(entity);
+      return output.getBytes((entity.getEncoding() != null) ? entity.getEncoding() : StandardCharsets.UTF_8);
+    }
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    entity.transform(new StreamResult(outputStream));
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Test that the direct output of a {@link StAXEntity} is identical to that of the {@link Transformer}, across the
+   * supported encodings and output methods.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testDirectOutputMatchesTransformer() throws Exception {
+    for (Charset encoding : Arrays.asList(null, StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII)) {
+      for (MimeType mediaType : Arrays.asList(null, new MimeType("application", "xml"))) {
+        for (boolean omitXMLDeclaration : new boolean[] { false, true }) {
+          for (boolean writer : new boolean[] { false, true }) {
+            final ContentEntity directEntity = new ContentEntity(StAXEntityTest::writeMixedContent, false);
+            final ContentEntity transformedEntity = new ContentEntity(StAXEntityTest::writeMixedContent, true);
+            for (ContentEntity entity : Arrays.asList(directEntity, transformedEntity)) {
+              entity.setEncoding(encoding);
+              entity.setMediaType(mediaType);
+              entity.setOmitXMLDeclaration(omitXMLDeclaration);
+            }
+            final String message = "encoding " + encoding + ", media type " + mediaType + ", omitXMLDeclaration " + omitXMLDeclaration + ", writer " + writer;
+            final byte[] expected = toBytes(transformedEntity, writer);
+            assertEquals(new String(expected, StandardCharsets.ISO_8859_1), new String(toBytes(directEntity, writer), StandardCharsets.ISO_8859_1), message);
+            assertTrue(directEntity.directOutput, message);
+          }
+        }
+      }
+    }
+
+    final XMLStreamWriterContent html = (xmlStreamWriter) -> {
+      xmlStreamWriter.writeStartElement("html");
+      xmlStreamWriter.writeStartElement("br");
+      xmlStreamWriter.writeEndElement();
+      xmlStreamWriter.writeEndElement();
+      return;
+    };
+    final ContentEntity htmlEntity = new ContentEntity(html, false);
+    assertEquals(toString(new ContentEntity(html, true)), toString(htmlEntity));
+    assertTrue(htmlEntity.directOutput);
+    final String htmlOutput = toString(htmlEntity);
+    assertTrue(htmlOutput.contains("<br>"), htmlOutput); // Serialized as HTML.
+
+    return;
+  }
+
+  /**
+   * Test that a {@linkplain XMLStreamWriter#setNamespaceContext(NamespaceContext) root namespace context} is used to
+   * resolve prefixes.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testNamespaceContext() throws Exception {
+    final NamespaceContext namespaceContext = new NamespaceContext() {
+
+      @Override
+      public String getNamespaceURI(final String prefix) {
+        return "t".equals(prefix) ? "urn:test" : "";
+      }
+
+      @Override
+      public @Nullable String getPrefix(final String namespaceURI) {
+        return "urn:test".equals(namespaceURI) ? "t" : null;
+      }
+
+      @Override
+      public Iterator<String> getPrefixes(final String namespaceURI) {
+        return "urn:test".equals(namespaceURI) ? Collections.singleton("t").iterator() : Collections.emptyIterator();
+      }
+
+    };
+    final ContentEntity entity = new ContentEntity((xmlStreamWriter) -> {
+      xmlStreamWriter.setNamespaceContext(namespaceContext);
+      assertEquals("t", xmlStreamWriter.getPrefix("urn:test"));
+      assertEquals("urn:test", xmlStreamWriter.getNamespaceContext().getNamespaceURI("t"));
+      xmlStreamWriter.writeStartElement("urn:test", "test");
+      xmlStreamWriter.writeNamespace("t", "urn:test");
+      xmlStreamWriter.writeAttribute("urn:test", "id", "1");
+      assertThrows(XMLStreamException.class, () -> xmlStreamWriter.setNamespaceContext(namespaceContext));
+      assertThrows(XMLStreamException.class, () -> xmlStreamWriter.writeStartElement("urn:unbound", "unbound"));
+      xmlStreamWriter.writeEndElement();
+      return;
+    }, false);
+    entity.setOmitXMLDeclaration(true);
+    assertEquals("<t:test xmlns:t=\"urn:test\" t:id=\"1\"/>", toString(entity));
+
+    return;
+  }
+
+  /**
+   * Test a {@link StAXEntity} with transformations.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testTransformations() throws Exception {
+
+    final StAXEntity testEntity = new StAXEntity() {
+
+      @Override
+      protected void writeStAXEntity(final XMLStreamWriter xmlStreamWriter) throws XMLStreamException {
+        xmlStreamWriter.writeStartElement("test");
+        xmlStreamWriter.writeCharacters("Hello World");
+        xmlStreamWriter.writeEndElement();
+        return;
+      }
+
+    };
+    testEntity.setTransformations(Arrays.asList(TransformableDocumentTest.loadTestTemplates()));
+    assertEquals("<test>Hello World!</test>", toString(testEntity));
+
+    return;
+  }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.maven_plugin;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.stream.*;
+
+import org.apache.maven.plugin.*;
+import org.apache.maven.plugins.annotations.*;
+import org.apache.maven.plugins.annotations.Mojo;
+
+import org.codehaus.plexus.util.*;
+
+import com.hubick.xml_transformable_document.*;
+
+import org.eclipse.jdt.annotation.*;
+
+
+/**
+ * Precompile XSLT stylesheets at build time, writing the compiled {@link Templates} for each alongside it in the
+ * output directory, with the {@link PrecompiledTemplates#FILE_EXTENSION} appended to it's name, ready to be
+ * {@linkplain PrecompiledTemplates#load(Class, String) loaded} at runtime without parsing or compiling any XSLT.
+ * 
+ * <p>
+ * Stylesheets are compiled using the JDK's (XSLTC) {@linkplain TransformerFactory#newDefaultInstance() default}
+ * {@link TransformerFactory}, with their system ID set to their source location, so that any relative
+ * <code>xsl:import</code> or <code>xsl:include</code> is resolved (and compiled in) at build time. The precompiled
+ * files can only be loaded by the same Java specification version the build runs on.
+ * </p>
+ */
+@NonNullByDefault
+@Mojo(name = "precompile", defaultPhase = LifecyclePhase.PROCESS_RESOURCES, threadSafe = true)
+public class PrecompileMojo extends AbstractMojo {
+  /**
+   * The directory containing the stylesheets to precompile.
+   */
+  @Parameter(defaultValue = "${project.basedir}/src/main/resources", required = true)
+  protected @Nullable File sourceDirectory;
+  /**
+   * The directory the precompiled stylesheets are written to, at the same relative path as their source.
+   */
+  @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+  protected @Nullable File outputDirectory;
+  /**
+   * Patterns matching the stylesheets within the {@link #sourceDirectory} to precompile.
+   */
+  @Parameter
+  protected @Nullable List<String> includes;
+  /**
+   * Patterns matching stylesheets within the {@link #sourceDirectory} which shouldn't be precompiled, such as those
+   * which are only imported or included by others.
+   */
+  @Parameter
+  protected @Nullable List<String> excludes;
+  /**
+   * Skip precompilation?
+   */
+  @Parameter(property = "xml-transformable-document.precompile.skip", defaultValue = "false")
+  protected boolean skip;
+
+  /**
+   * Construct a new <code>PrecompileMojo</code>.
+   */
+  public PrecompileMojo() {
+    return;
+  }
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    if (skip) {
+      getLog().info("Skipping stylesheet precompilation");
+      return;
+    }
+    final File sourceDirectory = this.sourceDirectory;
+    final File outputDirectory = this.outputDirectory;
+    if ((sourceDirectory == null) || (outputDirectory == null)) throw new MojoExecutionException("sourceDirectory and outputDirectory are required");
+    if (!sourceDirectory.isDirectory()) {
+      getLog().info("No stylesheets to precompile, " + sourceDirectory + " doesn't exist");
+      return;
+    }
+
+    final DirectoryScanner directoryScanner = new DirectoryScanner();
+    directoryScanner.setBasedir(sourceDirectory);
+    final List<String> includes = this.includes;
+    final List<String> excludes = this.excludes;
+    directoryScanner.setIncludes(((includes != null) && (!includes.isEmpty())) ? includes.toArray(new String[includes.size()]) : new String[] { "**/*.xsl" });
+    if (excludes != null) directoryScanner.setExcludes(excludes.toArray(new String[excludes.size()]));
+    directoryScanner.scan();
+
+    final TransformerFactory transformerFactory = TransformerFactory.newDefaultInstance();
+    final StringBuilder errors = new StringBuilder();
+    transformerFactory.setErrorListener(new ErrorListener() {
+
+      @Override
+      public void warning(final TransformerException exception) throws TransformerException {
+        getLog().warn(exception.getMessageAndLocation());
+        return;
+      }
+
+      @Override
+      public void error(final TransformerException exception) throws TransformerException {
+        getLog().error(exception.getMessageAndLocation());
+        errors.append(exception.getMessageAndLocation()).append('\n');
+        return;
+      }
+
+      @Override
+      public void fatalError(final TransformerException exception) throws TransformerException {
+        throw exception;
+      }
+
+    });
+
+    int count = 0;
+    for (String stylesheet : directoryScanner.getIncludedFiles()) {
+      final File sourceFile = new File(sourceDirectory, stylesheet);
+      final File outputFile = new File(outputDirectory, stylesheet + PrecompiledTemplates.FILE_EXTENSION);
+      final Templates templates;
+      try {
+        errors.setLength(0);
+        templates = transformerFactory.newTemplates(new StreamSource(sourceFile));
+      } catch (TransformerConfigurationException tce) {
+        throw new MojoFailureException("Error compiling " + sourceFile + ": " + tce.getMessageAndLocation(), tce);
+      }
+      if (errors.length() > 0) throw new MojoFailureException("Error compiling " + sourceFile + ":\n" + errors);
+      try {
+        Files.createDirectories(outputFile.toPath().getParent());
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+          PrecompiledTemplates.write(templates, stylesheet.replace(File.separatorChar, '/'), outputStream);
+        }
+      } catch (IOException ioe) {
+        throw new MojoExecutionException("Error writing " + outputFile + ": " + ioe.getMessage(), ioe);
+      }
+      getLog().debug("Precompiled " + sourceFile + " to " + outputFile);
+      count++;
+    }
+    getLog().info("Precompiled " + count + " stylesheet" + ((count != 1) ? "s" : "") + " to " + outputDirectory);
+    return;
+  }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.ws.rs.provider;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+import javax.xml.transform.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import com.hubick.xml_transformable_document.*;
+
+
+/**
+ * Render {@link TransformableEntity} responses on an {@link Executor}, rather than on the container's request thread.
+ * 
+ * <p>
+ * A resource method accepting a {@linkplain Suspended suspended} {@link AsyncResponse} passes it to one of the
+ * <code>render</code> methods, which {@linkplain AsyncResponse#resume(Object) resume} it from a task on the configured
+ * executor. JAX-RS implementations (such as Jersey and RESTEasy) process a resumed response on the resuming thread, so
+ * the {@linkplain TransformableEntity#transform(Result) transform} performed by the {@link TransformableEntityWriter},
+ * and the writing of it's output to the (possibly slow) client, occupy an executor thread instead of a container
+ * thread. The {@linkplain #getDefaultExecutor() default executor} uses a virtual thread per task when running on a JDK
+ * which supports them (21+).
+ * </p>
+ * 
+ * <pre>
+ * &#64;GET
+ * public void get(final &#64;Suspended AsyncResponse asyncResponse) {
+ *   renderer.render(asyncResponse, () -&gt; buildDocument());
+ * }
+ * </pre>
+ */
+@NonNullByDefault
+public class AsyncTransformableEntityRenderer {
+  /**
+   * @see #getExecutor()
+   */
+  protected final Executor executor;
+
+  /**
+   * Construct a new <code>AsyncTransformableEntityRenderer</code> using the {@linkplain #getDefaultExecutor() default
+   * executor}.
+   */
+  public AsyncTransformableEntityRenderer() {
+    this(getDefaultExecutor());
+    return;
+  }
+
+  /**
+   * Construct a new <code>AsyncTransformableEntityRenderer</code>.
+   * 
+   * @param executor The {@link Executor} responses will be rendered on.
+   */
+  public AsyncTransformableEntityRenderer(final Executor executor) {
+    this.executor = executor;
+    return;
+  }
+
+  /**
+   * Get the {@link Executor} responses will be rendered on.
+   * 
+   * @return The {@link Executor}.
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Resume the <code>asyncResponse</code> with the supplied <code>transformableEntity</code>, from a task on the
+   * {@linkplain #getExecutor() executor}.
+   * 
+   * @param asyncResponse The suspended {@link AsyncResponse}.
+   * @param transformableEntity The {@link TransformableEntity} to render.
+   */
+  public void render(final AsyncResponse asyncResponse, final TransformableEntity transformableEntity) {
+    render(asyncResponse, () -> transformableEntity);
+    return;
+  }
+
+  /**
+   * Resume the <code>asyncResponse</code> with the response returned from the supplied <code>responseSupplier</code>,
+   * from a task on the {@linkplain #getExecutor() executor}, such that building the response is also performed on the
+   * executor. The supplied response may be a {@link TransformableEntity}, a {@link Response} wrapping one, or anything
+   * else the container can write. If the <code>responseSupplier</code> throws, the <code>asyncResponse</code> is
+   * {@linkplain AsyncResponse#resume(Throwable) resumed} with the exception. If the {@linkplain #getExecutor()
+   * executor} rejects the task, the <code>asyncResponse</code> is instead resumed (on the calling thread) with a
+   * {@link WebApplicationException} for a <code>503 Service Unavailable</code> response, caused by the
+   * {@link RejectedExecutionException}, and this method returns normally.
+   * 
+   * @param asyncResponse The suspended {@link AsyncResponse}.
+   * @param responseSupplier The source of the response.
+   */
+  public void render(final AsyncResponse asyncResponse, final Callable<?> responseSupplier) {
+    try {
+      executor.execute(() -> {
+        try {
+          asyncResponse.resume(responseSupplier.call());
+        } catch (Throwable t) {
+          Logger.getLogger(AsyncTransformableEntityRenderer.class.getName() + ".render." + t.getClass().getSimpleName()).log(Level.FINER, t.getMessage(), t);
+          asyncResponse.resume(t);
+        }
+        return;
+      });
+    } catch (RejectedExecutionException ree) {
+      Logger.getLogger(AsyncTransformableEntityRenderer.class.getName() + ".render." + RejectedExecutionException.class.getSimpleName()).log(Level.FINER, ree.getMessage(), ree);
+      asyncResponse.resume(new WebApplicationException(ree, Response.Status.SERVICE_UNAVAILABLE));
+    }
+    return;
+  }
+
+  /**
+   * Get the shared default {@link Executor}, which creates a new virtual thread for each task if the JDK supports it,
+   * or otherwise uses a bounded pool of daemon threads, which, once all of it's threads are busy and it's queue is
+   * full, {@linkplain #render(AsyncResponse, Callable) rejects} further tasks rather than growing without limit.
+   * 
+   * @return The default {@link Executor}.
+   */
+  public static Executor getDefaultExecutor() {
+    return DefaultExecutorHolder.DEFAULT_EXECUTOR;
+  }
+
+  /**
+   * Lazily holds the {@linkplain #getDefaultExecutor() default executor}.
+   */
+  private static final class DefaultExecutorHolder {
+    /**
+     * The maximum number of threads in the pool used when virtual threads aren't supported. Since a thread is occupied
+     * for as long as it takes to write a response to the client, this allows for more threads than processors.
+     */
+    private static final int MAXIMUM_POOL_THREADS = Math.max(16, Runtime.getRuntime().availableProcessors() * 8);
+    /**
+     * The maximum number of tasks queued waiting for a thread in the pool used when virtual threads aren't supported.
+     */
+    private static final int MAXIMUM_POOL_QUEUED = MAXIMUM_POOL_THREADS * 16;
+    /**
+     * The {@linkplain #getDefaultExecutor() default executor}.
+     */
+    static final ExecutorService DEFAULT_EXECUTOR = newDefaultExecutor();
+
+    /**
+     * Create the {@linkplain #getDefaultExecutor() default executor}.
+     * 
+     * @return The new {@link ExecutorService}.
+     */
+    private static ExecutorService newDefaultExecutor() {
+      try { // Executors.newVirtualThreadPerTaskExecutor() is only available on JDK 21+.
+        return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(MAXIMUM_POOL_THREADS, MAXIMUM_POOL_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAXIMUM_POOL_QUEUED), (runnable) -> {
+          final Thread thread = new Thread(runnable, AsyncTransformableEntityRenderer.class.getSimpleName() + '-' + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        threadPoolExecutor.allowCoreThreadTimeOut(true); // Threads are only created as needed, and not retained when idle.
+        return threadPoolExecutor;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.ws.rs.provider;
+
+import java.io.*;
+import java.util.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.*;
+import javax.ws.rs.ext.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import com.hubick.xml_transformable_document.*;
+
+
+/**
+ * A {@link ContainerResponseFilter} {@link Provider} adding validators to {@link TransformableEntity} responses, and
+ * answering conditional requests for them without performing any transform.
+ * 
+ * <p>
+ * A successful <code>GET</code> or <code>HEAD</code> response whose entity has an
+ * {@linkplain TransformableEntity#getEntityTag() entity tag} is given an <code>ETag</code> header, along with a
+ * <code>Last-Modified</code> header if the entity's {@linkplain TransformableEntity#getLastModified() last
+ * modification} is known. If the request's <code>If-None-Match</code> header matches the tag of the representation the
+ * {@link TransformableEntityWriter} would send in response to it, the response is replaced with a
+ * <code>304 Not Modified</code>, so the entity is never written. When the writer
+ * {@linkplain TransformableEntityWriter#isCompress() compresses} it's output, that representation is the compressed
+ * variant for the content coding the request's <code>Accept-Encoding</code> header negotiates, so this filter must be
+ * configured to match. Since the last modification time doesn't reflect changes to an entity's transformations, an
+ * <code>If-Modified-Since</code> header alone is not evaluated.
+ * </p>
+ * 
+ * <p>
+ * Entity tags only remain valid while the entity they were issued for is retained, so this is only useful for entities
+ * held between requests (such as a {@linkplain TransformableEntity#freeze() frozen} document shared by all of them).
+ * Entities which can't account for modifications to their content issue no validators, and are left untouched. A
+ * {@link com.hubick.xml_transformable_document.dom.TransformableDocument TransformableDocument}, for example, only
+ * issues them once it's frozen, or it's modifications are tracked or marked.
+ * </p>
+ */
+@Provider
+@NonNullByDefault
+public class TransformableEntityPreconditionFilter implements ContainerResponseFilter {
+  /**
+   * @see #isCompress()
+   */
+  protected final boolean compress;
+
+  /**
+   * Construct a new <code>TransformableEntityPreconditionFilter</code> for use with a {@link TransformableEntityWriter}
+   * which doesn't {@linkplain TransformableEntityWriter#isCompress() compress} it's output.
+   */
+  public TransformableEntityPreconditionFilter() {
+    this(false);
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformableEntityPreconditionFilter</code>.
+   * 
+   * @param compress Does the {@link TransformableEntityWriter} {@linkplain TransformableEntityWriter#isCompress()
+   * compress} it's output?
+   */
+  public TransformableEntityPreconditionFilter(final boolean compress) {
+    this.compress = compress;
+    return;
+  }
+
+  /**
+   * Is the {@link TransformableEntityWriter} configured to {@linkplain TransformableEntityWriter#isCompress() compress}
+   * it's output, such that a request's <code>If-None-Match</code> header is matched against the tag of the compressed
+   * variant it negotiates?
+   * 
+   * @return <code>true</code> if the output is compressed.
+   */
+  public boolean isCompress() {
+    return compress;
+  }
+
+  @Override
+  public void filter(final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) throws IOException {
+    if (responseContext.getStatus() != Response.Status.OK.getStatusCode()) return;
+    if ((!HttpMethod.GET.equals(requestContext.getMethod())) && (!HttpMethod.HEAD.equals(requestContext.getMethod()))) return;
+    final Object entity = responseContext.getEntity();
+    if (!(entity instanceof TransformableEntity)) return;
+    final TransformableEntity transformableEntity = (TransformableEntity)entity;
+
+    final MultivaluedMap<String,Object> httpHeaders = responseContext.getHeaders();
+    final long lastModified = transformableEntity.getLastModified();
+    if ((lastModified >= 0) && (!httpHeaders.containsKey(HttpHeaders.LAST_MODIFIED))) httpHeaders.putSingle(HttpHeaders.LAST_MODIFIED, new Date(lastModified));
+    if (httpHeaders.containsKey(HttpHeaders.ETAG)) return; // The resource is managing it's own validation.
+    final @Nullable String entityTag = transformableEntity.getEntityTag();
+    if (entityTag == null) return;
+    httpHeaders.putSingle(HttpHeaders.ETAG, new EntityTag(entityTag));
+
+    final @Nullable String contentCoding = (compress) ? TransformableEntityWriter.negotiateContentCoding(requestContext.getHeaders().get(HttpHeaders.ACCEPT_ENCODING)) : null;
+    final String representationTag = (contentCoding != null) ? entityTag + '-' + contentCoding : entityTag; // As the writer would tag it.
+    if (!matchIfNoneMatch(requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH), representationTag)) return;
+    responseContext.setStatus(Response.Status.NOT_MODIFIED.getStatusCode());
+    responseContext.setEntity(null);
+    httpHeaders.remove(HttpHeaders.CONTENT_TYPE);
+    httpHeaders.putSingle(HttpHeaders.ETAG, new EntityTag(representationTag));
+    if (compress) httpHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    return;
+  }
+
+  /**
+   * Determine if an <code>If-None-Match</code> header matches the given <code>entityTag</code>, using the weak
+   * comparison function, as required for that header.
+   * 
+   * @param ifNoneMatch The value of the <code>If-None-Match</code> header, or <code>null</code> if there isn't one.
+   * @param entityTag The (unquoted) tag of the representation which would be sent.
+   * @return <code>true</code> if the header matched the <code>entityTag</code>.
+   */
+  protected static boolean matchIfNoneMatch(final @Nullable String ifNoneMatch, final String entityTag) {
+    if (ifNoneMatch == null) return false;
+    for (String requestTagValue : ifNoneMatch.split(",")) {
+      String requestTag = requestTagValue.trim();
+      if (requestTag.equals("*")) return true;
+      if (requestTag.startsWith("W/")) requestTag = requestTag.substring(2);
+      if ((requestTag.length() < 2) || (!requestTag.startsWith("\"")) || (!requestTag.endsWith("\""))) continue;
+      if (requestTag.substring(1, requestTag.length() - 1).equals(entityTag)) return true;
+    }
+    return false;
+  }
+
+}
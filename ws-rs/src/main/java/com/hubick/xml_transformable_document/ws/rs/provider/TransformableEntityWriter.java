@@ -13,7 +13,10 @@ import java.lang.annotation.*;
 import java.lang.reflect.*;
 import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
+import java.util.zip.*;
 
 import javax.activation.*;
 import javax.xml.transform.*;
@@ -31,11 +34,160 @@ import com.hubick.xml_transformable_document.*;
 /**
  * An {@link MessageBodyWriter} implementation {@link Provider} for {@link TransformableEntity} objects.
  * 
+ * <p>
+ * By default, output is streamed directly to the response as it's generated. If a
+ * {@linkplain #TransformableEntityWriter(int) maximum buffer size} is configured, output is instead rendered into a
+ * pooled buffer, allowing a <code>Content-Length</code> header to be set before it's written to the response in a
+ * single operation, falling back to streaming for any output exceeding the maximum.
+ * </p>
+ * 
+ * <p>
+ * If {@linkplain #isCompress() compression} is enabled, the request's <code>Accept-Encoding</code> header is honored
+ * by compressing the output using a pooled {@link Deflater} (preferring the <code>gzip</code> content coding over
+ * <code>deflate</code>). When the entity has an {@linkplain TransformableEntity#setOutputCache(OutputCache) output
+ * cache}, the compressed output is cached along with the uncompressed output, so that repeat requests skip both the
+ * transform and the compression. Any <code>ETag</code> header (such as one added by the
+ * {@link TransformableEntityPreconditionFilter}) has the content coding appended to it, identifying the compressed
+ * representation.
+ * </p>
+ * 
+ * <p>
+ * A transform aborted for exceeding the entity's {@linkplain TransformableEntity#setTransformLimits(TransformLimits)
+ * limits} results in a <code>503 Service Unavailable</code> response, rather than the <code>500 Internal Server
+ * Error</code> reported for other transform failures. Since the status can only be set before any output is written
+ * to the response, this requires the output to be {@linkplain #getMaximumBufferSize() buffered} (or cached), otherwise
+ * the response is simply truncated.
+ * </p>
+ * 
  * @see TransformableEntity#transform(Result)
  */
 @Provider
 @NonNullByDefault
 public class TransformableEntityWriter implements MessageBodyWriter<TransformableEntity> {
+  /**
+   * The initial size of a newly allocated output buffer.
+   */
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+  /**
+   * @see #getMaximumBufferSize()
+   */
+  protected final int maximumBufferSize;
+  /**
+   * @see #getMaximumPooledBuffers()
+   */
+  protected final int maximumPooledBuffers;
+  /**
+   * Output buffers available for reuse.
+   */
+  private final ConcurrentLinkedQueue<byte[]> pooledBuffers = new ConcurrentLinkedQueue<byte[]>();
+  /**
+   * The number of buffers in {@link #pooledBuffers} (or reservations for them).
+   */
+  private final AtomicInteger pooledBufferCount = new AtomicInteger();
+  /**
+   * @see #isCompress()
+   */
+  protected final boolean compress;
+  /**
+   * {@linkplain Deflater#Deflater(int, boolean) Raw} (<code>nowrap</code>) deflaters, for the <code>gzip</code>
+   * content coding, available for reuse.
+   */
+  private final ConcurrentLinkedQueue<Deflater> pooledGZIPDeflaters = new ConcurrentLinkedQueue<Deflater>();
+  /**
+   * ZLIB deflaters, for the <code>deflate</code> content coding, available for reuse.
+   */
+  private final ConcurrentLinkedQueue<Deflater> pooledZLIBDeflaters = new ConcurrentLinkedQueue<Deflater>();
+  /**
+   * The number of deflaters in {@link #pooledGZIPDeflaters} and {@link #pooledZLIBDeflaters} (or reservations for
+   * them).
+   */
+  private final AtomicInteger pooledDeflaterCount = new AtomicInteger();
+  /**
+   * The headers of the current request, injected by the container.
+   */
+  @Context
+  protected @Nullable HttpHeaders requestHeaders = null;
+
+  /**
+   * Construct a new <code>TransformableEntityWriter</code> which streams output directly to the response.
+   */
+  public TransformableEntityWriter() {
+    this(0);
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformableEntityWriter</code> which buffers output of up to
+   * <code>maximumBufferSize</code> bytes in order to report it's <code>Content-Length</code>, retaining up to one
+   * buffer per available processor for reuse.
+   * 
+   * @param maximumBufferSize The {@linkplain #getMaximumBufferSize() maximum buffer size}.
+   * @throws IllegalArgumentException If <code>maximumBufferSize</code> is negative.
+   */
+  public TransformableEntityWriter(final int maximumBufferSize) throws IllegalArgumentException {
+    this(maximumBufferSize, Runtime.getRuntime().availableProcessors());
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformableEntityWriter</code> which buffers output of up to
+   * <code>maximumBufferSize</code> bytes in order to report it's <code>Content-Length</code>.
+   * 
+   * @param maximumBufferSize The {@linkplain #getMaximumBufferSize() maximum buffer size}.
+   * @param maximumPooledBuffers The {@linkplain #getMaximumPooledBuffers() maximum pooled buffers}.
+   * @throws IllegalArgumentException If <code>maximumBufferSize</code> or <code>maximumPooledBuffers</code> is negative.
+   */
+  public TransformableEntityWriter(final int maximumBufferSize, final int maximumPooledBuffers) throws IllegalArgumentException {
+    this(maximumBufferSize, maximumPooledBuffers, false);
+    return;
+  }
+
+  /**
+   * Construct a new <code>TransformableEntityWriter</code>.
+   * 
+   * @param maximumBufferSize The {@linkplain #getMaximumBufferSize() maximum buffer size}, or <code>0</code> to always
+   * stream output.
+   * @param maximumPooledBuffers The {@linkplain #getMaximumPooledBuffers() maximum pooled buffers}, which also bounds
+   * the number of pooled {@link Deflater}'s.
+   * @param compress Should output be {@linkplain #isCompress() compressed}?
+   * @throws IllegalArgumentException If <code>maximumBufferSize</code> or <code>maximumPooledBuffers</code> is negative.
+   */
+  public TransformableEntityWriter(final int maximumBufferSize, final int maximumPooledBuffers, final boolean compress) throws IllegalArgumentException {
+    if (maximumBufferSize < 0) throw new IllegalArgumentException("maximumBufferSize must not be negative");
+    if (maximumPooledBuffers < 0) throw new IllegalArgumentException("maximumPooledBuffers must not be negative");
+    this.maximumBufferSize = maximumBufferSize;
+    this.maximumPooledBuffers = maximumPooledBuffers;
+    this.compress = compress;
+    return;
+  }
+
+  /**
+   * Get the maximum number of bytes of output which will be buffered in order to report it's
+   * <code>Content-Length</code>, beyond which output is streamed.
+   * 
+   * @return The maximum buffer size, or <code>0</code> if output is always streamed.
+   */
+  public int getMaximumBufferSize() {
+    return maximumBufferSize;
+  }
+
+  /**
+   * Get the maximum number of output buffers which will be retained for reuse between requests.
+   * 
+   * @return The maximum pooled buffer count.
+   */
+  public int getMaximumPooledBuffers() {
+    return maximumPooledBuffers;
+  }
+
+  /**
+   * Will output be compressed using a content coding from the request's <code>Accept-Encoding</code> header?
+   * 
+   * @return <code>true</code> if compression is enabled.
+   */
+  public boolean isCompress() {
+    return compress;
+  }
 
   @Override
   public long getSize(final TransformableEntity transformableEntity, final Class<?> type, final Type genericType, final @NonNull Annotation[] annotations, final MediaType mediaType) {
@@ -75,9 +227,25 @@ public class TransformableEntityWriter implements MessageBodyWriter<Transformabl
       }
 
       try {
-        transformableEntity.transform(new StreamResult(entityStream));
+        final @Nullable String contentCoding = (compress) ? negotiateContentCoding() : null;
+        if (compress) httpHeaders.add("Vary", "Accept-Encoding");
+        if (contentCoding != null) {
+          httpHeaders.putSingle("Content-Encoding", contentCoding);
+          final Object entityTag = httpHeaders.getFirst("ETag");
+          if (entityTag instanceof EntityTag) httpHeaders.putSingle("ETag", new EntityTag(((EntityTag)entityTag).getValue() + '-' + contentCoding, ((EntityTag)entityTag).isWeak())); // Each content coding is a distinct representation.
+        }
+
+        final byte @Nullable [] cachedOutput = transformableEntity.getCachedOutput(contentCoding, (contentCoding != null) ? (output) -> compress(output, contentCoding) : null);
+        if (cachedOutput != null) {
+          httpHeaders.putSingle("Content-Length", String.valueOf(cachedOutput.length));
+          entityStream.write(cachedOutput);
+        } else {
+          writeTransformed(transformableEntity, contentCoding, httpHeaders, entityStream);
+        }
       } catch (IOException ioe) {
         throw ioe;
+      } catch (TransformLimitExceededException tlee) {
+        throw new WebApplicationException(tlee, Response.Status.SERVICE_UNAVAILABLE);
       } catch (TransformerException te) {
         throw new WebApplicationException(te);
       }
@@ -95,4 +263,323 @@ public class TransformableEntityWriter implements MessageBodyWriter<Transformabl
     return;
   }
 
+  /**
+   * Select the content coding to be used for the response, based on the request's <code>Accept-Encoding</code> header.
+   * 
+   * @return <code>"gzip"</code>, <code>"deflate"</code>, or <code>null</code> if the output shouldn't be compressed.
+   */
+  protected @Nullable String negotiateContentCoding() {
+    final HttpHeaders requestHeaders = this.requestHeaders;
+    if (requestHeaders == null) return null;
+    return negotiateContentCoding(requestHeaders.getRequestHeader("Accept-Encoding"));
+  }
+
+  /**
+   * Select the content coding to be used for a response, based on the supplied <code>Accept-Encoding</code> headers.
+   * 
+   * @param acceptEncodingHeaders The values of the request's <code>Accept-Encoding</code> headers, or <code>null</code>
+   * if there are none.
+   * @return <code>"gzip"</code>, <code>"deflate"</code>, or <code>null</code> if the output shouldn't be compressed.
+   * @see TransformableEntityPreconditionFilter
+   */
+  protected static @Nullable String negotiateContentCoding(final @Nullable List<String> acceptEncodingHeaders) {
+    if (acceptEncodingHeaders == null) return null;
+
+    float gzipQuality = 0, deflateQuality = 0, wildcardQuality = 0;
+    boolean gzipListed = false, deflateListed = false;
+    for (String acceptEncodingHeader : acceptEncodingHeaders) {
+      for (String codingRange : acceptEncodingHeader.split(",")) {
+        final String[] codingParams = codingRange.split(";");
+        final String coding = codingParams[0].trim().toLowerCase(Locale.ROOT);
+        float quality = 1;
+        for (int i = 1; i < codingParams.length; i++) {
+          final String param = codingParams[i].trim();
+          if ((param.startsWith("q=")) || (param.startsWith("Q="))) {
+            try {
+              quality = Float.parseFloat(param.substring(2).trim());
+            } catch (NumberFormatException nfe) {
+              quality = 0;
+            }
+          }
+        }
+        if ((coding.equals("gzip")) || (coding.equals("x-gzip"))) {
+          gzipQuality = Math.max(gzipQuality, quality);
+          gzipListed = true;
+        } else if (coding.equals("deflate")) {
+          deflateQuality = Math.max(deflateQuality, quality);
+          deflateListed = true;
+        } else if (coding.equals("*")) {
+          wildcardQuality = Math.max(wildcardQuality, quality);
+        }
+      }
+    }
+    if (!gzipListed) gzipQuality = wildcardQuality;
+    if (!deflateListed) deflateQuality = wildcardQuality;
+
+    if ((gzipQuality > 0) && (gzipQuality >= deflateQuality)) return "gzip";
+    if (deflateQuality > 0) return "deflate";
+    return null;
+  }
+
+  /**
+   * {@linkplain TransformableEntity#transform(Result) Transform} the supplied <code>transformableEntity</code> to the
+   * <code>entityStream</code>, compressing it using the given <code>contentCoding</code>, and, if a
+   * {@linkplain #getMaximumBufferSize() maximum buffer size} is configured, buffering it in order to set the
+   * <code>Content-Length</code> header.
+   * 
+   * @param transformableEntity The {@link TransformableEntity} to write.
+   * @param contentCoding The content coding to compress the output with, or <code>null</code> for none.
+   * @param httpHeaders The response headers.
+   * @param entityStream The response stream.
+   * @throws TransformerException If there was a problem performing the transform.
+   * @throws IOException If there was an I/O problem writing to the <code>entityStream</code>.
+   */
+  protected void writeTransformed(final TransformableEntity transformableEntity, final @Nullable String contentCoding, final MultivaluedMap<String,Object> httpHeaders, final OutputStream entityStream) throws TransformerException, IOException {
+    final BufferOutputStream bufferOutputStream = (maximumBufferSize > 0) ? acquireBuffer(entityStream) : null;
+    final boolean gzip = "gzip".equals(contentCoding);
+    final Deflater deflater = (contentCoding != null) ? acquireDeflater(gzip) : null;
+    try {
+      final OutputStream outputStream = (bufferOutputStream != null) ? bufferOutputStream : entityStream;
+      if (deflater != null) {
+        final CompressingOutputStream compressingOutputStream = new CompressingOutputStream(outputStream, deflater, gzip);
+        transformableEntity.transform(new StreamResult(compressingOutputStream));
+        compressingOutputStream.finish();
+      } else {
+        transformableEntity.transform(new StreamResult(outputStream));
+      }
+      if ((bufferOutputStream != null) && (!bufferOutputStream.isStreaming())) {
+        httpHeaders.putSingle("Content-Length", String.valueOf(bufferOutputStream.count));
+        entityStream.write(bufferOutputStream.buffer, 0, bufferOutputStream.count);
+      }
+    } finally {
+      if (deflater != null) releaseDeflater(deflater, gzip);
+      if (bufferOutputStream != null) releaseBuffer(bufferOutputStream.buffer);
+    }
+    return;
+  }
+
+  /**
+   * Compress the supplied <code>output</code> using the given <code>contentCoding</code>.
+   * 
+   * @param output The output to compress.
+   * @param contentCoding The content coding to compress the output with (<code>"gzip"</code> or
+   * <code>"deflate"</code>).
+   * @return The compressed output.
+   * @throws IOException If there was a problem compressing the output.
+   */
+  protected byte[] compress(final byte[] output, final String contentCoding) throws IOException {
+    final boolean gzip = "gzip".equals(contentCoding);
+    final Deflater deflater = acquireDeflater(gzip);
+    try {
+      final ByteArrayOutputStream compressedOutput = new ByteArrayOutputStream(Math.max(output.length / 4, 64));
+      final CompressingOutputStream compressingOutputStream = new CompressingOutputStream(compressedOutput, deflater, gzip);
+      compressingOutputStream.write(output, 0, output.length);
+      compressingOutputStream.finish();
+      return compressedOutput.toByteArray();
+    } finally {
+      releaseDeflater(deflater, gzip);
+    }
+  }
+
+  /**
+   * Acquire a pooled (or new) output buffer.
+   * 
+   * @param entityStream The response stream the buffer will overflow to.
+   * @return A {@link BufferOutputStream} wrapping the buffer.
+   */
+  private BufferOutputStream acquireBuffer(final OutputStream entityStream) {
+    final byte[] pooledBuffer = pooledBuffers.poll();
+    if (pooledBuffer != null) pooledBufferCount.decrementAndGet();
+    return new BufferOutputStream((pooledBuffer != null) ? pooledBuffer : new byte[Math.min(INITIAL_BUFFER_SIZE, maximumBufferSize)], entityStream);
+  }
+
+  /**
+   * Return an output buffer to the pool, if it isn't full.
+   * 
+   * @param buffer The buffer to release.
+   */
+  private void releaseBuffer(final byte[] buffer) {
+    if (pooledBufferCount.incrementAndGet() <= maximumPooledBuffers) {
+      pooledBuffers.offer(buffer);
+    } else {
+      pooledBufferCount.decrementAndGet();
+    }
+    return;
+  }
+
+  /**
+   * Acquire a pooled (or new) {@link Deflater}.
+   * 
+   * @param gzip Is the deflater for the <code>gzip</code> content coding (as opposed to <code>deflate</code>)?
+   * @return The {@link Deflater}.
+   */
+  private Deflater acquireDeflater(final boolean gzip) {
+    final Deflater pooledDeflater = ((gzip) ? pooledGZIPDeflaters : pooledZLIBDeflaters).poll();
+    if (pooledDeflater == null) return new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+    pooledDeflaterCount.decrementAndGet();
+    return pooledDeflater;
+  }
+
+  /**
+   * {@linkplain Deflater#reset() Reset} a {@link Deflater} and return it to the pool, or
+   * {@linkplain Deflater#end() end} it if the pool is full.
+   * 
+   * @param deflater The {@link Deflater} to release.
+   * @param gzip Is the deflater for the <code>gzip</code> content coding (as opposed to <code>deflate</code>)?
+   */
+  private void releaseDeflater(final Deflater deflater, final boolean gzip) {
+    deflater.reset();
+    if (pooledDeflaterCount.incrementAndGet() <= maximumPooledBuffers) {
+      ((gzip) ? pooledGZIPDeflaters : pooledZLIBDeflaters).offer(deflater);
+    } else {
+      pooledDeflaterCount.decrementAndGet();
+      deflater.end();
+    }
+    return;
+  }
+
+  /**
+   * A {@link DeflaterOutputStream} using a supplied (pooled) {@link Deflater}, which can optionally write the
+   * <a href="https://tools.ietf.org/html/rfc1952">gzip</a> header and trailer around the compressed data. Calling
+   * {@link #finish()} completes the compressed data without closing the underlying stream or ending the deflater.
+   */
+  private static final class CompressingOutputStream extends DeflaterOutputStream {
+    /**
+     * The checksum of the uncompressed data, or <code>null</code> if not writing gzip.
+     */
+    private final @Nullable CRC32 crc;
+
+    /**
+     * Construct a new <code>CompressingOutputStream</code>.
+     * 
+     * @param outputStream The stream to write compressed output to.
+     * @param deflater The {@link Deflater} to use, which must be <code>nowrap</code> if <code>gzip</code> is specified.
+     * @param gzip Should the gzip header and trailer be written?
+     * @throws IOException If there was a problem writing the gzip header.
+     */
+    CompressingOutputStream(final OutputStream outputStream, final Deflater deflater, final boolean gzip) throws IOException {
+      super(outputStream, deflater, 8192);
+      if (gzip) {
+        crc = new CRC32();
+        out.write(new byte[] { (byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff });
+      } else {
+        crc = null;
+      }
+      return;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      super.write(b, off, len);
+      if (crc != null) crc.update(b, off, len);
+      return;
+    }
+
+    @Override
+    public void finish() throws IOException {
+      super.finish();
+      if (crc != null) {
+        final long checksum = crc.getValue();
+        final long size = def.getBytesRead();
+        out.write(new byte[] { (byte)checksum, (byte)(checksum >> 8), (byte)(checksum >> 16), (byte)(checksum >> 24), (byte)size, (byte)(size >> 8), (byte)(size >> 16), (byte)(size >> 24) });
+      }
+      return;
+    }
+
+  }
+
+  /**
+   * An {@link OutputStream} which accumulates output in a growable buffer of up to {@link #maximumBufferSize} bytes,
+   * after which it flushes the buffer to the response and streams all further output directly.
+   */
+  private final class BufferOutputStream extends OutputStream {
+    /**
+     * The response stream.
+     */
+    private final OutputStream entityStream;
+    /**
+     * The buffer.
+     */
+    byte[] buffer;
+    /**
+     * The number of bytes in the {@link #buffer}.
+     */
+    int count = 0;
+    /**
+     * Has the buffer overflowed, such that output is now being streamed to the {@link #entityStream}?
+     */
+    private boolean streaming = false;
+
+    /**
+     * Construct a new <code>BufferOutputStream</code>.
+     * 
+     * @param buffer The initial buffer.
+     * @param entityStream The response stream.
+     */
+    BufferOutputStream(final byte[] buffer, final OutputStream entityStream) {
+      this.buffer = buffer;
+      this.entityStream = entityStream;
+      return;
+    }
+
+    /**
+     * Has the buffer overflowed, such that output has been streamed to the response?
+     * 
+     * @return <code>true</code> if output has been streamed.
+     */
+    boolean isStreaming() {
+      return streaming;
+    }
+
+    /**
+     * Ensure there is room for <code>length</code> more bytes in the {@link #buffer}, switching to streaming if that
+     * would exceed the {@link #maximumBufferSize}.
+     * 
+     * @param length The number of additional bytes to be written.
+     * @return <code>true</code> if the bytes should be written to the buffer.
+     * @throws IOException If there was an I/O problem flushing the buffer.
+     */
+    private boolean reserve(final int length) throws IOException {
+      if (streaming) return false;
+      final int required = count + length;
+      if ((required < 0) || (required > maximumBufferSize)) {
+        streaming = true;
+        entityStream.write(buffer, 0, count);
+        count = 0;
+        return false;
+      }
+      if (required > buffer.length) buffer = Arrays.copyOf(buffer, Math.min(Math.max(buffer.length * 2, required), maximumBufferSize));
+      return true;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      if (reserve(1)) {
+        buffer[count++] = (byte)b;
+      } else {
+        entityStream.write(b);
+      }
+      return;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      if (reserve(len)) {
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+      } else {
+        entityStream.write(b, off, len);
+      }
+      return;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (streaming) entityStream.flush();
+      return;
+    }
+
+  }
+
+
 }
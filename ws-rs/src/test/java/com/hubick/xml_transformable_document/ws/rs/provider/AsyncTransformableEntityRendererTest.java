@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.ws.rs.provider;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.*;
+
+import com.hubick.xml_transformable_document.*;
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link AsyncTransformableEntityRenderer}.
+ */
+@NonNullByDefault
+public class AsyncTransformableEntityRendererTest {
+
+  /**
+   * An {@link AsyncResponse} recording the value it was resumed with.
+   */
+  protected static class RecordingAsyncResponse implements AsyncResponse {
+    /**
+     * The value (response or {@link Throwable}) this response was resumed with.
+     */
+    protected final CompletableFuture<Object> resumed = new CompletableFuture<>();
+
+    /**
+     * Wait for this response to be resumed.
+     * 
+     * @return The value this response was resumed with.
+     * @throws Exception If the response wasn't resumed in time.
+     */
+    public Object awaitResumed() throws Exception {
+      return resumed.get(10, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public boolean resume(final @Nullable Object response) {
+      return resumed.complete(Objects.requireNonNull(response));
+    }
+
+    @Override
+    public boolean resume(final Throwable response) {
+      return resumed.complete(response);
+    }
+
+    @Override
+    public boolean cancel() {
+      return false;
+    }
+
+    @Override
+    public boolean cancel(final int retryAfter) {
+      return false;
+    }
+
+    @Override
+    public boolean cancel(final Date retryAfter) {
+      return false;
+    }
+
+    @Override
+    public boolean isSuspended() {
+      return !resumed.isDone();
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return resumed.isDone();
+    }
+
+    @Override
+    public boolean setTimeout(final long time, final TimeUnit unit) {
+      return true;
+    }
+
+    @Override
+    public void setTimeoutHandler(final TimeoutHandler handler) {
+      return;
+    }
+
+    @Override
+    public Collection<Class<?>> register(final Class<?> callback) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public Map<Class<?>,Collection<Class<?>>> register(final Class<?> callback, final Class<?>... callbacks) {
+      return Collections.emptyMap();
+    }
+
+    @Override
+    public Collection<Class<?>> register(final Object callback) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public Map<Class<?>,Collection<Class<?>>> register(final Object callback, final Object... callbacks) {
+      return Collections.emptyMap();
+    }
+
+  }
+
+  /**
+   * Test that the response is resumed with the entity, from a thread of the executor.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testResumeWithEntity() throws Exception {
+    final TransformableEntity transformableEntity = new TransformableDocument();
+    final List<Thread> executorThreads = Collections.synchronizedList(new ArrayList<>());
+    final ExecutorService executorService = Executors.newSingleThreadExecutor((runnable) -> {
+      final Thread thread = new Thread(runnable);
+      executorThreads.add(thread);
+      return thread;
+    });
+    try {
+      final RecordingAsyncResponse asyncResponse = new RecordingAsyncResponse();
+      final List<Thread> supplierThreads = Collections.synchronizedList(new ArrayList<>());
+      new AsyncTransformableEntityRenderer(executorService).render(asyncResponse, () -> {
+        supplierThreads.add(Thread.currentThread());
+        return transformableEntity;
+      });
+      assertSame(transformableEntity, asyncResponse.awaitResumed());
+      assertEquals(executorThreads, supplierThreads);
+    } finally {
+      executorService.shutdown();
+    }
+
+    final RecordingAsyncResponse defaultAsyncResponse = new RecordingAsyncResponse();
+    new AsyncTransformableEntityRenderer().render(defaultAsyncResponse, transformableEntity);
+    assertSame(transformableEntity, defaultAsyncResponse.awaitResumed());
+    return;
+  }
+
+  /**
+   * Test that the response is resumed with the exception thrown by a response supplier.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testResumeWithSupplierException() throws Exception {
+    final IllegalStateException exception = new IllegalStateException("test");
+    final RecordingAsyncResponse asyncResponse = new RecordingAsyncResponse();
+    new AsyncTransformableEntityRenderer(Runnable::run).render(asyncResponse, () -> {
+      throw exception;
+    });
+    assertSame(exception, asyncResponse.awaitResumed());
+    return;
+  }
+
+  /**
+   * Test that a task rejected by the executor resumes the response with a <code>503 Service Unavailable</code>, rather
+   * than being thrown.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testRejectedExecution() throws Exception {
+    final RejectedExecutionException exception = new RejectedExecutionException("test");
+    final RecordingAsyncResponse asyncResponse = new RecordingAsyncResponse();
+    final AsyncTransformableEntityRenderer renderer = new AsyncTransformableEntityRenderer((runnable) -> {
+      throw exception;
+    });
+    renderer.render(asyncResponse, new TransformableDocument());
+    final WebApplicationException wae = (WebApplicationException)asyncResponse.awaitResumed();
+    assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), wae.getResponse().getStatus());
+    assertSame(exception, wae.getCause());
+    return;
+  }
+
+  /**
+   * Test that the default executor is bounded when it isn't creating virtual threads.
+   */
+  @Test
+  public void testDefaultExecutorBounded() {
+    final Executor executor = AsyncTransformableEntityRenderer.getDefaultExecutor();
+    if (!(executor instanceof ThreadPoolExecutor)) return; // Virtual threads.
+    final ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor)executor;
+    assertTrue(threadPoolExecutor.getMaximumPoolSize() < Integer.MAX_VALUE);
+    assertTrue(threadPoolExecutor.getQueue().remainingCapacity() < Integer.MAX_VALUE);
+    assertTrue(threadPoolExecutor.getRejectedExecutionHandler() instanceof ThreadPoolExecutor.AbortPolicy);
+    return;
+  }
+
+}
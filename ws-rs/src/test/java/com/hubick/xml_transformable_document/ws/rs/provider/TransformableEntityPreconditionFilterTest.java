@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.ws.rs.provider;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import javax.xml.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.*;
+
+import com.hubick.xml_transformable_document.*;
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link TransformableEntityPreconditionFilter}.
+ */
+@NonNullByDefault
+public class TransformableEntityPreconditionFilterTest {
+
+  /**
+   * Create a {@link ContainerRequestContext} for a request with the given method and headers.
+   * 
+   * @param method The request method.
+   * @param headers The request headers, as name/value pairs.
+   * @return The request context.
+   */
+  protected static final ContainerRequestContext newRequestContext(final String method, final String... headers) {
+    final MultivaluedMap<String,String> requestHeaders = new MultivaluedHashMap<String,String>();
+    for (int i = 0; i < headers.length; i += 2) {
+      requestHeaders.add(headers[i], headers[i + 1]);
+    }
+    return (ContainerRequestContext)Proxy.newProxyInstance(ContainerRequestContext.class.getClassLoader(), new Class<?>[] { ContainerRequestContext.class }, (proxy, method2, args) -> {
+      switch (method2.getName()) {
+        case "getMethod":
+          return method;
+        case "getHeaders":
+          return requestHeaders;
+        case "getHeaderString":
+          final List<String> values = requestHeaders.get(args[0]);
+          return (values != null) ? String.join(",", values) : null;
+        default:
+          throw new UnsupportedOperationException(method2.getName());
+      }
+    });
+  }
+
+  /**
+   * Create a {@link ContainerResponseContext} for a response with the given status and entity.
+   * 
+   * @param status The response status.
+   * @param entity The response entity.
+   * @return The response context.
+   */
+  protected static final ContainerResponseContext newResponseContext(final int status, final @Nullable Object entity) {
+    final MultivaluedMap<String,Object> responseHeaders = new MultivaluedHashMap<String,Object>();
+    responseHeaders.putSingle(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_XML_TYPE);
+    final Object[] state = new Object[] { Integer.valueOf(status), entity };
+    return (ContainerResponseContext)Proxy.newProxyInstance(ContainerResponseContext.class.getClassLoader(), new Class<?>[] { ContainerResponseContext.class }, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getStatus":
+          return state[0];
+        case "setStatus":
+          state[0] = args[0];
+          return null;
+        case "getEntity":
+          return state[1];
+        case "setEntity":
+          state[1] = args[0];
+          return null;
+        case "getHeaders":
+          return responseHeaders;
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+
+  /**
+   * Create a frozen {@link TransformableDocument}, which issues an entity tag.
+   * 
+   * @return The new TransformableDocument.
+   */
+  protected static final TransformableDocument newTestDocument() {
+    final TransformableDocument testDocument = new TransformableDocument();
+    testDocument.getDocument().appendChild(testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "test")).appendChild(testDocument.getDocument().createTextNode("Hello World"));
+    testDocument.freeze();
+    return testDocument;
+  }
+
+  /**
+   * Run the <code>filter</code> on a <code>GET</code> response for the supplied <code>entity</code>.
+   * 
+   * @param filter The filter to run.
+   * @param entity The response entity.
+   * @param headers The request headers, as name/value pairs.
+   * @return The filtered response context.
+   * @throws Exception If something went wrong.
+   */
+  protected static final ContainerResponseContext filter(final TransformableEntityPreconditionFilter filter, final @Nullable Object entity, final String... headers) throws Exception {
+    final ContainerResponseContext responseContext = newResponseContext(Response.Status.OK.getStatusCode(), entity);
+    filter.filter(newRequestContext(HttpMethod.GET, headers), responseContext);
+    return responseContext;
+  }
+
+  /**
+   * Assert that the supplied <code>responseContext</code> is an unmodified <code>200 OK</code> for the given
+   * <code>entity</code>.
+   * 
+   * @param responseContext The response context to check.
+   * @param entity The expected entity.
+   */
+  protected static final void assertNotMatched(final ContainerResponseContext responseContext, final Object entity) {
+    assertEquals(Response.Status.OK.getStatusCode(), responseContext.getStatus());
+    assertSame(entity, responseContext.getEntity());
+    assertNotNull(responseContext.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+    return;
+  }
+
+  /**
+   * Assert that the supplied <code>responseContext</code> has been replaced with a <code>304 Not Modified</code>.
+   * 
+   * @param responseContext The response context to check.
+   * @param entityTag The expected (unquoted) entity tag.
+   */
+  protected static final void assertMatched(final ContainerResponseContext responseContext, final String entityTag) {
+    assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), responseContext.getStatus());
+    assertNull(responseContext.getEntity());
+    assertNull(responseContext.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+    assertEquals(new EntityTag(entityTag), responseContext.getHeaders().getFirst(HttpHeaders.ETAG));
+    return;
+  }
+
+  /**
+   * Test the validators added to responses, and which requests are answered with a <code>304 Not Modified</code>, when
+   * output isn't compressed.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testFilter() throws Exception {
+    final TransformableEntityPreconditionFilter filter = new TransformableEntityPreconditionFilter();
+    final TransformableDocument testDocument = newTestDocument();
+    final String entityTag = Objects.requireNonNull(testDocument.getEntityTag());
+
+    ContainerResponseContext responseContext = filter(filter, testDocument);
+    assertNotMatched(responseContext, testDocument);
+    assertEquals(new EntityTag(entityTag), responseContext.getHeaders().getFirst(HttpHeaders.ETAG));
+    assertEquals(new Date(testDocument.getLastModified()), responseContext.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED));
+    assertNull(responseContext.getHeaders().getFirst(HttpHeaders.VARY));
+
+    assertMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + '"'), entityTag);
+    assertMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, "\"other\", W/\"" + entityTag + '"'), entityTag);
+    assertMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, "*"), entityTag);
+    assertNull(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + '"').getHeaders().getFirst(HttpHeaders.VARY));
+    assertNotMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, "\"other\""), testDocument);
+    assertNotMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, entityTag), testDocument); // Unquoted.
+    assertNotMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + "-gzip\"", HttpHeaders.ACCEPT_ENCODING, "gzip"), testDocument); // Never sent compressed.
+
+    // Responses the filter doesn't apply to are left untouched.
+    final ContainerResponseContext postResponseContext = newResponseContext(Response.Status.OK.getStatusCode(), testDocument);
+    filter.filter(newRequestContext(HttpMethod.POST, HttpHeaders.IF_NONE_MATCH, "*"), postResponseContext);
+    assertNotMatched(postResponseContext, testDocument);
+    assertNull(postResponseContext.getHeaders().getFirst(HttpHeaders.ETAG));
+    final ContainerResponseContext createdResponseContext = newResponseContext(Response.Status.CREATED.getStatusCode(), testDocument);
+    filter.filter(newRequestContext(HttpMethod.GET, HttpHeaders.IF_NONE_MATCH, "*"), createdResponseContext);
+    assertEquals(Response.Status.CREATED.getStatusCode(), createdResponseContext.getStatus());
+    assertNull(createdResponseContext.getHeaders().getFirst(HttpHeaders.ETAG));
+    final String stringEntity = "Hello World";
+    assertNotMatched(filter(filter, stringEntity, HttpHeaders.IF_NONE_MATCH, "*"), stringEntity);
+
+    // A document which can't account for it's modifications issues no validators.
+    final TransformableDocument untrackedDocument = new TransformableDocument();
+    responseContext = filter(filter, untrackedDocument, HttpHeaders.IF_NONE_MATCH, "*");
+    assertNotMatched(responseContext, untrackedDocument);
+    assertNull(responseContext.getHeaders().getFirst(HttpHeaders.ETAG));
+    return;
+  }
+
+  /**
+   * Test that, when output is compressed, only the tag of the variant negotiated for the request matches.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testFilterCompressed() throws Exception {
+    final TransformableEntityPreconditionFilter filter = new TransformableEntityPreconditionFilter(true);
+    final TransformableDocument testDocument = newTestDocument();
+    final String entityTag = Objects.requireNonNull(testDocument.getEntityTag());
+
+    ContainerResponseContext responseContext = filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + "-gzip\"", HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+    assertMatched(responseContext, entityTag + "-gzip");
+    assertEquals(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING), responseContext.getHeaders().get(HttpHeaders.VARY));
+    assertMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, "\"" + entityTag + "-gzip\", \"" + entityTag + "-deflate\"", HttpHeaders.ACCEPT_ENCODING, "deflate"), entityTag + "-deflate");
+    responseContext = filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + '"', HttpHeaders.ACCEPT_ENCODING, "identity");
+    assertMatched(responseContext, entityTag);
+    assertEquals(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING), responseContext.getHeaders().get(HttpHeaders.VARY));
+    assertMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + '"'), entityTag);
+    assertMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, "*", HttpHeaders.ACCEPT_ENCODING, "gzip"), entityTag + "-gzip");
+
+    // A tag for a variant other than the one which would be sent doesn't match.
+    assertNotMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + "-gzip\"", HttpHeaders.ACCEPT_ENCODING, "identity"), testDocument);
+    assertNotMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + "-gzip\""), testDocument);
+    assertNotMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + "-gzip\"", HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, deflate"), testDocument);
+    assertNotMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + '"', HttpHeaders.ACCEPT_ENCODING, "gzip"), testDocument);
+    assertNotMatched(filter(filter, testDocument, HttpHeaders.IF_NONE_MATCH, '"' + entityTag + "-br\"", HttpHeaders.ACCEPT_ENCODING, "br"), testDocument);
+    return;
+  }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2020 by Chris Hubick. All Rights Reserved.
+ * 
+ * This work is licensed under the terms of the "GNU AFFERO GENERAL PUBLIC LICENSE" version 3, as published by the Free
+ * Software Foundation <http://www.gnu.org/licenses/>, plus additional permissions, a copy of which you should have
+ * received in the file LICENSE.txt.
+ */
+
+package com.hubick.xml_transformable_document.ws.rs.provider;
+
+import java.io.*;
+import java.lang.annotation.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.zip.*;
+
+import javax.xml.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.*;
+
+import org.w3c.dom.*;
+
+import com.hubick.xml_transformable_document.*;
+import com.hubick.xml_transformable_document.dom.*;
+
+import org.eclipse.jdt.annotation.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit tests for {@link TransformableEntityWriter}.
+ */
+@NonNullByDefault
+public class TransformableEntityWriterTest {
+
+  /**
+   * Create request {@link HttpHeaders} containing the given <code>Accept-Encoding</code> headers.
+   * 
+   * @param acceptEncoding The values of the <code>Accept-Encoding</code> headers, if any.
+   * @return The request headers.
+   */
+  protected static final HttpHeaders newRequestHeaders(final String... acceptEncoding) {
+    return (HttpHeaders)Proxy.newProxyInstance(HttpHeaders.class.getClassLoader(), new Class<?>[] { HttpHeaders.class }, (proxy, method, args) -> {
+      if ((method.getName().equals("getRequestHeader")) && (HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase((String)args[0]))) return (acceptEncoding.length > 0) ? Arrays.asList(acceptEncoding) : null;
+      if (method.getName().equals("getRequestHeader")) return null;
+      throw new UnsupportedOperationException(method.getName());
+    });
+  }
+
+  /**
+   * Create a {@link TransformableEntityWriter} for a request with the given <code>Accept-Encoding</code> headers.
+   * 
+   * @param maximumBufferSize The {@linkplain TransformableEntityWriter#getMaximumBufferSize() maximum buffer size}.
+   * @param compress Should output be {@linkplain TransformableEntityWriter#isCompress() compressed}?
+   * @param acceptEncoding The values of the <code>Accept-Encoding</code> headers, if any.
+   * @return The new writer.
+   */
+  protected static final TransformableEntityWriter newWriter(final int maximumBufferSize, final boolean compress, final String... acceptEncoding) {
+    final TransformableEntityWriter writer = new TransformableEntityWriter(maximumBufferSize, 1, compress);
+    writer.requestHeaders = newRequestHeaders(acceptEncoding);
+    return writer;
+  }
+
+  /**
+   * Create a {@link TransformableDocument} whose output is the given number of repetitions of a <code>test</code>
+   * element.
+   * 
+   * @param repetitions The number of <code>test</code> elements to output.
+   * @return The new TransformableDocument.
+   */
+  protected static final TransformableDocument newTestDocument(final int repetitions) {
+    final TransformableDocument testDocument = new TransformableDocument();
+    testDocument.setOmitXMLDeclaration(true);
+    final Element rootElement = testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "root");
+    testDocument.getDocument().appendChild(rootElement);
+    for (int i = 0; i < repetitions; i++) {
+      rootElement.appendChild(testDocument.getDocument().createElementNS(XMLConstants.NULL_NS_URI, "test")).appendChild(testDocument.getDocument().createTextNode("Hello World " + i));
+    }
+    return testDocument;
+  }
+
+  /**
+   * Get the uncompressed output of the supplied <code>transformableEntity</code>.
+   * 
+   * @param transformableEntity The entity to transform.
+   * @return The output.
+   * @throws Exception If there was a problem.
+   */
+  protected static final byte[] toBytes(final TransformableEntity transformableEntity) throws Exception {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    transformableEntity.transform(new javax.xml.transform.stream.StreamResult(outputStream));
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * {@linkplain TransformableEntityWriter#writeTo(TransformableEntity, Class, Type, Annotation[], MediaType,
+   * MultivaluedMap, OutputStream) Write} the supplied <code>transformableEntity</code>.
+   * 
+   * @param writer The writer to use.
+   * @param transformableEntity The entity to write.
+   * @param httpHeaders The response headers.
+   * @return The bytes written to the response.
+   * @throws IOException If there was an I/O problem writing the entity.
+   */
+  protected static final byte[] writeTo(final TransformableEntityWriter writer, final TransformableEntity transformableEntity, final MultivaluedMap<String,Object> httpHeaders) throws IOException {
+    final ByteArrayOutputStream entityStream = new ByteArrayOutputStream();
+    writer.writeTo(transformableEntity, transformableEntity.getClass(), transformableEntity.getClass(), new Annotation[0], MediaType.APPLICATION_XML_TYPE, httpHeaders, entityStream);
+    return entityStream.toByteArray();
+  }
+
+  /**
+   * Decompress the given <code>output</code>.
+   * 
+   * @param output The compressed output.
+   * @param contentCoding The content coding the output was compressed with.
+   * @return The decompressed output.
+   * @throws IOException If the output couldn't be decompressed.
+   */
+  protected static final byte[] decompress(final byte[] output, final String contentCoding) throws IOException {
+    try (InputStream inputStream = ("gzip".equals(contentCoding)) ? new GZIPInputStream(new ByteArrayInputStream(output)) : new InflaterInputStream(new ByteArrayInputStream(output))) {
+      return inputStream.readAllBytes();
+    }
+  }
+
+  /**
+   * Test the content coding {@linkplain TransformableEntityWriter#negotiateContentCoding() negotiated} for various
+   * <code>Accept-Encoding</code> headers.
+   */
+  @Test
+  public void testNegotiateContentCoding() {
+    assertNull(new TransformableEntityWriter(0, 1, true).negotiateContentCoding()); // No request headers.
+    assertNull(newWriter(0, true).negotiateContentCoding()); // No Accept-Encoding header.
+    assertNull(newWriter(0, true, "").negotiateContentCoding());
+    assertEquals("gzip", newWriter(0, true, "gzip").negotiateContentCoding());
+    assertEquals("gzip", newWriter(0, true, "x-gzip").negotiateContentCoding());
+    assertEquals("gzip", newWriter(0, true, "GZIP;Q=0.5").negotiateContentCoding());
+    assertEquals("deflate", newWriter(0, true, "deflate").negotiateContentCoding());
+    assertEquals("gzip", newWriter(0, true, "deflate, gzip").negotiateContentCoding()); // Preferred when equal.
+    assertEquals("deflate", newWriter(0, true, "gzip;q=0.4, deflate;q=0.5").negotiateContentCoding());
+    assertEquals("deflate", newWriter(0, true, "gzip;q=0", "deflate").negotiateContentCoding());
+    assertNull(newWriter(0, true, "gzip;q=0").negotiateContentCoding());
+    assertNull(newWriter(0, true, "gzip;q=invalid").negotiateContentCoding());
+    assertEquals("gzip", newWriter(0, true, "*").negotiateContentCoding());
+    assertEquals("deflate", newWriter(0, true, "*, gzip;q=0").negotiateContentCoding());
+    assertNull(newWriter(0, true, "*;q=0").negotiateContentCoding());
+    assertNull(newWriter(0, true, "identity;q=0").negotiateContentCoding()); // Neither coding is acceptable.
+    assertEquals("gzip", newWriter(0, true, "identity;q=0, gzip").negotiateContentCoding());
+    assertNull(newWriter(0, true, "br, identity").negotiateContentCoding());
+    return;
+  }
+
+  /**
+   * Test that compressed output round-trips through the JDK's decompressors, with the response headers identifying it,
+   * whether streamed, buffered, or cached.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testCompression() throws Exception {
+    final TransformableDocument testDocument = newTestDocument(1000);
+    final byte[] expectedOutput = toBytes(testDocument);
+
+    for (String contentCoding : Arrays.asList("gzip", "deflate")) {
+      for (int maximumBufferSize : new int[] { 0, 1024, 1024 * 1024 }) {
+        final String message = contentCoding + ", maximumBufferSize " + maximumBufferSize;
+        final MultivaluedMap<String,Object> httpHeaders = new MultivaluedHashMap<String,Object>();
+        httpHeaders.putSingle(HttpHeaders.ETAG, new EntityTag("tag", true));
+        final byte[] output = writeTo(newWriter(maximumBufferSize, true, contentCoding), testDocument, httpHeaders);
+        assertTrue(output.length < expectedOutput.length, message);
+        assertArrayEquals(expectedOutput, decompress(output, contentCoding), message);
+        assertEquals(contentCoding, httpHeaders.getFirst(HttpHeaders.CONTENT_ENCODING), message);
+        assertEquals(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING), httpHeaders.get(HttpHeaders.VARY), message);
+        final EntityTag entityTag = (EntityTag)httpHeaders.getFirst(HttpHeaders.ETAG);
+        assertEquals("tag-" + contentCoding, entityTag.getValue(), message);
+        assertTrue(entityTag.isWeak(), message);
+        if (maximumBufferSize > output.length) {
+          assertEquals(String.valueOf(output.length), httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH), message);
+        } else {
+          assertNull(httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH), message);
+        }
+      }
+    }
+
+    // Without an acceptable coding (or with compression disabled), the output and tag are left uncompressed.
+    for (TransformableEntityWriter writer : Arrays.asList(newWriter(0, true, "identity"), newWriter(0, true), newWriter(0, false, "gzip"))) {
+      final MultivaluedMap<String,Object> httpHeaders = new MultivaluedHashMap<String,Object>();
+      httpHeaders.putSingle(HttpHeaders.ETAG, new EntityTag("tag"));
+      assertArrayEquals(expectedOutput, writeTo(writer, testDocument, httpHeaders));
+      assertNull(httpHeaders.getFirst(HttpHeaders.CONTENT_ENCODING));
+      assertEquals("tag", ((EntityTag)httpHeaders.getFirst(HttpHeaders.ETAG)).getValue());
+      assertEquals((writer.isCompress()) ? Collections.singletonList(HttpHeaders.ACCEPT_ENCODING) : null, httpHeaders.get(HttpHeaders.VARY));
+    }
+
+    // Compressed output is cached alongside the uncompressed output.
+    final OutputCache outputCache = new OutputCache(1024 * 1024);
+    testDocument.setOutputCache(outputCache);
+    testDocument.markModified();
+    for (String contentCoding : Arrays.asList("gzip", "deflate")) {
+      final TransformableEntityWriter writer = newWriter(0, true, contentCoding);
+      final byte[] output = writeTo(writer, testDocument, new MultivaluedHashMap<String,Object>());
+      assertArrayEquals(expectedOutput, decompress(output, contentCoding), contentCoding);
+      final long hitCount = outputCache.getHitCount();
+      final MultivaluedMap<String,Object> httpHeaders = new MultivaluedHashMap<String,Object>();
+      assertArrayEquals(output, writeTo(writer, testDocument, httpHeaders), contentCoding);
+      assertEquals(hitCount + 1, outputCache.getHitCount(), contentCoding);
+      assertEquals(String.valueOf(output.length), httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH), contentCoding);
+      assertEquals(contentCoding, httpHeaders.getFirst(HttpHeaders.CONTENT_ENCODING), contentCoding);
+    }
+    assertArrayEquals(expectedOutput, writeTo(newWriter(0, true), testDocument, new MultivaluedHashMap<String,Object>()));
+
+    return;
+  }
+
+  /**
+   * Test that output which fits within the {@linkplain TransformableEntityWriter#getMaximumBufferSize() maximum buffer
+   * size} is sent with it's exact <code>Content-Length</code>, and that larger output switches to streaming.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testBuffering() throws Exception {
+    final TransformableDocument testDocument = newTestDocument(1000);
+    final byte[] expectedOutput = toBytes(testDocument);
+    final TransformableEntityWriter writer = newWriter(expectedOutput.length, false);
+
+    for (int i = 0; i < 2; i++) { // The second write reuses the pooled buffer.
+      final MultivaluedMap<String,Object> httpHeaders = new MultivaluedHashMap<String,Object>();
+      assertArrayEquals(expectedOutput, writeTo(writer, testDocument, httpHeaders));
+      assertEquals(String.valueOf(expectedOutput.length), httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    for (int maximumBufferSize : new int[] { expectedOutput.length - 1, 1024, 1 }) {
+      final MultivaluedMap<String,Object> httpHeaders = new MultivaluedHashMap<String,Object>();
+      assertArrayEquals(expectedOutput, writeTo(newWriter(maximumBufferSize, false), testDocument, httpHeaders), String.valueOf(maximumBufferSize));
+      assertNull(httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH), String.valueOf(maximumBufferSize));
+    }
+
+    final MultivaluedMap<String,Object> httpHeaders = new MultivaluedHashMap<String,Object>();
+    assertArrayEquals(expectedOutput, writeTo(newWriter(0, false), testDocument, httpHeaders)); // Buffering disabled.
+    assertNull(httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH));
+    return;
+  }
+
+  /**
+   * Test that a transform exceeding it's {@linkplain TransformableEntity#setTransformLimits(TransformLimits) limits}
+   * results in a <code>503 Service Unavailable</code> response, without writing any buffered output.
+   * 
+   * @throws Exception If something went wrong.
+   */
+  @Test
+  public void testTransformLimitExceeded() throws Exception {
+    final TransformableDocument testDocument = newTestDocument(1000);
+    testDocument.setTransformLimits(new TransformLimits(null, 1024, -1));
+
+    for (int maximumBufferSize : new int[] { 1024 * 1024, 0 }) {
+      final ByteArrayOutputStream entityStream = new ByteArrayOutputStream();
+      final MultivaluedMap<String,Object> httpHeaders = new MultivaluedHashMap<String,Object>();
+      final WebApplicationException wae = assertThrows(WebApplicationException.class, () -> newWriter(maximumBufferSize, false).writeTo(testDocument, testDocument.getClass(), testDocument.getClass(), new Annotation[0], MediaType.APPLICATION_XML_TYPE, httpHeaders, entityStream));
+      assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), wae.getResponse().getStatus());
+      assertTrue(wae.getCause() instanceof TransformLimitExceededException);
+      assertNull(httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH));
+      if (maximumBufferSize > 0) assertEquals(0, entityStream.size());
+    }
+    return;
+  }
+
+}